@@ -0,0 +1,142 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** The changes synchronization needs to make to a project or team area's administrators,
+ * members and role assignments.
+ *
+ * The changes are computed from an AreaSnapshot before the area is modified, so an area that is
+ * already in sync with LDAP doesn't need to be copied or saved. The RTCGateway the snapshot was
+ * read with saves them.
+ *
+ * @author jamsden
+ *
+ */
+public class AreaChanges {
+
+	/** A single change to an area
+	 */
+	public static class Change {
+		private String operation = null;  // addMember, removeMember, addRole or removeRole
+		private String target = null;  // the member role (Administrators or Members) or process role ID
+		private RTCUser user = null;
+
+		private Change(String operation, String target, RTCUser user) {
+			this.operation = operation;
+			this.target = target;
+			this.user = user;
+		}
+
+		public String getOperation() {
+			return operation;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		public RTCUser getUser() {
+			return user;
+		}
+
+		public String getUserId() {
+			return user.getUserId();
+		}
+	}
+
+	private List<Change> changes = new ArrayList<Change>();
+
+	/** Add a user to the Administrators or Members of the area
+	 * @param memberRole Administrators or Members
+	 * @param user the user to add
+	 */
+	public void addMember(String memberRole, RTCUser user) {
+		changes.add(new Change("addMember", memberRole, user));
+	}
+
+	/** Remove a user from the Administrators or Members of the area
+	 * @param memberRole Administrators or Members
+	 * @param user the user to remove
+	 */
+	public void removeMember(String memberRole, RTCUser user) {
+		changes.add(new Change("removeMember", memberRole, user));
+	}
+
+	/** Assign a process role to a member of the area
+	 * @param roleId the ID of the role to assign
+	 * @param user the member
+	 */
+	public void addRole(String roleId, RTCUser user) {
+		changes.add(new Change("addRole", roleId, user));
+	}
+
+	/** Remove a process role from a member of the area
+	 * @param roleId the ID of the role to remove
+	 * @param user the member
+	 */
+	public void removeRole(String roleId, RTCUser user) {
+		changes.add(new Change("removeRole", roleId, user));
+	}
+
+	/**
+	 * @return true if the area is already in sync and doesn't need to be saved
+	 */
+	public boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * @return the number of changes to the area
+	 */
+	public int size() {
+		return changes.size();
+	}
+
+	/** Get the changes that are still needed after the area was changed by someone else, so a save that
+	 * conflicted only makes this run's changes to the current area. Changes already made are dropped, as
+	 * are role changes for users who are no longer members and aren't being added.
+	 *
+	 * @param current the area as it is now
+	 * @return the changes to save to the current area
+	 */
+	public AreaChanges rebase(AreaSnapshot current) {
+		AreaChanges rebased = new AreaChanges();
+		Set<String> added = new HashSet<String>();  // the users being added to the Members
+		for (int c=0; c<changes.size(); c++) {
+			Change change = changes.get(c);
+			String operation = change.getOperation();
+			String userId = change.getUserId();
+			boolean needed = false;
+			if (operation.equals("addMember")) {
+				needed = !current.getMembers(change.getTarget()).containsKey(userId);
+				if (needed && change.getTarget().equals("Members")) added.add(userId);
+			} else if (operation.equals("removeMember")) {
+				needed = current.getMembers(change.getTarget()).containsKey(userId);
+			} else if (current.getMembers("Members").containsKey(userId) || added.contains(userId)) {
+				boolean assigned = current.getRoleAssignments(userId).contains(change.getTarget());
+				needed = operation.equals("addRole")? !assigned: assigned;
+			}
+			if (needed) rebased.changes.add(change);
+		}
+		return rebased;
+	}
+
+	/**
+	 * @return the changes in the order they were computed
+	 */
+	public List<Change> getChanges() {
+		return changes;
+	}
+}
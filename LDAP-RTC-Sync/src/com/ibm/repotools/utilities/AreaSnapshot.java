@@ -0,0 +1,133 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The administrators, members and role assignments of a project or team area, read
+ * from RTC once so that synchronizing the Administrators, Members and Process Roles
+ * does not need to fetch them again for every user.
+ *
+ * The snapshot is kept consistent with the members added to or removed from the
+ * area while it is being synchronized. The area and its roles are held as the
+ * RTCGateway's own representations, which it uses to save the changes.
+ *
+ * @author jamsden
+ *
+ */
+public class AreaSnapshot {
+
+	private String name = null;
+	private Object area = null;
+	private Map<String, Object> roles = new LinkedHashMap<String, Object>();  // <role ID, gateway's role> defined by the area's process
+	private Map<String, RTCUser> administrators = new HashMap<String, RTCUser>();  // <userId, user>
+	private Map<String, RTCUser> members = new HashMap<String, RTCUser>();  // <userId, user>
+	private Map<String, List<String>> roleAssignments = new HashMap<String, List<String>>();  // <userId, role IDs> for each member
+
+	/** Create an empty snapshot, filled in by RTCGateway.getAreaSnapshot()
+	 *
+	 * @param name the project area name, or ProjectAreaName/TeamAreaName/... for a team area
+	 * @param area the gateway's representation of the project or team area
+	 */
+	public AreaSnapshot(String name, Object area) {
+		this.name = name;
+		this.area = area;
+	}
+
+	/**
+	 * @return the name of the project or team area
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the gateway's representation of the project or team area the snapshot was read from
+	 */
+	public Object getArea() {
+		return area;
+	}
+
+	/** Record a role defined by the area's process
+	 * @param roleId the role's ID
+	 * @param role the gateway's representation of the role
+	 */
+	public void addRole(String roleId, Object role) {
+		roles.put(roleId, role);
+	}
+
+	/** Find a role of the area's process given the role name
+	 * @param roleName
+	 * @return The ID of the role matching roleName (ignoring case) or null if there is no match
+	 */
+	public String getRole(String roleName) {
+		Iterator<String> roleIds = roles.keySet().iterator();
+		while (roleIds.hasNext()) {
+			String roleId = roleIds.next();
+			if (roleId.equalsIgnoreCase(roleName)) return roleId;
+		}
+		return null;
+	}
+
+	/**
+	 * @param roleId the ID of a role defined by the area's process
+	 * @return the gateway's representation of the role, or null if the area has no such role
+	 */
+	public Object getRoleHandle(String roleId) {
+		return roles.get(roleId);
+	}
+
+	/** Get the administrators or members of the area
+	 * @param memberRole Administrators or Members
+	 * @return a Map of the userId, RTCUser members, or null if the member role is invalid
+	 */
+	public Map<String, RTCUser> getMembers(String memberRole) {
+		if (memberRole.equals("Administrators")) return administrators;
+		if (memberRole.equals("Members")) return members;
+		return null;
+	}
+
+	/** Get the roles a member plays in the area
+	 * @param userId the member's user ID
+	 * @return the IDs of the roles assigned to the member, empty if the user is not a member or plays no roles
+	 */
+	public List<String> getRoleAssignments(String userId) {
+		List<String> assignments = roleAssignments.get(userId);
+		if (assignments == null) {
+			assignments = new ArrayList<String>();
+			roleAssignments.put(userId, assignments);
+		}
+		return assignments;
+	}
+
+	/** Record an administrator or member of the area
+	 * @param memberRole Administrators or Members
+	 * @param user the administrator or member
+	 */
+	public void addMember(String memberRole, RTCUser user) {
+		Map<String, RTCUser> users = getMembers(memberRole);
+		if (users != null) users.put(user.getUserId(), user);
+	}
+
+	/** Record that an administrator or member was removed from the area
+	 * @param memberRole Administrators or Members
+	 * @param userId the user ID of the administrator or member
+	 */
+	public void removeMember(String memberRole, String userId) {
+		Map<String, RTCUser> users = getMembers(memberRole);
+		if (users != null) users.remove(userId);
+		if (memberRole.equals("Members")) roleAssignments.remove(userId);
+	}
+}
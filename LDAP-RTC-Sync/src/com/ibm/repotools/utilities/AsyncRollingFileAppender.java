@@ -0,0 +1,202 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.LoggingEvent;
+
+/** A log4j appender that writes to a rolling file on a background thread.
+ *
+ * Logging an event only puts it on a bounded queue. The background thread takes the queued
+ * events in batches, formats and writes them, and flushes the file once per batch, so the
+ * threads doing the synchronization don't wait for formatting or disk writes.
+ *
+ * Unlike the log4j AsyncAppender, it can be configured in log4j.properties:
+ *   log4j.appender.AUDIT=com.ibm.repotools.utilities.AsyncRollingFileAppender
+ *   log4j.appender.AUDIT.File=LDAP2RTCSync-audit.jsonl
+ *   log4j.appender.AUDIT.MaxFileSize=50MB
+ *   log4j.appender.AUDIT.MaxBackupIndex=10
+ *   log4j.appender.AUDIT.BufferSize=8192
+ *   log4j.appender.AUDIT.BatchSize=512
+ *   log4j.appender.AUDIT.layout=org.apache.log4j.PatternLayout
+ *   log4j.appender.AUDIT.layout.ConversionPattern=%m%n
+ *
+ * @author jamsden
+ *
+ */
+public class AsyncRollingFileAppender extends AppenderSkeleton {
+
+	/** A rolling file appender that buffers its output until the end of each batch
+	 */
+	private static class BatchWriter extends RollingFileAppender {
+		public void flush() {
+			if (qw != null) qw.flush();
+		}
+	}
+
+	private String file = null;
+	private String maxFileSize = "10MB";
+	private int maxBackupIndex = 1;
+	private int bufferSize = 8192;  // the number of events that can be queued
+	private int batchSize = 512;  // the most events written between flushes
+	private boolean blocking = true;  // wait for room in the queue rather than discarding events
+
+	private BlockingQueue<LoggingEvent> queue = null;
+	private BatchWriter writer = null;
+	private Thread dispatcher = null;
+	private volatile boolean closing = false;
+	private long discarded = 0;
+
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(String file) {
+		this.file = file;
+	}
+
+	public String getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	public void setMaxFileSize(String maxFileSize) {
+		this.maxFileSize = maxFileSize;
+	}
+
+	public int getMaxBackupIndex() {
+		return maxBackupIndex;
+	}
+
+	public void setMaxBackupIndex(int maxBackupIndex) {
+		this.maxBackupIndex = maxBackupIndex;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public boolean getBlocking() {
+		return blocking;
+	}
+
+	public void setBlocking(boolean blocking) {
+		this.blocking = blocking;
+	}
+
+	/** Open the rolling file and start the background writer thread.
+	 */
+	public void activateOptions() {
+		writer = new BatchWriter();
+		writer.setName(getName());
+		writer.setFile(file);
+		writer.setAppend(true);
+		writer.setMaxFileSize(maxFileSize);
+		writer.setMaxBackupIndex(maxBackupIndex);
+		writer.setImmediateFlush(false);
+		writer.setLayout(getLayout());
+		writer.setErrorHandler(getErrorHandler());
+		writer.activateOptions();
+
+		queue = new ArrayBlockingQueue<LoggingEvent>(Math.max(1, bufferSize));
+		dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "AsyncRollingFileAppender-"+getName());
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/** Queue an event to be written by the background thread.
+	 */
+	protected void append(LoggingEvent event) {
+		if (queue == null || closing) return;
+		// capture the state of the logging thread before another thread formats the event
+		event.getThreadName();
+		event.getNDC();
+		event.getMDCCopy();
+		if (blocking) {
+			try {
+				queue.put(event);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else if (!queue.offer(event)) {
+			synchronized (this) {
+				discarded++;
+			}
+		}
+	}
+
+	/** Write the queued events in batches until the appender is closed and the queue is empty.
+	 */
+	private void dispatch() {
+		List<LoggingEvent> batch = new ArrayList<LoggingEvent>(batchSize);
+		while (!closing || !queue.isEmpty()) {
+			try {
+				LoggingEvent first = queue.take();
+				batch.add(first);
+			} catch (InterruptedException e) {
+				if (!closing) continue;  // only interrupted to close
+			}
+			queue.drainTo(batch, Math.max(0, batchSize-batch.size()));
+			Iterator<LoggingEvent> events = batch.iterator();
+			while (events.hasNext()) {
+				writer.doAppend(events.next());
+			}
+			writer.flush();
+			batch.clear();
+		}
+	}
+
+	/** Write everything still queued, and close the file.
+	 */
+	public void close() {
+		if (closed) return;
+		closed = true;
+		closing = true;
+		if (dispatcher != null) {
+			dispatcher.interrupt();
+			try {
+				dispatcher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (writer != null) writer.close();
+		if (discarded > 0) {
+			LogLog.warn("Appender "+getName()+" discarded "+discarded+" events because its queue was full");
+		}
+	}
+
+	public boolean requiresLayout() {
+		return true;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import org.apache.log4j.Logger;
+import org.json.simple.JSONObject;
+
+/** The change audit stream: one JSON record for each change synchronization plans or applies.
+ *
+ * Records are written to the com.ibm.repotools.utilities.audit log4j logger, separately from the
+ * diagnostic log. The record is only formatted as JSON when the appender writes it, so with an
+ * AsyncRollingFileAppender the formatting and writing are done off the synchronization threads.
+ *
+ * Each record has:
+ *   * time - when the change was planned or applied
+ *   * server - the RTC server URI
+ *   * area - the project or team area, absent for client access license changes
+ *   * user - the user ID the change is for
+ *   * op - addMember, removeMember, addRole, removeRole, assignLicense or unassignLicense
+ *   * target - the member role, process role or client access license
+ *   * outcome - planned, applied or failed
+ *   * latency - the milliseconds it took to apply the change (for applied and failed changes)
+ *
+ * @author jamsden
+ *
+ */
+public class AuditLog {
+
+	/** The name of the audit logger to configure in log4j.properties
+	 */
+	public static final String LOGGER = "com.ibm.repotools.utilities.audit";
+
+	private static Logger audit = Logger.getLogger(LOGGER);
+
+	/** An audit record that is only formatted when it is written
+	 */
+	private static class Record {
+		private long time = System.currentTimeMillis();
+		private String server, area, user, operation, target, outcome;
+		private long latency = -1;
+
+		@SuppressWarnings("unchecked")
+		public String toString() {
+			JSONObject record = new JSONObject();
+			record.put("time", time);
+			record.put("server", server);
+			if (area != null) record.put("area", area);
+			record.put("user", user);
+			record.put("op", operation);
+			record.put("target", target);
+			record.put("outcome", outcome);
+			if (latency >= 0) record.put("latency", latency);
+			return record.toJSONString();
+		}
+	}
+
+	/** Record a change that synchronization is going to apply
+	 *
+	 * @param server the RTC server URI
+	 * @param area the project or team area, or null for client access licenses
+	 * @param userId the user the change is for
+	 * @param operation the change
+	 * @param target the member role, process role or client access license changed
+	 */
+	public static void planned(String server, String area, String userId, String operation, String target) {
+		write(server, area, userId, operation, target, "planned", -1);
+	}
+
+	/** Record a change that synchronization applied, or tried to apply
+	 *
+	 * @param server the RTC server URI
+	 * @param area the project or team area, or null for client access licenses
+	 * @param userId the user the change is for
+	 * @param operation the change
+	 * @param target the member role, process role or client access license changed
+	 * @param succeeded true if the change was applied
+	 * @param latency the milliseconds it took to apply the change
+	 */
+	public static void applied(String server, String area, String userId, String operation, String target, boolean succeeded, long latency) {
+		write(server, area, userId, operation, target, succeeded? "applied": "failed", latency);
+	}
+
+	private static void write(String server, String area, String userId, String operation, String target, String outcome, long latency) {
+		if (!audit.isInfoEnabled()) return;
+		Record record = new Record();
+		record.server = server;
+		record.area = area;
+		record.user = userId;
+		record.operation = operation;
+		record.target = target;
+		record.outcome = outcome;
+		record.latency = latency;
+		audit.info(record);
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+/** Synchronizes several configuration files, such as one per business unit, one after the other in the same process.
+ *
+ * The configuration files share what they have in common: each RTC server is logged into once by each of its
+ * administrators, and the configuration files with the same LDAP connections share the directory, which reads
+ * each of their groups once (see CachedDirectory). Each configuration file is otherwise a run of its own, with
+ * its own validation, journal (<configuration-file>.journal) and status, and the results are reported for each.
+ *
+ * Before anything is synchronized, the configuration files are checked for conflicting claims: the users,
+ * a client access license or a project or team area of a server synchronized by more than one of them, which
+ * would undo each other's changes. Conflicts are reported as errors, and a configuration file that claims
+ * something an earlier one already synchronizes is skipped, with status -1. It is still checked by --validate.
+ *
+ * @author jamsden
+ *
+ */
+public class BatchSync {
+	private List<File> configFiles = null;
+	private String ldifFile = null;
+	private boolean resume = false;
+	private boolean validateOnly = false;
+	private Map<List<Object>, CachedDirectory> directories = new HashMap<List<Object>, CachedDirectory>();  // <LDAP connections, directory>
+	private Set<File> conflicting = new HashSet<File>();  // the configuration files that conflict with an earlier one
+	private Logger log = null;
+
+	/**
+	 * @param configFiles the configuration files, synchronized in this order
+	 * @param ldifFile an LDIF export read instead of the LDAP server of every configuration file, or null
+	 * @param resume true to resume each configuration file from its journal
+	 * @param validateOnly true to only check the configuration files, without making any changes
+	 * @param log for logging errors, warnings and information
+	 */
+	public BatchSync(List<File> configFiles, String ldifFile, boolean resume, boolean validateOnly, Logger log) {
+		this.configFiles = configFiles;
+		this.ldifFile = ldifFile;
+		this.resume = resume;
+		this.validateOnly = validateOnly;
+		this.log = log;
+	}
+
+	/** Get the configuration files of a batch
+	 *
+	 * @param batch comma separated configuration files or directories, where a directory stands for its .json files
+	 * @return the configuration files, those of each directory in name order
+	 */
+	public static List<File> configFiles(String batch) {
+		List<File> files = new ArrayList<File>();
+		String[] names = batch.split(",");
+		for (int n=0; n<names.length; n++) {
+			File file = new File(names[n].trim());
+			File[] children = file.listFiles();
+			if (children == null) {
+				files.add(file);
+				continue;
+			}
+			Arrays.sort(children);
+			for (int c=0; c<children.length; c++) {
+				if (children[c].isFile() && children[c].getName().endsWith(".json")) files.add(children[c]);
+			}
+		}
+		return files;
+	}
+
+	/** Synchronize each configuration file, and report the results
+	 *
+	 * @param synchronizer synchronizes each configuration file
+	 * @return the worst status of the configuration files, -1 if any of them conflict
+	 */
+	public int run(LDAP2RTCSync synchronizer) {
+		log.info("Synchronizing a batch of {} configuration files", configFiles.size());
+		Map<File, JSONObject> configs = new LinkedHashMap<File, JSONObject>();
+		Map<File, JSONObject> results = new LinkedHashMap<File, JSONObject>();
+		for (int f=0; f<configFiles.size(); f++) {
+			File configFile = configFiles.get(f);
+			try (FileReader reader = new FileReader(configFile)) {
+				configs.put(configFile, (JSONObject)new JSONParser().parse(reader));
+			} catch (IOException | ParseException e) {
+				log.error("Unable to read: "+configFile+" due to: "+e.getMessage());
+				results.put(configFile, result(-1, 0));
+			}
+		}
+		int status = findConflicts(configs).isEmpty()? 0: -1;
+
+		RTCGateway.shareSessions();
+		try {
+			Iterator<Map.Entry<File, JSONObject>> entries = configs.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<File, JSONObject> entry = entries.next();
+				if (isConflicting(entry.getKey()) && !validateOnly) {
+					log.error("Skipping configuration file: {}, which conflicts with an earlier one", entry.getKey());
+					results.put(entry.getKey(), result(-1, 0));
+					continue;
+				}
+				results.put(entry.getKey(), run(entry.getKey(), entry.getValue(), synchronizer));
+			}
+		} finally {
+			RTCGateway.closeSessions();
+			Iterator<CachedDirectory> opened = directories.values().iterator();
+			while (opened.hasNext()) {
+				opened.next().close();
+			}
+		}
+
+		// report the results in the order the configuration files were given
+		int groups = 0;
+		Iterator<CachedDirectory> cached = directories.values().iterator();
+		while (cached.hasNext()) {
+			groups += cached.next().size();
+		}
+		log.info("Batch: {} configuration files, {} LDAP directories, {} groups read", configFiles.size(), directories.size(), groups);
+		for (int f=0; f<configFiles.size(); f++) {
+			JSONObject result = results.get(configFiles.get(f));
+			int code = ((Number)result.get("status")).intValue();
+			if (code == 0) {
+				log.info("Configuration file: {} synchronized in {} seconds", configFiles.get(f), result.get("seconds"));
+			} else {
+				log.error("Configuration file: {} had problems (status {}) in {} seconds", configFiles.get(f), code, result.get("seconds"));
+			}
+			status = Math.min(status, code);
+		}
+		return status;
+	}
+
+	/** Synchronize a configuration file as a run of its own, sharing the RTC sessions and LDAP directories
+	 *
+	 * @return the configuration file's status and how long it took
+	 */
+	private JSONObject run(File configFile, JSONObject json, LDAP2RTCSync synchronizer) {
+		log.info("Synchronizing configuration file: {}", configFile);
+		long start = System.currentTimeMillis();
+		Status.appStatus.setCode(0);
+		ConfigValidation.runValidation = new ConfigValidation();
+		SyncJournal.runJournal = new SyncJournal();
+		try {
+			LdapRtcConfig config = new LdapRtcConfig(json, log);
+			if (json.get("LDAPConnections") == null && json.get("LDAPConnection") == null && ldifFile == null) {
+				log.error("Missing LDAPConnection element in: "+configFile);
+				return result(-1, start);
+			}
+			List<Object> connections = Arrays.asList(json.get("LDAPConnections"), json.get("LDAPConnection"), (Object)ldifFile);
+			CachedDirectory directory = directories.get(connections);
+			if (directory == null) {
+				directory = new CachedDirectory(config.getLDAPConnection(ldifFile));
+				directories.put(connections, directory);
+			}
+			config.setLDAPConnection(directory);
+			if (!validateOnly) SyncJournal.runJournal.open(configFile.getPath()+".journal", resume, log);
+			synchronizer.sync(config);
+		} catch (Exception e) {
+			log.error("Unable to synchronize configuration file: {}: {}", configFile, e.getMessage());
+			Status.appStatus.setCode(-1);
+		} finally {
+			SyncJournal.runJournal.close(false);  // still open if the configuration file did not finish
+		}
+		return result(Status.appStatus.getCode(), start);
+	}
+
+	/** Find the users, client access licenses and project and team areas of a server that are synchronized
+	 * by more than one configuration file, log them, and remember the configuration files that claim them
+	 * after the first
+	 *
+	 * @param configs the configuration files
+	 * @return the conflicts
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> findConflicts(Map<File, JSONObject> configs) {
+		Map<String, File> claims = new HashMap<String, File>();  // <server and what it synchronizes, the first configuration file to claim it>
+		List<String> conflicts = new ArrayList<String>();
+		Iterator<Map.Entry<File, JSONObject>> entries = configs.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<File, JSONObject> entry = entries.next();
+			JSONArray servers = (JSONArray)entry.getValue().get("RTCServers");
+			if (servers == null) continue;
+			Iterator<JSONObject> configured = servers.iterator();
+			while (configured.hasNext()) {
+				JSONObject server = configured.next();
+				String serverURI = (String)server.get("serverURI");
+				if (serverURI == null) continue;
+				List<String> claimed = new ArrayList<String>();
+				if (server.get("Users") != null) claimed.add("the Users");
+				JSONArray licenses = (JSONArray)server.get("Licenses");
+				if (licenses != null) {
+					Iterator<JSONObject> mappings = licenses.iterator();
+					while (mappings.hasNext()) {
+						JSONObject license = mappings.next();
+						if (license.keySet().size() == 1) claimed.add("client access license "+license.keySet().iterator().next());
+					}
+				}
+				addAreas(claimed, (JSONArray)server.get("Project Areas"), null);
+				for (int c=0; c<claimed.size(); c++) {
+					String claim = claimed.get(c)+" of "+serverURI;
+					String key = trim(serverURI).toLowerCase()+"\n"+claimed.get(c);
+					File first = claims.get(key);
+					if (first == null) {
+						claims.put(key, entry.getKey());
+					} else if (!first.equals(entry.getKey())) {
+						conflicts.add(claim);
+						conflicting.add(entry.getKey());
+						log.error("Conflicting configuration files: {} and {} both synchronize {}", first, entry.getKey(), claim);
+					}
+				}
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * @param configFile a configuration file of the batch
+	 * @return true if it synchronizes something an earlier configuration file already does, and is skipped
+	 */
+	public boolean isConflicting(File configFile) {
+		return conflicting.contains(configFile);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void addAreas(List<String> claimed, JSONArray areas, String parentName) {
+		if (areas == null) return;
+		Iterator<JSONObject> configured = areas.iterator();
+		while (configured.hasNext()) {
+			JSONObject area = configured.next();
+			String name = (parentName == null)? (String)area.get("name"): parentName+"/"+area.get("name");
+			claimed.add("project or team area "+name);
+			addAreas(claimed, (JSONArray)area.get("Team Areas"), name);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JSONObject result(int status, long start) {
+		JSONObject result = new JSONObject();
+		result.put("status", status);
+		result.put("seconds", (start == 0)? 0: (System.currentTimeMillis()-start)/1000.0);
+		return result;
+	}
+
+	private static String trim(String uri) {
+		return uri.endsWith("/")? uri.substring(0, uri.length()-1): uri;
+	}
+}
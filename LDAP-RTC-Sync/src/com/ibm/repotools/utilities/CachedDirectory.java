@@ -0,0 +1,116 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.json.simple.JSONArray;
+
+/** A directory that remembers the groups it has expanded, so the configuration files of a batch that use the
+ * same groups read each of them from LDAP once.
+ *
+ * A group, or an array of groups, is cached as it is given in the configuration file, ignoring case. The groups
+ * of an array that hasn't been read are read together by the directory, so they are still read concurrently.
+ * Whether an entry exists is cached too, for validating the configuration files.
+ *
+ * @author jamsden
+ *
+ */
+public class CachedDirectory extends DirectorySource {
+	private DirectorySource source = null;
+	private Map<String, Map<String, DirectoryUser>> groupUsers = new ConcurrentHashMap<String, Map<String, DirectoryUser>>();  // <group or groups, users>
+	private Map<String, Set<String>> groupMembers = new ConcurrentHashMap<String, Set<String>>();  // <group, member DNs>
+	private Map<String, Boolean> entries = new ConcurrentHashMap<String, Boolean>();  // <DN, exists>
+
+	/**
+	 * @param source the directory to read groups from the first time they are used
+	 */
+	public CachedDirectory(DirectorySource source) {
+		this.source = source;
+		schema = source.getSchema();
+	}
+
+	public Set<String> getMembers(String groupDN) throws NamingException {
+		String key = groupDN.toLowerCase();
+		Set<String> members = groupMembers.get(key);
+		if (members == null) {
+			members = source.getMembers(groupDN);
+			groupMembers.put(key, members);
+		}
+		return new LinkedHashSet<String>(members);
+	}
+
+	public Map<String, DirectoryUser> getGroupUsers(String groupDN) throws NamingException {
+		return getGroupUsers((Object)groupDN);
+	}
+
+	public Map<String, DirectoryUser> getGroupUsers(Object groups) throws NamingException {
+		String key = key(groups);
+		Map<String, DirectoryUser> users = groupUsers.get(key);
+		if (users == null) {
+			users = source.getGroupUsers(groups);
+			groupUsers.put(key, users);
+		}
+		return new LinkedHashMap<String, DirectoryUser>(users);
+	}
+
+	public DirectoryUser getUser(String userDN) throws NamingException {
+		return source.getUser(userDN);
+	}
+
+	public boolean exists(String dn) throws NamingException {
+		String key = dn.toLowerCase();
+		Boolean exists = entries.get(key);
+		if (exists == null) {
+			exists = source.exists(dn);
+			entries.put(key, exists);
+		}
+		return exists.booleanValue();
+	}
+
+	protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+		return source.getEntry(dn, attributes);
+	}
+
+	public void close() {
+		super.close();
+		source.close();
+	}
+
+	/**
+	 * @return the number of groups, and arrays of groups, that have been read
+	 */
+	public int size() {
+		return groupUsers.size()+groupMembers.size();
+	}
+
+	/**
+	 * @param groups a group DN, or a JSONArray of group DNs
+	 * @return the groups, ignoring case
+	 */
+	private static String key(Object groups) {
+		if (!(groups instanceof JSONArray)) return ((String)groups).toLowerCase();
+		StringBuilder key = new StringBuilder();
+		@SuppressWarnings("unchecked")
+		Iterator<String> groupDNs = ((JSONArray)groups).iterator();
+		while (groupDNs.hasNext()) {
+			key.append(groupDNs.next().toLowerCase()).append('\n');
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+/** Remembers the configuration file as of the last successful run, so an incremental run (--incremental)
+ * synchronizes only the parts of it that were added or changed since.
+ *
+ * The parts are the Users of each server, each of its client access license mappings, and each project and
+ * team area, with its Administrators, Members and Process Roles. Each part is fingerprinted with a SHA-256 of
+ * its JSON, with the keys of its objects sorted so reformatting the file changes nothing, and the fingerprints
+ * are kept in <configuration-file>.fingerprint. Parts that were removed are only reported: a run never
+ * unmanages the users of Users, licenses or areas that are no longer configured.
+ *
+ * The fingerprint records the configuration, not the LDAP groups it names, so an incremental run doesn't
+ * see users who joined or left the groups of unchanged parts. Those are synchronized by full runs, or by
+ * --listen or --users.
+ *
+ * @author jamsden
+ *
+ */
+public class ConfigFingerprint {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private File file = null;
+	private Logger log = null;
+	private Map<String, String> current = new TreeMap<String, String>();  // <part, fingerprint> of the configuration file
+	private Map<String, String> previous = null;  // <part, fingerprint> of the last successful run, or null if there wasn't one
+
+	/**
+	 * @param configJSON the configuration file
+	 * @param fingerprintFile where the fingerprints of the last successful run are kept
+	 * @param log for logging errors, warnings and information
+	 */
+	@SuppressWarnings("unchecked")
+	public ConfigFingerprint(JSONObject configJSON, String fingerprintFile, Logger log) {
+		this.file = new File(fingerprintFile);
+		this.log = log;
+		JSONArray servers = (JSONArray)configJSON.get("RTCServers");
+		for (int s=0; servers != null && s<servers.size(); s++) {
+			JSONObject server = (JSONObject)servers.get(s);
+			String serverURI = (String)server.get("serverURI");
+			if (server.get("Users") != null) current.put(part(serverURI, "Users", null), digest(server.get("Users")));
+			JSONArray licenses = (JSONArray)server.get("Licenses");
+			Map<String, JSONArray> entries = new LinkedHashMap<String, JSONArray>();  // <CLA, its Licenses entries>
+			for (int l=0; licenses != null && l<licenses.size(); l++) {
+				JSONObject license = (JSONObject)licenses.get(l);
+				if (license.keySet().size() != 1) continue;
+				String claName = (String)license.keySet().iterator().next();
+				if (!entries.containsKey(claName)) entries.put(claName, new JSONArray());
+				entries.get(claName).add(license);
+			}
+			Iterator<Map.Entry<String, JSONArray>> claEntries = entries.entrySet().iterator();
+			while (claEntries.hasNext()) {
+				Map.Entry<String, JSONArray> cla = claEntries.next();
+				// a CLA in one entry has the fingerprint of the entry, one in several has the fingerprint of all of them
+				Object license = (cla.getValue().size() == 1)? cla.getValue().get(0): cla.getValue();
+				current.put(part(serverURI, "license", cla.getKey()), digest(license));
+			}
+			addAreas(serverURI, (JSONArray)server.get("Project Areas"), null);
+		}
+		read();
+	}
+
+	/**
+	 * @param serverURI the server
+	 * @param kind Users, license or area
+	 * @param name the client access license or area, or null for Users
+	 * @return the name of a part of the configuration file
+	 */
+	public static String part(String serverURI, String kind, String name) {
+		return serverURI+"\n"+kind+((name == null)? "": "\n"+name);
+	}
+
+	/**
+	 * @return true if there is a fingerprint of a previous successful run to compare with
+	 */
+	public boolean hasPrevious() {
+		return previous != null;
+	}
+
+	/**
+	 * @return the parts of the configuration file that weren't in it at the last successful run
+	 */
+	public List<String> getAdded() {
+		List<String> added = new ArrayList<String>();
+		Iterator<String> parts = current.keySet().iterator();
+		while (parts.hasNext()) {
+			String part = parts.next();
+			if (previous == null || !previous.containsKey(part)) added.add(part);
+		}
+		return added;
+	}
+
+	/**
+	 * @return the parts of the configuration file that are different from the last successful run
+	 */
+	public List<String> getChanged() {
+		List<String> changed = new ArrayList<String>();
+		Iterator<Map.Entry<String, String>> parts = current.entrySet().iterator();
+		while (parts.hasNext()) {
+			Map.Entry<String, String> part = parts.next();
+			String last = (previous == null)? null: previous.get(part.getKey());
+			if (last != null && !last.equals(part.getValue())) changed.add(part.getKey());
+		}
+		return changed;
+	}
+
+	/**
+	 * @return the parts of the configuration file at the last successful run that aren't in it now
+	 */
+	public List<String> getRemoved() {
+		List<String> removed = new ArrayList<String>();
+		if (previous == null) return removed;
+		Iterator<String> parts = previous.keySet().iterator();
+		while (parts.hasNext()) {
+			String part = parts.next();
+			if (!current.containsKey(part)) removed.add(part);
+		}
+		return removed;
+	}
+
+	/** Remember the configuration file as synchronized, for the next incremental run. The file is written
+	 * under a temporary name and renamed, so an interrupted save leaves the previous fingerprint.
+	 */
+	public void save() {
+		File temporary = new File(file.getPath()+"."+System.nanoTime()+".tmp");
+		try {
+			FileOutputStream out = new FileOutputStream(temporary);
+			try {
+				Writer writer = new OutputStreamWriter(out, UTF8);
+				writer.write(JSONValue.toJSONString(current));
+				writer.flush();
+				out.getFD().sync();
+			} finally {
+				out.close();
+			}
+			if (!temporary.renameTo(file)) {
+				file.delete();  // renameTo doesn't replace existing files on some platforms
+				if (!temporary.renameTo(file)) throw new IOException("Unable to rename: "+temporary);
+			}
+			previous = new TreeMap<String, String>(current);
+		} catch (IOException e) {
+			log.error("Unable to write the configuration fingerprint: "+file+": "+e.getMessage());
+			Status.appStatus.setCode(-1);
+			temporary.delete();
+		}
+	}
+
+	/** Add the project or team areas, and their team areas, each without its team areas. Team areas
+	 * are named ProjectAreaName/TeamAreaName/..., as ProjectArea.getName() names them.
+	 */
+	@SuppressWarnings("unchecked")
+	private void addAreas(String serverURI, JSONArray areas, String parentName) {
+		for (int a=0; areas != null && a<areas.size(); a++) {
+			JSONObject area = (JSONObject)areas.get(a);
+			String name = (parentName == null)? (String)area.get("name"): parentName+"/"+area.get("name");
+			JSONObject own = new JSONObject();
+			own.put("Administrators", area.get("Administrators"));
+			own.put("Members", area.get("Members"));
+			own.put("Process Roles", area.get("Process Roles"));
+			current.put(part(serverURI, "area", name), digest(own));
+			addAreas(serverURI, (JSONArray)area.get("Team Areas"), name);
+		}
+	}
+
+	/** Read the fingerprints of the last successful run, if there was one
+	 */
+	@SuppressWarnings("unchecked")
+	private void read() {
+		if (!file.exists()) return;
+		try {
+			Reader reader = new InputStreamReader(new FileInputStream(file), UTF8);
+			try {
+				previous = new TreeMap<String, String>((JSONObject)new JSONParser().parse(reader));
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			log.warn("Unable to read the configuration fingerprint: {}, synchronizing everything: {}", file, e.getMessage());
+		} catch (ParseException e) {
+			log.warn("Unable to parse the configuration fingerprint: {}, synchronizing everything: {}", file, e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the SHA-256 of a JSON value, in hexadecimal
+	 */
+	private static String digest(Object value) {
+		StringBuilder json = new StringBuilder();
+		canonical(value, json);
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(json.toString().getBytes(UTF8));
+			StringBuilder hex = new StringBuilder();
+			for (int b=0; b<hash.length; b++) {
+				hex.append(String.format("%02x", hash[b]));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);  // every Java platform has SHA-256
+		}
+	}
+
+	/** Write a JSON value with the keys of its objects in order
+	 */
+	@SuppressWarnings("unchecked")
+	private static void canonical(Object value, StringBuilder json) {
+		if (value instanceof JSONObject) {
+			Map<String, Object> sorted = new TreeMap<String, Object>((JSONObject)value);
+			json.append('{');
+			Iterator<Map.Entry<String, Object>> entries = sorted.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<String, Object> entry = entries.next();
+				json.append('"').append(JSONValue.escape(entry.getKey())).append("\":");
+				canonical(entry.getValue(), json);
+				if (entries.hasNext()) json.append(',');
+			}
+			json.append('}');
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray)value;
+			json.append('[');
+			for (int i=0; i<array.size(); i++) {
+				if (i > 0) json.append(',');
+				canonical(array.get(i), json);
+			}
+			json.append(']');
+		} else {
+			json.append(JSONValue.toJSONString(value));
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.NamingException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+/** Checks everything the configuration file refers to before any changes are made: the LDAP groups,
+ * the project and team areas, the client access licenses and the process roles of each server.
+ *
+ * Each server is checked with one pass over its configuration. The licenses are read once per server,
+ * the roles once per area, and each distinct LDAP group once per run, without reading its members.
+ * All the problems found are reported together, and what was not found is remembered so the
+ * synchronization skips the groups, areas, licenses and roles that don't exist without asking LDAP
+ * or RTC about them again. Users that turn out not to be users of a server during synchronization
+ * are remembered the same way, so each is looked up once per server rather than once per area.
+ *
+ * Only a group LDAP says doesn't exist is skipped. A group that can't be checked because of a timeout or
+ * connection failure is reported, which fails the run, but is not treated as missing, so a transient LDAP
+ * error never looks like a group with no users.
+ *
+ * Nothing is skipped for a server that was not validated.
+ *
+ * @author jamsden
+ *
+ */
+public class ConfigValidation {
+	private static final int GROUP_THREADS = 4;  // the LDAP groups checked at once
+
+	private Set<String> checkedGroups = Collections.synchronizedSet(new HashSet<String>());  // group DNs in lower case
+	private Set<String> missingGroups = Collections.synchronizedSet(new HashSet<String>());  // group DNs in lower case
+	private Set<String> missingAreas = Collections.synchronizedSet(new HashSet<String>());  // server, area
+	private Set<String> missingLicenses = Collections.synchronizedSet(new HashSet<String>());  // server, license key
+	private Set<String> missingRoles = Collections.synchronizedSet(new HashSet<String>());  // server, area, role in lower case
+	private Set<String> unknownUsers = Collections.synchronizedSet(new HashSet<String>());  // server, user ID
+	private List<String> problems = Collections.synchronizedList(new ArrayList<String>());  // the report, in the order found
+
+	/** Check the groups, areas, licenses and roles the configuration of an RTC server refers to
+	 *
+	 * @param serverURI the RTC server
+	 * @param serverObject the JSON representation of the server in the configuration file
+	 * @param ldapConnection used to access the LDAP server
+	 * @param rtc used to access RTC
+	 * @param log for logging errors, warnings and information
+	 * @return the number of problems found
+	 */
+	public int validate(String serverURI, JSONObject serverObject, DirectorySource ldapConnection, RTCGateway rtc, Logger log) {
+		log.info("Validating the configuration of: "+serverURI);
+		int found = problems.size();
+		Map<String, String> groups = new LinkedHashMap<String, String>();  // <group DN, where it is used first>
+
+		JSONObject usersObject = (JSONObject)serverObject.get("Users");
+		if (usersObject != null) addGroups(groups, usersObject.get("Groups"), "the Users of "+serverURI);
+
+		JSONArray licenseObjects = (JSONArray)serverObject.get("Licenses");
+		if (licenseObjects != null && licenseObjects.size() > 0) {
+			List<String> licenseKeys = rtc.getLicenseKeys();
+			@SuppressWarnings("unchecked")
+			Iterator<JSONObject> licenses = licenseObjects.iterator();
+			while (licenses.hasNext()) {
+				JSONObject license = licenses.next();
+				if (license.keySet().size() != 1) continue;
+				String claName = (String)license.keySet().toArray()[0];
+				addGroups(groups, license.get(claName), "license "+claName+" of "+serverURI);
+				if (licenseKeys != null && !licenseKeys.contains(claName)) {
+					missingLicenses.add(key(serverURI, claName));
+					problems.add("Client access license: "+claName+" is not a license of: "+serverURI+", valid licenses are: "+licenseKeys);
+				}
+			}
+		}
+
+		validateAreas(serverURI, (JSONArray)serverObject.get("Project Areas"), null, rtc, groups);
+		validateGroups(groups, ldapConnection);
+		return problems.size()-found;
+	}
+
+	/** Check project or team areas and their process roles, and collect their groups
+	 *
+	 * @param serverURI the RTC server
+	 * @param areas the Project Areas or Team Areas of the configuration file, or null
+	 * @param parentName the name of the areas' parent area, or null for project areas
+	 * @param rtc used to access RTC
+	 * @param groups collects the groups the areas use
+	 */
+	private void validateAreas(String serverURI, JSONArray areas, String parentName, RTCGateway rtc, Map<String, String> groups) {
+		if (areas == null) return;
+		@SuppressWarnings("unchecked")
+		Iterator<JSONObject> configured = areas.iterator();
+		while (configured.hasNext()) {
+			JSONObject area = configured.next();
+			String name = (parentName == null)? (String)area.get("name"): parentName+"/"+area.get("name");
+			addGroups(groups, area.get("Administrators"), "the Administrators of "+name);
+			addGroups(groups, area.get("Members"), "the Members of "+name);
+			List<String> roles = rtc.getRoles(name);
+			if (roles == null) {
+				missingAreas.add(key(serverURI, name));
+				problems.add("Project or team area: "+name+" does not exist in: "+serverURI);
+			}
+			JSONArray processRoles = (JSONArray)area.get("Process Roles");
+			if (processRoles != null) {
+				@SuppressWarnings("unchecked")
+				Iterator<JSONObject> mappings = processRoles.iterator();
+				while (mappings.hasNext()) {
+					JSONObject mapping = mappings.next();
+					if (mapping.keySet().size() != 1) continue;
+					String roleName = (String)mapping.keySet().toArray()[0];
+					addGroups(groups, mapping.get(roleName), "role "+roleName+" of "+name);
+					if (roles != null && !containsIgnoreCase(roles, roleName)) {
+						missingRoles.add(key(serverURI, name+"\n"+roleName.toLowerCase()));
+						problems.add("Process role: "+roleName+" is not defined for: "+name+" in: "+serverURI+", its roles are: "+roles);
+					}
+				}
+			}
+			validateAreas(serverURI, (JSONArray)area.get("Team Areas"), name, rtc, groups);
+		}
+	}
+
+	/** Check that the groups exist, reading several at once. Groups already checked for another server
+	 * are not read again.
+	 *
+	 * @param groups the groups to check, and where each is used
+	 * @param ldapConnection used to access the LDAP server
+	 */
+	private void validateGroups(Map<String, String> groups, final DirectorySource ldapConnection) {
+		List<Callable<Void>> checks = new ArrayList<Callable<Void>>();
+		Iterator<Map.Entry<String, String>> entries = groups.entrySet().iterator();
+		while (entries.hasNext()) {
+			final Map.Entry<String, String> group = entries.next();
+			if (!checkedGroups.add(group.getKey().toLowerCase())) continue;
+			checks.add(SyncTrace.runTrace.propagate(new Callable<Void>() {
+				public Void call() {
+					try {
+						if (!ldapConnection.exists(group.getKey())) {
+							missingGroups.add(group.getKey().toLowerCase());
+							problems.add("LDAP group: "+group.getKey()+" used by "+group.getValue()+" does not exist");
+						}
+					} catch (NamingException e) {
+						// not known to be missing, so it is read again when it is used, and fails the run if it still can't be
+						checkedGroups.remove(group.getKey().toLowerCase());
+						problems.add("LDAP group: "+group.getKey()+" used by "+group.getValue()+" could not be read: "+e.getMessage());
+					}
+					return null;
+				}
+			}));
+		}
+		if (checks.isEmpty()) return;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(GROUP_THREADS, checks.size()));
+		try {
+			Iterator<Future<Void>> results = executor.invokeAll(checks).iterator();
+			while (results.hasNext()) {
+				try {
+					results.next().get();
+				} catch (ExecutionException e) {
+					problems.add("Unable to check the LDAP groups: "+e.getCause().getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Log all the problems found, together
+	 *
+	 * @param log for logging errors, warnings and information
+	 * @return the number of problems
+	 */
+	public int report(Logger log) {
+		if (problems.isEmpty()) {
+			log.info("The LDAP groups, project and team areas, licenses and process roles of the configuration all exist");
+			return 0;
+		}
+		log.error("The configuration has {} problems, which will be skipped:", problems.size());
+		synchronized (problems) {
+			Iterator<String> all = problems.iterator();
+			while (all.hasNext()) {
+				log.error("\t"+all.next());
+			}
+		}
+		Status.appStatus.setCode(-1);
+		return problems.size();
+	}
+
+	/**
+	 * @param groups a group DN, or a JSONArray of group DNs, as given in the configuration file
+	 * @return false if any of the groups doesn't exist. A group that couldn't be checked, such as when LDAP
+	 * timed out, is valid: reading its users fails again if LDAP is still unavailable, and nothing is changed for it.
+	 */
+	public boolean isValidGroup(Object groups) {
+		if (groups instanceof JSONArray) {
+			@SuppressWarnings("unchecked")
+			Iterator<String> groupDNs = ((JSONArray)groups).iterator();
+			while (groupDNs.hasNext()) {
+				if (missingGroups.contains(groupDNs.next().toLowerCase())) return false;
+			}
+			return true;
+		}
+		return groups == null || !missingGroups.contains(((String)groups).toLowerCase());
+	}
+
+	/**
+	 * @return false if the project or team area doesn't exist in the server
+	 */
+	public boolean isValidArea(String serverURI, String areaName) {
+		return !missingAreas.contains(key(serverURI, areaName));
+	}
+
+	/**
+	 * @return false if the client access license isn't one of the server's licenses
+	 */
+	public boolean isValidLicense(String serverURI, String licenseKey) {
+		return !missingLicenses.contains(key(serverURI, licenseKey));
+	}
+
+	/**
+	 * @return false if the process role isn't defined for the project or team area
+	 */
+	public boolean isValidRole(String serverURI, String areaName, String roleName) {
+		return !missingRoles.contains(key(serverURI, areaName+"\n"+roleName.toLowerCase()));
+	}
+
+	/**
+	 * @return true if the user was already found not to be a user of the server
+	 */
+	public boolean isUnknownUser(String serverURI, String userId) {
+		return unknownUsers.contains(key(serverURI, userId));
+	}
+
+	/** Remember a user that is not a user of a server, so it isn't looked up again
+	 */
+	public void userUnknown(String serverURI, String userId) {
+		unknownUsers.add(key(serverURI, userId));
+	}
+
+	/** Collect the groups of a configuration element, and where each is first used
+	 *
+	 * @param groups the groups collected so far
+	 * @param configured a group DN, or a JSONArray of group DNs, or null
+	 * @param usedBy what the groups are used for, for the report
+	 */
+	private static void addGroups(Map<String, String> groups, Object configured, String usedBy) {
+		if (configured instanceof JSONArray) {
+			@SuppressWarnings("unchecked")
+			Iterator<String> groupDNs = ((JSONArray)configured).iterator();
+			while (groupDNs.hasNext()) {
+				addGroups(groups, groupDNs.next(), usedBy);
+			}
+		} else if (configured != null && !groups.containsKey(configured)) {
+			groups.put((String)configured, usedBy);
+		}
+	}
+
+	private static String key(String serverURI, String name) {
+		return serverURI+"\n"+name;
+	}
+
+	private static boolean containsIgnoreCase(List<String> values, String value) {
+		for (int v=0; v<values.size(); v++) {
+			if (values.get(v).equalsIgnoreCase(value)) return true;
+		}
+		return false;
+	}
+
+	/** The validation of the whole synchronization run
+	 */
+	public static ConfigValidation runValidation = new ConfigValidation();
+}
@@ -0,0 +1,189 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+
+/** Keeps RTC in step with LDAP between full runs: watches the groups of the configuration file, and as soon
+ * as their users change, synchronizes just the users that changed, in just the Users, licenses and areas of
+ * the groups that changed (see SyncScope).
+ *
+ * The groups are read from the directory every poll interval, and compared with the previous read. A burst
+ * of changes, such as a reorganization made one group at a time, is collected until the groups have been
+ * quiet for the debounce time, or the first change has waited MAX_DELAY, and then synchronized together, so
+ * changes reach RTC within a minute. A group that can't be read is compared again the next time it can be,
+ * so a directory outage doesn't look like everyone leaving. Changes that fail to synchronize are kept, with
+ * any that arrive meanwhile, and synchronized again after the next poll.
+ *
+ * The groups are found in the configuration file, and read, by a MembershipIndex.
+ *
+ * @author jamsden
+ *
+ */
+public class DirectoryListener {
+	/** The seconds between reads of the groups, by default
+	 */
+	public static final long DEFAULT_POLL = 15;
+
+	/** The seconds without further changes before the changes are synchronized, by default
+	 */
+	public static final long DEFAULT_DEBOUNCE = 10;
+
+	/** The longest a change waits for a burst of changes to end, in milliseconds
+	 */
+	public static final long MAX_DELAY = 30000;
+
+	private LdapRtcConfig config = null;
+	private MembershipIndex index = null;  // finds and reads the groups
+	private long poll = DEFAULT_POLL;
+	private long debounce = DEFAULT_DEBOUNCE;
+	private Logger log = null;
+	private Map<String, String> groups = null;  // <group DN in lower case, group DN> of the configuration file
+	private Map<String, MemberSet> groupUsers = new HashMap<String, MemberSet>();  // <group DN in lower case, its users> as last read
+	private Set<String> changedGroups = new TreeSet<String>();  // the groups whose users changed since the last synchronization
+	private Set<String> changedUsers = new TreeSet<String>();  // the users who were added to or removed from them
+	private long firstChange = 0;  // when the changes that are waiting were first seen
+	private long lastChange = 0;  // when the last of them was seen
+
+	/**
+	 * @param config the configuration file
+	 * @param ldapConnection the directory its groups are read from
+	 * @param poll the seconds between reads of the groups
+	 * @param debounce the seconds without further changes before the changes are synchronized
+	 * @param log for logging errors, warnings and information
+	 */
+	public DirectoryListener(LdapRtcConfig config, DirectorySource ldapConnection, long poll, long debounce, Logger log) {
+		this.config = config;
+		this.index = new MembershipIndex(config.getJSON(), ldapConnection, log);
+		this.poll = Math.max(1, poll);
+		this.debounce = Math.max(0, debounce);
+		this.log = log;
+		index.collect();
+		groups = index.getGroups();
+	}
+
+	/** Synchronize the changes to the groups as they are seen, until the thread is interrupted
+	 *
+	 * @param synchronizer synchronizes the configuration
+	 */
+	public void listen(LDAP2RTCSync synchronizer) {
+		log.info("Listening for changes to {} LDAP groups every {} seconds", groups.size(), poll);
+		poll();  // what the groups are now, which the first run has already synchronized
+		RTCGateway.shareSessions();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(poll*1000);
+				poll();
+				if (isDue(System.currentTimeMillis())) apply(synchronizer);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			RTCGateway.closeSessions();
+		}
+		log.info("Stopped listening for changes to LDAP groups");
+	}
+
+	/** Read the groups, and collect the users who were added to or removed from them since the last read
+	 *
+	 * @return true if any of the groups changed
+	 */
+	public boolean poll() {
+		Map<String, MemberSet> read = index.readGroups();
+		IdentityDictionary identities = IdentityDictionary.identities;
+		boolean changed = false;
+		Iterator<Map.Entry<String, MemberSet>> groupReads = read.entrySet().iterator();
+		while (groupReads.hasNext()) {
+			Map.Entry<String, MemberSet> group = groupReads.next();
+			MemberSet previous = groupUsers.put(group.getKey(), group.getValue());
+			if (previous == null) continue;  // read for the first time
+			MemberSet users = previous.minus(group.getValue()).union(group.getValue().minus(previous));
+			if (users.isEmpty()) continue;
+			log.info("LDAP group: {} changed for {} users", groups.get(group.getKey()), users.cardinality());
+			changedGroups.add(groups.get(group.getKey()));
+			for (int id = users.nextMember(0); id >= 0; id = users.nextMember(id+1)) {
+				changedUsers.add(identities.get(id));
+			}
+			changed = true;
+		}
+		if (changed) {
+			lastChange = System.currentTimeMillis();
+			if (firstChange == 0) firstChange = lastChange;
+		}
+		return changed;
+	}
+
+	/**
+	 * @param now the current time in milliseconds
+	 * @return true if there are changes, and the groups have been quiet for the debounce time or the first change has waited long enough
+	 */
+	public boolean isDue(long now) {
+		if (changedUsers.isEmpty()) return false;
+		return now-lastChange >= debounce*1000 || now-firstChange >= MAX_DELAY;
+	}
+
+	/** Synchronize the users that changed, in the Users, licenses and areas of the groups that changed.
+	 * The changes are only forgotten once they are synchronized without problems; otherwise they are kept,
+	 * and synchronized again when they are next due.
+	 *
+	 * @param synchronizer synchronizes the configuration
+	 * @return true if the changes were synchronized
+	 */
+	public boolean apply(LDAP2RTCSync synchronizer) {
+		log.info("Synchronizing {} users of {} changed LDAP groups: {}", changedUsers.size(), changedGroups.size(), changedUsers);
+		long start = System.currentTimeMillis();
+		int before = Status.appStatus.getCode();
+		Status.appStatus.setCode(0);  // the status of this synchronization
+		SyncScope.runScope = new SyncScope();
+		SyncScope.runScope.target(changedUsers);
+		SyncScope.runScope.affect(changedGroups);
+		ConfigValidation.runValidation = new ConfigValidation();  // areas, licenses and roles may have been added since
+		try {
+			synchronizer.sync(config);
+		} catch (Exception e) {
+			log.error("Unable to synchronize the changed LDAP groups: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		} finally {
+			SyncScope.runScope = new SyncScope();
+		}
+		int status = Status.appStatus.getCode();
+		Status.appStatus.setCode(Math.min(before, status));
+		if (status != 0) {
+			log.error("The changes to {} users will be synchronized again after the next poll", changedUsers.size());
+			return false;
+		}
+		log.info("Synchronized the changes, {} ms after they were first seen, in {} ms", System.currentTimeMillis()-firstChange, System.currentTimeMillis()-start);
+		changedGroups.clear();
+		changedUsers.clear();
+		firstChange = 0;
+		lastChange = 0;
+		return true;
+	}
+
+	/**
+	 * @return the users who were added to or removed from the groups since the changes were last synchronized
+	 */
+	public Set<String> getChangedUsers() {
+		return changedUsers;
+	}
+
+	/**
+	 * @return the groups whose users changed since the changes were last synchronized
+	 */
+	public Set<String> getChangedGroups() {
+		return changedGroups;
+	}
+}
@@ -0,0 +1,269 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/** Maps the groups and users of a directory to the attributes that hold them.
+ *
+ * The "Schema" of an LDAPConnection is either the name of a preset, or an object that starts from
+ * a preset and overrides some of its attributes:
+ *
+ *   "Schema": {
+ *       "Preset": "groupOfNames",
+ *       "Member Attributes": ["member", "uniqueMember"],
+ *       "Subgroup Attributes": [],
+ *       "Group Object Classes": ["groupOfNames", "groupOfUniqueNames"],
+ *       "User ID Attribute": "uid",
+ *       "Name Attribute": "cn",
+ *       "Email Attribute": "mail",
+ *       "Member Of Filter": "(memberOf:1.2.840.113556.1.4.1941:={0})",
+ *       "Search Base": "ou=users,o=example",
+ *       "User ID From DN": false
+ *   }
+ *
+ * The presets are:
+ *   * RACF (the default) - racfgroupuserids members, racfsubgroupname subgroups, racfid, racfprogrammername and mail users
+ *   * groupOfNames - member or uniqueMember values that are users or nested groups, uid, cn and mail users
+ *
+ * When there are no subgroup attributes, a member is a nested group if it has one of the group object classes.
+ * When a member of filter is given, the users of a group are found with one search for the entries the filter
+ * matches, where {0} is the group DN. The filter must match all the users of nested groups too, as the
+ * in-chain matching rule in the example does. User ID From DN takes the user ID from the first RDN of a member
+ * DN whose entry can't be read, if the RDN is the user ID attribute.
+ *
+ * Only the attributes of the schema are requested from the directory.
+ *
+ * @author jamsden
+ *
+ */
+public class DirectorySchema {
+
+	private String[] memberAttributes = null;
+	private String[] subgroupAttributes = null;
+	private String[] groupObjectClasses = null;
+	private String userIdAttribute = null;
+	private String nameAttribute = null;
+	private String emailAttribute = null;
+	private String memberOfFilter = null;
+	private String searchBase = "";
+	private boolean userIdFromDN = false;
+
+	/**
+	 * @return the schema of a RACF LDAP server
+	 */
+	public static DirectorySchema racf() {
+		DirectorySchema schema = new DirectorySchema();
+		schema.memberAttributes = new String[] {"racfgroupuserids"};
+		schema.subgroupAttributes = new String[] {"racfsubgroupname"};
+		schema.groupObjectClasses = new String[0];
+		schema.userIdAttribute = "racfid";
+		schema.nameAttribute = "racfprogrammername";
+		schema.emailAttribute = "mail";
+		return schema;
+	}
+
+	/**
+	 * @return the schema of a directory with groupOfNames or groupOfUniqueNames groups
+	 */
+	public static DirectorySchema groupOfNames() {
+		DirectorySchema schema = new DirectorySchema();
+		schema.memberAttributes = new String[] {"member", "uniqueMember"};
+		schema.subgroupAttributes = new String[0];
+		schema.groupObjectClasses = new String[] {"groupOfNames", "groupOfUniqueNames"};
+		schema.userIdAttribute = "uid";
+		schema.nameAttribute = "cn";
+		schema.emailAttribute = "mail";
+		return schema;
+	}
+
+	/** Read the schema of an LDAPConnection from the configuration file.
+	 *
+	 * @param config the Schema element: null, a preset name, or an object
+	 * @return the directory schema
+	 */
+	public static DirectorySchema fromConfig(Object config) {
+		if (config == null) return racf();
+		if (config instanceof String) return preset((String)config);
+		JSONObject obj = (JSONObject)config;
+		DirectorySchema schema = preset((String)obj.get("Preset"));
+		if (obj.containsKey("Member Attributes")) schema.memberAttributes = strings(obj.get("Member Attributes"));
+		if (obj.containsKey("Subgroup Attributes")) schema.subgroupAttributes = strings(obj.get("Subgroup Attributes"));
+		if (obj.containsKey("Group Object Classes")) schema.groupObjectClasses = strings(obj.get("Group Object Classes"));
+		if (obj.containsKey("User ID Attribute")) schema.userIdAttribute = (String)obj.get("User ID Attribute");
+		if (obj.containsKey("Name Attribute")) schema.nameAttribute = (String)obj.get("Name Attribute");
+		if (obj.containsKey("Email Attribute")) schema.emailAttribute = (String)obj.get("Email Attribute");
+		if (obj.containsKey("Member Of Filter")) schema.memberOfFilter = (String)obj.get("Member Of Filter");
+		if (obj.containsKey("Search Base")) schema.searchBase = (String)obj.get("Search Base");
+		if (obj.containsKey("User ID From DN")) schema.userIdFromDN = Boolean.TRUE.equals(obj.get("User ID From DN"));
+		return schema;
+	}
+
+	private static DirectorySchema preset(String name) {
+		if ("groupOfNames".equalsIgnoreCase(name)) return groupOfNames();
+		return racf();
+	}
+
+	private static String[] strings(Object value) {
+		if (value == null) return new String[0];
+		if (value instanceof String) return new String[] {(String)value};
+		List<String> result = new ArrayList<String>();
+		@SuppressWarnings("unchecked")
+		Iterator<Object> values = ((JSONArray)value).iterator();
+		while (values.hasNext()) {
+			result.add((String)values.next());
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/**
+	 * @return true if nested groups are held in their own attributes, false if they are members identified by object class
+	 */
+	public boolean hasSubgroupAttributes() {
+		return subgroupAttributes.length > 0;
+	}
+
+	public String[] getMemberAttributes() {
+		return memberAttributes;
+	}
+
+	public String[] getSubgroupAttributes() {
+		return subgroupAttributes;
+	}
+
+	public String getUserIdAttribute() {
+		return userIdAttribute;
+	}
+
+	/**
+	 * @return the filter used to find all the users of a group in one search, or null to expand the group's members
+	 */
+	public String getMemberOfFilter() {
+		return memberOfFilter;
+	}
+
+	public String getSearchBase() {
+		return searchBase;
+	}
+
+	/**
+	 * @return the attributes to request for a group: its members and subgroups
+	 */
+	public String[] getGroupAttributes() {
+		List<String> attributes = new ArrayList<String>(Arrays.asList(memberAttributes));
+		attributes.addAll(Arrays.asList(subgroupAttributes));
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * @return the attributes to request for a user: the user ID, name and email
+	 */
+	public String[] getUserAttributes() {
+		List<String> attributes = new ArrayList<String>();
+		attributes.add(userIdAttribute);
+		if (nameAttribute != null) attributes.add(nameAttribute);
+		if (emailAttribute != null) attributes.add(emailAttribute);
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * @return the attributes to request for a member that may be a user or a nested group
+	 */
+	public String[] getEntryAttributes() {
+		List<String> attributes = new ArrayList<String>(Arrays.asList(getUserAttributes()));
+		attributes.add("objectClass");
+		attributes.addAll(Arrays.asList(getGroupAttributes()));
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/** Is a member entry a nested group?
+	 * @param entry the attributes of the entry
+	 * @return true if the entry has one of the group object classes
+	 * @throws NamingException
+	 */
+	public boolean isGroup(Attributes entry) throws NamingException {
+		Attribute objectClasses = entry.get("objectClass");
+		if (objectClasses == null) return false;
+		for (int c=0; c<groupObjectClasses.length; c++) {
+			NamingEnumeration<?> values = objectClasses.getAll();
+			while (values.hasMore()) {
+				if (groupObjectClasses[c].equalsIgnoreCase(values.next().toString())) return true;
+			}
+		}
+		return false;
+	}
+
+	/** Get the values of some attributes of an entry
+	 * @param entry the entry's attributes
+	 * @param names the attributes to get
+	 * @return all the values of all the attributes
+	 * @throws NamingException
+	 */
+	public static List<String> values(Attributes entry, String[] names) throws NamingException {
+		List<String> result = new ArrayList<String>();
+		for (int a=0; a<names.length; a++) {
+			Attribute attribute = entry.get(names[a]);
+			NamingEnumeration<?> values = (attribute != null)? attribute.getAll(): null;
+			while (values != null && values.hasMore()) {
+				result.add(values.next().toString());
+			}
+		}
+		return result;
+	}
+
+	/** Create a user from the attributes of the user's entry
+	 * @param dn the user's DN
+	 * @param entry the user's attributes
+	 * @return the user, or null if the entry doesn't have a user ID
+	 * @throws NamingException
+	 */
+	public DirectoryUser toUser(String dn, Attributes entry) throws NamingException {
+		Attribute userId = entry.get(userIdAttribute);
+		if (userId == null || userId.get() == null) return userFromDN(dn);
+		return new DirectoryUser(dn, userId.get().toString(), value(entry, nameAttribute), value(entry, emailAttribute));
+	}
+
+	/** Create a user from a member DN whose entry can't be read, if User ID From DN is set
+	 * @param dn the user's DN
+	 * @return the user, or null if the user ID can't be taken from the DN
+	 */
+	public DirectoryUser userFromDN(String dn) {
+		if (!userIdFromDN) return null;
+		try {
+			List<Rdn> rdns = new LdapName(dn).getRdns();
+			if (rdns.isEmpty()) return null;
+			Rdn first = rdns.get(rdns.size()-1);  // LdapName lists the RDNs from the right
+			if (!first.getType().equalsIgnoreCase(userIdAttribute)) return null;
+			return new DirectoryUser(dn, first.getValue().toString(), null, null);
+		} catch (InvalidNameException e) {
+			return null;
+		}
+	}
+
+	private static String value(Attributes entry, String name) throws NamingException {
+		if (name == null) return null;
+		Attribute attribute = entry.get(name);
+		return (attribute != null && attribute.get() != null)? attribute.get().toString(): null;
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.json.simple.JSONArray;
+
+/** A directory the LDAP groups and users are read from: a live LDAP server, or a snapshot of one.
+ * 
+ * Subclasses read entries, and the groups are expanded to their users here using the DirectorySchema.
+ * The sibling subgroups and members of a nested group are read in parallel, up to the expansion threads
+ * at once, so deep hierarchies take one round trip per level of nesting rather than one per entry.
+ * 
+ * @author jamsden
+ *
+ */
+public abstract class DirectorySource {
+	protected DirectorySchema schema = DirectorySchema.racf();  // the attributes of the directory's groups and users
+	private int expansionThreads = 1;  // the directory requests made at once while expanding a group
+	private ExecutorService expansion = null;  // makes them, if there is more than one
+	
+	/**
+	 * @return the schema mapping the directory's groups and users to their attributes
+	 */
+	public DirectorySchema getSchema() {
+		return schema;
+	}
+	
+	/** Get all the members of an LDAP group, including members of its subgroups.
+	 * 
+	 * @param groupDN the group Distinguished Name
+	 * @return the DNs of all the members, each once (empty if the group does not have any members)
+	 * 
+	 * @throws NamingException
+	 */
+	public Set<String> getMembers(String groupDN) throws NamingException {
+		Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+		expand(groupDN, false, users);
+		return new LinkedHashSet<String>(users.keySet());
+	}
+	
+	/** Get all the users of an LDAP group, including the users of its subgroups, with the attributes
+	 * synchronization needs.
+	 * 
+	 * @param groupDN the group Distinguished Name
+	 * @return the users by DN, where the user is null if the member is not a user defined in LDAP
+	 * 
+	 * @throws NamingException
+	 */
+	public Map<String, DirectoryUser> getGroupUsers(String groupDN) throws NamingException {
+		Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+		expand(groupDN, true, users);
+		return users;
+	}
+	
+	/** Get all the users of one or more LDAP groups, with the attributes synchronization needs.
+	 * 
+	 * @param groups a group DN, or a JSONArray of group DNs, as given in the configuration file
+	 * @return the users of all the groups by DN, where the user is null if the member is not a user defined in LDAP
+	 * 
+	 * @throws NamingException if any of the groups can't be read
+	 */
+	public Map<String, DirectoryUser> getGroupUsers(Object groups) throws NamingException {
+		if (!(groups instanceof JSONArray)) return getGroupUsers((String)groups);
+		Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+		@SuppressWarnings("unchecked")
+		Iterator<String> groupDNs = ((JSONArray)groups).iterator();
+		while (groupDNs.hasNext()) {
+			users.putAll(getGroupUsers(groupDNs.next()));
+		}
+		return users;
+	}
+	
+	/** Get a user with the attributes synchronization needs.
+	 * 
+	 * @param userDN the user's Distinguished Name
+	 * @return the user, or null if the user is not defined in LDAP
+	 * @throws NamingException
+	 */
+	public DirectoryUser getUser(String userDN) throws NamingException {
+		try {
+			return schema.toUser(userDN, getEntry(userDN, schema.getUserAttributes()));
+		} catch (NameNotFoundException e) {
+			return schema.userFromDN(userDN);
+		}
+	}
+	
+	/** Check that an entry, such as a group, is in the directory, without reading its members.
+	 *
+	 * @param dn the entry's Distinguished Name
+	 * @return true if the entry exists, false if there is no such entry
+	 * @throws NamingException if the directory can't be read
+	 */
+	public boolean exists(String dn) throws NamingException {
+		try {
+			getEntry(dn, new String[0]);
+			return true;
+		} catch (NameNotFoundException e) {
+			return false;
+		}
+	}
+
+	/** Read an entry of the directory, with only some of its attributes.
+	 * 
+	 * @param dn the entry's Distinguished Name
+	 * @param attributes the attributes to read
+	 * @return the entry's attributes
+	 * @throws NamingException NameNotFoundException if there is no such entry
+	 */
+	protected abstract Attributes getEntry(String dn, String[] attributes) throws NamingException;
+	
+	/** Add the users of a group and its subgroups, requesting only the schema's attributes.
+	 * 
+	 * The group is expanded a level of nesting at a time: the members and subgroups of all the groups at one
+	 * depth are read together, up to the expansion threads at once, before the groups they contain are expanded.
+	 * A member or subgroup shared by several branches is read once.
+	 * 
+	 * @param groupDN the group to expand
+	 * @param fetchUsers true to read the users' attributes, false to collect only their DNs
+	 * @param users the users found so far, by DN
+	 * @throws NamingException
+	 */
+	private void expand(String groupDN, boolean fetchUsers, Map<String, DirectoryUser> users) throws NamingException {
+		Set<String> visited = new HashSet<String>();  // the groups in lower case, so a group nested more than once, or in a cycle, is expanded once
+		visited.add(groupDN.toLowerCase());
+		Map<String, Attributes> level = new LinkedHashMap<String, Attributes>();  // the groups at one depth, and their attributes once read
+		level.put(groupDN, getEntry(groupDN, schema.getGroupAttributes()));
+		while (!level.isEmpty()) {
+			// read the subgroups of the level above
+			List<String> unread = new ArrayList<String>();
+			Iterator<Map.Entry<String, Attributes>> groups = level.entrySet().iterator();
+			while (groups.hasNext()) {
+				Map.Entry<String, Attributes> group = groups.next();
+				if (group.getValue() == null) unread.add(group.getKey());
+			}
+			List<Attributes> read = getEntries(unread, schema.getGroupAttributes(), false);
+			for (int g=0; g<unread.size(); g++) {
+				level.put(unread.get(g), read.get(g));
+			}
+			
+			// the members of the level that haven't been found yet
+			Set<String> members = new LinkedHashSet<String>();
+			Iterator<Attributes> attributes = level.values().iterator();
+			while (attributes.hasNext()) {
+				Iterator<String> memberDNs = DirectorySchema.values(attributes.next(), schema.getMemberAttributes()).iterator();
+				while (memberDNs.hasNext()) {
+					String memberDN = memberDNs.next();
+					if (!users.containsKey(memberDN) && !visited.contains(memberDN.toLowerCase())) members.add(memberDN);
+				}
+			}
+			List<String> memberDNs = new ArrayList<String>(members);
+			Map<String, Attributes> next = new LinkedHashMap<String, Attributes>();
+			if (schema.hasSubgroupAttributes()) {
+				List<DirectoryUser> found = fetchUsers? getUsers(memberDNs): null;
+				for (int m=0; m<memberDNs.size(); m++) {
+					users.put(memberDNs.get(m), fetchUsers? found.get(m): null);
+				}
+				attributes = level.values().iterator();
+				while (attributes.hasNext()) {
+					Iterator<String> subgroups = DirectorySchema.values(attributes.next(), schema.getSubgroupAttributes()).iterator();
+					while (subgroups.hasNext()) {
+						String subgroup = subgroups.next();
+						if (visited.add(subgroup.toLowerCase())) next.put(subgroup, null);
+					}
+				}
+			} else {
+				// members may be users or nested groups: read what is needed for either in one request
+				List<Attributes> entries = getEntries(memberDNs, schema.getEntryAttributes(), true);
+				for (int m=0; m<memberDNs.size(); m++) {
+					String memberDN = memberDNs.get(m);
+					Attributes member = entries.get(m);
+					if (member == null) {
+						users.put(memberDN, schema.userFromDN(memberDN));
+					} else if (schema.isGroup(member)) {
+						if (visited.add(memberDN.toLowerCase())) next.put(memberDN, member);
+					} else {
+						users.put(memberDN, schema.toUser(memberDN, member));
+					}
+				}
+			}
+			level = next;
+		}
+	}
+	
+	/** Read entries, up to the expansion threads at once
+	 * 
+	 * @param dns the entries' Distinguished Names
+	 * @param attributes the attributes to read
+	 * @param missing true to return null for an entry that doesn't exist, false to throw NameNotFoundException
+	 * @return the entries' attributes, in the order of their DNs
+	 * @throws NamingException
+	 */
+	private List<Attributes> getEntries(List<String> dns, final String[] attributes, final boolean missing) throws NamingException {
+		List<Callable<Attributes>> requests = new ArrayList<Callable<Attributes>>(dns.size());
+		for (int d=0; d<dns.size(); d++) {
+			final String dn = dns.get(d);
+			requests.add(new Callable<Attributes>() {
+				public Attributes call() throws NamingException {
+					try {
+						return getEntry(dn, attributes);
+					} catch (NameNotFoundException e) {
+						if (missing) return null;
+						throw e;
+					}
+				}
+			});
+		}
+		return request(requests);
+	}
+	
+	/** Read users, up to the expansion threads at once
+	 * 
+	 * @param userDNs the users' Distinguished Names
+	 * @return the users, in the order of their DNs
+	 * @throws NamingException
+	 */
+	private List<DirectoryUser> getUsers(List<String> userDNs) throws NamingException {
+		List<Callable<DirectoryUser>> requests = new ArrayList<Callable<DirectoryUser>>(userDNs.size());
+		for (int u=0; u<userDNs.size(); u++) {
+			final String userDN = userDNs.get(u);
+			requests.add(new Callable<DirectoryUser>() {
+				public DirectoryUser call() throws NamingException {
+					return getUser(userDN);
+				}
+			});
+		}
+		return request(requests);
+	}
+	
+	/** Make directory requests, on the calling thread if there's only one thread or request, otherwise
+	 * on the expansion threads
+	 * 
+	 * @param requests the requests
+	 * @return their results, in order
+	 * @throws NamingException if any of them failed
+	 */
+	private <T> List<T> request(List<Callable<T>> requests) throws NamingException {
+		List<T> results = new ArrayList<T>(requests.size());
+		ExecutorService executor = (requests.size() > 1)? getExpansionExecutor(): null;
+		try {
+			if (executor == null) {
+				for (int r=0; r<requests.size(); r++) {
+					results.add(requests.get(r).call());
+				}
+				return results;
+			}
+			Iterator<Future<T>> responses = executor.invokeAll(requests).iterator();
+			while (responses.hasNext()) {
+				results.add(responses.next().get());
+			}
+			return results;
+		} catch (NamingException e) {
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof NamingException) throw (NamingException)e.getCause();
+			throw new NamingException(String.valueOf(e.getCause()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NamingException("Interrupted reading LDAP groups");
+		} catch (Exception e) {
+			throw new NamingException(e.toString());
+		}
+	}
+	
+	/** Release the connections to the directory, and the threads groups are expanded on, at the end of a run
+	 */
+	public synchronized void close() {
+		if (expansion != null) expansion.shutdown();
+		expansion = null;
+	}
+	
+	/** Set the number of directory requests made at once while expanding a group: the members and subgroups
+	 * at each depth of a nested group are read in parallel, up to this many at a time.
+	 * 
+	 * @param threads the requests made at once, 1 to expand groups on the calling thread
+	 */
+	public synchronized void setExpansionThreads(int threads) {
+		expansionThreads = Math.max(1, threads);
+		if (expansion != null) expansion.shutdown();
+		expansion = null;
+	}
+	
+	/**
+	 * @return the number of directory requests made at once while expanding a group
+	 */
+	public synchronized int getExpansionThreads() {
+		return expansionThreads;
+	}
+	
+	/**
+	 * @return the threads requests are made on while expanding groups, or null if there is only one
+	 */
+	private synchronized ExecutorService getExpansionExecutor() {
+		if (expansionThreads < 2) return null;
+		if (expansion == null) {
+			expansion = Executors.newFixedThreadPool(expansionThreads, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "DirectoryExpansion");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return expansion;
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+/** Several named directories used together, so the users of RTC can come from more than one LDAP server.
+ *
+ * The sources are the LDAPConnections of the configuration file, each an LDAPConnection element, and the
+ * LDAPConnection, if there is one, is the default source:
+ *
+ *   "LDAPConnections": {
+ *       "LPAR1": {"URI": "ldap://mvs255.rtp.raleigh.ibm.com", "userId": "...", "password": "..."},
+ *       "LPAR2": {"URI": "ldap://mvs256.rtp.raleigh.ibm.com", "userId": "...", "password": "..."},
+ *       "Corporate": {"URI": "ldap://bluepages.ibm.com", "Schema": "groupOfNames"}
+ *   }
+ *
+ * A group is qualified by the name of its source, as in "LPAR2:racfid=RTCDLI,profiletype=GROUP,CN=RACF256,O=IBM,C=RTC".
+ * Unqualified groups are read from the default source, or from the only source if there is just one.
+ * Wherever a group is given in the configuration file, an array of groups can be given instead, and the users
+ * of all of them are synchronized. The groups of an array are read concurrently, and their users are merged.
+ * A source's directory contexts are each used by one thread at a time, so the more replicas and connections
+ * a source has, the more of its groups are read at once. Users from sources other than the default are keyed
+ * by their qualified DN.
+ *
+ * @author jamsden
+ *
+ */
+public class DirectorySources extends DirectorySource {
+	private Map<String, DirectorySource> sources = new LinkedHashMap<String, DirectorySource>();
+	private DirectorySource defaultSource = null;
+	private ExecutorService executor = null;  // reads the groups of different sources concurrently
+	private Logger log = null;
+
+	/** Open the directories of the configuration file
+	 *
+	 * @param obj the configuration file
+	 * @param ldifFile an LDIF export to use instead of the default source, or null
+	 * @param log for logging errors, warnings and information
+	 */
+	public DirectorySources(JSONObject obj, String ldifFile, Logger log) {
+		this.log = log;
+		JSONObject connections = (JSONObject)obj.get("LDAPConnections");
+		if (connections != null) {
+			@SuppressWarnings("unchecked")
+			Iterator<Map.Entry<String, JSONObject>> entries = connections.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<String, JSONObject> entry = entries.next();
+				sources.put(entry.getKey(), open(obj, entry.getValue(), null, log));
+			}
+		}
+		JSONObject connection = (JSONObject)obj.get("LDAPConnection");
+		if (connection != null || ldifFile != null) {
+			defaultSource = open(obj, connection, ldifFile, log);
+		} else if (sources.size() == 1) {
+			defaultSource = sources.values().iterator().next();
+		}
+		if (defaultSource != null) schema = defaultSource.getSchema();
+		executor = Executors.newFixedThreadPool(Math.max(4, sources.size()+1), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "DirectorySources");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** Open a directory: an LDAP server, or an LDIF export of one
+	 *
+	 * @param obj the configuration file
+	 * @param connection an LDAPConnection element
+	 * @param ldifFile an LDIF export to use instead of the connection's LDIF or LDAP server, or null
+	 * @param log for logging errors, warnings and information
+	 * @return the directory
+	 */
+	public static DirectorySource open(JSONObject obj, JSONObject connection, String ldifFile, Logger log) {
+		if (ldifFile == null && connection != null) ldifFile = (String)connection.get("LDIF");
+		if (ldifFile != null) {
+			return new LdifDirectory(ldifFile, DirectorySchema.fromConfig(connection != null? connection.get("Schema"): null), log);
+		}
+		return new LdapConnection(obj, connection);
+	}
+
+	/**
+	 * @param name the name of a source in the LDAPConnections
+	 * @return the source, or null if there is no such source
+	 */
+	public DirectorySource getSource(String name) {
+		return sources.get(name);
+	}
+
+	/**
+	 * @return the names of the LDAPConnections
+	 */
+	public List<String> getSourceNames() {
+		return new ArrayList<String>(sources.keySet());
+	}
+
+	/** Close each of the sources
+	 */
+	public void close() {
+		super.close();
+		Iterator<DirectorySource> opened = sources.values().iterator();
+		while (opened.hasNext()) {
+			opened.next().close();
+		}
+		if (defaultSource != null && !sources.containsValue(defaultSource)) defaultSource.close();
+		executor.shutdown();
+	}
+
+	/** The source of a group or user, and its DN in that source
+	 */
+	private class Reference {
+		String name = null;  // null for the default source
+		DirectorySource source = null;
+		String dn = null;
+
+		Reference(String reference) throws NamingException {
+			int colon = reference.indexOf(':');
+			int equals = reference.indexOf('=');
+			if (colon > 0 && (equals < 0 || colon < equals) && sources.containsKey(reference.substring(0, colon))) {
+				name = reference.substring(0, colon);
+				source = sources.get(name);
+				dn = reference.substring(colon+1);
+			} else {
+				source = defaultSource;
+				dn = reference;
+			}
+			if (source == null) throw new NamingException("No LDAP source for: "+reference);
+		}
+
+		/**
+		 * @param memberDN a DN in the source
+		 * @return the DN, qualified by the source's name if it isn't the default source
+		 */
+		String qualify(String memberDN) {
+			return (name == null || source == defaultSource)? memberDN: name+":"+memberDN;
+		}
+	}
+
+	public Set<String> getMembers(String groupDN) throws NamingException {
+		Reference group = new Reference(groupDN);
+		Set<String> members = new LinkedHashSet<String>();
+		Iterator<String> memberDNs = group.source.getMembers(group.dn).iterator();
+		while (memberDNs.hasNext()) {
+			members.add(group.qualify(memberDNs.next()));
+		}
+		return members;
+	}
+
+	public Map<String, DirectoryUser> getGroupUsers(String groupDN) throws NamingException {
+		Reference group = new Reference(groupDN);
+		Map<String, DirectoryUser> sourceUsers = group.source.getGroupUsers(group.dn);
+		if (group.name == null) return sourceUsers;
+		Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+		Iterator<Map.Entry<String, DirectoryUser>> entries = sourceUsers.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, DirectoryUser> entry = entries.next();
+			users.put(group.qualify(entry.getKey()), entry.getValue());
+		}
+		return users;
+	}
+
+	/** Get the users of several groups, reading the groups of different sources concurrently.
+	 */
+	public Map<String, DirectoryUser> getGroupUsers(Object groups) throws NamingException {
+		if (!(groups instanceof JSONArray) || ((JSONArray)groups).size() < 2) return super.getGroupUsers(groups);
+		List<Callable<Map<String, DirectoryUser>>> reads = new ArrayList<Callable<Map<String, DirectoryUser>>>();
+		@SuppressWarnings("unchecked")
+		Iterator<String> groupDNs = ((JSONArray)groups).iterator();
+		while (groupDNs.hasNext()) {
+			final String groupDN = groupDNs.next();
+			reads.add(SyncTrace.runTrace.propagate(new Callable<Map<String, DirectoryUser>>() {
+				public Map<String, DirectoryUser> call() throws NamingException {
+					return getGroupUsers(groupDN);
+				}
+			}));
+		}
+		Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+		NamingException failure = null;
+		try {
+			Iterator<Future<Map<String, DirectoryUser>>> results = executor.invokeAll(reads).iterator();
+			while (results.hasNext()) {
+				try {
+					users.putAll(results.next().get());
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof NamingException) {
+						failure = (NamingException)e.getCause();
+					} else {
+						log.error("Unable to read LDAP groups: {}", e.getCause().getMessage());
+						failure = new NamingException(e.getCause().getMessage());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NamingException("Interrupted reading LDAP groups");
+		}
+		if (failure != null) throw failure;
+		return users;
+	}
+
+	public DirectoryUser getUser(String userDN) throws NamingException {
+		Reference user = new Reference(userDN);
+		return user.source.getUser(user.dn);
+	}
+
+	protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+		Reference entry = new Reference(dn);
+		return entry.source.getEntry(entry.dn, attributes);
+	}
+}
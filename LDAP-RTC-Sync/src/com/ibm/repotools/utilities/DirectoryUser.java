@@ -0,0 +1,63 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+/** A user read from the directory: the user's DN and the attributes synchronization uses.
+ * 
+ * The DN and user ID are the IdentityDictionary's copies, so each is held once however many groups the user is in.
+ *
+ * @author jamsden
+ *
+ */
+public class DirectoryUser {
+	private String dn = null;
+	private String userId = null;
+	private String name = null;
+	private String email = null;
+
+	/**
+	 * @param dn the user's distinguished name
+	 * @param userId the user's ID, which is also the RTC user ID
+	 * @param name the user's name, or null if the directory doesn't have one
+	 * @param email the user's email address, or null if the directory doesn't have one
+	 */
+	public DirectoryUser(String dn, String userId, String name, String email) {
+		this.dn = IdentityDictionary.identities.canonical(dn);
+		this.userId = IdentityDictionary.identities.canonical(userId);
+		this.name = name;
+		this.email = email;
+	}
+
+	public String getDN() {
+		return dn;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @return the user's name, or null if the directory doesn't have one, in which case the user ID stands for it
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the user's email address, or an empty string if the directory doesn't have one
+	 */
+	public String getEmail() {
+		return email != null? email: "";
+	}
+
+	public String toString() {
+		return (name != null)? userId+" ("+name+")": userId;
+	}
+}
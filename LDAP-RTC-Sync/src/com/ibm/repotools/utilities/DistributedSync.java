@@ -0,0 +1,291 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+/** Synchronizes a configuration with several worker processes, possibly on different hosts, that share a
+ * WorkQueue directory.
+ *
+ * The coordinator splits the configuration into units, one per RTC server, or with the area partition,
+ * one for the users and licenses of each server and one for each of its project areas with their team
+ * areas. The area units of a server are claimed once its users unit is done, so the users they need
+ * exist. The coordinator can start local worker processes, and waits for all the units to be done
+ * before it merges their results into one run report, report.json in the shared directory.
+ *
+ * Each worker claims units until there are none left, synchronizing each as a separate run with its
+ * own journal in the shared directory. A unit whose worker dies is reassigned when its lease expires,
+ * and the new worker resumes it from its journal. A coordinator restarted on the same directory waits
+ * for the units that are left, rather than splitting the configuration again.
+ *
+ * @author jamsden
+ *
+ */
+public class DistributedSync {
+	/** The seconds a lease lasts without being renewed, unless another lease time is given
+	 */
+	public static final long DEFAULT_LEASE = 60;
+
+	private WorkQueue queue = null;
+	private long leaseTime = 0;  // milliseconds
+	private Logger log = null;
+
+	/**
+	 * @param directory the directory shared by the coordinator and the workers
+	 * @param leaseTime the seconds a lease lasts without being renewed
+	 * @param log for logging errors, warnings and information
+	 * @throws IOException if the directory can't be used
+	 */
+	public DistributedSync(File directory, long leaseTime, Logger log) throws IOException {
+		this.leaseTime = leaseTime*1000;
+		this.log = log;
+		queue = new WorkQueue(directory, this.leaseTime, log);
+	}
+
+	/**
+	 * @return the shared work units
+	 */
+	public WorkQueue getQueue() {
+		return queue;
+	}
+
+	/** Split a configuration into units and publish them to the workers
+	 *
+	 * @param config the configuration file
+	 * @param partition server for a unit per RTC server, area for a unit per project area
+	 * @return the IDs of the units
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> partition(JSONObject config, String partition) throws IOException {
+		List<String> units = new ArrayList<String>();
+		boolean byArea = "area".equalsIgnoreCase(partition);
+		JSONArray servers = (JSONArray)config.get("RTCServers");
+		Iterator<JSONObject> configured = servers.iterator();
+		while (configured.hasNext()) {
+			JSONObject server = configured.next();
+			String serverURI = (String)server.get("serverURI");
+			String serverUnit = unitId(units.size());
+			units.add(serverUnit);
+			JSONArray projectAreas = (JSONArray)server.get("Project Areas");
+			if (!byArea || projectAreas == null) {
+				queue.addUnit(serverUnit, serverURI, withServer(config, server), new ArrayList<String>());
+				continue;
+			}
+			JSONObject serverOnly = new JSONObject(server);
+			serverOnly.remove("Project Areas");
+			queue.addUnit(serverUnit, serverURI+" users and licenses", withServer(config, serverOnly), new ArrayList<String>());
+			List<String> after = new ArrayList<String>();
+			after.add(serverUnit);
+			Iterator<JSONObject> pas = projectAreas.iterator();
+			while (pas.hasNext()) {
+				JSONObject pa = pas.next();
+				JSONObject areaOnly = new JSONObject(server);
+				areaOnly.remove("Users");
+				areaOnly.remove("Licenses");
+				JSONArray area = new JSONArray();
+				area.add(pa);
+				areaOnly.put("Project Areas", area);
+				String areaUnit = unitId(units.size());
+				units.add(areaUnit);
+				queue.addUnit(areaUnit, serverURI+" "+pa.get("name"), withServer(config, areaOnly), after);
+			}
+		}
+		queue.publish(units);
+		log.info("Split the configuration into {} units in: {}", units.size(), queue.getDirectory());
+		return units;
+	}
+
+	/** Coordinate a distributed run: split the configuration, start the local workers, wait for all the
+	 * units to be done, and report the results.
+	 *
+	 * @param config the configuration file
+	 * @param partition server or area
+	 * @param workers the number of local worker processes to start, 0 if the workers are started separately
+	 * @param workerArgs the command line options passed on to the local workers
+	 * @return the worst status of the units, -1 if any unit wasn't done
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int coordinate(JSONObject config, String partition, int workers, List<String> workerArgs) throws IOException, InterruptedException {
+		if (queue.getUnits() != null) {
+			log.info("Continuing the distributed run in: {}", queue.getDirectory());
+		} else {
+			partition(config, partition);
+		}
+		List<Process> processes = new ArrayList<Process>();
+		for (int w=0; w<workers; w++) {
+			processes.add(startWorker(w, workerArgs));
+		}
+		long reported = System.currentTimeMillis();
+		while (!queue.isFinished()) {
+			if (workers > 0 && !isAlive(processes)) {
+				log.error("The local workers exited before all the units were done");
+				break;
+			}
+			Thread.sleep(getPollTime());
+			if (System.currentTimeMillis()-reported > leaseTime) {
+				log.info("Waiting for the units in: {}", queue.getDirectory());
+				reported = System.currentTimeMillis();
+			}
+		}
+		return report();
+	}
+
+	/** Claim and synchronize units until they are all done
+	 *
+	 * @param synchronizer synchronizes each unit's configuration
+	 * @return the worst status of the units this worker synchronized
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public int work(LDAP2RTCSync synchronizer) throws IOException, InterruptedException {
+		log.info("Worker: {} synchronizing the units in: {}", queue.getWorkerId(), queue.getDirectory());
+		int status = 0;
+		int done = 0;
+		try {
+			while (!queue.isFinished()) {
+				WorkQueue.Lease lease = queue.claim();
+				if (lease == null) {
+					Thread.sleep(getPollTime());
+					continue;
+				}
+				status = Math.min(status, run(lease, synchronizer));
+				done++;
+			}
+		} finally {
+			queue.close();
+		}
+		log.info("Worker: {} synchronized {} units", queue.getWorkerId(), done);
+		return status;
+	}
+
+	/** Synchronize a unit as a run of its own, and record its result
+	 *
+	 * @param lease the claimed unit
+	 * @param synchronizer synchronizes the unit's configuration
+	 * @return the unit's status
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private int run(WorkQueue.Lease lease, LDAP2RTCSync synchronizer) throws IOException {
+		log.info("Synchronizing unit: {}{}", lease.getUnit(), lease.isReclaimed()? ", resuming from its journal": "");
+		long start = System.currentTimeMillis();
+		Status.appStatus.setCode(0);
+		ConfigValidation.runValidation = new ConfigValidation();
+		SyncJournal.runJournal = new SyncJournal();
+		LdapRtcConfig config = new LdapRtcConfig(lease.getConfig(), log);
+		final SyncJournal journal = SyncJournal.runJournal;
+		final String unit = lease.getUnit();
+		try {
+			journal.open(queue.journalFile(unit).getPath(), true, log);
+			lease.whenLost(new Runnable() {
+				public void run() {
+					journal.stop("the lease on unit: "+unit+" was taken over by another worker");
+				}
+			});
+			synchronizer.sync(config);
+		} catch (Exception e) {
+			log.error("Unable to synchronize unit: {}: {}", lease.getUnit(), e.getMessage());
+			Status.appStatus.setCode(-1);
+		} finally {
+			journal.close(false);  // still open if the unit did not finish
+			config.close();
+		}
+		JSONObject result = new JSONObject();
+		result.put("status", Status.appStatus.getCode());
+		result.put("started", start);
+		result.put("seconds", (System.currentTimeMillis()-start)/1000.0);
+		lease.complete(result);
+		return Status.appStatus.getCode();
+	}
+
+	/** Merge the results of the units into the run report, and log it
+	 *
+	 * @return the worst status of the units, -1 if any unit wasn't done
+	 * @throws IOException
+	 */
+	public int report() throws IOException {
+		JSONObject report = queue.report();
+		log.info("Distributed run: {} of {} units done, {} failed, {} reassigned after their worker stopped; units by worker: {}",
+				report.get("done"), report.get("units"), report.get("failed"), report.get("reclaimed"), report.get("workers"));
+		JSONArray results = (JSONArray)report.get("results");
+		for (int r=0; r<results.size(); r++) {
+			JSONObject result = (JSONObject)results.get(r);
+			if (result.get("status") == null) {
+				log.error("Unit: {} ({}) was not done", result.get("unit"), result.get("description"));
+			} else if (((Number)result.get("status")).intValue() != 0) {
+				log.error("Unit: {} ({}) had problems, see the log of worker: {}", result.get("unit"), result.get("description"), result.get("worker"));
+			}
+		}
+		log.info("The run report is: {}", new File(queue.getDirectory(), "report.json"));
+		return ((Number)report.get("status")).intValue();
+	}
+
+	/** Start a local worker process, logging to the shared directory
+	 */
+	private Process startWorker(int worker, List<String> workerArgs) throws IOException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(LDAP2RTCSync.class.getName());
+		command.add("--worker");
+		command.add(queue.getDirectory().getPath());
+		command.add("--lease");
+		command.add(Long.toString(leaseTime/1000));
+		command.addAll(workerArgs);
+		File output = new File(queue.getDirectory(), "worker-"+worker+".log");
+		log.info("Starting local worker {}, logging to: {}", worker, output);
+		return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output).start();
+	}
+
+	private static boolean isAlive(List<Process> processes) {
+		for (int p=0; p<processes.size(); p++) {
+			try {
+				processes.get(p).exitValue();
+			} catch (IllegalThreadStateException e) {
+				return true;  // still running
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the milliseconds between looking for units to claim or results
+	 */
+	private long getPollTime() {
+		return Math.max(100, Math.min(2000, leaseTime/4));
+	}
+
+	/**
+	 * @return a copy of the configuration file with only one of its RTC servers
+	 */
+	@SuppressWarnings("unchecked")
+	private static JSONObject withServer(JSONObject config, JSONObject server) {
+		JSONObject unitConfig = new JSONObject(config);
+		JSONArray servers = new JSONArray();
+		servers.add(server);
+		unitConfig.put("RTCServers", servers);
+		return unitConfig;
+	}
+
+	private static String unitId(int unit) {
+		return String.format("%04d", unit);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/** Maps each user ID and DN seen during synchronization to a small integer, and to a single String instance.
+ *
+ * The integers are the members of MemberSets, so the users of groups, areas and licenses are held as
+ * bitmaps rather than collections of Strings, and every copy of a user ID or DN shares one String.
+ * IDs are assigned in the order the identities are first seen, and are never reused during a run.
+ *
+ * @author jamsden
+ *
+ */
+public class IdentityDictionary {
+
+	/** The dictionary shared by the whole synchronization run
+	 */
+	public static IdentityDictionary identities = new IdentityDictionary();
+
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> names = new ArrayList<String>();
+
+	/** Get the ID of an identity, adding it to the dictionary if it's new
+	 *
+	 * @param name a user ID or DN
+	 * @return the identity's ID
+	 */
+	public synchronized int intern(String name) {
+		Integer id = ids.get(name);
+		if (id != null) return id.intValue();
+		id = Integer.valueOf(names.size());
+		ids.put(name, id);
+		names.add(name);
+		return id.intValue();
+	}
+
+	/**
+	 * @param name a user ID or DN
+	 * @return the identity's ID, or -1 if it is not in the dictionary
+	 */
+	public synchronized int lookup(String name) {
+		Integer id = ids.get(name);
+		return (id != null)? id.intValue(): -1;
+	}
+
+	/**
+	 * @param id an identity's ID
+	 * @return the user ID or DN
+	 */
+	public synchronized String get(int id) {
+		return names.get(id);
+	}
+
+	/** Get the dictionary's copy of an identity, so equal identities share one String
+	 *
+	 * @param name a user ID or DN, or null
+	 * @return the shared String, or null
+	 */
+	public String canonical(String name) {
+		if (name == null) return null;
+		return get(intern(name));
+	}
+
+	/**
+	 * @param names user IDs or DNs
+	 * @return the set of their IDs
+	 */
+	public MemberSet toSet(Collection<String> names) {
+		MemberSet set = new MemberSet();
+		Iterator<String> members = names.iterator();
+		while (members.hasNext()) {
+			set.add(intern(members.next()));
+		}
+		return set;
+	}
+
+	/**
+	 * @return the number of identities in the dictionary
+	 */
+	public synchronized int size() {
+		return names.size();
+	}
+}
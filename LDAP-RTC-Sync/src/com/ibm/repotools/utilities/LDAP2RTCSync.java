@@ -9,9 +9,19 @@
  */
 package com.ibm.repotools.utilities;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.Console;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
 
 import javax.naming.NamingException;
@@ -22,6 +32,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.PosixParser;
 import org.apache.http.ParseException;
+import org.apache.log4j.LogManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,11 +56,32 @@ public class LDAP2RTCSync {
 	private Logger log = LoggerFactory.getLogger(LDAP2RTCSync.class);
 
 	private LdapRtcConfig config = null;  		// The LDAP-RTC synchronization JSON configuration file.
-	private LdapConnection connection = null; 	// The LDAP directory connection
+	private DirectorySource connection = null; 	// The LDAP directory connection, or a snapshot of it
+	private boolean validateOnly = false;		// Only check the configuration, without making any changes
+	private String ldifFile = null;				// An LDIF export read instead of the LDAP server
+	private DistributedSync distributed = null;	// The shared work units, if this is a coordinator or a worker
+	private boolean worker = false;				// Synchronize the units of a distributed run
+	private String partition = "server";		// The units the coordinator splits the configuration into
+	private int workers = 0;					// The local worker processes the coordinator starts
+	private BatchSync batch = null;				// The configuration files synchronized together, if there are several
+	private String query = null;				// The users to describe the grants of, instead of synchronizing
+	private boolean compare = false;			// Compare the users' grants with what they have in RTC
+	private DirectoryListener listener = null;	// Synchronizes the changes to the groups as they are seen, if listening
+	private ConfigFingerprint fingerprint = null;	// The configuration as of the last successful run
+	private boolean unchanged = false;			// Nothing changed in the configuration since the last successful run
+	private String exportFile = null;			// The file the memberships and licenses in RTC are exported to, if exporting
+	private String exportFormat = null;			// The format of the export: jsonl or csv
 
 	/** The main program entry point to synchronize LDAP and RTC users.
 	 * 
-	 * @param args --config <configuration-file>.json
+	 * @param args --config <configuration-file>.json [--journal <journal-file>] [--resume] [--ldif <ldif-file>] [--trace <trace-file> [--sample <rate>]] [--validate] [--incremental]
+	 *   or --config <configuration-file>.json --coordinate <directory> [--partition server|area] [--workers <n>] [--lease <seconds>]
+	 *   or --worker <directory> [--lease <seconds>] [--ldif <ldif-file>]
+	 *   or --batch <configuration-file-or-directory>,... [--resume] [--ldif <ldif-file>] [--trace <trace-file> [--sample <rate>]] [--validate]
+	 *   or --config <configuration-file>.json --query <user-id>,...|- [--compare] [--ldif <ldif-file>]
+	 *   or --config <configuration-file>.json --users <user-id-or-DN>,... [--journal <journal-file>] [--ldif <ldif-file>] [--validate]
+	 *   or --config <configuration-file>.json --listen <seconds> [--debounce <seconds>]
+	 *   or --config <configuration-file>.json --export <file> [--format jsonl|csv]
 	 * @throws TeamRepositoryException
 	 */
 	public static void main(String[] args) throws TeamRepositoryException {
@@ -65,9 +97,13 @@ public class LDAP2RTCSync {
 			e.printStackTrace();
 			Status.appStatus.setCode(-1);
 		} finally {
+			SyncJournal.runJournal.close(false);  // still open if the run did not finish
+			if (synchronizer.config != null) synchronizer.config.close();  // the LDAP connections, including the listener's
+			SyncTrace.runTrace.close();
 			TeamPlatform.shutdown();
 		}
 		synchronizer.log.info("Done");
+		LogManager.shutdown();  // write any audit records that are still queued
 		System.exit(Status.appStatus.getCode());
 	}
 
@@ -83,6 +119,26 @@ public class LDAP2RTCSync {
 			Options options = new Options();
 			options.addOption("c", "config", true, "LDAP - RTC users configuration file");
 			options.addOption("e", "encrypt", false, "Encrypt passwords to be used in the configuration file");
+			options.addOption("j", "journal", true, "Journal file recording the changes applied by each run (default: <configuration-file>.journal)");
+			options.addOption("r", "resume", false, "Resume an interrupted run, skipping the areas it completed");
+			options.addOption("l", "ldif", true, "Read the LDAP groups and users from an LDIF export instead of the LDAP server");
+			options.addOption("t", "trace", true, "Trace file recording where the time of the run goes, in Trace Event Format");
+			options.addOption("s", "sample", true, "Fraction of the project and team areas to trace, from 0 to 1 (default: 1)");
+			options.addOption("v", "validate", false, "Check the LDAP groups, areas, licenses and process roles of the configuration, and exit without making any changes");
+			options.addOption("d", "coordinate", true, "Split the configuration into units in a shared directory, wait for the workers to synchronize them, and report the results");
+			options.addOption("w", "worker", true, "Synchronize the units of a distributed run in a shared directory");
+			options.addOption("p", "partition", true, "The units of a distributed run: server or area (default: server)");
+			options.addOption("n", "workers", true, "Number of local worker processes the coordinator starts (default: 0)");
+			options.addOption("L", "lease", true, "Seconds a worker holds a unit without renewing its lease (default: "+DistributedSync.DEFAULT_LEASE+")");
+			options.addOption("q", "query", true, "Describe the licenses, area memberships and roles the configuration gives users, and from which LDAP groups: user IDs separated by commas, or - to read them from standard input");
+			options.addOption("C", "compare", false, "With --query, compare the users' grants with what they have in RTC now");
+			options.addOption("u", "users", true, "Synchronize only these users, such as someone who joined or left, on every server: user IDs or DNs separated by commas");
+			options.addOption("i", "listen", true, "Read the LDAP groups of the configuration every <seconds> seconds, and synchronize the users whose groups changed, until stopped");
+			options.addOption("D", "debounce", true, "With --listen, seconds without further changes before the changes are synchronized (default: "+DirectoryListener.DEFAULT_DEBOUNCE+")");
+			options.addOption("I", "incremental", false, "Synchronize only the Users, licenses and areas of the configuration that were added or changed since the last successful run");
+			options.addOption("x", "export", true, "Write the members, roles and client access license holders of every area and license in RTC to a file, or - for standard output");
+			options.addOption("f", "format", true, "With --export, jsonl for a JSON object per line or csv (default: csv for a .csv file, otherwise jsonl)");
+			options.addOption("b", "batch", true, "Synchronize several configuration files, or the .json files of directories, separated by commas, sharing their RTC sessions and LDAP groups");
 
 			CommandLineParser parser = new PosixParser();
 			CommandLine cmd = parser.parse(options, args);
@@ -102,6 +158,25 @@ public class LDAP2RTCSync {
 				System.exit(0);
 			}
 
+			ldifFile = cmd.getOptionValue("l");
+			long leaseTime = Long.parseLong(cmd.getOptionValue("L", Long.toString(DistributedSync.DEFAULT_LEASE)));
+			if (cmd.hasOption("w")) {
+				// the configuration of each unit is in the shared directory
+				distributed = new DistributedSync(new File(cmd.getOptionValue("w")), leaseTime, log);
+				worker = true;
+				return true;
+			}
+
+			validateOnly = cmd.hasOption("v");
+			if (cmd.hasOption("b")) {
+				// each configuration file has its own journal
+				batch = new BatchSync(BatchSync.configFiles(cmd.getOptionValue("b")), ldifFile, cmd.hasOption("r"), validateOnly, log);
+				if (cmd.hasOption("t")) {
+					SyncTrace.runTrace.open(cmd.getOptionValue("t"), Double.parseDouble(cmd.getOptionValue("s", "1")), log);
+				}
+				return true;
+			}
+
 			String configFile = cmd.getOptionValue("c");
 
 			if (configFile == null) {
@@ -116,11 +191,68 @@ public class LDAP2RTCSync {
 				return false;
 			}
 			
-			connection = config.getLDAPConnection();
+			if (cmd.hasOption("d")) {
+				// the workers read LDAP and keep the journals
+				distributed = new DistributedSync(new File(cmd.getOptionValue("d")), leaseTime, log);
+				partition = cmd.getOptionValue("p", partition);
+				workers = Integer.parseInt(cmd.getOptionValue("n", "0"));
+				return true;
+			}
+			
+			if (cmd.hasOption("x")) {
+				// RTC as it is now, without reading LDAP
+				exportFile = cmd.getOptionValue("x");
+				exportFormat = MembershipExport.format(exportFile, cmd.getOptionValue("f"));
+				if (!exportFormat.equals(MembershipExport.JSON_LINES) && !exportFormat.equals(MembershipExport.CSV)) {
+					log.error("Unknown export format: "+exportFormat+", use jsonl or csv");
+					return false;
+				}
+				return true;
+			}
+			
+			connection = config.getLDAPConnection(ldifFile);
 			if (connection==null) {
 				log.error("Missing LDAPConnection element in config file");
 				return false;
 			}
+			
+			if (cmd.hasOption("q")) {
+				query = cmd.getOptionValue("q");
+				compare = cmd.hasOption("C");
+				return true;
+			}
+			
+			if (cmd.hasOption("i")) {
+				// each change is a run of its own, without a journal to resume
+				long debounce = Long.parseLong(cmd.getOptionValue("D", Long.toString(DirectoryListener.DEFAULT_DEBOUNCE)));
+				listener = new DirectoryListener(config, connection, Long.parseLong(cmd.getOptionValue("i")), debounce, log);
+				return true;
+			}
+			
+			String journalFile = cmd.getOptionValue("j", configFile+".journal");
+			if (cmd.hasOption("u")) {
+				// the groups are used by many areas and licenses, so read each of them once
+				connection = new CachedDirectory(connection);
+				config.setLDAPConnection(connection);
+				List<String> userIds = SyncScope.runScope.target(cmd.getOptionValue("u"), connection, log);
+				if (userIds.isEmpty()) {
+					log.error("None of the users to synchronize are defined: "+cmd.getOptionValue("u"));
+					return false;
+				}
+				log.info("Synchronizing only the users: {}", userIds);
+				journalFile = cmd.getOptionValue("j", configFile+".users.journal");  // don't complete the areas of the full run's journal
+			} else {
+				fingerprint = new ConfigFingerprint(config.getJSON(), configFile+".fingerprint", log);
+				if (cmd.hasOption("I")) incremental();
+			}
+			
+			if (!validateOnly) {
+				SyncJournal.runJournal.open(journalFile, cmd.hasOption("r"), log);
+			}
+			
+			if (cmd.hasOption("t")) {
+				SyncTrace.runTrace.open(cmd.getOptionValue("t"), Double.parseDouble(cmd.getOptionValue("s", "1")), log);
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -133,23 +265,175 @@ public class LDAP2RTCSync {
 	}
 	
 		
-	/** Does the LDAP - RTC user synchronization
+	/** Does the LDAP - RTC user synchronization, of a batch of configuration files, or its part of a distributed run
 	 * 
 	 * @throws TeamRepositoryException
 	 */
 	public void sync() throws TeamRepositoryException {
+		if (query != null) {
+			query();
+			return;
+		}
+		if (exportFile != null) {
+			export();
+			return;
+		}
+		if (batch != null) {
+			Status.appStatus.setCode(batch.run(this));
+			return;
+		}
+		if (listener != null) {
+			listener.listen(this);
+			return;
+		}
+		if (distributed == null) {
+			if (unchanged) return;
+			sync(config);
+			if (fingerprint != null && !validateOnly && Status.appStatus.getCode() == 0) fingerprint.save();
+			return;
+		}
 		try {
+			if (worker) {
+				Status.appStatus.setCode(distributed.work(this));
+			} else {
+				List<String> workerArgs = new ArrayList<String>();
+				if (ldifFile != null) {
+					workerArgs.add("--ldif");
+					workerArgs.add(ldifFile);
+				}
+				Status.appStatus.setCode(distributed.coordinate(config.getJSON(), partition, workers, workerArgs));
+			}
+		} catch (IOException e) {
+			log.error("Unable to use the distributed run directory: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Status.appStatus.setCode(-1);
+		}
+	}
+	
+	/** Limit the run to the parts of the configuration that were added or changed since the last successful run
+	 */
+	private void incremental() {
+		if (!fingerprint.hasPrevious()) {
+			log.info("No previous successful run to compare the configuration with, synchronizing everything");
+			return;
+		}
+		List<String> parts = new ArrayList<String>(fingerprint.getAdded());
+		parts.addAll(fingerprint.getChanged());
+		log.info("Configuration parts added: {}, changed: {}", fingerprint.getAdded().size(), fingerprint.getChanged().size());
+		List<String> removed = fingerprint.getRemoved();
+		for (int r=0; r<removed.size(); r++) {
+			log.info("Configuration part removed, its users are left as they are: {}", removed.get(r).replace('\n', ' '));
+		}
+		if (parts.isEmpty()) {
+			log.info("The configuration is unchanged since the last successful run, nothing to synchronize");
+			unchanged = true;
+			return;
+		}
+		for (int p=0; p<parts.size(); p++) {
+			log.info("Synchronizing configuration part: {}", parts.get(p).replace('\n', ' '));
+		}
+		SyncScope.runScope.limit(parts);
+	}
+	
+	/** Describe what the configuration grants the queried users, from an index of the configuration's groups,
+	 * reading the user IDs from standard input if the query is -
+	 */
+	private void query() {
+		MembershipIndex index = new MembershipIndex(config.getJSON(), connection, log);
+		index.build();
+		try {
+			if (!query.equals("-")) {
+				String[] userIds = query.split(",");
+				for (int u=0; u<userIds.length; u++) {
+					print(index.describe(userIds[u].trim(), compare));
+				}
+				return;
+			}
+			BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+			for (String userId = input.readLine(); userId != null; userId = input.readLine()) {
+				if (!userId.trim().isEmpty()) print(index.describe(userId.trim(), compare));
+			}
+		} catch (IOException e) {
+			log.error("Unable to read the user IDs to query: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		} finally {
+			index.disconnect();
+		}
+	}
+	
+	/** Export the memberships and licenses of the configuration's servers as they are in RTC now
+	 */
+	private void export() {
+		try {
+			Writer out = exportFile.equals("-")? new OutputStreamWriter(System.out, "UTF-8"): new OutputStreamWriter(new FileOutputStream(exportFile), "UTF-8");
+			try {
+				new MembershipExport(new BufferedWriter(out), exportFormat, log).export(config.getServers());
+			} finally {
+				if (exportFile.equals("-")) {
+					out.flush();
+				} else {
+					out.close();
+				}
+			}
+		} catch (IOException e) {
+			log.error("Unable to write the export: "+exportFile+": "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+	}
+	
+	private static void print(List<String> lines) {
+		for (int l=0; l<lines.size(); l++) {
+			System.out.println(lines.get(l));
+		}
+		System.out.flush();
+	}
+	
+	/** Does the LDAP - RTC user synchronization of a configuration. The whole configuration is validated
+	 * first, and its problems are reported before any changes are made.
+	 * 
+	 * @param config the configuration to synchronize
+	 * @throws TeamRepositoryException
+	 */
+	public void sync(LdapRtcConfig config) throws TeamRepositoryException {
+		config.getLDAPConnection(ldifFile);
+		SyncTrace.Span span = SyncTrace.runTrace.start("run", "run");
+		try {
+			Collection<RTCServer> configured = config.getServers();
+			SyncTrace.Span stage = SyncTrace.runTrace.start("validate", "stage");
+			try {
+				Iterator<RTCServer> servers = configured.iterator();
+				while (servers.hasNext()) {
+					servers.next().validate();
+				}
+				stage.set("problems", ConfigValidation.runValidation.report(log));
+			} finally {
+				stage.end();
+			}
+			if (validateOnly) {
+				Iterator<RTCServer> servers = configured.iterator();
+				while (servers.hasNext()) {
+					servers.next().disconnect();
+				}
+				return;
+			}
+			
 			// Synchronize each RTC server specified in the configuration file.
-			Iterator<RTCServer> servers = config.getServers().iterator();
+			Iterator<RTCServer> servers = configured.iterator();
 			while (servers.hasNext()) {
 				RTCServer server = servers.next();
 				log.info("Synchronizing users for server: "+server.getServerURI());
 				server.syncServerUsers();
 				server.disconnect();
 			}
+			SyncJournal.runJournal.close(Status.appStatus.getCode() == 0);  // a run that failed can be resumed
 		} catch (NamingException e) {
 			e.printStackTrace();
 			Status.appStatus.setCode(-1);
+		} finally {
+			span.set("status", Status.appStatus.getCode());
+			span.end();
 		}
 	}
 }
@@ -12,52 +12,87 @@ package com.ibm.repotools.utilities;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
-import javax.naming.ldap.InitialLdapContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
 import com.ibm.team.repository.common.util.ObfuscationHelper;
 
 /** Supports the connection to an LDAP server as specified in the configuration file.
+ * 
+ * The URI can be an array of the URIs of replicas of the LDAP server. Reads are then spread across the replicas
+ * using the Balance (round-robin or least-latency) with Connections Per Replica contexts for each, and fail over
+ * to the other replicas when one stops responding, for Failover Delay seconds (30 by default). Nested groups are
+ * expanded with up to Expansion Requests reads at once, by default one for each context of the replicas.
  * 
  * @author jamsden
  *
  */
-public class LdapConnection {
+public class LdapConnection extends DirectorySource {
 	private JSONObject obj = null;
 	private JSONObject ldapConnection = null;
-	private DirContext ctx = null; // The LDAP directory context from the above URI
+	private LdapReplicaPool replicas = null; // The LDAP directory contexts for the above URI, or each of its replicas
 	
 	public LdapConnection(JSONObject obj) {
+		this(obj, (obj != null)? (JSONObject)obj.get("LDAPConnection"): null);
+	}
+	
+	/** Connect to one of the LDAP servers in the configuration file
+	 * 
+	 * @param obj the configuration file
+	 * @param ldapConnection the LDAPConnection element, or one of the LDAPConnections
+	 */
+	public LdapConnection(JSONObject obj, JSONObject ldapConnection) {
 		this.obj = obj;
 		if (obj == null) return;
-		ldapConnection = (JSONObject) obj.get("LDAPConnection");
+		this.ldapConnection = ldapConnection;
+		schema = DirectorySchema.fromConfig(ldapConnection.get("Schema"));
 		
-		Hashtable<String, Object> env = new Hashtable<String, Object>();
-		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-		env.put(Context.PROVIDER_URL, this.getURI());
-		env.put(Context.SECURITY_PRINCIPAL, this.getAdminId());
-		env.put(Context.SECURITY_CREDENTIALS, this.getAdminPassword());
-		try {
-			ctx = new InitialLdapContext(env, null);
-		} catch (NamingException e) {
-			e.printStackTrace();
-			Status.appStatus.setCode(-1);
-		}
-
+		Long poolSize = (Long)ldapConnection.get("Connections Per Replica");
+		Long failoverDelay = (Long)ldapConnection.get("Failover Delay");
+		replicas = new LdapReplicaPool(getURIs(), this.getAdminId(), this.getAdminPassword(), (String)ldapConnection.get("Balance"),
+				poolSize == null? 1: poolSize.intValue(), failoverDelay == null? 30000: failoverDelay.longValue()*1000);
+		// by default, expand nested groups with as many requests at once as there are directory contexts
+		Long expansionRequests = (Long)ldapConnection.get("Expansion Requests");
+		setExpansionThreads(expansionRequests != null? expansionRequests.intValue(): getURIs().size()*(poolSize == null? 1: Math.max(1, poolSize.intValue())));
 	}
 	
+	/**
+	 * @return the URI of the LDAP server, or of its first replica
+	 */
 	public String getURI() {
 		if (obj == null) return null;
-		return (String)ldapConnection.get("URI");
+		return getURIs().get(0);
+	}
+	
+	/**
+	 * @return the URIs of the replicas of the LDAP server: the URI, or each of an array of URIs
+	 */
+	public List<String> getURIs() {
+		List<String> uris = new ArrayList<String>();
+		if (obj == null) return uris;
+		Object uri = ldapConnection.get("URI");
+		if (uri instanceof JSONArray) {
+			@SuppressWarnings("unchecked")
+			Iterator<String> replicaURIs = ((JSONArray)uri).iterator();
+			while (replicaURIs.hasNext()) {
+				uris.add(replicaURIs.next());
+			}
+		} else {
+			uris.add((String)uri);
+		}
+		return uris;
 	}
 	
 	public String getAdminId() {
@@ -76,37 +111,56 @@ public class LdapConnection {
 		return password;
 	}
 	
-	/** The DirContext can be used to access this LDAP connection.
+	/** Close the directory contexts of the replicas
+	 */
+	public void close() {
+		super.close();
+		if (replicas != null) replicas.close();
+	}
+	
+	/** Read an entry from the LDAP server, requesting only some of its attributes.
 	 * 
-	 * @return the DirContext
+	 * @param dn the entry's Distinguished Name
+	 * @param attributes the attributes to request
+	 * @return the entry's attributes
+	 * @throws NamingException NameNotFoundException if there is no such entry
 	 */
-	public DirContext getContext() {
-		return ctx;
+	protected Attributes getEntry(final String dn, final String[] attributes) throws NamingException {
+		return replicas.execute(new LdapReplicaPool.Operation<Attributes>() {
+			public Attributes run(DirContext ctx) throws NamingException {
+				return ctx.getAttributes(dn, attributes);
+			}
+		});
 	}
 	
-	/** Get all the members of an LDAP group, including members of its subgroups.
+	/** Get all the users of an LDAP group, including the users of its subgroups, with the attributes
+	 * synchronization needs. If the schema has a member of filter, the users are found with one search.
 	 * 
 	 * @param groupDN the group Distinguished Name
-	 * @return a List<String> of all the members  (empty if the group does not have any members)
+	 * @return the users by DN, where the user is null if the member is not a user defined in LDAP
 	 * 
 	 * @throws NamingException
 	 */
-	public List<String> getMembers(String groupDN) throws NamingException {
-		List<String> result = new ArrayList<String>();
-		// Add all the members of this group
-		Attribute members = ctx.getAttributes(groupDN).get("racfgroupuserids");
-		NamingEnumeration<?> ldapUsers = (members != null)? members.getAll(): null;
-		while (ldapUsers != null && ldapUsers.hasMoreElements()) {
-			result.add((String)ldapUsers.next());
-		}
-
-		// now recursively do all the subgroups
-		NamingEnumeration<?> subgroups = null;
-		Attribute groups = ctx.getAttributes(groupDN).get("racfsubgroupname");
-		if (groups != null) subgroups = groups.getAll(); 
-		while (subgroups != null && subgroups.hasMoreElements()) {
-			result.addAll(getMembers((String)subgroups.next()));
-		}
-		return result;
+	public Map<String, DirectoryUser> getGroupUsers(final String groupDN) throws NamingException {
+		if (schema.getMemberOfFilter() == null) return super.getGroupUsers(groupDN);
+		return replicas.execute(new LdapReplicaPool.Operation<Map<String, DirectoryUser>>() {
+			public Map<String, DirectoryUser> run(DirContext ctx) throws NamingException {
+				Map<String, DirectoryUser> users = new LinkedHashMap<String, DirectoryUser>();
+				ctx.getAttributes(groupDN, new String[0]);  // the group must exist
+				SearchControls controls = new SearchControls();
+				controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+				controls.setReturningAttributes(schema.getUserAttributes());
+				NamingEnumeration<SearchResult> results = ctx.search(schema.getSearchBase(), schema.getMemberOfFilter(), new Object[] {groupDN}, controls);
+				try {
+					while (results.hasMore()) {
+						SearchResult result = results.next();
+						users.put(result.getNameInNamespace(), schema.toUser(result.getNameInNamespace(), result.getAttributes()));
+					}
+				} finally {
+					results.close();
+				}
+				return users;
+			}
+		});
 	}
 }
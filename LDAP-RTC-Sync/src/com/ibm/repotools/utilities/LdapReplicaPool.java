@@ -0,0 +1,308 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import javax.naming.ldap.InitialLdapContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Spreads LDAP reads across the replicas of an LDAP server, and fails over when a replica stops responding.
+ *
+ * Each replica has its own pool of directory contexts, and a context is used by one thread at a time, so reads
+ * from several threads go to several replicas at once. Each read goes to the next healthy replica in turn
+ * (round-robin), or to the healthy replica with the lowest recent latency allowing for the reads already
+ * in progress on it (least-latency). A replica that fails with a communication error is taken out of use for
+ * the failover delay and the read is retried on another replica. When the delay has passed, the replica is
+ * checked again before it is used, and stays out of use for another delay if it still doesn't respond.
+ *
+ * A thread that needs a context while all of a replica's contexts are in use waits for one to be released.
+ * Discarding the contexts of a failed replica wakes the waiting threads, so they connect again instead of
+ * waiting for contexts that were closed.
+ *
+ * @author jamsden
+ *
+ */
+public class LdapReplicaPool {
+	public static final String ROUND_ROBIN = "round-robin";
+	public static final String LEAST_LATENCY = "least-latency";
+
+	/** A read done with a directory context of one of the replicas
+	 */
+	public static abstract class Operation<T> {
+		public abstract T run(DirContext ctx) throws NamingException;
+	}
+
+	/** One replica and its directory contexts
+	 */
+	private class Replica {
+		String uri = null;
+		ArrayDeque<DirContext> idle = new ArrayDeque<DirContext>();  // guarded by this
+		int open = 0;  // contexts created and not yet closed, guarded by this
+		AtomicInteger inUse = new AtomicInteger();
+		volatile double latency = 0;  // exponentially weighted average of the read time in ms
+		volatile long downUntil = 0;  // when a failed replica can be checked again
+		volatile boolean down = false;  // failed, and not yet checked again
+		AtomicBoolean probing = new AtomicBoolean();  // a thread is checking the replica again
+
+		Replica(String uri) {
+			this.uri = uri;
+		}
+
+		void markDown() {
+			down = true;
+			downUntil = System.currentTimeMillis()+failoverDelay;
+		}
+
+		/**
+		 * @return a context of this replica, waiting for one if all the pool's contexts are in use
+		 * @throws NamingException if a new context can't be created
+		 */
+		DirContext acquire() throws NamingException {
+			synchronized (this) {
+				while (idle.isEmpty() && open >= poolSize) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new NamingException("Interrupted waiting for a connection to "+uri);
+					}
+				}
+				if (!idle.isEmpty()) return idle.poll();
+				open++;  // reserve the context before connecting, outside the lock
+			}
+			try {
+				return connect(uri);
+			} catch (NamingException | RuntimeException e) {
+				synchronized (this) {
+					open--;
+					notifyAll();
+				}
+				throw e;
+			}
+		}
+
+		synchronized void release(DirContext ctx) {
+			idle.offer(ctx);
+			notifyAll();
+		}
+
+		/** Close a context that failed, and all the idle contexts of the replica which likely failed too
+		 */
+		void discard(DirContext ctx) {
+			List<DirContext> contexts = new ArrayList<DirContext>();
+			synchronized (this) {
+				if (ctx != null) contexts.add(ctx);
+				contexts.addAll(idle);
+				idle.clear();
+				open -= contexts.size();
+				notifyAll();  // the threads waiting for a context can connect again
+			}
+			for (int c=0; c<contexts.size(); c++) {
+				try {
+					contexts.get(c).close();
+				} catch (NamingException e) {
+					// ignore errors closing a context that failed
+				}
+			}
+		}
+
+		void recordLatency(long millis) {
+			latency = (latency == 0)? millis: 0.8*latency + 0.2*millis;
+		}
+	}
+
+	private List<Replica> replicas = new ArrayList<Replica>();
+	private String principal = null;
+	private String credentials = null;
+	private String balance = ROUND_ROBIN;
+	private int poolSize = 1;  // contexts per replica
+	private long failoverDelay = 30000;  // ms a failed replica is out of use
+	private AtomicInteger next = new AtomicInteger();
+	private Logger log = LoggerFactory.getLogger(LdapReplicaPool.class);
+
+	/** Create a pool for the replicas of an LDAP server, and check which replicas are available.
+	 *
+	 * @param uris the LDAP URIs of the replicas
+	 * @param principal the user ID to bind with
+	 * @param credentials the password to bind with
+	 * @param balance ROUND_ROBIN or LEAST_LATENCY
+	 * @param poolSize the number of contexts to use for each replica
+	 * @param failoverDelay the milliseconds a replica that failed is out of use
+	 */
+	public LdapReplicaPool(List<String> uris, String principal, String credentials, String balance, int poolSize, long failoverDelay) {
+		this.principal = principal;
+		this.credentials = credentials;
+		if (balance != null) this.balance = balance;
+		this.poolSize = Math.max(1, poolSize);
+		this.failoverDelay = failoverDelay;
+		for (int r=0; r<uris.size(); r++) {
+			replicas.add(new Replica(uris.get(r)));
+		}
+		checkHealth();
+	}
+
+	/** Connect to each replica, taking the ones that don't respond out of use for the failover delay
+	 *
+	 * @return the number of replicas that are available
+	 */
+	public int checkHealth() {
+		int healthy = 0;
+		for (int r=0; r<replicas.size(); r++) {
+			if (probe(replicas.get(r))) healthy++;
+		}
+		if (healthy == 0) {
+			log.error("None of the LDAP replicas are available");
+			Status.appStatus.setCode(-1);
+		}
+		return healthy;
+	}
+
+	/** Run a read on one of the replicas, failing over to the others if it can't communicate with the replica.
+	 *
+	 * @param operation the read
+	 * @return the result of the read
+	 * @throws NamingException if the read fails, or every replica failed
+	 */
+	public <T> T execute(Operation<T> operation) throws NamingException {
+		NamingException failure = null;
+		for (int attempt=0; attempt<replicas.size(); attempt++) {
+			Replica replica = choose();
+			DirContext ctx = null;
+			SyncTrace.Span span = SyncTrace.runTrace.start("read", "ldap").set("replica", replica.uri);
+			replica.inUse.incrementAndGet();
+			try {
+				ctx = replica.acquire();
+				long start = System.currentTimeMillis();
+				T result = operation.run(ctx);
+				replica.recordLatency(System.currentTimeMillis()-start);
+				return result;
+			} catch (CommunicationException | ServiceUnavailableException e) {
+				span.set("failed", e.getMessage());
+				log.warn("LDAP replica: {} failed, failing over: {}", replica.uri, e.getMessage());
+				replica.markDown();
+				replica.discard(ctx);
+				ctx = null;
+				failure = e;
+			} finally {
+				if (ctx != null) replica.release(ctx);  // the read succeeded, or failed without the replica failing
+				replica.inUse.decrementAndGet();
+				span.end();
+			}
+		}
+		throw failure;
+	}
+
+	/** Read the root entry of a replica to see if it responds, taking it out of use for the failover delay if it doesn't
+	 *
+	 * @return true if the replica is available
+	 */
+	private boolean probe(Replica replica) {
+		DirContext ctx = null;
+		try {
+			long start = System.currentTimeMillis();
+			ctx = replica.acquire();
+			ctx.getAttributes("", new String[] {"namingContexts"});
+			replica.recordLatency(System.currentTimeMillis()-start);
+			if (replica.down) log.info("LDAP replica: {} is available again", replica.uri);
+			replica.down = false;
+			replica.downUntil = 0;
+			replica.release(ctx);
+			return true;
+		} catch (NamingException e) {
+			log.warn("LDAP replica: {} is not available: {}", replica.uri, e.getMessage());
+			replica.markDown();
+			replica.discard(ctx);
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the replica can be used now: it hasn't failed, or it failed but responds again. A replica
+	 * whose failover delay has passed is checked by one thread, and the others don't use it meanwhile.
+	 */
+	private boolean isHealthy(Replica replica, long now) {
+		if (!replica.down) return true;
+		if (replica.downUntil > now || !replica.probing.compareAndSet(false, true)) return false;
+		try {
+			return probe(replica);
+		} finally {
+			replica.probing.set(false);
+		}
+	}
+
+	/**
+	 * @return the replica to use for the next read
+	 */
+	private Replica choose() {
+		long now = System.currentTimeMillis();
+		List<Replica> healthy = new ArrayList<Replica>();
+		for (int r=0; r<replicas.size(); r++) {
+			if (isHealthy(replicas.get(r), now)) healthy.add(replicas.get(r));
+		}
+		if (healthy.isEmpty()) {
+			// all have failed recently: try the one that has been out of use longest
+			Replica soonest = replicas.get(0);
+			for (int r=1; r<replicas.size(); r++) {
+				if (replicas.get(r).downUntil < soonest.downUntil) soonest = replicas.get(r);
+			}
+			return soonest;
+		}
+		if (LEAST_LATENCY.equalsIgnoreCase(balance)) {
+			Replica best = null;
+			double bestCost = Double.MAX_VALUE;
+			for (int r=0; r<healthy.size(); r++) {
+				Replica replica = healthy.get(r);
+				double cost = (replica.latency+1)*(replica.inUse.get()+1);
+				if (cost < bestCost) {
+					best = replica;
+					bestCost = cost;
+				}
+			}
+			return best;
+		}
+		return healthy.get((next.getAndIncrement() & Integer.MAX_VALUE) % healthy.size());
+	}
+
+	/** Close all the replicas' idle contexts, at the end of a run
+	 */
+	public void close() {
+		for (int r=0; r<replicas.size(); r++) {
+			replicas.get(r).discard(null);
+		}
+	}
+
+	/** Open a new directory context to a replica
+	 *
+	 * @param uri the LDAP URI of the replica
+	 * @return the context
+	 * @throws NamingException if the replica can't be connected to
+	 */
+	protected DirContext connect(String uri) throws NamingException {
+		Hashtable<String, Object> env = new Hashtable<String, Object>();
+		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+		env.put(Context.PROVIDER_URL, uri);
+		env.put(Context.SECURITY_PRINCIPAL, principal);
+		env.put(Context.SECURITY_CREDENTIALS, credentials);
+		return new InitialLdapContext(env, null);
+	}
+}
@@ -30,7 +30,7 @@ import org.slf4j.Logger;
 public class LdapRtcConfig {
 
 	private JSONObject obj = null;
-	private LdapConnection ldapConnection = null;
+	private DirectorySource ldapConnection = null;
 	private Logger log = null;
 
 	/** Reads and parses the configuration file and readies it for subsequent uses.
@@ -51,17 +51,63 @@ public class LdapRtcConfig {
 	    }
 	}
 	
+	/** Use a configuration that has already been read, such as a unit of a distributed run.
+	 *
+	 * @param obj the JSON representation of the configuration file
+	 * @param log
+	 */
+	public LdapRtcConfig(JSONObject obj, Logger log) {
+		this.obj = obj;
+		this.log = log;
+	}
+
+	/**
+	 * @return the JSON representation of the configuration file, or null if it couldn't be read
+	 */
+	public JSONObject getJSON() {
+		return obj;
+	}
+
 	/** Get the LDAP connection from the LDAP-RTC user sync configuration file
+	 *
+	 * @return a new LdapConnection that is ready for access, an LdifDirectory if the LDAPConnection has an LDIF file,
+	 * or DirectorySources if there are LDAPConnections.
+	 */
+	public DirectorySource getLDAPConnection() {
+		return getLDAPConnection(null);
+	}
+	
+	/** Get the LDAP connection from the LDAP-RTC user sync configuration file, or read the directory from an LDIF file
 	 * 
-	 * @return a new LdapConnection that is ready for access.
+	 * @param ldifFile an LDIF export of the directory to use instead of the configured one, or null
+	 * @return the directory, ready for access.
 	 */
-	public LdapConnection getLDAPConnection() {
+	public DirectorySource getLDAPConnection(String ldifFile) {
 		if (ldapConnection == null) {
-            ldapConnection = new LdapConnection(obj);
+			if (obj != null && obj.get("LDAPConnections") != null) {
+				ldapConnection = new DirectorySources(obj, ldifFile, log);
+			} else {
+				ldapConnection = DirectorySources.open(obj, (obj != null)? (JSONObject)obj.get("LDAPConnection"): null, ldifFile, log);
+			}
 		}
 		return ldapConnection;
 	}
 	
+	/** Use a directory that has already been opened, such as one shared by the configuration files of a batch
+	 *
+	 * @param ldapConnection the directory the groups and users of the configuration are read from
+	 */
+	public void setLDAPConnection(DirectorySource ldapConnection) {
+		this.ldapConnection = ldapConnection;
+	}
+	
+	/** Close the directory the configuration's groups were read from, if it was opened
+	 */
+	public void close() {
+		if (ldapConnection != null) ldapConnection.close();
+		ldapConnection = null;
+	}
+	
 	/** Get the RTC server elements defined in the configuration file
 	 * 
 	 * @return Collection of RTC servers specified in the configuration file
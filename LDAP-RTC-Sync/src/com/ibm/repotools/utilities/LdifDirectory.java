@@ -0,0 +1,211 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import org.apache.commons.codec.binary.Base64;
+import org.slf4j.Logger;
+
+/** A directory read from an LDIF export of an LDAP server, used instead of a live LDAP connection.
+ *
+ * The LDIF file is read one line at a time, unfolding continuation lines and decoding base64 (::) values,
+ * and only the attributes of the DirectorySchema are kept for each entry. The entries are indexed by
+ * normalized DN, so expanding groups takes no round trips to an LDAP server. Change records other than
+ * adds, and values given by URL (:<), are skipped.
+ *
+ * The LDIF file is given in the LDAPConnection element of the configuration file, or with --ldif:
+ *
+ *   "LDAPConnection": {
+ *       "LDIF": "docs/RTC.ldif",
+ *       "Schema": {"Preset": "groupOfNames", "User ID From DN": true}
+ *   }
+ *
+ * @author jamsden
+ *
+ */
+public class LdifDirectory extends DirectorySource {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String ldifFile = null;
+	private Map<String, Attributes> entries = new HashMap<String, Attributes>();  // <normalized DN, schema attributes>
+	private Set<String> kept = new HashSet<String>();  // the lower case names of the attributes to keep
+	private int skipped = 0;  // records that are not entries
+	private Logger log = null;
+
+	/** Read a directory from an LDIF file
+	 *
+	 * @param ldifFile the LDIF file name
+	 * @param schema the attributes of the directory's groups and users
+	 * @param log for logging errors, warnings and information
+	 */
+	public LdifDirectory(String ldifFile, DirectorySchema schema, Logger log) {
+		this.ldifFile = ldifFile;
+		this.schema = schema;
+		this.log = log;
+		String[] attributes = schema.getEntryAttributes();
+		for (int a=0; a<attributes.length; a++) {
+			kept.add(attributes[a].toLowerCase());
+		}
+		long start = System.currentTimeMillis();
+		try {
+			read(new InputStreamReader(new FileInputStream(ldifFile), UTF8));
+			log.info("Read {} entries from LDIF file: {} in {} ms", entries.size(), ldifFile, System.currentTimeMillis()-start);
+			if (skipped > 0) log.warn("Skipped {} LDIF records that are not entries", skipped);
+		} catch (IOException e) {
+			log.error("Unable to read LDIF file: {} due to: {}", ldifFile, e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+	}
+
+	public String getLdifFile() {
+		return ldifFile;
+	}
+
+	/**
+	 * @return the number of entries read from the LDIF file
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+		Attributes entry = entries.get(normalize(dn));
+		if (entry == null) throw new NameNotFoundException(dn);
+		return entry;
+	}
+
+	/** Stream the LDIF records into the entry index.
+	 *
+	 * @param reader the LDIF content
+	 * @throws IOException
+	 */
+	private void read(Reader reader) throws IOException {
+		BufferedReader in = new BufferedReader(reader);
+		try {
+			List<String> record = new ArrayList<String>();
+			StringBuilder line = null;  // the logical line being unfolded
+			String physical = null;
+			while ((physical = in.readLine()) != null) {
+				if (physical.startsWith(" ") && line != null) {
+					line.append(physical, 1, physical.length());  // a folded continuation line
+					continue;
+				}
+				if (line != null && line.charAt(0) != '#') record.add(line.toString());
+				line = null;
+				if (physical.isEmpty()) {
+					addRecord(record);
+					record.clear();
+				} else {
+					line = new StringBuilder(physical);
+				}
+			}
+			if (line != null && line.charAt(0) != '#') record.add(line.toString());
+			addRecord(record);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Add an LDIF record to the index, keeping only the schema's attributes
+	 *
+	 * @param record the unfolded lines of the record, without comments
+	 */
+	private void addRecord(List<String> record) {
+		int first = 0;
+		if (!record.isEmpty() && record.get(0).toLowerCase().startsWith("version:")) first = 1;
+		if (record.size() <= first) return;
+		String[] dn = parse(record.get(first));
+		if (dn == null || !"dn".equalsIgnoreCase(dn[0])) {
+			skipped++;
+			return;
+		}
+		Attributes entry = new BasicAttributes(true);
+		for (int l=first+1; l<record.size(); l++) {
+			String[] attribute = parse(record.get(l));
+			if (attribute == null) continue;
+			if ("changetype".equalsIgnoreCase(attribute[0]) && !"add".equalsIgnoreCase(attribute[1])) {
+				skipped++;
+				return;
+			}
+			if (!kept.contains(attribute[0].toLowerCase())) continue;
+			Attribute values = entry.get(attribute[0]);
+			if (values == null) {
+				entry.put(attribute[0], attribute[1]);
+			} else {
+				values.add(attribute[1]);
+			}
+		}
+		entries.put(normalize(dn[1]), entry);
+	}
+
+	/** Parse an LDIF attribute line
+	 *
+	 * @param line an unfolded line
+	 * @return the attribute name without options, and its value, or null if the line has no usable value
+	 */
+	private String[] parse(String line) {
+		int colon = line.indexOf(':');
+		if (colon <= 0) return null;
+		String name = line.substring(0, colon);
+		int semicolon = name.indexOf(';');
+		if (semicolon > 0) name = name.substring(0, semicolon);
+		String value = line.substring(colon+1);
+		if (value.startsWith(":")) {
+			value = new String(Base64.decodeBase64(value.substring(1).trim()), UTF8);
+		} else if (value.startsWith("<")) {
+			log.warn("Skipping {} value given by URL in LDIF file: {}", name, ldifFile);
+			return null;
+		} else {
+			int start = 0;
+			while (start < value.length() && value.charAt(start) == ' ') start++;
+			value = value.substring(start);
+		}
+		return new String[] {name, value};
+	}
+
+	/** Normalize a DN so equivalent DNs with different case or spacing find the same entry
+	 *
+	 * @param dn a Distinguished Name
+	 * @return the normalized DN
+	 */
+	static String normalize(String dn) {
+		try {
+			List<Rdn> rdns = new LdapName(dn).getRdns();
+			StringBuilder normalized = new StringBuilder();
+			for (int r=rdns.size()-1; r>=0; r--) {
+				if (normalized.length() > 0) normalized.append(',');
+				normalized.append(rdns.get(r).toString().toLowerCase());
+			}
+			return normalized.toString();
+		} catch (InvalidNameException e) {
+			return dn.trim().toLowerCase();
+		}
+	}
+}
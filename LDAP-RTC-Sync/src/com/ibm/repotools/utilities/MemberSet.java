@@ -0,0 +1,234 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.Arrays;
+
+/** A compressed bitmap of IdentityDictionary IDs: the users of a group, area or license.
+ *
+ * Only the 64 bit words that have members are stored, sorted by their position in the bitmap, so a set
+ * takes space in proportion to its members however large the dictionary is, and union, difference and
+ * intersection are done a word at a time by merging the words of the two sets.
+ *
+ * Iterate over the members with:
+ *   for (int id = set.nextMember(0); id >= 0; id = set.nextMember(id+1))
+ *
+ * @author jamsden
+ *
+ */
+public class MemberSet {
+	private int[] keys = new int[4];  // the position of each stored word, ascending
+	private long[] words = new long[4];  // the non-zero words
+	private int size = 0;  // the number of words stored
+
+	public MemberSet() {
+	}
+
+	private MemberSet(int capacity) {
+		keys = new int[Math.max(1, capacity)];
+		words = new long[Math.max(1, capacity)];
+	}
+
+	/**
+	 * @param id an identity's ID
+	 * @return true if the ID was added, false if it was already a member
+	 */
+	public boolean add(int id) {
+		int key = id >>> 6;
+		long bit = 1L << (id & 63);
+		int index = find(key);
+		if (index >= 0) {
+			if ((words[index] & bit) != 0) return false;
+			words[index] |= bit;
+			return true;
+		}
+		insert(-(index+1), key, bit);
+		return true;
+	}
+
+	/**
+	 * @param id an identity's ID
+	 * @return true if the ID was removed, false if it wasn't a member
+	 */
+	public boolean remove(int id) {
+		int index = find(id >>> 6);
+		long bit = 1L << (id & 63);
+		if (index < 0 || (words[index] & bit) == 0) return false;
+		words[index] &= ~bit;
+		if (words[index] == 0) {
+			System.arraycopy(keys, index+1, keys, index, size-index-1);
+			System.arraycopy(words, index+1, words, index, size-index-1);
+			size--;
+		}
+		return true;
+	}
+
+	public boolean contains(int id) {
+		if (id < 0) return false;
+		int index = find(id >>> 6);
+		return index >= 0 && (words[index] & (1L << (id & 63))) != 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of members
+	 */
+	public int cardinality() {
+		int count = 0;
+		for (int w=0; w<size; w++) {
+			count += Long.bitCount(words[w]);
+		}
+		return count;
+	}
+
+	/**
+	 * @param from the ID to start from
+	 * @return the first member that is at least from, or -1 if there is none
+	 */
+	public int nextMember(int from) {
+		if (from < 0) from = 0;
+		int index = find(from >>> 6);
+		long word = 0;
+		if (index >= 0) {
+			word = words[index] & (-1L << (from & 63));
+		} else {
+			index = -(index+1)-1;  // the next word is wholly after from
+		}
+		while (word == 0) {
+			if (++index >= size) return -1;
+			word = words[index];
+		}
+		return (keys[index] << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * @param other another set
+	 * @return a new set of the members of either set
+	 */
+	public MemberSet union(MemberSet other) {
+		MemberSet result = new MemberSet(size+other.size);
+		int i = 0, j = 0;
+		while (i < size || j < other.size) {
+			if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+				result.append(keys[i], words[i++]);
+			} else if (i >= size || other.keys[j] < keys[i]) {
+				result.append(other.keys[j], other.words[j++]);
+			} else {
+				result.append(keys[i], words[i++] | other.words[j++]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param other another set
+	 * @return a new set of the members of this set that are not in the other set
+	 */
+	public MemberSet minus(MemberSet other) {
+		MemberSet result = new MemberSet(size);
+		int j = 0;
+		for (int i=0; i<size; i++) {
+			while (j < other.size && other.keys[j] < keys[i]) j++;
+			long word = words[i];
+			if (j < other.size && other.keys[j] == keys[i]) word &= ~other.words[j];
+			result.append(keys[i], word);
+		}
+		return result;
+	}
+
+	/**
+	 * @param other another set
+	 * @return a new set of the members of both sets
+	 */
+	public MemberSet intersect(MemberSet other) {
+		MemberSet result = new MemberSet(Math.min(size, other.size));
+		int i = 0, j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (other.keys[j] < keys[i]) {
+				j++;
+			} else {
+				result.append(keys[i], words[i++] & other.words[j++]);
+			}
+		}
+		return result;
+	}
+
+	/** Add all the members of another set to this one
+	 *
+	 * @param other another set
+	 */
+	public void addAll(MemberSet other) {
+		MemberSet union = union(other);
+		keys = union.keys;
+		words = union.words;
+		size = union.size;
+	}
+
+	public boolean equals(Object obj) {
+		if (!(obj instanceof MemberSet)) return false;
+		MemberSet other = (MemberSet)obj;
+		if (size != other.size) return false;
+		for (int w=0; w<size; w++) {
+			if (keys[w] != other.keys[w] || words[w] != other.words[w]) return false;
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		int hash = 1;
+		for (int w=0; w<size; w++) {
+			hash = 31*hash + keys[w];
+			hash = 31*hash + (int)(words[w] ^ (words[w] >>> 32));
+		}
+		return hash;
+	}
+
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (int id = nextMember(0); id >= 0; id = nextMember(id+1)) {
+			if (result.length() > 1) result.append(", ");
+			result.append(id);
+		}
+		return result.append("]").toString();
+	}
+
+	/**
+	 * @return the index of the word at key, or -(insertion point)-1 if there is none
+	 */
+	private int find(int key) {
+		// most sets are built in ID order, so check the last word first
+		if (size > 0 && keys[size-1] == key) return size-1;
+		if (size == 0 || keys[size-1] < key) return -(size+1);
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	private void insert(int index, int key, long word) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size*2);
+			words = Arrays.copyOf(words, size*2);
+		}
+		System.arraycopy(keys, index, keys, index+1, size-index);
+		System.arraycopy(words, index, words, index+1, size-index);
+		keys[index] = key;
+		words[index] = word;
+		size++;
+	}
+
+	/** Add a word after the last one, if it has any members
+	 */
+	private void append(int key, long word) {
+		if (word != 0) insert(size, key, word);
+	}
+}
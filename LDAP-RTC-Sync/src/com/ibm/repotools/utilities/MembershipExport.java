@@ -0,0 +1,238 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+import org.slf4j.Logger;
+
+/** Writes who is in which project and team area, with which roles, and who holds which client access license,
+ * on every server of a configuration as it is in RTC now, for audits and capacity planning (--export).
+ *
+ * Every area and license of a server is read, not just the configured ones. Up to the server's Threads areas
+ * and licenses are read at once, each area with the batched reads of RTCGateway.getAreaSnapshot, and each is
+ * written out as soon as it is read, so only the areas being read are held in memory. The lines of an area or
+ * license are kept together, but the areas and licenses are written in the order they are read.
+ *
+ * Each line is one membership: server, type (administrator, member or license), target (the area or
+ * license), user and, for members, their roles. The lines are JSON objects, or CSV rows with a header,
+ * with the roles separated by semicolons.
+ *
+ * @author jamsden
+ *
+ */
+public class MembershipExport {
+	/** The formats an export can be written in
+	 */
+	public static final String JSON_LINES = "jsonl";
+	public static final String CSV = "csv";
+
+	private static final String[] COLUMNS = {"server", "type", "target", "user", "roles"};
+
+	private Writer out = null;
+	private boolean csv = false;
+	private Logger log = null;
+	private long lines = 0;
+	private boolean started = false;  // the CSV header has been written
+
+	/**
+	 * @param out where the memberships are written
+	 * @param format JSON_LINES or CSV
+	 * @param log for logging errors, warnings and information
+	 */
+	public MembershipExport(Writer out, String format, Logger log) {
+		this.out = out;
+		this.csv = CSV.equalsIgnoreCase(format);
+		this.log = log;
+	}
+
+	/**
+	 * @param fileName the file an export is written to
+	 * @param format the format given with --format, or null
+	 * @return the format given, or else CSV for a .csv file and JSON_LINES for any other
+	 */
+	public static String format(String fileName, String format) {
+		if (format != null) return format.toLowerCase();
+		return fileName.toLowerCase().endsWith(".csv")? CSV: JSON_LINES;
+	}
+
+	/** Export the memberships and licenses of each server, and disconnect from it
+	 *
+	 * @param servers the servers of the configuration
+	 * @throws IOException if the export can't be written
+	 */
+	public void export(Collection<RTCServer> servers) throws IOException {
+		Iterator<RTCServer> configured = servers.iterator();
+		while (configured.hasNext()) {
+			RTCServer server = configured.next();
+			if (server.getGateway() != null) export(server.getGateway(), server.getThreads());
+			server.disconnect();
+		}
+		out.flush();
+	}
+
+	/** Export the memberships of every area of a server, and the holders of every client access license
+	 *
+	 * @param rtc the server
+	 * @param threads the areas and licenses read at once
+	 * @throws IOException if the export can't be written
+	 */
+	public void export(final RTCGateway rtc, int threads) throws IOException {
+		log.info("Exporting the project and team areas and client access licenses of: "+rtc.getServerURI());
+		long start = System.currentTimeMillis();
+		long before = getLines();
+		start();
+		List<Callable<Void>> reads = new ArrayList<Callable<Void>>();
+		List<String> areaNames = rtc.getAreaNames();
+		for (int a=0; areaNames != null && a<areaNames.size(); a++) {
+			final String areaName = areaNames.get(a);
+			reads.add(SyncTrace.runTrace.propagate(new Callable<Void>() {
+				public Void call() throws IOException {
+					AreaSnapshot snapshot = rtc.getAreaSnapshot(areaName);
+					if (snapshot != null) writeArea(rtc.getServerURI(), snapshot);
+					return null;
+				}
+			}));
+		}
+		List<String> licenseKeys = rtc.getLicenseKeys();
+		for (int l=0; licenseKeys != null && l<licenseKeys.size(); l++) {
+			final String licenseKey = licenseKeys.get(l);
+			reads.add(SyncTrace.runTrace.propagate(new Callable<Void>() {
+				public Void call() throws IOException {
+					List<String> holders = rtc.getLicensedUsers(licenseKey);
+					if (holders != null) writeLicense(rtc.getServerURI(), licenseKey, holders);
+					return null;
+				}
+			}));
+		}
+		if (reads.isEmpty()) return;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(Math.max(1, threads), reads.size()));
+		try {
+			List<Future<Void>> results = executor.invokeAll(reads);
+			for (int r=0; r<results.size(); r++) {
+				try {
+					results.get(r).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) throw (IOException)e.getCause();
+					log.error("Unable to export from: "+rtc.getServerURI()+" due to: "+e.getCause().getMessage());
+					Status.appStatus.setCode(-1);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Status.appStatus.setCode(-1);
+		} finally {
+			executor.shutdown();
+		}
+		log.info("Exported {} memberships of {} areas and {} licenses of: {} in {} ms", getLines()-before,
+				(areaNames == null)? 0: areaNames.size(), (licenseKeys == null)? 0: licenseKeys.size(), rtc.getServerURI(), System.currentTimeMillis()-start);
+	}
+
+	/**
+	 * @return the memberships written so far
+	 */
+	public synchronized long getLines() {
+		return lines;
+	}
+
+	private void writeArea(String serverURI, AreaSnapshot snapshot) throws IOException {
+		StringBuilder area = new StringBuilder();
+		Iterator<String> administrators = snapshot.getMembers("Administrators").keySet().iterator();
+		while (administrators.hasNext()) {
+			area.append(line(serverURI, "administrator", snapshot.getName(), administrators.next(), null));
+		}
+		Iterator<String> members = snapshot.getMembers("Members").keySet().iterator();
+		while (members.hasNext()) {
+			String userId = members.next();
+			area.append(line(serverURI, "member", snapshot.getName(), userId, snapshot.getRoleAssignments(userId)));
+		}
+		write(area, snapshot.getMembers("Administrators").size()+snapshot.getMembers("Members").size());
+	}
+
+	private void writeLicense(String serverURI, String licenseKey, List<String> holders) throws IOException {
+		StringBuilder license = new StringBuilder();
+		for (int h=0; h<holders.size(); h++) {
+			license.append(line(serverURI, "license", licenseKey, holders.get(h), null));
+		}
+		write(license, holders.size());
+	}
+
+	/** Write the lines of an area or license together
+	 */
+	private synchronized void write(StringBuilder text, int count) throws IOException {
+		out.write(text.toString());
+		lines += count;
+	}
+
+	/** Write the CSV header, once
+	 */
+	private synchronized void start() throws IOException {
+		if (started) return;
+		if (csv) out.write(join(COLUMNS)+"\n");
+		started = true;
+	}
+
+	/**
+	 * @return one membership as a line of the export
+	 */
+	@SuppressWarnings("unchecked")
+	private String line(String serverURI, String type, String target, String userId, List<String> roles) {
+		if (csv) {
+			StringBuilder joinedRoles = new StringBuilder();
+			for (int r=0; roles != null && r<roles.size(); r++) {
+				if (r > 0) joinedRoles.append(';');
+				joinedRoles.append(roles.get(r));
+			}
+			return join(new String[] {serverURI, type, target, userId, joinedRoles.toString()})+"\n";
+		}
+		Map<String, Object> line = new LinkedHashMap<String, Object>();  // the fields in the order of the CSV columns
+		line.put(COLUMNS[0], serverURI);
+		line.put(COLUMNS[1], type);
+		line.put(COLUMNS[2], target);
+		line.put(COLUMNS[3], userId);
+		if (roles != null) {
+			JSONArray playing = new JSONArray();
+			playing.addAll(roles);
+			line.put(COLUMNS[4], playing);
+		}
+		return JSONValue.toJSONString(line)+"\n";
+	}
+
+	/**
+	 * @return the fields as a CSV row, quoting the fields that need it
+	 */
+	private static String join(String[] fields) {
+		StringBuilder row = new StringBuilder();
+		for (int f=0; f<fields.length; f++) {
+			if (f > 0) row.append(',');
+			String field = fields[f];
+			if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+				row.append('"').append(field.replace("\"", "\"\"")).append('"');
+			} else {
+				row.append(field);
+			}
+		}
+		return row.toString();
+	}
+}
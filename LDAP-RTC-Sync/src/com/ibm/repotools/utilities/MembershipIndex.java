@@ -0,0 +1,403 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.NamingException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+/** Answers which server users, client access licenses, project and team area memberships and process roles
+ * a user would get from the configuration file, and from which LDAP groups.
+ *
+ * The index is built once: every group the configuration file uses is read from LDAP once, and held as the
+ * MemberSet of its users. A user's grants are then found by looking for the groups the user is in, and the
+ * grants of those groups, without reading LDAP again. A user's grants can also be compared with what the
+ * user has in RTC now, to see what the next run would add or remove.
+ *
+ * @author jamsden
+ *
+ */
+public class MembershipIndex {
+	private static final int GROUP_THREADS = 4;  // the groups read from LDAP at once
+
+	/** Something a group of the configuration file gives its users on an RTC server
+	 */
+	public static class Grant {
+		private String serverURI = null;
+		private String kind = null;  // user, license, Administrators, Members or role
+		private String area = null;  // the project or team area, for memberships and roles
+		private String target = null;  // the license or role
+		private String group = null;  // the group DN
+
+		private Grant(String serverURI, String kind, String area, String target, String group) {
+			this.serverURI = serverURI;
+			this.kind = kind;
+			this.area = area;
+			this.target = target;
+			this.group = group;
+		}
+
+		public String getServerURI() {
+			return serverURI;
+		}
+
+		/**
+		 * @return user, license, Administrators, Members or role
+		 */
+		public String getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return the project or team area of a membership or role, otherwise null
+		 */
+		public String getArea() {
+			return area;
+		}
+
+		/**
+		 * @return the license or role, otherwise null
+		 */
+		public String getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return the LDAP group the grant comes from
+		 */
+		public String getGroup() {
+			return group;
+		}
+
+		public String toString() {
+			if (kind.equals("user")) return "server user";
+			if (kind.equals("license")) return "license "+target;
+			if (kind.equals("role")) return "role "+target+" in "+area;
+			return kind+" of "+area;
+		}
+	}
+
+	private JSONObject config = null;
+	private DirectorySource ldapConnection = null;
+	private Logger log = null;
+	private List<Grant> grants = new ArrayList<Grant>();
+	private Map<String, List<Grant>> groupGrants = new LinkedHashMap<String, List<Grant>>();  // <group DN in lower case, what it grants>
+	private Map<String, MemberSet> groupUsers = new HashMap<String, MemberSet>();  // <group DN in lower case, the user IDs of its users>
+	private Map<String, DirectoryUser> users = new ConcurrentHashMap<String, DirectoryUser>();  // <userId, user> of all the groups
+	private Map<String, RTCServer> servers = new HashMap<String, RTCServer>();  // logged into for comparing with RTC
+	private Map<String, AreaSnapshot> snapshots = new HashMap<String, AreaSnapshot>();  // <server and area, snapshot> read for comparing
+	private Map<String, List<String>> licenseHolders = new HashMap<String, List<String>>();  // <server and license, user IDs> read for comparing
+
+	/**
+	 * @param config the configuration file
+	 * @param ldapConnection the directory its groups are read from
+	 * @param log for logging errors, warnings and information
+	 */
+	public MembershipIndex(JSONObject config, DirectorySource ldapConnection, Logger log) {
+		this.config = config;
+		this.ldapConnection = ldapConnection;
+		this.log = log;
+	}
+
+	/** Collect the grants of every server of the configuration file, and read their groups
+	 *
+	 * @return the number of groups read
+	 */
+	public int build() {
+		long start = System.currentTimeMillis();
+		collect();
+		groupUsers.putAll(readGroups(users));
+		log.info("Indexed {} grants of {} groups with {} users in {} ms", grants.size(), groupGrants.size(), users.size(), System.currentTimeMillis()-start);
+		return groupGrants.size();
+	}
+
+	/** Collect the grants of every server of the configuration file, without reading their groups
+	 */
+	@SuppressWarnings("unchecked")
+	public void collect() {
+		if (!grants.isEmpty()) return;  // already collected
+		JSONArray configured = (JSONArray)config.get("RTCServers");
+		if (configured == null) return;
+		Iterator<JSONObject> serverObjects = configured.iterator();
+		while (serverObjects.hasNext()) {
+			JSONObject server = serverObjects.next();
+			String serverURI = (String)server.get("serverURI");
+			JSONObject usersObject = (JSONObject)server.get("Users");
+			if (usersObject != null) addGrants(serverURI, "user", null, null, usersObject.get("Groups"));
+			JSONArray licenses = (JSONArray)server.get("Licenses");
+			if (licenses != null) {
+				Iterator<JSONObject> mappings = licenses.iterator();
+				while (mappings.hasNext()) {
+					JSONObject license = mappings.next();
+					if (license.keySet().size() != 1) continue;
+					String claName = (String)license.keySet().iterator().next();
+					addGrants(serverURI, "license", null, claName, license.get(claName));
+				}
+			}
+			addAreas(serverURI, (JSONArray)server.get("Project Areas"), null);
+		}
+	}
+
+	/**
+	 * @return <group DN in lower case, group DN> of every group the configuration file uses, once collected
+	 */
+	public Map<String, String> getGroups() {
+		Map<String, String> groups = new LinkedHashMap<String, String>();
+		Iterator<Map.Entry<String, List<Grant>>> grouped = groupGrants.entrySet().iterator();
+		while (grouped.hasNext()) {
+			Map.Entry<String, List<Grant>> group = grouped.next();
+			groups.put(group.getKey(), group.getValue().get(0).getGroup());
+		}
+		return groups;
+	}
+
+	/** Read the users of every group the configuration file uses as they are now, several groups at once.
+	 * A group that can't be read is logged, and left out.
+	 *
+	 * @return <group DN in lower case, the user IDs of its users> of the groups that could be read
+	 */
+	public Map<String, MemberSet> readGroups() {
+		return readGroups(null);
+	}
+
+	/** Get what a user is granted by the configuration file
+	 *
+	 * @param userId the user's ID
+	 * @return the grants from the groups the user is in, by server in configuration file order
+	 */
+	public List<Grant> getGrants(String userId) {
+		Set<Grant> found = new HashSet<Grant>();
+		int id = IdentityDictionary.identities.lookup(userId);
+		if (id < 0) return new ArrayList<Grant>();
+		Iterator<Map.Entry<String, MemberSet>> groups = groupUsers.entrySet().iterator();
+		while (groups.hasNext()) {
+			Map.Entry<String, MemberSet> group = groups.next();
+			if (group.getValue().contains(id)) found.addAll(groupGrants.get(group.getKey()));
+		}
+		// in the order of the configuration file
+		List<Grant> ordered = new ArrayList<Grant>(found.size());
+		for (int g=0; g<grants.size(); g++) {
+			if (found.contains(grants.get(g))) ordered.add(grants.get(g));
+		}
+		return ordered;
+	}
+
+	/**
+	 * @param userId the user's ID, which can differ in case from the user ID in LDAP
+	 * @return the user as read from LDAP, or null if the user isn't in any of the groups
+	 */
+	public DirectoryUser getUser(String userId) {
+		DirectoryUser user = users.get(userId);
+		if (user != null) return user;
+		Iterator<DirectoryUser> all = users.values().iterator();
+		while (all.hasNext()) {
+			user = all.next();
+			if (user.getUserId().equalsIgnoreCase(userId)) return user;
+		}
+		return null;
+	}
+
+	/** Describe what a user is granted, and from which groups. If compared with RTC, each grant is followed by
+	 * whether the user has it in RTC now, and what the user has in RTC for the configured licenses and areas
+	 * that the configuration file doesn't grant is listed too, since the next run would remove it.
+	 *
+	 * @param userId the user's ID
+	 * @param compare true to compare the grants with RTC
+	 * @return the description, one line for each grant
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> describe(String userId, boolean compare) {
+		List<String> lines = new ArrayList<String>();
+		DirectoryUser user = getUser(userId);
+		if (user != null) userId = user.getUserId();
+		lines.add(user != null? user.toString()+" "+user.getDN(): userId+" is not in any of the groups of the configuration file");
+		List<Grant> granted = getGrants(userId);
+		JSONArray configured = (JSONArray)config.get("RTCServers");
+		for (int s=0; configured != null && s<configured.size(); s++) {
+			JSONObject server = (JSONObject)configured.get(s);
+			String serverURI = (String)server.get("serverURI");
+			List<String> serverLines = new ArrayList<String>();
+			List<String> given = new ArrayList<String>();  // the grants already described, so each is compared once
+			for (int g=0; g<granted.size(); g++) {
+				Grant grant = granted.get(g);
+				if (!grant.getServerURI().equals(serverURI)) continue;
+				String line = "    "+grant+" from "+grant.getGroup();
+				if (compare && !given.contains(grant.toString())) {
+					Boolean has = has(server, grant.getKind(), grant.getArea(), grant.getTarget(), userId);
+					line += (has == null)? " [unknown in RTC]": has.booleanValue()? " [in RTC]": " [not in RTC, would be added]";
+				}
+				given.add(grant.toString());
+				serverLines.add(line);
+			}
+			if (compare) {
+				// what the user has now that the configuration file manages but doesn't grant the user
+				for (int g=0; g<grants.size(); g++) {
+					Grant grant = grants.get(g);
+					if (!grant.getServerURI().equals(serverURI) || grant.getKind().equals("user") || given.contains(grant.toString())) continue;
+					given.add(grant.toString());
+					if (Boolean.TRUE.equals(has(server, grant.getKind(), grant.getArea(), grant.getTarget(), userId))) {
+						serverLines.add("    "+grant+" [in RTC, not granted, would be removed]");
+					}
+				}
+			}
+			if (serverLines.isEmpty()) continue;
+			lines.add("  "+serverURI);
+			lines.addAll(serverLines);
+		}
+		return lines;
+	}
+
+	/** Log out of the servers used for comparing
+	 */
+	public void disconnect() {
+		Iterator<RTCServer> connected = servers.values().iterator();
+		while (connected.hasNext()) {
+			connected.next().disconnect();
+		}
+		servers.clear();
+	}
+
+	/**
+	 * @return true if the user has the grant in RTC now, or null if RTC can't be read
+	 */
+	private Boolean has(JSONObject serverObject, String kind, String area, String target, String userId) {
+		String serverURI = (String)serverObject.get("serverURI");
+		RTCServer server = servers.get(serverURI);
+		if (server == null) {
+			server = new RTCServer(serverObject, ldapConnection, log);
+			servers.put(serverURI, server);
+		}
+		RTCGateway rtc = server.getGateway();
+		if (rtc == null) return null;
+		if (kind.equals("user")) {
+			RTCUser user = rtc.getUser(userId);
+			return user != null && !user.isArchived();
+		}
+		if (kind.equals("license")) {
+			String key = serverURI+"\n"+target;
+			if (!licenseHolders.containsKey(key)) licenseHolders.put(key, rtc.getLicensedUsers(target));
+			List<String> holders = licenseHolders.get(key);
+			return (holders != null)? holders.contains(userId): null;
+		}
+		String key = serverURI+"\n"+area;
+		if (!snapshots.containsKey(key)) snapshots.put(key, rtc.getAreaSnapshot(area));
+		AreaSnapshot snapshot = snapshots.get(key);
+		if (snapshot == null) return null;
+		if (!kind.equals("role")) return snapshot.getMembers(kind).containsKey(userId);
+		String roleId = snapshot.getRole(target);
+		return roleId != null && snapshot.getRoleAssignments(userId).contains(roleId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addAreas(String serverURI, JSONArray areas, String parentName) {
+		if (areas == null) return;
+		Iterator<JSONObject> configured = areas.iterator();
+		while (configured.hasNext()) {
+			JSONObject area = configured.next();
+			String name = (parentName == null)? (String)area.get("name"): parentName+"/"+area.get("name");
+			addGrants(serverURI, "Administrators", name, null, area.get("Administrators"));
+			addGrants(serverURI, "Members", name, null, area.get("Members"));
+			JSONArray processRoles = (JSONArray)area.get("Process Roles");
+			if (processRoles != null) {
+				Iterator<JSONObject> mappings = processRoles.iterator();
+				while (mappings.hasNext()) {
+					JSONObject mapping = mappings.next();
+					if (mapping.keySet().size() != 1) continue;
+					String roleName = (String)mapping.keySet().iterator().next();
+					addGrants(serverURI, "role", name, roleName, mapping.get(roleName));
+				}
+			}
+			addAreas(serverURI, (JSONArray)area.get("Team Areas"), name);
+		}
+	}
+
+	/** Add a grant for each group of a group or array of groups
+	 */
+	@SuppressWarnings("unchecked")
+	private void addGrants(String serverURI, String kind, String area, String target, Object groups) {
+		if (groups == null) return;
+		List<String> groupDNs = new ArrayList<String>();
+		if (groups instanceof JSONArray) {
+			groupDNs.addAll((Collection<String>)groups);
+		} else {
+			groupDNs.add((String)groups);
+		}
+		for (int g=0; g<groupDNs.size(); g++) {
+			Grant grant = new Grant(serverURI, kind, area, target, groupDNs.get(g));
+			grants.add(grant);
+			String key = grant.getGroup().toLowerCase();
+			if (!groupGrants.containsKey(key)) groupGrants.put(key, new ArrayList<Grant>());
+			groupGrants.get(key).add(grant);
+		}
+	}
+
+	/** Read the users of every group, several groups at once
+	 *
+	 * @param found collects the users of the groups by user ID, or null
+	 */
+	private Map<String, MemberSet> readGroups(final Map<String, DirectoryUser> found) {
+		Map<String, MemberSet> read = new LinkedHashMap<String, MemberSet>();
+		List<Callable<MemberSet>> reads = new ArrayList<Callable<MemberSet>>();
+		final List<String> keys = new ArrayList<String>(groupGrants.keySet());
+		for (int g=0; g<keys.size(); g++) {
+			final String groupDN = groupGrants.get(keys.get(g)).get(0).getGroup();
+			reads.add(new Callable<MemberSet>() {
+				public MemberSet call() throws NamingException {
+					MemberSet members = new MemberSet();
+					Iterator<DirectoryUser> groupUsers = ldapConnection.getGroupUsers(groupDN).values().iterator();
+					while (groupUsers.hasNext()) {
+						DirectoryUser user = groupUsers.next();
+						if (user == null) continue;  // not a user defined in LDAP
+						if (found != null) found.put(user.getUserId(), user);
+						members.add(IdentityDictionary.identities.intern(user.getUserId()));
+					}
+					return members;
+				}
+			});
+		}
+		if (reads.isEmpty()) return read;
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(GROUP_THREADS, reads.size()));
+		try {
+			List<Future<MemberSet>> results = executor.invokeAll(reads);
+			for (int r=0; r<results.size(); r++) {
+				try {
+					read.put(keys.get(r), results.get(r).get());
+				} catch (ExecutionException e) {
+					log.error("LDAP group: {} could not be read: {}", groupGrants.get(keys.get(r)).get(0).getGroup(), e.getCause().getMessage());
+					Status.appStatus.setCode(-1);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Status.appStatus.setCode(-1);
+		} finally {
+			executor.shutdown();
+		}
+		return read;
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.slf4j.Logger;
+
+import com.ibm.team.process.client.IProcessItemService;
+import com.ibm.team.process.common.IProcessArea;
+import com.ibm.team.process.common.IProjectArea;
+import com.ibm.team.process.common.ITeamArea;
+import com.ibm.team.process.common.ITeamAreaHandle;
+import com.ibm.team.process.common.ITeamAreaHierarchy;
+import com.ibm.team.process.common.TeamAreaHierarchyException;
+import com.ibm.team.repository.client.IItemManager;
+import com.ibm.team.repository.client.ITeamRepository;
+import com.ibm.team.repository.common.TeamRepositoryException;
+
+/** All the project and team areas of an RTC server, indexed by their hierarchical names.
+ *
+ * The project areas are read with one request, and all their team areas with a second, fetching only
+ * the properties synchronization needs. Looking up a configured area is then done in memory instead
+ * of with a findProcessArea request for each area.
+ *
+ * @author jamsden
+ *
+ */
+public class ProcessAreaCatalog {
+
+	/**
+	 * The process area properties read for synchronization: the area's name and place in the hierarchy,
+	 * and its administrators, members and role assignments.
+	 */
+	public static final List<String> PROJECT_AREA_PROPERTIES = Arrays.asList("name", "archived", "administrators", "members", "roleAssignments", "processDefinition", "teamAreaHierarchy");
+	public static final List<String> TEAM_AREA_PROPERTIES = Arrays.asList("name", "archived", "administrators", "members", "roleAssignments", "projectArea");
+
+	private Map<String, IProcessArea> areas = new HashMap<String, IProcessArea>();  // <ProjectAreaName/TeamAreaName/..., area>
+
+	/** Read all the project and team areas of a server.
+	 *
+	 * @param teamRepository the server
+	 * @param itemService for finding the project areas
+	 * @param progressMonitor
+	 * @param log for logging errors, warnings and information
+	 * @throws TeamRepositoryException
+	 */
+	@SuppressWarnings("unchecked")
+	public ProcessAreaCatalog(ITeamRepository teamRepository, IProcessItemService itemService, IProgressMonitor progressMonitor, Logger log) throws TeamRepositoryException {
+		List<IProjectArea> projectAreas = itemService.findAllProjectAreas(PROJECT_AREA_PROPERTIES, progressMonitor);
+
+		// Collect the team areas of every project area, and fetch them all at once
+		List<ITeamAreaHandle> teamAreaHandles = new ArrayList<ITeamAreaHandle>();
+		Iterator<IProjectArea> pas = projectAreas.iterator();
+		while (pas.hasNext()) {
+			IProjectArea pa = pas.next();
+			addArea(pa.getName(), pa);
+			ITeamAreaHierarchy hierarchy = pa.getTeamAreaHierarchy();
+			if (hierarchy == null) continue;
+			collectTeamAreas(hierarchy, hierarchy.getRoots(), teamAreaHandles);
+		}
+		Map<String, ITeamArea> teamAreas = new HashMap<String, ITeamArea>();  // <item UUID, team area>
+		if (!teamAreaHandles.isEmpty()) {
+			List<ITeamArea> fetched = teamRepository.itemManager().fetchPartialItems(teamAreaHandles, IItemManager.DEFAULT, TEAM_AREA_PROPERTIES, progressMonitor);
+			Iterator<ITeamArea> tas = fetched.iterator();
+			while (tas.hasNext()) {
+				ITeamArea ta = tas.next();
+				if (ta != null) teamAreas.put(ta.getItemId().getUuidValue(), ta);
+			}
+		}
+
+		// Now name the team areas by their position in each project area's hierarchy
+		pas = projectAreas.iterator();
+		while (pas.hasNext()) {
+			IProjectArea pa = pas.next();
+			ITeamAreaHierarchy hierarchy = pa.getTeamAreaHierarchy();
+			if (hierarchy == null) continue;
+			addTeamAreas(pa.getName(), hierarchy, hierarchy.getRoots(), teamAreas);
+		}
+		log.info("Read "+projectAreas.size()+" project areas and "+teamAreas.size()+" team areas from: "+teamRepository.getRepositoryURI());
+	}
+
+	/** Find a project or team area by name
+	 *
+	 * @param name the project area name, or a team area name of the form: ProjectAreaName/TeamAreaName/TeamAreaName
+	 * @return the area, or null if the server doesn't have an area with that name
+	 */
+	public IProcessArea getProcessArea(String name) {
+		return areas.get(name);
+	}
+
+	/**
+	 * @return the hierarchical names of all the project and team areas
+	 */
+	public Set<String> getNames() {
+		return areas.keySet();
+	}
+
+	private void addArea(String name, IProcessArea area) {
+		IProcessArea existing = areas.get(name);
+		if (existing != null && !existing.isArchived()) return;  // prefer the active area when an archived one has the same name
+		areas.put(name, area);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void collectTeamAreas(ITeamAreaHierarchy hierarchy, Set<ITeamAreaHandle> handles, List<ITeamAreaHandle> teamAreaHandles) {
+		Iterator<ITeamAreaHandle> tas = handles.iterator();
+		while (tas.hasNext()) {
+			ITeamAreaHandle ta = tas.next();
+			teamAreaHandles.add(ta);
+			try {
+				collectTeamAreas(hierarchy, hierarchy.getChildren(ta), teamAreaHandles);
+			} catch (TeamAreaHierarchyException e) {
+				// the team area is not in this hierarchy, it has no children
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addTeamAreas(String parentName, ITeamAreaHierarchy hierarchy, Set<ITeamAreaHandle> handles, Map<String, ITeamArea> teamAreas) {
+		Iterator<ITeamAreaHandle> tas = handles.iterator();
+		while (tas.hasNext()) {
+			ITeamAreaHandle handle = tas.next();
+			ITeamArea ta = teamAreas.get(handle.getItemId().getUuidValue());
+			if (ta == null) continue;  // a team area the admin can't read
+			String name = parentName+"/"+ta.getName();
+			addArea(name, ta);
+			try {
+				addTeamAreas(name, hierarchy, hierarchy.getChildren(handle), teamAreas);
+			} catch (TeamAreaHierarchyException e) {
+				// the team area is not in this hierarchy, it has no children
+			}
+		}
+	}
+}
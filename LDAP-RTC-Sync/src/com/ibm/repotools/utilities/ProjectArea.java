@@ -9,30 +9,20 @@
  */
 package com.ibm.repotools.utilities;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import javax.naming.NamingException;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 
-import com.ibm.team.process.client.IProcessItemService;
-import com.ibm.team.process.common.IProcessArea;
-import com.ibm.team.process.common.IRole;
-import com.ibm.team.repository.common.IContributor;
-import com.ibm.team.repository.common.TeamRepositoryException;
-
 
 /** Represents a Project Area specified in the LDAP-RTC configuration file.
  * 
@@ -44,8 +34,8 @@ import com.ibm.team.repository.common.TeamRepositoryException;
 public class ProjectArea {
 
 	protected JSONObject rawPA = null;  // the JSON representation of the project or team area
-	private LdapConnection ldapConnection = null;  // for accessing the LDAP server
-	private RTCUserOperations rtc = null;  // for access the RTC server
+	private DirectorySource ldapConnection = null;  // for accessing the LDAP server
+	private RTCGateway rtc = null;  // for access the RTC server
 	private Logger log = null;  // errors, warnings and information
 	protected LinkedList<TeamArea> children = null;  // child team areas if any
 	
@@ -57,7 +47,7 @@ public class ProjectArea {
 	 * @param rtc used to access RTC
 	 * @param log for logging errors, warnings and information
 	 */
-	public ProjectArea (JSONObject pa, LdapConnection ldapConnection, RTCUserOperations rtc, Logger log) {
+	public ProjectArea (JSONObject pa, DirectorySource ldapConnection, RTCGateway rtc, Logger log) {
 		this.rawPA = pa;
 		this.ldapConnection = ldapConnection;
 		this.rtc = rtc;
@@ -91,55 +81,161 @@ public class ProjectArea {
 	 *   * synchronizes the Members
 	 *   * synchronizes the Process Roles
 	 *   
+	 * Areas completed by an interrupted run that is being resumed are skipped, but their
+	 * child team areas are still synchronized. Areas that are already in sync are not saved.
+	 * A run targeting some users (see SyncScope) only adds and removes those users and their roles, and a run
+	 * limited to some groups skips the areas that don't use them, and an incremental run skips the areas that
+	 * are unchanged in the configuration file.
+	 *   
+	 * @param statistics counts the areas that were saved and the areas that were unchanged
 	 * @throws NamingException
 	 */
-	public void syncUsers() throws NamingException {
+	public void syncUsers(SyncStatistics statistics) throws NamingException {
+		if (SyncJournal.runJournal.isStopped()) {
+			return;  // nothing more is changed
+		} else if (SyncJournal.runJournal.isCompleted(rtc.getServerURI(), getName())) {
+			log.info("Project or team area: "+getName()+" was completed by the interrupted run");
+		} else if (!SyncScope.runScope.covers(rtc.getServerURI(), "area", getName())) {
+			log.info("Project or team area: "+getName()+" is unchanged in the configuration file");
+		} else if (!isAffected()) {
+			log.info("Project or team area: "+getName()+" doesn't use any of the changed groups");
+		} else if (!syncArea(statistics)) {
+			return;  // the team areas can't be synchronized either
+		}
+		
+		// Now do the child Team Areas, if any
+		if (children == null) return;
+		Iterator<TeamArea> childTAs = children.iterator();
+		while (childTAs.hasNext()) {
+			childTAs.next().syncUsers(statistics);
+		}
+	}
+	
+	/**
+	 * @return true if the run synchronizes the users of any of the groups of this area's Administrators, Members or Process Roles
+	 */
+	private boolean isAffected() {
+		SyncScope scope = SyncScope.runScope;
+		if (scope.affects(rawPA.get("Administrators")) || scope.affects(rawPA.get("Members"))) return true;
+		JSONArray processRoles = (JSONArray)rawPA.get("Process Roles");
+		for (int r=0; processRoles != null && r<processRoles.size(); r++) {
+			JSONObject processRole = (JSONObject)processRoles.get(r);
+			if (processRole.keySet().size() == 1 && scope.affects(processRole.get(processRole.keySet().iterator().next()))) return true;
+		}
+		return false;
+	}
+	
+	/** Synchronize the Administrators, Members and Process Roles of this project or team area, and
+	 * record the area as completed in the run journal if all its LDAP groups were read and it was saved.
+	 * 
+	 * The changes are computed first, and only if there are any is the area copied, changed and saved.
+	 * 
+	 * @param statistics counts the areas that were saved and the areas that were unchanged
+	 * @return true if the area was synchronized, false if it does not exist or could not be accessed
+	 * @throws NamingException
+	 */
+	private boolean syncArea(SyncStatistics statistics) throws NamingException {
+		SyncTrace.Span span = SyncTrace.runTrace.start(getName(), SyncTrace.SAMPLED_CATEGORY).set("server", rtc.getServerURI()).set("area", getName());
 		try {
-			log.info("Syncing project or team area: "+getName());
-			IProcessArea pa = rtc.getProjectArea(getName());
-			if (pa == null) {
-				log.error("Project or Team Area: "+getName()+" does not exist");
-				Status.appStatus.setCode(-1);
-				return;
-			}
+			return syncArea(statistics, span);
+		} finally {
+			span.end();
+		}
+	}
+	
+	private boolean syncArea(SyncStatistics statistics, SyncTrace.Span span) throws NamingException {
+		SyncJournal journal = SyncJournal.runJournal;
+		SyncTrace trace = SyncTrace.runTrace;
+		if (!ConfigValidation.runValidation.isValidArea(rtc.getServerURI(), getName())) {
+			log.info("Skipping project or team area: "+getName()+", which does not exist");
+			return false;
+		}
+		log.info("Syncing project or team area: "+getName());
+		// Read the current administrators, members and roles of the area once, for all three steps
+		AreaSnapshot snapshot = rtc.getAreaSnapshot(getName());
+		if (snapshot == null) {
+			log.error("Project or Team Area: "+getName()+" does not exist or could not be read");
+			Status.appStatus.setCode(-1);
+			return false;
+		}
+		// The changes the interrupted run left pending are not applied from the journal: the area is
+		// synchronized again, which makes the ones that are still needed
+		Iterator<JSONObject> pending = journal.getPendingChanges(rtc.getServerURI(), getName()).iterator();
+		while (pending.hasNext()) {
+			JSONObject change = pending.next();
+			log.info("Change left pending by the interrupted run: "+change.get("op")+" "+change.get("target")+" for user "+change.get("user")+" in "+getName());
+		}
 
-			IProcessItemService service = (IProcessItemService)rtc.getTeamRepository().getClientLibrary(IProcessItemService.class);
-			pa = (IProcessArea)service.getMutableCopy(pa);
-			
-			// Administrators
-			syncUsers("Administrators", pa);
-			
-			// Members
-			syncUsers("Members", pa);
+		AreaChanges changes = new AreaChanges();
+		
+		// Administrators
+		boolean read = syncUsers("Administrators", snapshot, changes);  // every group was read
+		
+		// Members
+		read = syncUsers("Members", snapshot, changes) && read;
 
-			// Process Roles
-			syncProcessRoles(pa);
-			
-			// Save the modified project or team area
-			service.save(pa, null);
-			// Get a new mutable copy for the child team areas
+		// Process Roles
+		SyncTrace.Span stage = trace.start("Process Roles", "stage");
+		try {
+			read = syncProcessRoles(snapshot, changes) && read;
+		} finally {
+			stage.end();
+		}
+		span.set("changes", changes.size());
+		
+		if (changes.isEmpty()) {
+			log.info("Project or team area: "+getName()+" is already in sync");
+			statistics.areaUnchanged();
+		} else if (journal.isStopped()) {
+			log.warn("Not saving {} changes to project or team area: {}, the run was stopped", changes.size(), getName());
+			return false;
+		} else {
+			// Save all the changes to the project or team area together
+			List<Long> journaled = new ArrayList<Long>();
+			Iterator<AreaChanges.Change> all = changes.getChanges().iterator();
+			while (all.hasNext()) {
+				AreaChanges.Change change = all.next();
+				journaled.add(journal.changePending(rtc.getServerURI(), getName(), change.getOperation(), change.getTarget(), change.getUserId()));
+				AuditLog.planned(rtc.getServerURI(), getName(), change.getUserId(), change.getOperation(), change.getTarget());
+			}
+			long start = System.currentTimeMillis();
+			boolean saved = rtc.save(snapshot, changes);
+			audit(changes, saved, System.currentTimeMillis()-start);
+			if (!saved) return false;
+			Iterator<Long> applied = journaled.iterator();
+			while (applied.hasNext()) {
+				journal.changeApplied(applied.next());
+			}
+			statistics.areaSaved();
+			// Give the server time to commit the save before the child team areas are synchronized
+			stage = trace.start("sleep", "stage");
 			try {
 				Thread.sleep(4000);
 			} catch (InterruptedException e) {
+			} finally {
+				stage.end();
 			}
-			pa = (IProcessArea)service.getMutableCopy(pa);
-			
-			// Now do the child Team Areas, if any
-			if (children == null) return;
-			Iterator<TeamArea> childTAs = children.iterator();
-			while (childTAs.hasNext()) {
-				childTAs.next().syncUsers();
-			}
-		} catch (UnsupportedEncodingException e) {
-			e.printStackTrace();
-			Status.appStatus.setCode(-1);
-		} catch (TeamRepositoryException e) {
-			log.error("Project or Team Area: "+getName()+" exception: "+e.getMessage());
-			e.printStackTrace();
-			Status.appStatus.setCode(-1);
-		} catch (URISyntaxException e) {
-			log.error(e.getMessage());
-			Status.appStatus.setCode(-1);
+		}
+		if (read) {
+			journal.areaCompleted(rtc.getServerURI(), getName());
+		} else {
+			log.warn("Not recording project or team area: {} as completed, some of its LDAP groups could not be read", getName());
+		}
+		return true;
+	}
+
+
+	/** Record the outcome of saving an area's changes in the audit log
+	 * 
+	 * @param changes the changes that were saved together
+	 * @param saved true if the save succeeded
+	 * @param latency the milliseconds it took to save the area
+	 */
+	private void audit(AreaChanges changes, boolean saved, long latency) {
+		Iterator<AreaChanges.Change> all = changes.getChanges().iterator();
+		while (all.hasNext()) {
+			AreaChanges.Change change = all.next();
+			AuditLog.applied(rtc.getServerURI(), getName(), change.getUserId(), change.getOperation(), change.getTarget(), saved, latency);
 		}
 	}
 
@@ -149,61 +245,77 @@ public class ProjectArea {
 	 * This part of LDAP-RTC user synchronization is done by the repotools_syncUsers command.
 	 * 
 	 * @param memberRole  of a user in an RTC project area: Administrators or Members
-	 * @param rawPA the RTC project or team area (an IProcessArea in the RTC SDK)
+	 * @param snapshot the current users of the area, updated with the users added and removed
+	 * @param changes collects the users to add and remove
+	 * @return false if the LDAP group could not be read
 	 * 
 	 * @throws NamingException
-	 * @throws TeamRepositoryException 
 	 */
-	public void syncUsers(String memberRole, IProcessArea pa) throws NamingException, TeamRepositoryException {
-		String racfGroupDN = (String)rawPA.get(memberRole);
-		log.info("Syncing "+memberRole+" users from LDAP group: "+racfGroupDN);
+	public boolean syncUsers(String memberRole, AreaSnapshot snapshot, AreaChanges changes) throws NamingException {
+		Object racfGroupDN = rawPA.get(memberRole);  // a group, or an array of groups
+		log.info("Syncing {} users from LDAP group: {}", memberRole, racfGroupDN);
 		if (racfGroupDN == null) {
 			log.warn("LDAP group for "+memberRole+" is not specified");
 			Status.appStatus.setCode(-1);
-			return;
+			return true;
+		}
+		ConfigValidation validation = ConfigValidation.runValidation;
+		if (!validation.isValidGroup(racfGroupDN)) {
+			log.info("Skipping {} of {}, whose LDAP group failed validation", memberRole, getName());
+			return true;
 		}
+		SyncTrace.Span stage = SyncTrace.runTrace.start(memberRole, "stage").set("group", String.valueOf(racfGroupDN));
 		try {
 			// Get the LDAP Users for this project or team area
-			Iterator<String> ldapUsers = ldapConnection.getMembers(racfGroupDN).iterator();
+			Map<String, DirectoryUser> groupUsers = ldapConnection.getGroupUsers(racfGroupDN);
+			stage.set("users", groupUsers.size());
+			Iterator<Map.Entry<String, DirectoryUser>> ldapUsers = groupUsers.entrySet().iterator();
 
 			// Get the current RTC users based on membership in the project or team area
-			Map<String, IContributor> rtcMembers = rtc.getMembers(pa, memberRole);
-			Map<String, IContributor> membersToRemove = new HashMap<String, IContributor>(rtcMembers);
+			IdentityDictionary identities = IdentityDictionary.identities;
+			Map<String, RTCUser> rtcMembers = new HashMap<String, RTCUser>(snapshot.getMembers(memberRole));
+			MemberSet desiredMembers = new MemberSet();
+			SyncScope scope = SyncScope.runScope;
 			
-			while (ldapUsers != null && ldapUsers.hasNext()) {
-				String userDN = (String)ldapUsers.next();
-				Attributes ldapUser = ldapConnection.getContext().getAttributes(userDN);
-				if (ldapUser == null) {
-					log.error("LDAP user: "+userDN+" is not defined in LDAP");
+			while (ldapUsers.hasNext()) {
+				Map.Entry<String, DirectoryUser> ldapUser = ldapUsers.next();
+				if (ldapUser.getValue() == null) {
+					log.error("LDAP user: {} is not defined in LDAP", ldapUser.getKey());
 					Status.appStatus.setCode(-1);
 					continue;
 				}
-				String userId = ldapUser.get("racfid").get().toString();  
+				String userId = ldapUser.getValue().getUserId();
+				desiredMembers.add(identities.intern(userId));
 				
-				Attribute rawName = ldapUser.get("racfprogrammername");
-				String name =  (rawName != null)? name = rawName.get().toString(): "UNKNOWN";
-				
-				// Examine the RTC users, adding, updating or marking for removal is needed
-				if (!rtcMembers.containsKey(userId)) {
+				// Examine the RTC users, adding the ones that are not members yet
+				if (!rtcMembers.containsKey(userId) && scope.includes(userId) && !validation.isUnknownUser(rtc.getServerURI(), userId)) {
 					// Add a new user
-					log.info("Adding new user: "+userId+" ("+name+") to: "+getName());
-					rtc.addMember(pa, memberRole, userId);
-				} else {
-					membersToRemove.remove(userId); // don't remove this member
+					log.info("Adding new user: {} to: {}", ldapUser.getValue(), getName());
+					RTCUser user = rtc.getUser(userId);
+					if (user != null) {
+						changes.addMember(memberRole, user);
+						snapshot.addMember(memberRole, user);
+					} else {
+						validation.userUnknown(rtc.getServerURI(), userId);  // don't look the user up again for other areas
+					}
 				}
-				
 			}
 			// Remove the members that are not in the corresponding LDAP group
-			Iterator<IContributor> removals = membersToRemove.values().iterator();
-			while (removals.hasNext()) {
-				IContributor member = removals.next();
-				log.info("Removing user: "+member.getUserId()+" ("+member.getName()+"), email: "+member.getEmailAddress()+" to: "+getName());
-				rtc.removeMember(pa, memberRole, member);
+			MemberSet membersToRemove = scope.restrict(identities.toSet(rtcMembers.keySet()).minus(desiredMembers));
+			for (int id = membersToRemove.nextMember(0); id >= 0; id = membersToRemove.nextMember(id+1)) {
+				RTCUser member = rtcMembers.get(identities.get(id));
+				log.info("Removing user: {} ({}), email: {} from: {}", member.getUserId(), member.getName(), member.getEmail(), getName());
+				changes.removeMember(memberRole, member);
+				snapshot.removeMember(memberRole, member.getUserId());
 			}
+			return true;
 		} catch (NamingException e) {
-			log.error("LDAP group: "+racfGroupDN+" does not exist");
+			log.error("LDAP group: {} does not exist", racfGroupDN);
 			Status.appStatus.setCode(-1);
-		}						
+			return false;
+		} finally {
+			stage.end();
+		}
 	}
 
 
@@ -211,19 +323,24 @@ public class ProjectArea {
 	/** Synchronizes the process roles for this project or team area. The process roles in the configuration file
 	 * must match the process roles for the process description defined for the ProjectArea.
 	 * 
-	 * @param p the project or team area to synchronize
-	 * @throws TeamRepositoryException 
+	 * @param snapshot the current members of the area and their roles
+	 * @param changes collects the roles to add and remove
+	 * @return false if the LDAP group of any process role could not be read
 	 */
-	public void syncProcessRoles(IProcessArea p) throws TeamRepositoryException {
+	public boolean syncProcessRoles(AreaSnapshot snapshot, AreaChanges changes) {
 		log.info("Syncing process roles for "+getName());
 		
-		// Collect the desired roles for each userId as specified in the LDAP groups in the config file
-		// desiredRoles<user, list of desired roles>
-		Map<String, List<String>> desiredRoles = new HashMap<String, List<String>>();
+		// Collect the users who should play each role as specified in the LDAP groups in the config file
+		// desiredRoles<role, set of users>
+		IdentityDictionary identities = IdentityDictionary.identities;
+		ConfigValidation validation = ConfigValidation.runValidation;
+		Map<String, MemberSet> desiredRoles = new LinkedHashMap<String, MemberSet>();
+		boolean read = true;  // every group was read
+		List<String> unreadRoles = new ArrayList<String>();  // the roles whose groups are missing or couldn't be read, left as they are
 		JSONArray processRoleObjects =  (JSONArray)rawPA.get("Process Roles");
 		if (processRoleObjects == null || processRoleObjects.size() == 0) {
 			log.warn("No process roles were specified for "+getName());
-			return;
+			return true;
 		}
 		@SuppressWarnings("unchecked")
 		Iterator<JSONObject> processRoles = processRoleObjects.iterator();
@@ -231,83 +348,94 @@ public class ProjectArea {
 			JSONObject processRole = processRoles.next();
 			if (processRole.keySet().size() != 1) continue; // possibly improperly defined role mapping
 			String roleName = (String)processRole.keySet().toArray()[0];
-			String racfGroupDN = (String)processRole.get(roleName);
+			Object racfGroupDN = processRole.get(roleName);
+			if (!validation.isValidRole(rtc.getServerURI(), getName(), roleName)) continue;  // no one can play it
+			if (!validation.isValidGroup(racfGroupDN)) {
+				log.info("Skipping process role {} of {}, whose LDAP group failed validation", roleName, getName());
+				unreadRoles.add(roleName);
+				continue;
+			}
 			// the members of this group should be assigned role roleName
 			try {
-				Iterator<String> ldapUsers = ldapConnection.getMembers(racfGroupDN).iterator();
-				while (ldapUsers != null && ldapUsers.hasNext()) {
-					String userDN = (String)ldapUsers.next();
-					Attributes ldapUser = ldapConnection.getContext().getAttributes(userDN);
-					if (ldapUser == null) {
-						log.error("LDAP user: "+userDN+" is not defined in LDAP");
+				MemberSet roleUsers = new MemberSet();
+				Iterator<Map.Entry<String, DirectoryUser>> ldapUsers = ldapConnection.getGroupUsers(racfGroupDN).entrySet().iterator();
+				while (ldapUsers.hasNext()) {
+					Map.Entry<String, DirectoryUser> ldapUser = ldapUsers.next();
+					if (ldapUser.getValue() == null) {
+						log.error("LDAP user: {} is not defined in LDAP", ldapUser.getKey());
 						Status.appStatus.setCode(-1);
 						continue;
 					}
-					String userId = ldapUser.get("racfid").get().toString();
-					if (desiredRoles.containsKey(userId)) {
-						desiredRoles.get(userId).add(roleName);
-					} else {
-						List<String> roles = new ArrayList<String>();
-						roles.add(roleName);
-						desiredRoles.put(userId, roles);
-					}
-
+					roleUsers.add(identities.intern(ldapUser.getValue().getUserId()));
 				}
+				if (desiredRoles.containsKey(roleName)) roleUsers = roleUsers.union(desiredRoles.get(roleName));
+				desiredRoles.put(roleName, roleUsers);
 			} catch (NamingException e) {
-				log.error("LDAP group: "+racfGroupDN+" does not exist");
+				log.error("LDAP group: {} could not be read, leaving process role {} of {} as it is: {}", racfGroupDN, roleName, getName(), e.getMessage());
 				Status.appStatus.setCode(-1);
+				unreadRoles.add(roleName);
+				read = false;
 			}
 		}
 		// Next get the roles the users currently play in the project area - these may be lower case
-		Map<String, List<IRole>> actualRoles = new HashMap<String, List<IRole>>();
-		Set<String> allUsers = rtc.getMembers(p, "Members").keySet();
-		Iterator<String> users = allUsers.iterator();
-		while (users.hasNext()) {
-			String user = users.next();
-			actualRoles.put(user, rtc.getRoleAssignments(p, user));
-		}
+		Map<String, RTCUser> allUsers = snapshot.getMembers("Members");
 		
-		// Now sync the desired and actual roles
-		users = allUsers.iterator();
+		// Now sync the desired and actual roles of the members the run changes
+		SyncScope scope = SyncScope.runScope;
+		Iterator<String> users = allUsers.keySet().iterator();
 		while (users.hasNext()) {
 			String user = users.next();
-			List<IRole> rolesToRemoveForUser = actualRoles.get(user);  // assume we remove all the roles
-			List<String> desiredRolesForUser = desiredRoles.get(user);
-			if (desiredRolesForUser != null) {
-				Iterator<String> roles = desiredRolesForUser.iterator();
-				while (roles.hasNext()) {
-					String desiredRole = roles.next();
-					IRole actualRole = getRole(desiredRole, actualRoles.get(user));
-					if (actualRole == null) {
-						// User doesn't play the desired role, add it
-						log.info("Adding role "+desiredRole+" to user "+user+" in project area "+p.getName());
-						rtc.addProcessRole(p, desiredRole, user);
-					} else {
-						// User already plays the desired role, don't remove it
-						rolesToRemoveForUser.remove(actualRole);
+			if (!scope.includes(user)) continue;
+			RTCUser member = allUsers.get(user);
+			List<String> actualRoles = snapshot.getRoleAssignments(user);
+			List<String> rolesToRemoveForUser = new ArrayList<String>(actualRoles);  // assume we remove all the roles
+			for (int r=0; r<unreadRoles.size(); r++) {
+				String unreadRole = getRole(unreadRoles.get(r), rolesToRemoveForUser);
+				if (unreadRole != null) rolesToRemoveForUser.remove(unreadRole);  // its group is unknown, so keep it
+			}
+			int id = identities.lookup(user);
+			Iterator<Map.Entry<String, MemberSet>> roles = desiredRoles.entrySet().iterator();
+			while (roles.hasNext()) {
+				Map.Entry<String, MemberSet> roleUsers = roles.next();
+				if (!roleUsers.getValue().contains(id) || getRole(roleUsers.getKey(), unreadRoles) != null) continue;
+				String desiredRole = roleUsers.getKey();
+				String actualRole = getRole(desiredRole, actualRoles);
+				if (actualRole == null) {
+					// User doesn't play the desired role, add it
+					String role = snapshot.getRole(desiredRole);
+					if (role == null) {
+						log.error("Process role {} is not defined for project area {}", desiredRole, getName());
+						Status.appStatus.setCode(-1);
+						continue;
 					}
+					log.info("Adding role {} to user {} in project area {}", desiredRole, user, getName());
+					changes.addRole(role, member);
+				} else {
+					// User already plays the desired role, don't remove it
+					rolesToRemoveForUser.remove(actualRole);
 				}
 			}
 			// remove the roles the user should no longer play
-			Iterator<IRole> rolesToRemove = rolesToRemoveForUser.iterator();
+			Iterator<String> rolesToRemove = rolesToRemoveForUser.iterator();
 			while (rolesToRemove.hasNext()) {
-				IRole role = rolesToRemove.next();
-				log.info("Removing role "+role.getId()+" from user "+user+" in project area "+p.getName());
-				rtc.removeProcessRole(p, role.getId(), user);
+				String role = rolesToRemove.next();
+				log.info("Removing role {} from user {} in project area {}", role, user, getName());
+				changes.removeRole(role, member);
 			}
 		}
+		return read;
 	}
 	
-	/** Find an IRole in a list given the role name
+	/** Find a role ID in a list given the role name
 	 * @param roleName
 	 * @param roleList
-	 * @return The IRole mathching roleName (ignoring case) or null if there is no match
+	 * @return The role ID mathching roleName (ignoring case) or null if there is no match
 	 */
-	private IRole getRole(String roleName, List<IRole>roleList) {
-		Iterator<IRole> roles = roleList.iterator();
+	private String getRole(String roleName, List<String>roleList) {
+		Iterator<String> roles = roleList.iterator();
 		while (roles.hasNext()) {
-			IRole role = roles.next();
-			if (role.getId().equalsIgnoreCase(roleName)) return role;
+			String role = roles.next();
+			if (role.equalsIgnoreCase(roleName)) return role;
 		}
 		return null;
 	}
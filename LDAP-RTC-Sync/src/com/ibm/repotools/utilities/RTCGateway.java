@@ -0,0 +1,285 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.security.auth.login.LoginException;
+
+import org.slf4j.Logger;
+
+/** The reads and writes LDAP - RTC user synchronization makes to an RTC server.
+ *
+ * The Client of each server in the configuration file selects the implementation:
+ *   * Java - the RTC plain-Java client (RTCUserOperations), the default
+ *   * REST - the server's HTTP process and administration services (RTCRestGateway)
+ *
+ * Failures are logged and set the application status, and are returned as null or false
+ * so synchronization can go on with the rest of the server.
+ *
+ * Saving an area is optimistic: if someone else changed the area since it was read, the save
+ * conflicts, and the area is read again, the changes that are still needed are applied to it, and the
+ * save is tried again, waiting a little longer each time.
+ *
+ * @author jamsden
+ *
+ */
+public abstract class RTCGateway {
+	/** The times a save that conflicts with someone else's changes to the area is tried
+	 */
+	public static final int SAVE_ATTEMPTS = 5;
+
+	/** The milliseconds to wait before the first retry of a conflicting save, doubled for each retry after that
+	 */
+	public static final long SAVE_BACKOFF = 250;
+
+	/** A save failed because the area was changed by someone else since it was read
+	 */
+	public static class SaveConflictException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public SaveConflictException(String message) {
+			super(message);
+		}
+	}
+
+	private static Random jitter = new Random();
+	private static Map<String, RTCGateway> sessions = null;  // the logged in gateways by client, server and administrator, while they are shared
+
+	protected Logger log = null;
+	protected String serverURI = null;
+
+	/** Connect to an RTC server using the client selected in its configuration. The RTC calls
+	 * are traced if the run is. A shared gateway that is opened again is refreshed, so each
+	 * synchronization sees the users, areas and licenses of the server as they are now.
+	 *
+	 * @param server the RTC server from the configuration file
+	 * @param log for logging errors, warnings and information
+	 * @return the logged in gateway
+	 * @throws LoginException if the server can't be logged into
+	 */
+	public static RTCGateway open(RTCServer server, Logger log) throws LoginException {
+		String client = server.getClient();
+		String session = client.toLowerCase()+" "+server.getServerURI()+" "+server.getAdmin();
+		RTCGateway shared = null;
+		synchronized (RTCGateway.class) {
+			if (sessions != null) shared = sessions.get(session);
+		}
+		if (shared != null) {
+			shared.refresh();
+			return shared;
+		}
+		RTCGateway gateway = null;
+		if (client.equalsIgnoreCase("REST")) {
+			gateway = new RTCRestGateway(server, log);
+		} else {
+			if (!client.equalsIgnoreCase("Java")) {
+				log.warn("Unknown Client: {} for: {}, using the Java client", client, server.getServerURI());
+			}
+			gateway = new RTCUserOperations(server, log);
+		}
+		gateway = SyncTrace.runTrace.isOpen()? new TracedGateway(gateway): gateway;
+		synchronized (RTCGateway.class) {
+			if (sessions != null) sessions.put(session, gateway);
+		}
+		return gateway;
+	}
+
+	/** Share the gateways opened from now on, such as by the configuration files of a batch, so each server
+	 * is logged into once by each of its administrators. The shared gateways stay logged in until closeSessions().
+	 */
+	public static synchronized void shareSessions() {
+		if (sessions == null) sessions = new LinkedHashMap<String, RTCGateway>();
+	}
+
+	/** Disconnect the shared gateways, and stop sharing them
+	 */
+	public static synchronized void closeSessions() {
+		if (sessions == null) return;
+		Iterator<RTCGateway> gateways = sessions.values().iterator();
+		while (gateways.hasNext()) {
+			gateways.next().disconnect();
+		}
+		sessions = null;
+	}
+
+	/**
+	 * @param gateway a gateway returned by open()
+	 * @return true if the gateway is shared, and is disconnected by closeSessions()
+	 */
+	public static synchronized boolean isShared(RTCGateway gateway) {
+		return sessions != null && sessions.containsValue(gateway);
+	}
+
+	/**
+	 * @return the URI of the RTC server this gateway accesses
+	 */
+	public String getServerURI() {
+		return serverURI;
+	}
+
+	/** Disconnect (logout) from the RTC server
+	 */
+	public abstract void disconnect();
+
+	/** Forget what was read from the server and kept between calls, such as its users or areas, so it is
+	 * read again when it is next needed. Nothing is kept by default.
+	 */
+	public void refresh() {
+	}
+
+	/**
+	 * @return all the users registered with the server, including the archived ones, or null if they can't be read
+	 */
+	public abstract List<RTCUser> getServerUsers();
+
+	/** Get a user of this server
+	 * @param userId the user's ID
+	 * @return the user, or null if the user is not a member of this server
+	 */
+	public abstract RTCUser getUser(String userId);
+
+	/** Create a user that is known not to exist on this server
+	 *
+	 * @param userId
+	 * @param userName
+	 * @param emailAddress
+	 * @return the new user, or null if the user could not be created
+	 */
+	public abstract RTCUser createUser(String userId, String userName, String emailAddress);
+
+	/** Archive a user that should no longer have access to this server, or restore an archived user
+	 * @param user the user
+	 * @param archived true to archive the user, false to restore
+	 * @return true if the user was saved
+	 */
+	public abstract boolean setArchived(RTCUser user, boolean archived);
+
+	/**
+	 * @return the client access licenses of the server, by license key (e.g., Rational Team Concert - Developer),
+	 * or null if they can't be read
+	 */
+	public abstract List<String> getLicenseKeys();
+
+	/** Get the users assigned a client access license
+	 * @param licenseKey the client access license (e.g., Rational Team Concert - Developer)
+	 * @return the user IDs of the license holders, or null if they can't be read
+	 */
+	public abstract List<String> getLicensedUsers(String licenseKey);
+
+	/** Assign a client access license to a user
+	 * @param licenseKey the client access license (e.g., Rational Team Concert - Developer)
+	 * @param userId the user who will be assigned the license
+	 * @return true if the license was assigned
+	 */
+	public abstract boolean assignClientAccessLicense(String licenseKey, String userId);
+
+	/** Unassign a client access license from a user
+	 * @param licenseKey the client access license (e.g., Rational Team Concert - Developer)
+	 * @param userId the user who will loose the license
+	 * @return true if the license was unassigned
+	 */
+	public abstract boolean unassignClientAccessLicense(String licenseKey, String userId);
+
+	/** Read the administrators, members and role assignments of a project or team area
+	 *
+	 * @param areaName the project area name, or ProjectAreaName/TeamAreaName/... for a team area
+	 * @return the snapshot of the area's users and their roles, or null if the area doesn't exist or can't be read
+	 */
+	public abstract AreaSnapshot getAreaSnapshot(String areaName);
+
+	/**
+	 * @return the names of all the server's project areas, and ProjectAreaName/TeamAreaName/... of its team areas,
+	 * in order, or null if they can't be read
+	 */
+	public abstract List<String> getAreaNames();
+
+	/** Get the process roles of a project or team area, without reading its members
+	 *
+	 * @param areaName the project area name, or ProjectAreaName/TeamAreaName/... for a team area
+	 * @return the IDs of the roles defined by the area's process, or null if the area doesn't exist or can't be read
+	 */
+	public abstract List<String> getRoles(String areaName);
+
+	/** Make the changes computed from a snapshot to the area the snapshot was read from. If the area was
+	 * changed by someone else in the meantime, it is read again and the changes this run still needs are
+	 * saved to it instead, up to SAVE_ATTEMPTS times.
+	 *
+	 * @param snapshot the snapshot the changes were computed from
+	 * @param changes the administrators, members and roles to add and remove
+	 * @return true if the changes were saved
+	 */
+	public boolean save(AreaSnapshot snapshot, AreaChanges changes) {
+		for (int attempt=1; ; attempt++) {
+			try {
+				return saveChanges(snapshot, changes);
+			} catch (SaveConflictException e) {
+				if (!retrySave(attempt, snapshot.getName(), e)) return false;
+			}
+			snapshot = refreshSnapshot(snapshot);
+			if (snapshot == null) return false;
+			changes = changes.rebase(snapshot);
+			if (changes.isEmpty()) {
+				log.info("Project or team area: {} already has the changes", snapshot.getName());
+				return true;
+			}
+		}
+	}
+
+	/** Save the changes to the area once
+	 *
+	 * @param snapshot the snapshot the changes were computed from, or the area was read again to
+	 * @param changes the administrators, members and roles to add and remove
+	 * @return true if the changes were saved, false if they failed for a reason other than a conflict
+	 * @throws SaveConflictException if the area was changed since the snapshot was read
+	 */
+	protected abstract boolean saveChanges(AreaSnapshot snapshot, AreaChanges changes) throws SaveConflictException;
+
+	/** Read an area again after a save conflicted with someone else's changes to it
+	 *
+	 * @param snapshot the snapshot that is out of date
+	 * @return the current snapshot of the area, or null if it can't be read
+	 */
+	protected AreaSnapshot refreshSnapshot(AreaSnapshot snapshot) {
+		return getAreaSnapshot(snapshot.getName());
+	}
+
+	/** Wait before trying a conflicting save again, or give up if it has been tried enough
+	 *
+	 * @param attempt the attempts so far, starting at 1
+	 * @param areaName the area being saved
+	 * @param conflict the reason the save failed
+	 * @return true if the save should be tried again
+	 */
+	protected boolean retrySave(int attempt, String areaName, Exception conflict) {
+		if (attempt >= SAVE_ATTEMPTS) {
+			log.error("Unable to save project or team area: "+areaName+" after "+attempt+" attempts, it keeps being changed by someone else: "+conflict.getMessage());
+			Status.appStatus.setCode(-1);
+			return false;
+		}
+		// wait between half and all of the doubled backoff, so concurrent runs don't retry in step
+		long backoff = SAVE_BACKOFF << (attempt-1);
+		long wait = backoff/2 + (long)(jitter.nextDouble()*backoff/2);
+		log.warn("Project or team area: {} was changed by someone else while it was saved, trying again in {} ms: {}", areaName, wait, conflict.getMessage());
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Unable to save project or team area: "+areaName+", interrupted");
+			Status.appStatus.setCode(-1);
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,736 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.security.auth.login.LoginException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/** Provides the RTC operations needed by LDAP - RTC user synchronization over the server's HTTP
+ * services, without the RTC plain-Java client. This is the REST Client of the configuration file.
+ *
+ * Project and team areas, their administrators, members and role assignments are read and written
+ * with the process REST API of the RTC server (serverURI/process/...). Users and client access licenses
+ * are managed by the Jazz Team Server's administration services, the ones its web administration pages
+ * use. These are not a published API, so their paths are kept together at the top of this class.
+ *
+ * All the requests share one pool of keep-alive connections and ask for compressed responses, and the
+ * gateway can be used by several threads at once. The gateway logs in with form based authentication,
+ * and logs in again if the server's session expires.
+ *
+ * @author jamsden
+ *
+ */
+public class RTCRestGateway extends RTCGateway {
+
+	/** The namespace of the process REST API's XML
+	 */
+	public static final String PROCESS_NAMESPACE = "http://jazz.net/xmlns/prod/jazz/process/1.0/";
+
+	public static final String USERS_SERVICE = "/service/com.ibm.team.repository.service.internal.IAdminRestService/users";
+	public static final String LICENSES_SERVICE = "/service/com.ibm.team.repository.service.internal.license.ILicenseAdminRestService/licenses";
+
+	private static final String AUTH_HEADER = "X-com-ibm-team-repository-web-auth-msg";
+
+	/** The links of a project or team area in the process REST API
+	 */
+	private static class Area {
+		private String url = null;
+		private String membersUrl = null;
+		private String adminsUrl = null;
+		private String rolesUrl = null;
+
+		private Area(Element area) {
+			url = text(area, "url");
+			membersUrl = text(area, "members-url");
+			adminsUrl = text(area, "admins-url");
+			rolesUrl = text(area, "roles-url");
+		}
+	}
+
+	/** The parts of an HTTP response the gateway uses, read before the connection is returned to the pool
+	 */
+	private static class Response {
+		private int status = 0;
+		private String authMessage = null;  // authrequired or authfailed, if the server wants the client to log in
+		private String body = null;
+	}
+
+	private String jtsURI = null;
+	private String user = null;
+	private String password = null;
+	private PoolingHttpClientConnectionManager connections = null;
+	private CloseableHttpClient client = null;
+	private Map<String, Area> areas = null;  // the project and team areas by name, read on first use after a refresh
+	private Map<String, RTCUser> users = null;  // the server's users by user ID, read on first use after a refresh
+	private Map<String, String> licenseIds = null;  // <license key, license ID>, read on first use after a refresh
+
+	/** Log into the RTC server in the configuration file
+	 *
+	 * @param server the RTC server
+	 * @param log for logging errors, warnings and information
+	 * @throws LoginException
+	 */
+	public RTCRestGateway(RTCServer server, Logger log) throws LoginException {
+		this(server.getServerURI(), server.getJtsURI(), server.getAdmin(), server.getPassword(), server.getConnections(), log);
+	}
+
+	/** Log into an RTC server and its Jazz Team Server
+	 *
+	 * @param serverURI the RTC server, e.g., https://host:9443/ccm
+	 * @param jtsURI the Jazz Team Server managing the RTC server's users and licenses, e.g., https://host:9443/jts
+	 * @param user the administrator's user ID
+	 * @param password the administrator's password
+	 * @param maxConnections the number of connections to keep open to the servers
+	 * @param log for logging errors, warnings and information
+	 * @throws LoginException
+	 */
+	public RTCRestGateway(String serverURI, String jtsURI, String user, String password, int maxConnections, Logger log) throws LoginException {
+		this.log = log;
+		this.serverURI = trim(serverURI);
+		this.jtsURI = trim(jtsURI);
+		this.user = user;
+		this.password = password;
+
+		connections = new PoolingHttpClientConnectionManager();
+		connections.setMaxTotal(maxConnections);
+		connections.setDefaultMaxPerRoute(maxConnections);
+		// the client sends Accept-Encoding: gzip,deflate and decompresses the responses
+		client = HttpClients.custom()
+				.setConnectionManager(connections)
+				.setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+				.setDefaultCookieStore(new BasicCookieStore())
+				.build();
+		try {
+			login();
+		} catch (IOException e) {
+			log.error("Unable to login to: "+serverURI+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+			throw new LoginException("Unable to login to: "+serverURI);
+		}
+	}
+
+	public void disconnect() {
+		try {
+			client.close();
+		} catch (IOException e) {
+			log.warn("Unable to close the connections to: {}: {}", serverURI, e.getMessage());
+		}
+	}
+
+	public synchronized void refresh() {
+		areas = null;
+		users = null;
+		licenseIds = null;
+	}
+
+	/**
+	 * @return the URI of the Jazz Team Server managing the users and licenses
+	 */
+	public String getJtsURI() {
+		return jtsURI;
+	}
+
+	public List<RTCUser> getServerUsers() {
+		try {
+			return new ArrayList<RTCUser>(getUsers().values());
+		} catch (IOException e) {
+			log.error("Unable to read the users of: "+serverURI+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	public RTCUser getUser(String userId) {
+		RTCUser user = null;
+		try {
+			user = getUsers().get(userId);
+		} catch (IOException e) {
+			log.error("Unable to read the users of: "+serverURI+" due to: "+e.getMessage());
+		}
+		if (user == null) {
+			log.error("User: "+userId+" is not a member of this server");
+			Status.appStatus.setCode(-1);
+		}
+		return user;
+	}
+
+	@SuppressWarnings("unchecked")
+	public RTCUser createUser(String userId, String userName, String emailAddress) {
+		JSONObject details = new JSONObject();
+		details.put("userId", userId);
+		details.put("name", userName);
+		details.put("emailAddress", emailAddress);
+		try {
+			send(withBody(new HttpPost(jtsURI+USERS_SERVICE), details.toJSONString(), ContentType.APPLICATION_JSON));
+			RTCUser created = new RTCUser(userId, userName, emailAddress, false, userURL(userId));
+			getUsers().put(created.getUserId(), created);
+			return created;
+		} catch (IOException e) {
+			log.error("Unable to create user: "+userId+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean setArchived(RTCUser user, boolean archived) {
+		JSONObject details = new JSONObject();
+		details.put("userId", user.getUserId());
+		details.put("archived", Boolean.valueOf(archived));
+		try {
+			send(withBody(new HttpPut(jtsURI+USERS_SERVICE+"/"+encode(user.getUserId())), details.toJSONString(), ContentType.APPLICATION_JSON));
+			getUsers().put(user.getUserId(), new RTCUser(user.getUserId(), user.getName(), user.getEmail(), archived, user.getHandle()));
+			return true;
+		} catch (IOException e) {
+			log.error("Unable to "+(archived? "archive": "restore")+" user: "+user.getUserId()+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return false;
+	}
+
+	public List<String> getAreaNames() {
+		try {
+			List<String> names = new ArrayList<String>(getAreas().keySet());
+			Collections.sort(names);
+			return names;
+		} catch (IOException e) {
+			log.error("Unable to read the project and team areas of: "+serverURI+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	public List<String> getLicenseKeys() {
+		try {
+			return new ArrayList<String>(getLicenseIds().keySet());
+		} catch (IOException e) {
+			log.error("Unable to read the client access licenses of: "+jtsURI+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	public List<String> getLicensedUsers(String licenseKey) {
+		try {
+			String licenseId = getLicenseId(licenseKey);
+			if (licenseId == null) throw new IOException("unknown license");
+			List<String> holders = new ArrayList<String>();
+			JSONArray contributors = (JSONArray)getJson(jtsURI+LICENSES_SERVICE+"/"+encode(licenseId)+"/contributors");
+			for (int c=0; c<contributors.size(); c++) {
+				Object contributor = contributors.get(c);
+				holders.add((String)(contributor instanceof JSONObject? ((JSONObject)contributor).get("userId"): contributor));
+			}
+			return holders;
+		} catch (IOException e) {
+			log.error("Cannot get users assigned to CLA: "+licenseKey+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public boolean assignClientAccessLicense(String licenseKey, String userId) {
+		try {
+			String licenseId = getLicenseId(licenseKey);
+			if (licenseId == null) throw new IOException("unknown license");
+			JSONObject contributor = new JSONObject();
+			contributor.put("userId", userId);
+			send(withBody(new HttpPost(jtsURI+LICENSES_SERVICE+"/"+encode(licenseId)+"/contributors"), contributor.toJSONString(), ContentType.APPLICATION_JSON));
+			return true;
+		} catch (IOException e) {
+			log.error("Unable to assign client access license: "+licenseKey+" to user: "+userId+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return false;
+	}
+
+	public boolean unassignClientAccessLicense(String licenseKey, String userId) {
+		try {
+			String licenseId = getLicenseId(licenseKey);
+			if (licenseId == null) throw new IOException("unknown license");
+			send(new HttpDelete(jtsURI+LICENSES_SERVICE+"/"+encode(licenseId)+"/contributors/"+encode(userId)));
+			return true;
+		} catch (IOException e) {
+			log.error("Unable to unassign client access license: "+licenseKey+" from user: "+userId+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return false;
+	}
+
+	public List<String> getRoles(String areaName) {
+		try {
+			Area area = getAreas().get(areaName);
+			if (area == null) return null;
+			List<String> roleIds = new ArrayList<String>();
+			List<Element> roles = children(getXml(area.rolesUrl).getDocumentElement(), "role");
+			for (int r=0; r<roles.size(); r++) {
+				String roleId = text(roles.get(r), "id");
+				roleIds.add(roleId != null? roleId: lastSegment(text(roles.get(r), "url")));
+			}
+			return roleIds;
+		} catch (IOException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+		}
+		return null;
+	}
+
+	/** Read the roles, administrators and members of an area, with three requests however many members it has
+	 */
+	public AreaSnapshot getAreaSnapshot(String areaName) {
+		try {
+			Area area = getAreas().get(areaName);
+			if (area == null) {
+				log.error("Project area "+areaName+" not found.");
+				Status.appStatus.setCode(-1);
+				return null;
+			}
+			AreaSnapshot snapshot = new AreaSnapshot(areaName, area);
+			List<Element> roles = children(getXml(area.rolesUrl).getDocumentElement(), "role");
+			for (int r=0; r<roles.size(); r++) {
+				String roleUrl = text(roles.get(r), "url");
+				String roleId = text(roles.get(r), "id");
+				snapshot.addRole(roleId != null? roleId: lastSegment(roleUrl), roleUrl);
+			}
+			List<Element> administrators = children(getXml(area.adminsUrl).getDocumentElement(), "admin");
+			for (int a=0; a<administrators.size(); a++) {
+				snapshot.addMember("Administrators", toUser(text(administrators.get(a), "user-url")));
+			}
+			List<Element> members = children(getXml(area.membersUrl).getDocumentElement(), "member");
+			for (int m=0; m<members.size(); m++) {
+				RTCUser member = toUser(text(members.get(m), "user-url"));
+				snapshot.addMember("Members", member);
+				// the role assignments are usually inline, otherwise they have their own resource
+				Element assignments = child(members.get(m), "role-assignments");
+				if (assignments == null && text(members.get(m), "role-assignments-url") != null) {
+					assignments = getXml(text(members.get(m), "role-assignments-url")).getDocumentElement();
+				}
+				if (assignments == null) continue;
+				List<Element> assigned = children(assignments, "role-assignment");
+				for (int r=0; r<assigned.size(); r++) {
+					String roleId = snapshot.getRole(lastSegment(text(assigned.get(r), "role-url")));
+					if (roleId != null) snapshot.getRoleAssignments(member.getUserId()).add(roleId);
+				}
+			}
+			return snapshot;
+		} catch (IOException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+
+	/** Save the changes to an area.
+	 *
+	 * The process REST API has no single save for an area, so the changes are grouped into as few requests
+	 * as possible: one for all the new administrators, one for all the new members with their roles, one
+	 * for each administrator or member removed, and one for each other member whose roles changed. If a
+	 * request conflicts with someone else's change to the area, the area is read again and the changes that
+	 * are still needed are sent. If a request fails otherwise, the rest are not sent, and the changes are
+	 * computed again from the area on the next run.
+	 */
+	protected boolean saveChanges(AreaSnapshot snapshot, AreaChanges changes) throws SaveConflictException {
+		Area area = (Area)snapshot.getArea();
+		List<RTCUser> newAdministrators = new ArrayList<RTCUser>();
+		List<RTCUser> newMembers = new ArrayList<RTCUser>();
+		List<String> removedAdministrators = new ArrayList<String>();
+		List<String> removedMembers = new ArrayList<String>();
+		Map<String, List<String>> roles = new LinkedHashMap<String, List<String>>();  // <userId, role IDs> for the members whose roles change
+		Iterator<AreaChanges.Change> all = changes.getChanges().iterator();
+		while (all.hasNext()) {
+			AreaChanges.Change change = all.next();
+			String operation = change.getOperation();
+			boolean administrators = change.getTarget().equals("Administrators");
+			if (operation.equals("addMember")) {
+				(administrators? newAdministrators: newMembers).add(change.getUser());
+			} else if (operation.equals("removeMember")) {
+				(administrators? removedAdministrators: removedMembers).add(change.getUserId());
+			} else {
+				List<String> assigned = roles.get(change.getUserId());
+				if (assigned == null) {
+					assigned = new ArrayList<String>(snapshot.getRoleAssignments(change.getUserId()));
+					roles.put(change.getUserId(), assigned);
+				}
+				if (operation.equals("addRole")) {
+					assigned.add(change.getTarget());
+				} else {
+					assigned.remove(change.getTarget());
+				}
+			}
+		}
+		try {
+			if (!newAdministrators.isEmpty()) {
+				sendChange(withBody(new HttpPost(area.adminsUrl), usersXml("admins", "admin", newAdministrators, null, snapshot), ContentType.TEXT_XML));
+			}
+			for (int a=0; a<removedAdministrators.size(); a++) {
+				sendChange(new HttpDelete(area.adminsUrl+"/"+encode(removedAdministrators.get(a))));
+			}
+			if (!newMembers.isEmpty()) {
+				sendChange(withBody(new HttpPost(area.membersUrl), usersXml("members", "member", newMembers, roles, snapshot), ContentType.TEXT_XML));
+				for (int m=0; m<newMembers.size(); m++) {
+					roles.remove(newMembers.get(m).getUserId());
+				}
+			}
+			for (int m=0; m<removedMembers.size(); m++) {
+				sendChange(new HttpDelete(area.membersUrl+"/"+encode(removedMembers.get(m))));
+			}
+			Iterator<Map.Entry<String, List<String>>> members = roles.entrySet().iterator();
+			while (members.hasNext()) {
+				Map.Entry<String, List<String>> member = members.next();
+				StringBuilder xml = new StringBuilder("<jp:role-assignments xmlns:jp=\""+PROCESS_NAMESPACE+"\">");
+				appendRoles(xml, member.getValue(), snapshot);
+				xml.append("</jp:role-assignments>");
+				sendChange(withBody(new HttpPut(area.membersUrl+"/"+encode(member.getKey())+"/role-assignments"), xml.toString(), ContentType.TEXT_XML));
+			}
+			return true;
+		} catch (IOException e) {
+			log.error("Unable to save project or team area: "+snapshot.getName()+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return false;
+	}
+
+	/**
+	 * @return the server's project and team areas, by project area name or ProjectAreaName/TeamAreaName/...
+	 * @throws IOException
+	 */
+	private synchronized Map<String, Area> getAreas() throws IOException {
+		if (areas != null) return areas;
+		Map<String, Area> catalog = new HashMap<String, Area>();
+		List<Element> projectAreas = children(getXml(serverURI+"/process/project-areas").getDocumentElement(), "project-area");
+		for (int p=0; p<projectAreas.size(); p++) {
+			Element projectArea = projectAreas.get(p);
+			String projectAreaName = name(projectArea);
+			catalog.put(projectAreaName, new Area(projectArea));
+			String teamAreasUrl = text(projectArea, "team-areas-url");
+			if (teamAreasUrl == null) continue;
+
+			// the team areas are listed flat, each with a link to its parent area
+			Map<String, Element> teamAreas = new HashMap<String, Element>();
+			List<Element> listed = children(getXml(teamAreasUrl).getDocumentElement(), "team-area");
+			for (int t=0; t<listed.size(); t++) {
+				teamAreas.put(text(listed.get(t), "url"), listed.get(t));
+			}
+			for (int t=0; t<listed.size(); t++) {
+				String name = name(listed.get(t));
+				String parentUrl = text(listed.get(t), "parent-url");
+				for (int depth=0; teamAreas.containsKey(parentUrl) && depth<teamAreas.size(); depth++) {
+					Element parent = teamAreas.get(parentUrl);
+					name = name(parent)+"/"+name;
+					parentUrl = text(parent, "parent-url");
+				}
+				catalog.put(projectAreaName+"/"+name, new Area(listed.get(t)));
+			}
+		}
+		areas = catalog;
+		return areas;
+	}
+
+	/**
+	 * @return the server's users by user ID, including the archived users
+	 * @throws IOException
+	 */
+	private synchronized Map<String, RTCUser> getUsers() throws IOException {
+		if (users != null) return users;
+		Map<String, RTCUser> all = new ConcurrentHashMap<String, RTCUser>();
+		JSONArray listed = (JSONArray)getJson(jtsURI+USERS_SERVICE+"?includeArchived=true");
+		for (int u=0; u<listed.size(); u++) {
+			JSONObject details = (JSONObject)listed.get(u);
+			String userId = (String)details.get("userId");
+			all.put(userId, new RTCUser(userId, (String)details.get("name"), (String)details.get("emailAddress"), Boolean.TRUE.equals(details.get("archived")), userURL(userId)));
+		}
+		users = all;
+		return users;
+	}
+
+	/**
+	 * @return the server's client access licenses, <license key, license ID>
+	 * @throws IOException
+	 */
+	private synchronized Map<String, String> getLicenseIds() throws IOException {
+		if (licenseIds != null) return licenseIds;
+		Map<String, String> ids = new LinkedHashMap<String, String>();
+		JSONArray licenses = (JSONArray)getJson(jtsURI+LICENSES_SERVICE);
+		for (int l=0; l<licenses.size(); l++) {
+			JSONObject license = (JSONObject)licenses.get(l);
+			ids.put(license.get("productName")+" - "+license.get("name"), (String)license.get("id"));
+		}
+		licenseIds = ids;
+		return licenseIds;
+	}
+
+	/** Get the license ID for a license key
+	 * @param licenseKey (e.g., Rational Team Concert - Developer)
+	 * @return licenseKey (e.g., com.ibm.team.rtc.developer), or null if there's no such license
+	 * @throws IOException
+	 */
+	private synchronized String getLicenseId(String licenseKey) throws IOException {
+		String licenseId = getLicenseIds().get(licenseKey);
+		if (licenseId == null) {
+			log.info("Valid client access license keys are:");
+			Iterator<String> keys = licenseIds.keySet().iterator();
+			while (keys.hasNext()) {
+				log.info("\t"+keys.next());
+			}
+		}
+		return licenseId;
+	}
+
+	/**
+	 * @param userUrl the URL of a user in the process REST API
+	 * @return the server's user, or a user with just the user ID if the user isn't known
+	 * @throws IOException
+	 */
+	private RTCUser toUser(String userUrl) throws IOException {
+		String userId = lastSegment(userUrl);
+		RTCUser user = getUsers().get(userId);
+		return user != null? user: new RTCUser(userId, userId, "", false, userUrl);
+	}
+
+	private String userURL(String userId) throws UnsupportedEncodingException {
+		return jtsURI+"/users/"+encode(userId);
+	}
+
+	/** The XML to add administrators or members to an area, with their role assignments
+	 */
+	private String usersXml(String list, String item, List<RTCUser> added, Map<String, List<String>> roles, AreaSnapshot snapshot) throws UnsupportedEncodingException {
+		StringBuilder xml = new StringBuilder("<jp:"+list+" xmlns:jp=\""+PROCESS_NAMESPACE+"\">");
+		for (int u=0; u<added.size(); u++) {
+			RTCUser user = added.get(u);
+			String userUrl = (user.getHandle() instanceof String)? (String)user.getHandle(): userURL(user.getUserId());
+			xml.append("<jp:"+item+"><jp:user-url>"+escape(userUrl)+"</jp:user-url>");
+			if (roles != null && roles.containsKey(user.getUserId())) {
+				xml.append("<jp:role-assignments>");
+				appendRoles(xml, roles.get(user.getUserId()), snapshot);
+				xml.append("</jp:role-assignments>");
+			}
+			xml.append("</jp:"+item+">");
+		}
+		return xml.append("</jp:"+list+">").toString();
+	}
+
+	private static void appendRoles(StringBuilder xml, List<String> roleIds, AreaSnapshot snapshot) {
+		for (int r=0; r<roleIds.size(); r++) {
+			xml.append("<jp:role-assignment><jp:role-url>"+escape((String)snapshot.getRoleHandle(roleIds.get(r)))+"</jp:role-url></jp:role-assignment>");
+		}
+	}
+
+	/** Log into the RTC server, and the Jazz Team Server if it's a different application
+	 * @throws IOException if the servers can't be reached or the credentials are refused
+	 */
+	private synchronized void login() throws IOException {
+		authenticate(serverURI);
+		if (!jtsURI.equals(serverURI)) authenticate(jtsURI);
+	}
+
+	private void authenticate(String application) throws IOException {
+		execute(new HttpGet(application+"/authenticated/identity"));
+		List<NameValuePair> credentials = Arrays.<NameValuePair>asList(new BasicNameValuePair("j_username", user), new BasicNameValuePair("j_password", password));
+		HttpPost post = new HttpPost(application+"/j_security_check");
+		post.setEntity(new UrlEncodedFormEntity(credentials, Consts.UTF_8));
+		Response response = execute(post);
+		if ("authfailed".equals(response.authMessage) || response.status >= 400) {
+			throw new IOException("the credentials for "+user+" were refused by "+application);
+		}
+	}
+
+	private Document getXml(String url) throws IOException {
+		HttpGet get = new HttpGet(url);
+		get.setHeader("Accept", "text/xml");
+		try {
+			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+			factory.setNamespaceAware(true);
+			factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+			return factory.newDocumentBuilder().parse(new InputSource(new StringReader(send(get))));
+		} catch (ParserConfigurationException e) {
+			throw new IOException(e.getMessage());
+		} catch (SAXException e) {
+			throw new IOException("invalid XML from "+url+": "+e.getMessage());
+		}
+	}
+
+	private Object getJson(String url) throws IOException {
+		HttpGet get = new HttpGet(url);
+		get.setHeader("Accept", "application/json");
+		try {
+			Object json = new JSONParser().parse(send(get));
+			// the administration services wrap their results in a response envelope
+			if (json instanceof JSONObject && ((JSONObject)json).containsKey("soapenv:Body")) {
+				JSONObject response = (JSONObject)((JSONObject)((JSONObject)json).get("soapenv:Body")).get("response");
+				JSONObject returnValue = (JSONObject)response.get("returnValue");
+				json = returnValue.containsKey("values")? returnValue.get("values"): returnValue.get("value");
+			}
+			return json;
+		} catch (ParseException e) {
+			throw new IOException("invalid JSON from "+url+": "+e);
+		}
+	}
+
+	private static HttpRequestBase withBody(HttpEntityEnclosingRequestBase request, String body, ContentType type) {
+		request.setEntity(new StringEntity(body, type.withCharset(Consts.UTF_8)));
+		return request;
+	}
+
+	/** Send a request, logging in again if the session has expired
+	 * @return the body of the response
+	 * @throws IOException if the request failed or the server did not accept it
+	 */
+	private String send(HttpRequestBase request) throws IOException {
+		return body(request, executeLoggedIn(request));
+	}
+
+	/** Send a change to an area
+	 * @return the body of the response
+	 * @throws SaveConflictException if the area was changed by someone else since it was read
+	 * @throws IOException if the request failed or the server did not accept it
+	 */
+	private String sendChange(HttpRequestBase request) throws IOException, SaveConflictException {
+		Response response = executeLoggedIn(request);
+		if (response.status == 409 || response.status == 412) {
+			throw new SaveConflictException(request.getMethod()+" "+request.getURI()+" returned "+response.status);
+		}
+		return body(request, response);
+	}
+
+	private Response executeLoggedIn(HttpRequestBase request) throws IOException {
+		Response response = execute(request);
+		if (response.authMessage != null || response.status == 401) {
+			login();
+			response = execute(request);
+		}
+		return response;
+	}
+
+	private static String body(HttpRequestBase request, Response response) throws IOException {
+		if (response.status < 200 || response.status >= 300 || response.authMessage != null) {
+			throw new IOException(request.getMethod()+" "+request.getURI()+" returned "+response.status);
+		}
+		return response.body;
+	}
+
+	/** Send a request on one of the pooled connections, reading the whole response so the connection can be reused
+	 */
+	private Response execute(HttpRequestBase request) throws IOException {
+		SyncTrace.Span span = SyncTrace.runTrace.start(request.getMethod(), "http").set("url", request.getURI().toString());
+		CloseableHttpResponse httpResponse = null;
+		try {
+			httpResponse = client.execute(request);
+			Response response = new Response();
+			response.status = httpResponse.getStatusLine().getStatusCode();
+			Header auth = httpResponse.getFirstHeader(AUTH_HEADER);
+			if (auth != null) response.authMessage = auth.getValue();
+			HttpEntity entity = httpResponse.getEntity();
+			response.body = (entity != null)? EntityUtils.toString(entity, Consts.UTF_8): "";
+			span.set("status", response.status);
+			return response;
+		} finally {
+			if (httpResponse != null) httpResponse.close();
+			span.end();
+		}
+	}
+
+	/**
+	 * @return the text of the first child of element with the given local name in the process namespace, or null
+	 */
+	private static String text(Element element, String localName) {
+		Element child = child(element, localName);
+		return (child != null)? child.getTextContent().trim(): null;
+	}
+
+	private static Element child(Element element, String localName) {
+		List<Element> found = children(element, localName);
+		return found.isEmpty()? null: found.get(0);
+	}
+
+	private static List<Element> children(Element element, String localName) {
+		List<Element> found = new ArrayList<Element>();
+		NodeList nodes = element.getChildNodes();
+		for (int n=0; n<nodes.getLength(); n++) {
+			Node node = nodes.item(n);
+			if (node.getNodeType() == Node.ELEMENT_NODE && PROCESS_NAMESPACE.equals(node.getNamespaceURI()) && localName.equals(node.getLocalName())) {
+				found.add((Element)node);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the name of a project or team area, given as an attribute or an element
+	 */
+	private static String name(Element area) {
+		String name = area.getAttributeNS(PROCESS_NAMESPACE, "name");
+		return (name != null && name.length() > 0)? name: text(area, "name");
+	}
+
+	private static String lastSegment(String url) throws UnsupportedEncodingException {
+		String segment = trim(url);
+		return URLDecoder.decode(segment.substring(segment.lastIndexOf('/')+1), "UTF-8");
+	}
+
+	private static String encode(String segment) throws UnsupportedEncodingException {
+		return URLEncoder.encode(segment, "UTF-8").replaceAll("\\+", "%20");
+	}
+
+	private static String trim(String uri) {
+		return uri.endsWith("/")? uri.substring(0, uri.length()-1): uri;
+	}
+
+	private static String escape(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
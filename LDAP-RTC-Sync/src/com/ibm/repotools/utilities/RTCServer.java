@@ -9,25 +9,33 @@
  */
 package com.ibm.repotools.utilities;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingException;
-import javax.naming.directory.Attributes;
 import javax.security.auth.login.LoginException;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 
-import com.ibm.team.repository.common.IContributor;
-import com.ibm.team.repository.common.IContributorHandle;
 import com.ibm.team.repository.common.TeamRepositoryException;
 import com.ibm.team.repository.common.util.ObfuscationHelper;
 
@@ -38,9 +46,10 @@ import com.ibm.team.repository.common.util.ObfuscationHelper;
  */
 public class RTCServer {
 	private JSONObject serverObject = null;
-	private LdapConnection ldapConnection = null;
+	private DirectorySource ldapConnection = null;
 	private Logger log = null;
-	private RTCUserOperations rtc = null;
+	private RTCGateway rtc = null;
+	private AtomicInteger licenseFailures = new AtomicInteger();  // the license reads and changes of syncLicenses that failed
 	
 	/** Construct the server, set its ldapConnection and connect to RTC
 	 * 
@@ -48,12 +57,12 @@ public class RTCServer {
 	 * @param connection to access LDAP
 	 * @param log a logger for messages
 	 */
-	public RTCServer(JSONObject obj, LdapConnection connection, Logger log) {
+	public RTCServer(JSONObject obj, DirectorySource connection, Logger log) {
 		serverObject = obj;
 		ldapConnection = connection;
 		this.log = log;
 		try {
-			rtc = new RTCUserOperations(this, log);
+			rtc = RTCGateway.open(this, log);
 		} catch (LoginException e) {
 			rtc = null;
 			Status.appStatus.setCode(-1);
@@ -68,6 +77,13 @@ public class RTCServer {
 		return (String)serverObject.get("serverURI");
 	}
 	
+	/**
+	 * @return the gateway the RTC server is accessed with, or null if it couldn't be logged into
+	 */
+	public RTCGateway getGateway() {
+		return rtc;
+	}
+	
 	/** The admin element in the JSON configuration file specifies the administrator that can access and do user management for the RTC server.
 	 * @return the Administrator ID for the RTC server
 	 */
@@ -89,36 +105,152 @@ public class RTCServer {
 		}
 		return password;
 	}
+	
+	/** The Client element selects how the RTC server is accessed: Java for the RTC plain-Java client,
+	 * or REST for the server's HTTP services.
+	 * @return the client for the RTC server, Java if none is specified
+	 */
+	public String getClient() {
+		if (serverObject == null || serverObject.get("Client") == null) return "Java";
+		return (String)serverObject.get("Client");
+	}
+	
+	/** The JTS element gives the URI of the Jazz Team Server that manages the users and licenses of
+	 * the RTC server, used by the REST client.
+	 * @return the JTS URI, by default the jts application next to the RTC server
+	 */
+	public String getJtsURI() {
+		if (serverObject == null) return null;
+		if (serverObject.get("JTS") != null) return (String)serverObject.get("JTS");
+		String serverURI = getServerURI();
+		if (serverURI.endsWith("/")) serverURI = serverURI.substring(0, serverURI.length()-1);
+		return serverURI.substring(0, serverURI.lastIndexOf('/')+1)+"jts";
+	}
+	
+	/** The Connections element gives the number of HTTP connections the REST client keeps open to the server.
+	 * @return the maximum number of pooled connections, 10 by default
+	 */
+	public int getConnections() {
+		if (serverObject == null || serverObject.get("Connections") == null) return 10;
+		return Math.max(1, ((Long)serverObject.get("Connections")).intValue());
+	}
+
+	/** The Memory Budget element bounds the memory used to reconcile the holders of client access licenses: the
+	 * user IDs of a license held in memory before they are spilled to disk (see SortedSpill). The holders of a
+	 * license are still read whole from LDAP and RTC, which return them all at once, so only the licenses being
+	 * read are in memory at the same time.
+	 * @return the user IDs held in memory for each license, or 0 to hold them all in memory, the default
+	 */
+	public int getMemoryBudget() {
+		if (serverObject == null || serverObject.get("Memory Budget") == null) return 0;
+		return Math.max(1, ((Long)serverObject.get("Memory Budget")).intValue());
+	}
+
+	/** The Spill Directory element gives where the user IDs over the Memory Budget are written.
+	 * @return the directory, or null for the temporary directory, the default
+	 */
+	public File getSpillDirectory() {
+		if (serverObject == null || serverObject.get("Spill Directory") == null) return null;
+		return new File((String)serverObject.get("Spill Directory"));
+	}
+
+	/** The Threads element gives the number of changes, such as client access license assignments, made to
+	 * the server at once.
+	 * @return the number of threads changing the server, 4 by default
+	 */
+	public int getThreads() {
+		if (serverObject == null || serverObject.get("Threads") == null) return 4;
+		return Math.max(1, ((Long)serverObject.get("Threads")).intValue());
+	}
 
 		
-	/** Synchronize the LDAP users for this RTC server. This implementation use
-	 * the existing RTC userSync implementation to properly handle the repository permissions.
+	/** Check the LDAP groups, project and team areas, licenses and process roles this server's configuration
+	 * refers to, before any changes are made. See ConfigValidation.
+	 * 
+	 * @return the number of problems found
+	 */
+	public int validate() {
+		if (serverObject == null || rtc == null) return 0;
+		return ConfigValidation.runValidation.validate(getServerURI(), serverObject, ldapConnection, rtc, log);
+	}
+	
+	/** Synchronize the LDAP users for this RTC server:
+	 *   * creates, restores and archives the server's users from the Users LDAP groups
+	 *   * assigns and unassigns client access licenses
+	 *   * synchronizes the project and team areas
 	 * 
 	 * Note: IContributor does not provide access to a user's repository permissions. These
 	 * are only handled by the com.ibm.team.repository.common.service.IExternalUserRegistryService 
-	 * synchronizeUsers() method.
+	 * synchronizeUsers() method, used by repotools -userSync.
 	 *  
 	 * @throws TeamRepositoryException
 	 * @throws NamingException
 	 */
 	public void syncServerUsers() throws TeamRepositoryException, NamingException {
 		if (serverObject == null || rtc == null) return;
-		syncLicenses();
-		syncProjectAreas();
+		SyncTrace trace = SyncTrace.runTrace;
+		SyncTrace.Span span = trace.start(getServerURI(), "server").set("server", getServerURI()).set("client", getClient());
+		try {
+			SyncTrace.Span stage = trace.start("users", "stage");
+			try {
+				syncUsers();
+			} finally {
+				stage.end();
+			}
+			stage = trace.start("licenses", "stage");
+			try {
+				syncLicenses();
+			} finally {
+				stage.end();
+			}
+			syncProjectAreas();
+		} finally {
+			span.end();
+		}
+	}
+	
+	/** Create new users, and archive departed users, from the Users LDAP groups, if any are specified
+	 * 
+	 * @throws TeamRepositoryException
+	 */
+	public void syncUsers() throws TeamRepositoryException {
+		if (serverObject == null || rtc == null || SyncJournal.runJournal.isStopped()) return;
+		JSONObject usersObject = (JSONObject)serverObject.get("Users");
+		if (usersObject == null) return;  // users are managed by repotools -userSync
+		new ServerUsers(usersObject, this, ldapConnection, rtc, log).syncUsers();
 	}
 	
 	
-	/** Allocates client access licenses based on membership in an LDAP group
+	/** Allocates client access licenses based on membership in an LDAP group.
+	 * 
+	 * The users who should hold each license are read from LDAP, and the users who do hold it from RTC,
+	 * for all the licenses at once. The licenses are then unassigned from the users who should no longer
+	 * hold them, and only then assigned to the users who should, so moving users from one license to
+	 * another doesn't run out of seats. Up to Threads assignments or unassignments are made at once.
+	 * A run targeting some users (see SyncScope) only assigns and unassigns the licenses of those users, and
+	 * a run limited to some groups only reads the licenses of those groups.
+	 * 
+	 * With a Memory Budget, the holders of each license are spilled to disk as sorted runs instead, and the
+	 * users to assign and unassign are found by merging the sorted holders from LDAP and RTC, and changed
+	 * Memory Budget at a time. Neither LDAP nor the RTC gateway can return the holders of a license a few at a
+	 * time, so each license is read whole, but it is dropped once spilled, and only the Threads licenses
+	 * being read are in memory rather than all of them until the licenses are done.
+	 * 
 	 * @throws TeamRepositoryException 
 	 * 
 	 */
 	public void syncLicenses() throws TeamRepositoryException {
 		if (serverObject == null || rtc == null) return;  // no server found in the config file or couldn't login
+		SyncJournal journal = SyncJournal.runJournal;
+		if (journal.isStopped()) return;
+		if (journal.isCompleted(getServerURI(), null)) {
+			log.info("Client access licenses for: "+getServerURI()+" were completed by the interrupted run");
+			return;
+		}
 		log.info("Assigning client access licenses for: "+getServerURI());
+		licenseFailures.set(0);
 		
-		// Collect the desired licenses for each user as specified in the LDAP groups in the config file
-		Map<String, List<String>> desiredLicenses = new HashMap<String, List<String>>();  // <CLA, list of users> that should have the license
-		
+		ConfigValidation validation = ConfigValidation.runValidation;
 		JSONArray licenseObjects =  (JSONArray)serverObject.get("Licenses");  // contains {CLA, LDAPGroup} mappings from the config file
 		if (licenseObjects == null || licenseObjects.size() == 0) {
 			log.warn("No Licenses were specified for "+getServerURI());
@@ -126,6 +258,8 @@ public class RTCServer {
 		}
 		
 		// For each License object in the the JSON config file:
+		Map<String, Object> mappings = new LinkedHashMap<String, Object>();  // <CLA, group or groups>
+		Set<String> invalid = new HashSet<String>();  // the CLAs with an entry that failed validation
 		@SuppressWarnings("unchecked")
 		Iterator<JSONObject> licenses = licenseObjects.iterator();
 		while (licenses.hasNext()) {
@@ -138,38 +272,25 @@ public class RTCServer {
 			// claName will be used as the client-facing name of the license.
 			
 			String claName = (String)license.keySet().toArray()[0];
-			String racfGroupDN = (String)license.get(claName);
+			Object racfGroupDN = license.get(claName);  // a group, or an array of groups
 			// the members of this group should be assigned client access license key licenseId
-			
-			try {
-				// For each userDN in the LDAP group and any subgroups:
-				Iterator<String> ldapUsers = ldapConnection.getMembers(racfGroupDN).iterator();
-				while (ldapUsers != null && ldapUsers.hasNext()) {
-					String userDN = (String)ldapUsers.next();
-					Attributes ldapUser = ldapConnection.getContext().getAttributes(userDN);
-					if (ldapUser == null) {
-						log.error("LDAP user: "+userDN+" is not defined in LDAP");
-						continue;
-					}
-					String userId = ldapUser.get("racfid").get().toString();
-					// Add this userId to the list of users that should be assigned the license identified by claName
-					if (desiredLicenses.containsKey(claName)) {
-						desiredLicenses.get(claName).add(userId);
-					} else {
-						List<String> allocatedUsers = new ArrayList<String>();
-						allocatedUsers.add(userId);
-						desiredLicenses.put(claName, allocatedUsers);
-					}
-
-				}
-			} catch (NamingException e) {
-				log.error("LDAP group: "+racfGroupDN+" does not exist");
-				Status.appStatus.setCode(-1);
+			if (!validation.isValidLicense(getServerURI(), claName) || !validation.isValidGroup(racfGroupDN)) invalid.add(claName);
+			// a CLA in more than one entry is held by the users of all their groups
+			mappings.put(claName, addGroups(mappings.get(claName), racfGroupDN));
+		}
+		Iterator<Map.Entry<String, Object>> mapped = mappings.entrySet().iterator();
+		while (mapped.hasNext()) {
+			Map.Entry<String, Object> mapping = mapped.next();
+			if (invalid.contains(mapping.getKey())) {
+				log.info("Skipping client access license: {}, which failed validation", mapping.getKey());
+				mapped.remove();
+			} else if (!SyncScope.runScope.affects(mapping.getValue())) {
+				mapped.remove();  // none of its users changed
+			} else if (!SyncScope.runScope.covers(getServerURI(), "license", mapping.getKey())) {
+				mapped.remove();  // unchanged in the configuration file
 			}
 		}
 		
-		// Next get the users assigned to each client access license
-		
 		// Note: any CLA that should be allocated, e.g., Jazz Administrator needs RTC-Developer, should
 		// Be defined in the groups. There's no attempt here to preserve CLAs we think 
 		// should be retained, or delete users from CLAs that are not configured. This preserves
@@ -178,50 +299,355 @@ public class RTCServer {
 		// Note: The Jazz ADMIN will need an RTC - Developer license for this utility to run
 		// The config file and LDAP groups need to be configured to ensure this license is not removed.
 		
-		Map<String, List<String>> actualLicenses = new HashMap<String, List<String>>();  // <CLA, list of userId>
-		Iterator<String> clas = desiredLicenses.keySet().iterator();
-		while (clas.hasNext()) {
-			String cla = clas.next();
-			IContributorHandle[] contributors = rtc.getContributorsAssignedLicense(cla);
-			List<String> users = new ArrayList<String>();
-				if (contributors != null) {
-				for (int l=0; l<contributors.length; l++) {
-					IContributor contributor = rtc.getContributor(contributors[l]);
-					String userId = contributor.getUserId();
-					users.add(userId);
+		ExecutorService executor = Executors.newFixedThreadPool(getThreads());
+		try {
+			if (getMemoryBudget() > 0) {
+				syncSpilledLicenses(mappings, executor);
+				licensesCompleted(journal);
+				return;
+			}
+			List<Callable<LicenseHolders>> reads = new ArrayList<Callable<LicenseHolders>>();
+			Iterator<Map.Entry<String, Object>> licenseGroups = mappings.entrySet().iterator();
+			while (licenseGroups.hasNext()) {
+				final Map.Entry<String, Object> mapping = licenseGroups.next();
+				reads.add(SyncTrace.runTrace.propagate(new Callable<LicenseHolders>() {
+					public LicenseHolders call() {
+						return getLicenseHolders(mapping.getKey(), mapping.getValue());
+					}
+				}));
+			}
+			List<LicenseHolders> holders = new ArrayList<LicenseHolders>();
+			Iterator<Future<LicenseHolders>> read = executor.invokeAll(reads).iterator();
+			while (read.hasNext()) {
+				LicenseHolders cla = result(read.next());
+				if (cla != null) holders.add(cla);
+			}
+			
+			// Now sync the desired and actual licenses, freeing seats first
+			List<Callable<Boolean>> unassignments = new ArrayList<Callable<Boolean>>();
+			List<Callable<Boolean>> assignments = new ArrayList<Callable<Boolean>>();
+			for (int h=0; h<holders.size(); h++) {
+				LicenseHolders cla = holders.get(h);
+				// unassign the licenses the users should no longer have
+				MemberSet usersToUnassign = cla.actual.minus(cla.desired);
+				for (int id = usersToUnassign.nextMember(0); id >= 0; id = usersToUnassign.nextMember(id+1)) {
+					unassignments.add(licenseChange(cla.name, IdentityDictionary.identities.get(id), false));
+				}
+				// Allocate the license to the users who should have it and don't
+				MemberSet usersToAssign = cla.desired.minus(cla.actual);
+				for (int id = usersToAssign.nextMember(0); id >= 0; id = usersToAssign.nextMember(id+1)) {
+					assignments.add(licenseChange(cla.name, IdentityDictionary.identities.get(id), true));
+				}
+			}
+			Iterator<Future<Boolean>> changes = executor.invokeAll(unassignments).iterator();
+			while (changes.hasNext()) {
+				changed(result(changes.next()));
+			}
+			changes = executor.invokeAll(assignments).iterator();
+			while (changes.hasNext()) {
+				changed(result(changes.next()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			log.error("Interrupted assigning client access licenses for: "+getServerURI());
+			Status.appStatus.setCode(-1);
+			return;
+		} finally {
+			executor.shutdown();
+		}
+		licensesCompleted(journal);
+	}
+	
+	/** Record the client access licenses of this server as completed in the run journal, unless a group or the
+	 * holders of a license couldn't be read, or a license change failed, so that --resume synchronizes them again
+	 */
+	private void licensesCompleted(SyncJournal journal) {
+		if (licenseFailures.get() > 0) {
+			log.warn("Not recording the client access licenses for: {} as completed, {} reads or changes failed", getServerURI(), licenseFailures.get());
+			return;
+		}
+		journal.areaCompleted(getServerURI(), null);
+	}
+	
+	/** Count a license change that wasn't made
+	 * 
+	 * @param changed the result of the change, or null if it failed unexpectedly, which result() already counted
+	 */
+	private void changed(Boolean changed) {
+		if (Boolean.FALSE.equals(changed)) licenseFailures.incrementAndGet();
+	}
+	
+	/** Add the groups of another Licenses entry for a client access license to the groups of the entries before it
+	 * 
+	 * @param groups the group, or array of groups, of the entries before, or null if there weren't any
+	 * @param more the group, or array of groups, of the entry
+	 * @return the group, or array of groups, of all the entries
+	 */
+	@SuppressWarnings("unchecked")
+	private static Object addGroups(Object groups, Object more) {
+		if (groups == null) return more;
+		JSONArray all = new JSONArray();
+		Object[] entries = {groups, more};
+		for (int e=0; e<entries.length; e++) {
+			List<Object> entryGroups = (entries[e] instanceof JSONArray)? (JSONArray)entries[e]: Arrays.asList(entries[e]);
+			for (int g=0; g<entryGroups.size(); g++) {
+				if (!all.contains(entryGroups.get(g))) all.add(entryGroups.get(g));
+			}
+		}
+		return all;
+	}
+	
+	/** The users who should hold a client access license, and the users who do
+	 */
+	private static class LicenseHolders {
+		private String name = null;
+		private MemberSet desired = new MemberSet();
+		private MemberSet actual = null;
+	}
+	
+	/** Read the users who should hold a client access license from LDAP, and the users who do from RTC
+	 * 
+	 * @param claName the client access license
+	 * @param racfGroupDN the group, or array of groups, whose users should hold the license
+	 * @return the license holders, or null if the license isn't assigned to anyone in LDAP, or the group can't be read
+	 */
+	private LicenseHolders getLicenseHolders(String claName, Object racfGroupDN) {
+		IdentityDictionary identities = IdentityDictionary.identities;
+		LicenseHolders cla = new LicenseHolders();
+		cla.name = claName;
+		SyncTrace.Span group = SyncTrace.runTrace.start(claName, "stage").set("group", String.valueOf(racfGroupDN));
+		try {
+			// For each userDN in the LDAP group and any subgroups:
+			Map<String, DirectoryUser> groupUsers = ldapConnection.getGroupUsers(racfGroupDN);
+			group.set("users", groupUsers.size());
+			Iterator<Map.Entry<String, DirectoryUser>> ldapUsers = groupUsers.entrySet().iterator();
+			while (ldapUsers.hasNext()) {
+				Map.Entry<String, DirectoryUser> ldapUser = ldapUsers.next();
+				if (ldapUser.getValue() == null) {
+					log.error("LDAP user: {} is not defined in LDAP", ldapUser.getKey());
+					continue;
 				}
+				// Add this userId to the set of users that should be assigned the license identified by claName
+				cla.desired.add(identities.intern(ldapUser.getValue().getUserId()));
 			}
-			actualLicenses.put(cla, users);				
+		} catch (NamingException e) {
+			log.error("LDAP group: {} does not exist", racfGroupDN);
+			Status.appStatus.setCode(-1);
+			licenseFailures.incrementAndGet();
+			return null;
+		} finally {
+			group.end();
 		}
+		if (cla.desired.isEmpty()) return null;  // licenses no one in LDAP should hold are left alone
 		
-		// Now sync the desired and actual licenses
-		clas = desiredLicenses.keySet().iterator();
-		while (clas.hasNext()) {
-			String cla = clas.next();
-			// Assume we remove them all, and take the ones we want to keep out of this list
-			List<String> usersToUnassignFromlicense = actualLicenses.get(cla);
-			if (desiredLicenses.get(cla) != null) {  // there are users assigned this license
-				Iterator<String> desiredUsersForLicense = desiredLicenses.get(cla).iterator();
-				while (desiredUsersForLicense.hasNext()) {
-					String desiredUserId = desiredUsersForLicense.next();
-					if (!actualLicenses.get(cla).contains(desiredUserId)) {
-						// User isn't allocated the license, allocate it
-						log.info("Adding client access license "+cla+" to user "+desiredUserId+" in server "+getServerURI());
-						rtc.assignClientAccessLicense(cla, desiredUserId);
-					} else {
-						// user is already assigned the license, don't remove it
-						usersToUnassignFromlicense.remove(desiredUserId);
-					}
+		// Next get the users assigned to the client access license, keeping only the users the run changes
+		List<String> holders = rtc.getLicensedUsers(claName);
+		if (holders == null) licenseFailures.incrementAndGet();
+		cla.actual = holders != null? identities.toSet(holders): new MemberSet();
+		SyncScope scope = SyncScope.runScope;
+		cla.desired = scope.restrict(cla.desired);
+		cla.actual = scope.restrict(cla.actual);
+		return cla;
+	}
+	
+	/** Synchronize the client access licenses within the Memory Budget: read the holders of each license
+	 * into SortedSpills, then unassign and assign the licenses of all of them, freeing seats first
+	 * 
+	 * @param mappings the licenses, and the group or groups whose users should hold each
+	 * @param executor makes Threads changes at once
+	 * @throws InterruptedException
+	 */
+	private void syncSpilledLicenses(Map<String, Object> mappings, ExecutorService executor) throws InterruptedException {
+		List<Callable<SpilledHolders>> reads = new ArrayList<Callable<SpilledHolders>>();
+		Iterator<Map.Entry<String, Object>> licenseGroups = mappings.entrySet().iterator();
+		while (licenseGroups.hasNext()) {
+			final Map.Entry<String, Object> mapping = licenseGroups.next();
+			reads.add(SyncTrace.runTrace.propagate(new Callable<SpilledHolders>() {
+				public SpilledHolders call() {
+					return getSpilledHolders(mapping.getKey(), mapping.getValue());
 				}
+			}));
+		}
+		List<SpilledHolders> holders = new ArrayList<SpilledHolders>();
+		try {
+			Iterator<Future<SpilledHolders>> read = executor.invokeAll(reads).iterator();
+			while (read.hasNext()) {
+				SpilledHolders cla = result(read.next());
+				if (cla != null) holders.add(cla);
+			}
+			for (int h=0; h<holders.size(); h++) {
+				changeLicenses(holders.get(h), false, executor);
+			}
+			for (int h=0; h<holders.size(); h++) {
+				changeLicenses(holders.get(h), true, executor);
 			}
-			// unassign the licenses the user should no longer have
-			Iterator<String> usersToRemove = usersToUnassignFromlicense.iterator();
-			while (usersToRemove.hasNext()) {
-				String userId = usersToRemove.next();
-				log.info("Unassigning client acccess license "+cla+" from user "+userId+" in server "+getServerURI());
-				rtc.unassignClientAccessLicense(cla, userId);
+		} finally {
+			for (int h=0; h<holders.size(); h++) {
+				holders.get(h).desired.close();
+				holders.get(h).actual.close();
 			}
-		} // End for each CLA
+		}
+	}
+	
+	/** The users who should hold a client access license, and the users who do, spilled to disk
+	 */
+	private static class SpilledHolders {
+		private String name = null;
+		private SortedSpill desired = null;
+		private SortedSpill actual = null;
+	}
+	
+	/** Read the users who should hold a client access license from LDAP, and the users who do from RTC,
+	 * spilling them to disk past the Memory Budget. Each is read whole, and only held until it is spilled.
+	 * 
+	 * @param claName the client access license
+	 * @param racfGroupDN the group, or array of groups, whose users should hold the license
+	 * @return the license holders, or null if the license isn't assigned to anyone in LDAP, or the holders can't be read
+	 */
+	private SpilledHolders getSpilledHolders(String claName, Object racfGroupDN) {
+		SpilledHolders cla = new SpilledHolders();
+		cla.name = claName;
+		cla.desired = new SortedSpill(claName+"-desired", getMemoryBudget(), getSpillDirectory());
+		cla.actual = new SortedSpill(claName+"-actual", getMemoryBudget(), getSpillDirectory());
+		SyncTrace.Span group = SyncTrace.runTrace.start(claName, "stage").set("group", String.valueOf(racfGroupDN));
+		try {
+			spillGroupUsers(racfGroupDN, cla.desired);  // the group's users are no longer held when RTC is read
+			if (!cla.desired.isEmpty()) {  // licenses no one in LDAP should hold are left alone
+				List<String> holders = rtc.getLicensedUsers(claName);
+				if (holders == null) licenseFailures.incrementAndGet();
+				for (int h=0; holders != null && h<holders.size(); h++) {
+					cla.actual.add(holders.get(h));
+				}
+				group.set("runs", cla.desired.getRuns()+cla.actual.getRuns());
+				return cla;
+			}
+		} catch (NamingException e) {
+			log.error("LDAP group: {} does not exist", racfGroupDN);
+			Status.appStatus.setCode(-1);
+			licenseFailures.incrementAndGet();
+		} catch (IOException e) {
+			log.error("Unable to spill the holders of client access license: {} due to: {}", claName, e.getMessage());
+			Status.appStatus.setCode(-1);
+			licenseFailures.incrementAndGet();
+		} finally {
+			group.end();
+		}
+		cla.desired.close();
+		cla.actual.close();
+		return null;
+	}
+	
+	/** Spill the user IDs of the users of one or more LDAP groups
+	 * 
+	 * @param racfGroupDN the group, or array of groups
+	 * @param users where the user IDs are spilled
+	 * @throws NamingException
+	 * @throws IOException
+	 */
+	private void spillGroupUsers(Object racfGroupDN, SortedSpill users) throws NamingException, IOException {
+		Iterator<Map.Entry<String, DirectoryUser>> ldapUsers = ldapConnection.getGroupUsers(racfGroupDN).entrySet().iterator();
+		while (ldapUsers.hasNext()) {
+			Map.Entry<String, DirectoryUser> ldapUser = ldapUsers.next();
+			if (ldapUser.getValue() == null) {
+				log.error("LDAP user: {} is not defined in LDAP", ldapUser.getKey());
+				continue;
+			}
+			users.add(ldapUser.getValue().getUserId());
+		}
+	}
+	
+	/** Unassign a client access license from the users who hold it and shouldn't, or assign it to the users
+	 * who should hold it and don't, Memory Budget users at a time
+	 * 
+	 * @param cla the license holders
+	 * @param assign true to assign the license, false to unassign it
+	 * @param executor makes Threads changes at once
+	 * @throws InterruptedException
+	 */
+	private void changeLicenses(SpilledHolders cla, final boolean assign, ExecutorService executor) throws InterruptedException {
+		final SyncScope scope = SyncScope.runScope;
+		final SortedSpill users = new SortedSpill(cla.name+(assign? "-assign": "-unassign"), getMemoryBudget(), getSpillDirectory());
+		try {
+			SortedSpill.join(cla.desired, cla.actual, new SortedSpill.Join() {
+				public void leftOnly(String userId) throws IOException {
+					if (assign && scope.includes(userId)) users.add(userId);
+				}
+				public void rightOnly(String userId) throws IOException {
+					if (!assign && scope.includes(userId)) users.add(userId);
+				}
+			});
+			List<Callable<Boolean>> changes = new ArrayList<Callable<Boolean>>();
+			SortedSpill.Cursor cursor = users.open();
+			try {
+				for (String userId = cursor.next(); userId != null; userId = cursor.next()) {
+					changes.add(licenseChange(cla.name, userId, assign));
+					if (changes.size() < getMemoryBudget()) continue;
+					run(changes, executor);
+				}
+				run(changes, executor);
+			} finally {
+				cursor.close();
+			}
+		} catch (IOException e) {
+			log.error("Unable to reconcile the spilled holders of client access license: {} due to: {}", cla.name, e.getMessage());
+			Status.appStatus.setCode(-1);
+			licenseFailures.incrementAndGet();
+		} finally {
+			users.close();
+		}
+	}
+	
+	/** Make a batch of license changes, and clear it
+	 */
+	private void run(List<Callable<Boolean>> changes, ExecutorService executor) throws InterruptedException {
+		Iterator<Future<Boolean>> results = executor.invokeAll(changes).iterator();
+		while (results.hasNext()) {
+			changed(result(results.next()));
+		}
+		changes.clear();
+	}
+	
+	/** Assign or unassign a client access license, recording the change in the journal and audit log
+	 * 
+	 * @param cla the client access license
+	 * @param userId the user
+	 * @param assign true to assign the license, false to unassign it
+	 * @return the change, which returns true if it was made
+	 */
+	private Callable<Boolean> licenseChange(final String cla, final String userId, final boolean assign) {
+		return SyncTrace.runTrace.propagate(new Callable<Boolean>() {
+			public Boolean call() {
+				SyncJournal journal = SyncJournal.runJournal;
+				if (journal.isStopped()) return false;
+				String operation = assign? "assignLicense": "unassignLicense";
+				if (assign) {
+					log.info("Adding client access license {} to user {} in server {}", cla, userId, getServerURI());
+				} else {
+					log.info("Unassigning client acccess license {} from user {} in server {}", cla, userId, getServerURI());
+				}
+				long change = journal.changePending(getServerURI(), null, operation, cla, userId);
+				AuditLog.planned(getServerURI(), null, userId, operation, cla);
+				long start = System.currentTimeMillis();
+				boolean changed = assign? rtc.assignClientAccessLicense(cla, userId): rtc.unassignClientAccessLicense(cla, userId);
+				AuditLog.applied(getServerURI(), null, userId, operation, cla, changed, System.currentTimeMillis()-start);
+				if (changed) journal.changeApplied(change);
+				return changed;
+			}
+		});
+	}
+	
+	/**
+	 * @return the result of a license read or change, or null if it failed unexpectedly
+	 */
+	private <T> T result(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			log.error("Unable to synchronize client access licenses for: "+getServerURI()+" due to: "+e.getCause());
+			Status.appStatus.setCode(-1);
+			licenseFailures.incrementAndGet();
+		}
+		return null;
 	}
 	
 	/** Synchronize the project area Administrators, Members and Process Roles for this server
@@ -231,11 +657,13 @@ public class RTCServer {
 	public void syncProjectAreas() throws NamingException {
 		if (serverObject == null || rtc == null) return;
 		Collection<ProjectArea> projectAreas = getProjectAreas();
+		SyncStatistics statistics = new SyncStatistics();
 		Iterator<ProjectArea> pas = projectAreas.iterator();
-		while (pas.hasNext()) {
+		while (pas.hasNext() && !SyncJournal.runJournal.isStopped()) {
 			ProjectArea pa = pas.next();
-			pa.syncUsers();
+			pa.syncUsers(statistics);
 		}
+		log.info("Project and team areas for: "+getServerURI()+": "+statistics);
 	}
 	
 	/**
@@ -254,9 +682,9 @@ public class RTCServer {
 	}
 	
 	/**
-	 * Disconnect from this RTC server
+	 * Disconnect from this RTC server, unless the session is shared with other configuration files
 	 */
 	public void disconnect() {
-		if (rtc != null) rtc.disconnect();
+		if (rtc != null && !RTCGateway.isShared(rtc)) rtc.disconnect();
 	}
 }
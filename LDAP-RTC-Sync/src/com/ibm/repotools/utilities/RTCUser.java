@@ -0,0 +1,68 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+/** A user of an RTC server, as read through an RTCGateway.
+ *
+ * The handle is the gateway's own representation of the user: the IContributor for the
+ * plain-Java client, or the user's URL for the REST client.
+ *
+ * @author jamsden
+ *
+ */
+public class RTCUser {
+	private String userId = null;
+	private String name = null;
+	private String email = null;
+	private boolean archived = false;
+	private Object handle = null;
+
+	/**
+	 * @param userId the user's ID
+	 * @param name the user's name
+	 * @param email the user's email address
+	 * @param archived true if the user is archived
+	 * @param handle the gateway's representation of the user
+	 */
+	public RTCUser(String userId, String name, String email, boolean archived, Object handle) {
+		this.userId = IdentityDictionary.identities.canonical(userId);
+		this.name = name;
+		this.email = email;
+		this.archived = archived;
+		this.handle = handle;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public boolean isArchived() {
+		return archived;
+	}
+
+	/**
+	 * @return the gateway's representation of the user
+	 */
+	public Object getHandle() {
+		return handle;
+	}
+
+	public String toString() {
+		return userId+" ("+name+")";
+	}
+}
@@ -15,9 +15,12 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.security.auth.login.LoginException;
 
@@ -29,7 +32,6 @@ import com.ibm.team.process.client.IClientProcess;
 import com.ibm.team.process.client.IProcessClientService;
 import com.ibm.team.process.client.IProcessItemService;
 import com.ibm.team.process.common.IProcessArea;
-import com.ibm.team.process.common.IProcessItem;
 import com.ibm.team.process.common.IRole;
 import com.ibm.team.repository.client.IContributorManager;
 import com.ibm.team.repository.client.IItemManager;
@@ -43,16 +45,17 @@ import com.ibm.team.repository.common.IContributor;
 import com.ibm.team.repository.common.IContributorHandle;
 import com.ibm.team.repository.common.IContributorLicenseType;
 import com.ibm.team.repository.common.ILicenseAdminService;
+import com.ibm.team.repository.common.StaleDataException;
 import com.ibm.team.repository.common.TeamRepositoryException;
 
 /** Provides an implementation of the RTC operations needed by LDAP - RTC user synchronization
+ * using the RTC plain-Java client. This is the Java Client of the configuration file.
  *  
  * @author jamsden
  *
  */
-public class RTCUserOperations {
+public class RTCUserOperations extends RTCGateway {
 	
-	private Logger log = null;
 	private ITeamRepository teamRepository = null;
 	private IProcessClientService processClient = null;
 	private IContributorManager contributorManager = null;
@@ -60,6 +63,9 @@ public class RTCUserOperations {
 	private IProcessItemService itemService = null;
 	private ILicenseAdminService licenseAdminService = null;
 	private IContributorLicenseType[] validContributorLicenseTypes = null;
+	private ProcessAreaCatalog catalog = null;  // all the project and team areas, read on first use after a refresh
+	private Map<String, String> licenseIds = new HashMap<String, String>();  // <license key, license ID> of the valid licenses
+	private Map<String, IContributor> licensees = new ConcurrentHashMap<String, IContributor>();  // <userId, contributor> read with the license holders
 	
 	/** Provides the operations needed to sync users for the given RTCServer
 	 * 
@@ -71,6 +77,7 @@ public class RTCUserOperations {
 	 */
 	public RTCUserOperations(RTCServer server, Logger log) throws LoginException {
 		this.log = log;
+		this.serverURI = server.getServerURI();
 		
 		// Startup the team platform unless its already started
 		if (!TeamPlatform.isStarted()) {
@@ -85,6 +92,9 @@ public class RTCUserOperations {
 			
 			licenseAdminService = (ILicenseAdminService) ((IClientLibraryContext) teamRepository).getServiceInterface(ILicenseAdminService.class);
 			validContributorLicenseTypes = licenseAdminService.getLicenseTypes();
+			for (int l=0; l<validContributorLicenseTypes.length; l++) {
+				licenseIds.put(validContributorLicenseTypes[l].getProductName()+" - "+validContributorLicenseTypes[l].getName(), validContributorLicenseTypes[l].getId());
+			}
 			processClient = (IProcessClientService)teamRepository.getClientLibrary(IProcessClientService.class);
 			contributorManager = teamRepository.contributorManager();
 			itemService = (IProcessItemService) teamRepository.getClientLibrary(IProcessItemService.class);
@@ -137,253 +147,290 @@ public class RTCUserOperations {
 		return teamRepository.contributorManager().fetchAllContributors(progressMonitor);
 	}
 	
+	public List<RTCUser> getServerUsers() {
+		try {
+			List<IContributor> contributors = getUsers();
+			List<RTCUser> users = new ArrayList<RTCUser>(contributors.size());
+			for (int c=0; c<contributors.size(); c++) {
+				users.add(toUser(contributors.get(c)));
+			}
+			return users;
+		} catch (TeamRepositoryException e) {
+			log.error("Unable to read the users of: "+serverURI+" due to: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+	
+	/**
+	 * @param contributor an RTC contributor
+	 * @return the user, with the contributor as its handle
+	 */
+	private static RTCUser toUser(IContributor contributor) {
+		return new RTCUser(contributor.getUserId(), contributor.getName(), contributor.getEmailAddress(), contributor.isArchived(), contributor);
+	}
+	
 	
 	/** Get an RTC ProjectArea (called a ProcessArea in the RTC SDK).
 	 * 
-	 * @param projectAreaName
-	 * @return
+	 * Areas are looked up in the catalog of all the server's project and team areas, which is read
+	 * on first use. If the catalog can't be read, the area is found with its own request.
+	 * 
+	 * @param projectAreaName the project area name, or ProjectAreaName/TeamAreaName/... for a team area
+	 * @return the project or team area, with the properties needed for synchronization, or null if it doesn't exist
 	 * @throws TeamRepositoryException
 	 * @throws UnsupportedEncodingException
 	 * @throws URISyntaxException
 	 */
 	public IProcessArea getProjectArea(String projectAreaName) throws TeamRepositoryException, UnsupportedEncodingException, URISyntaxException {
-		URI uri = new URI(URLEncoder.encode(projectAreaName, "UTF-8").replaceAll("\\+", "%20"));
-		IProcessArea processArea = (IProcessArea)processClient.findProcessArea(uri, IProcessClientService.ALL_PROPERTIES, progressMonitor);
+		IProcessArea processArea = findProjectArea(projectAreaName);
 		if (processArea == null) {
 			log.error("Project area "+projectAreaName+" not found.");
 			Status.appStatus.setCode(-1);
 		}
 		return processArea;
 	}
+	
+	/** Find a project or team area without logging it if it doesn't exist
+	 */
+	private IProcessArea findProjectArea(String projectAreaName) throws TeamRepositoryException, UnsupportedEncodingException, URISyntaxException {
+		ProcessAreaCatalog areas = getCatalog();
+		if (areas != null) return areas.getProcessArea(projectAreaName);
+		URI uri = new URI(URLEncoder.encode(projectAreaName, "UTF-8").replaceAll("\\+", "%20"));
+		return (IProcessArea)processClient.findProcessArea(uri, IProcessClientService.ALL_PROPERTIES, progressMonitor);
+	}
+	
+	public synchronized void refresh() {
+		catalog = null;
+	}
 
-	/** Add a user to this team server. 
+	/**
+	 * @return the catalog of this server's project and team areas, or null if it can't be read
+	 */
+	public synchronized ProcessAreaCatalog getCatalog() {
+		if (catalog == null) {
+			try {
+				catalog = new ProcessAreaCatalog(teamRepository, itemService, progressMonitor, log);
+			} catch (TeamRepositoryException e) {
+				log.warn("Unable to read the project and team areas of: "+serverURI+", finding them one at a time: "+e.getMessage());
+			}
+		}
+		return catalog;
+	}
+	
+	/** Get a mutable copy of a project or team area. The area is fetched completely, since the catalog
+	 * only reads the properties needed to compute the changes.
+	 * 
+	 * @param pa the project or team area
+	 * @return a mutable copy of the current state of the area
+	 * @throws TeamRepositoryException
+	 */
+	public IProcessArea getMutableCopy(IProcessArea pa) throws TeamRepositoryException {
+		IProcessArea complete = (IProcessArea)teamRepository.itemManager().fetchCompleteItem(pa, IItemManager.REFRESH, progressMonitor);
+		return (IProcessArea)itemService.getMutableCopy(complete);
+	}
+
+	/** Create a user that is known not to exist on this team server.
 	 * 
 	 * @param userId
 	 * @param userName
 	 * @param emailAddress
-	 * @return
-	 * @throws TeamRepositoryException
-	 * 
+	 * @return the new user, or null if the user could not be created
 	 */
-	public IContributor addUser(String userId, String userName, String emailAddress) throws TeamRepositoryException {
+	public RTCUser createUser(String userId, String userName, String emailAddress) {
 		// Create Item Type Contributor and set its properties
-		IContributor contributor = contributorManager.fetchContributorByUserId(userId, null);
-		if (contributor != null) return contributor;
-
 		IContributor i1 = (IContributor) IContributor.ITEM_TYPE.createItem();
 		i1.setUserId(userId);
 		i1.setName(userName);
 		i1.setEmailAddress(emailAddress);
 		i1.setArchived(false);
-		contributor = null;
 		try {
-			contributor = teamRepository.contributorManager().saveContributor(i1, progressMonitor);
+			return toUser(contributorManager.saveContributor(i1, progressMonitor));
 		} catch (TeamRepositoryException e) {
-			e.printStackTrace();
+			log.error("Unable to create user: "+userId+" due to: "+e.getMessage());
 			Status.appStatus.setCode(-1);
 		}
-		return contributor;
+		return null;
 	}
 
-	/** Archive a user that should no longer have access to this team server
-	 * @param userId
-	 * @throws TeamRepositoryException 
-	 */
-	public void archiveUser(String userId) throws TeamRepositoryException {
-		// Create Item Type Contributor and set its properties
-		IContributor contributor = contributorManager.fetchContributorByUserId(userId, null);
-		if (contributor == null) return;
-		contributor.setArchived(true);
+	public boolean setArchived(RTCUser user, boolean archived) {
+		return setArchived((IContributor)user.getHandle(), archived);
 	}
 	
-
-	/** Get the administrators or members of a project area
-	 * @param pa
-	 * @param memberRole
-	 * @return a Map of the userId, IContributor members
-	 * @throws TeamRepositoryException
+	/** Archive a user that should no longer have access to this team server, or restore an archived user
+	 * @param contributor the user
+	 * @param archived true to archive the user, false to restore
+	 * @return true if the user was saved
 	 */
-	public Map<String, IContributor> getMembers(IProcessArea pa, String memberRole) throws TeamRepositoryException  {
-		Map<String, IContributor> members = new HashMap<String, IContributor>();
-		IContributorHandle[] contributors = null;
-		if (memberRole.equals("Administrators")) {
-			contributors = pa.getAdministrators();
-		} else if (memberRole.equals("Members")) {
-			contributors = pa.getMembers();
-		} else {
-			log.error("Invalid project area member role: "+memberRole);
+	public boolean setArchived(IContributor contributor, boolean archived) {
+		IContributor workingCopy = (IContributor)contributor.getWorkingCopy();
+		workingCopy.setArchived(archived);
+		try {
+			contributorManager.saveContributor(workingCopy, progressMonitor);
+			return true;
+		} catch (TeamRepositoryException e) {
+			log.error("Unable to "+(archived? "archive": "restore")+" user: "+contributor.getUserId()+" due to: "+e.getMessage());
 			Status.appStatus.setCode(-1);
-			return null;
 		}
-		for (int c=0; c<contributors.length; c++) {
-			IContributor contributor = (IContributor)teamRepository.itemManager().fetchCompleteItem(contributors[c], IItemManager.DEFAULT, progressMonitor);
-			members.put(contributor.getUserId(), (IContributor)contributor.getWorkingCopy());
+		return false;
+	}
+	
+	public List<String> getAreaNames() {
+		ProcessAreaCatalog areas = getCatalog();
+		if (areas == null) {
+			log.error("Unable to read the project and team areas of: "+serverURI);
+			Status.appStatus.setCode(-1);
+			return null;
 		}
-		return members;
+		List<String> names = new ArrayList<String>(areas.getNames());
+		Collections.sort(names);
+		return names;
 	}
 	
-	public IContributor getContributor(IContributorHandle contributorHandle) {
-		IContributor contributor = null;
+	public AreaSnapshot getAreaSnapshot(String areaName) {
 		try {
-			contributor = (IContributor)teamRepository.itemManager().fetchCompleteItem(contributorHandle, IItemManager.DEFAULT, progressMonitor);
+			IProcessArea pa = getProjectArea(areaName);
+			if (pa == null) return null;
+			return getAreaSnapshot(areaName, pa);
 		} catch (TeamRepositoryException e) {
-			Status.appStatus.setCode(-1);
-			e.printStackTrace();
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+		} catch (UnsupportedEncodingException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+		} catch (URISyntaxException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
 		}
-		return contributor;
-		
+		Status.appStatus.setCode(-1);
+		return null;
 	}
 	
-	/** Add a new Administrators or Members member to the project area, The new member
-	 * may also have their name and email address updated.
-	 * 
-	 * @param pa the project area the contributor is a member of
-	 * @param memberRole the role they play, Administrators or Members
-	 * @param contributor the contributor to update
-	 * @param name updated name
-	 * @param email updated email address
-	 * @return the (possibly) updated contributor
-	 * @throws TeamRepositoryException 
-	 */
-	public IContributorHandle addMember(IProcessArea pa, String memberRole, String userId) {
-		IContributorHandle contributorHandle = null;
+	public List<String> getRoles(String areaName) {
 		try {
-			contributorHandle = contributorManager.fetchContributorByUserId(userId, progressMonitor);
-			if (memberRole.equals("Administrators")) {
-				pa.addAdministrator(contributorHandle);
-			} else {
-				pa.addMember(contributorHandle);
+			IProcessArea pa = findProjectArea(areaName);
+			if (pa == null) return null;
+			IRole[] roles = itemService.getClientProcess(pa, progressMonitor).getRoles(pa, progressMonitor);
+			List<String> roleIds = new ArrayList<String>(roles.length);
+			for (int r=0; r<roles.length; r++) {
+				roleIds.add(roles[r].getId());
 			}
+			return roleIds;
 		} catch (TeamRepositoryException e) {
-			log.error("User: "+userId+" is not a member of this server");
-			Status.appStatus.setCode(-1);
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+		} catch (UnsupportedEncodingException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
+		} catch (URISyntaxException e) {
+			log.error("Project or Team Area: "+areaName+" exception: "+e.getMessage());
 		}
-		return contributorHandle;
+		return null;
 	}
 	
-	/** Update a project or team area administrator or member's name and/or email address
+	/** Read the administrators, members and role assignments of a project or team area at once.
 	 * 
-	 * @param pa the project area the contributor is a member of
-	 * @param memberRole the role they play, Administrators or Members
-	 * @param contributor the contributor to update
-	 * @param name updated name
-	 * @param email updated email address
+	 * All the administrators and members are fetched in one batch, and the client process is
+	 * read once, so the number of RTC requests doesn't depend on the number of members.
 	 * 
-	 * @return the updated contributor
+	 * @param areaName the name the area was looked up by
+	 * @param pa the project or team area
+	 * @return the snapshot of the area's users and their roles
+	 * @throws TeamRepositoryException
 	 */
-	public IContributor updateMember(IProcessArea pa, String memberRole, IContributor contributor, String name, String email) {
-		contributor.setName(name);
-		contributor.setEmailAddress(email);
-		contributor.setArchived(false);
-		contributor = null;
-		try {
-			contributor = teamRepository.contributorManager().saveContributor(contributor, progressMonitor);
-		} catch (TeamRepositoryException e) {
-			e.printStackTrace();
-			Status.appStatus.setCode(-1);
+	@SuppressWarnings("unchecked")
+	private AreaSnapshot getAreaSnapshot(String areaName, IProcessArea pa) throws TeamRepositoryException {
+		IClientProcess clientProcess = itemService.getClientProcess(pa, progressMonitor);
+		IRole[] roles = clientProcess.getRoles(pa, progressMonitor);
+		AreaSnapshot snapshot = new AreaSnapshot(areaName, pa);
+		for (int r=0; r<roles.length; r++) {
+			snapshot.addRole(roles[r].getId(), roles[r]);
 		}
-		return contributor;
-	}
-
-	/** Remove a member from the Administrators or Members of a Project or Team Area.
-	 * 
-	 * @param pa  the project area the contributor is a member of
-	 * @param memberRolethe role they play, Administrators or Members
-	 * @param member the contributor to remove
-	 */
-	public void removeMember(IProcessArea pa, String memberRole, IContributor member) {
-		if (memberRole.equals("Administrators")) {
-			pa.removeAdministrator((IContributorHandle)member.getItemHandle());
-		} else {
-			pa.removeMember((IContributorHandle)member.getItemHandle());
+		
+		IContributorHandle[] administrators = pa.getAdministrators();
+		IContributorHandle[] members = pa.getMembers();
+		List<IContributorHandle> handles = new ArrayList<IContributorHandle>();
+		handles.addAll(Arrays.asList(administrators));
+		handles.addAll(Arrays.asList(members));
+		List<IContributor> contributors = teamRepository.itemManager().fetchCompleteItems(handles, IItemManager.DEFAULT, progressMonitor);
+		
+		// the fetched contributors are in the same order as the handles: administrators, then members
+		for (int c=0; c<contributors.size(); c++) {
+			IContributor contributor = contributors.get(c);
+			if (contributor == null) continue;  // a contributor that was deleted
+			if (c < administrators.length) {
+				snapshot.addMember("Administrators", toUser(contributor));
+			} else {
+				snapshot.addMember("Members", toUser(contributor));
+				IRole[] assigned = pa.getRoleAssignments(contributor, roles);
+				for (int r=0; r<assigned.length; r++) {
+					snapshot.getRoleAssignments(contributor.getUserId()).add(assigned[r].getId());
+				}
+			}
 		}
+		return snapshot;
 	}
 	
-	
-	/** Get the a list of the process roles (names) for a user in a project area
-	 * @param p the project area
-	 * @param userId the user's ID
-	 * @return a list of role names for the user in this project area
-	 * @throws TeamRepositoryException 
+	/** Apply all the changes to one mutable copy of the area and save it
 	 */
-	public List<IRole> getRoleAssignments(IProcessArea p, String userId)  {
-		List<IRole> roleAssignments = new ArrayList<IRole>();
+	protected boolean saveChanges(AreaSnapshot snapshot, AreaChanges changes) throws SaveConflictException {
 		try {
-			IContributor user = teamRepository.contributorManager().fetchContributorByUserId(userId, progressMonitor);
-			IClientProcess clientProcess = itemService.getClientProcess(p, null);
-
-			roleAssignments.addAll(Arrays.asList(p.getRoleAssignments(user, clientProcess.getRoles(p, null))));
-			return roleAssignments;
+			IProcessArea pa = getMutableCopy((IProcessArea)snapshot.getArea());
+			Iterator<AreaChanges.Change> all = changes.getChanges().iterator();
+			while (all.hasNext()) {
+				AreaChanges.Change change = all.next();
+				IContributor contributor = (IContributor)change.getUser().getHandle();
+				String operation = change.getOperation();
+				if (operation.equals("addMember")) {
+					if (change.getTarget().equals("Administrators")) {
+						pa.addAdministrator(contributor);
+					} else {
+						pa.addMember(contributor);
+					}
+				} else if (operation.equals("removeMember")) {
+					if (change.getTarget().equals("Administrators")) {
+						pa.removeAdministrator(contributor);
+					} else {
+						pa.removeMember(contributor);
+					}
+				} else if (operation.equals("addRole")) {
+					pa.addRoleAssignments(contributor, new IRole[] { (IRole)snapshot.getRoleHandle(change.getTarget()) });
+				} else if (operation.equals("removeRole")) {
+					pa.removeRoleAssignments(contributor, new IRole[] { (IRole)snapshot.getRoleHandle(change.getTarget()) });
+				}
+			}
+			itemService.save(pa, progressMonitor);
+			return true;
+		} catch (StaleDataException e) {
+			throw new SaveConflictException(e.getMessage());
 		} catch (TeamRepositoryException e) {
-			log.error("Cannot get process roles for user: "+userId);
+			log.error("Unable to save project or team area: "+snapshot.getName()+" due to: "+e.getMessage());
 			Status.appStatus.setCode(-1);
 		}
-		return roleAssignments;
+		return false;
 	}
-
 	
-	/** Add a process role to the user in this project area
-	 * @param p the project area
-	 * @param roleID the role to add
-	 * @param userId the user to add the role to
-	 * @throws TeamRepositoryException 
+	/** Read the area itself again, rather than the copy in the catalog, which isn't refreshed
 	 */
-	public void addProcessRole(IProcessArea p, String roleID, String userId)  {
+	protected AreaSnapshot refreshSnapshot(AreaSnapshot snapshot) {
 		try {
-			IContributor user = teamRepository.contributorManager().fetchContributorByUserId(userId, progressMonitor);
-			IRole role = getRole(p, roleID, progressMonitor);
-			IProcessArea pi = (IProcessArea) itemService.getMutableCopy(p);
-			pi.addRoleAssignments(user, new IRole[] { role });
-
-			itemService.save(new IProcessItem[] { pi }, progressMonitor);
+			IProcessArea pa = (IProcessArea)teamRepository.itemManager().fetchCompleteItem((IProcessArea)snapshot.getArea(), IItemManager.REFRESH, progressMonitor);
+			return getAreaSnapshot(snapshot.getName(), pa);
 		} catch (TeamRepositoryException e) {
-			log.error("Unable to add process role: {} to user: {} due to: {}", roleID, userId, e.getMessage());
+			log.error("Project or Team Area: "+snapshot.getName()+" exception: "+e.getMessage());
 			Status.appStatus.setCode(-1);
 		}
+		return null;
 	}
 	
-
-	/** Remove a process role from the user in this project area
-	 * @param p the project area
-	 * @param roleID the role to remove
-	 * @param userId the user to add the role to
-	 * @throws TeamRepositoryException 
+	/** Get a user of this server
+	 * @param userId the user's ID
+	 * @return the user, or null if the user is not a member of this server
 	 */
-	public void removeProcessRole(IProcessArea p, String roleID, String userId)  {
+	public RTCUser getUser(String userId) {
 		try {
-			IContributor user = teamRepository.contributorManager().fetchContributorByUserId(userId, progressMonitor);
-			IRole role = getRole(p, roleID, progressMonitor);
-			IProcessArea pi = (IProcessArea) itemService.getMutableCopy(p);
-			pi.removeRoleAssignments(user, new IRole[] { role });
-
-			itemService.save(new IProcessItem[] { pi }, progressMonitor);
+			IContributor contributor = contributorManager.fetchContributorByUserId(userId, progressMonitor);
+			return contributor != null? toUser(contributor): null;
 		} catch (TeamRepositoryException e) {
-			log.error("Unable to remove process role: {} from user: {} due to: ", roleID, userId, e.getMessage());
+			log.error("User: "+userId+" is not a member of this server");
 			Status.appStatus.setCode(-1);
 		}
-	}
-
-	/**
-	 * Gets a role by its ID.
-	 * 
-	 * @param area
-	 * @param roleID
-	 * @param monitor
-	 * @return
-	 * @throws TeamRepositoryException
-	 */
-	private IRole getRole(IProcessArea area, String roleID, IProgressMonitor monitor) throws TeamRepositoryException {
-		IRole result = null;
-		IClientProcess clientProcess = itemService.getClientProcess(area, monitor);
-		IRole[] availableRoles = clientProcess.getRoles(area, monitor);
-		for (int i = 0; i < availableRoles.length; i++) {
-			IRole role = availableRoles[i];
-			if (role.getId().equalsIgnoreCase(roleID)) {
-				result = role;
-				break;
-			}
-		}
-		return result;
+		return null;
 	}
 	
 	/** Get a list of contributors assigned a given Client Access License
@@ -405,6 +452,26 @@ public class RTCUserOperations {
 	}
 	
 	
+	public List<String> getLicensedUsers(String cla) {
+		IContributorHandle[] contributors = getContributorsAssignedLicense(cla);
+		if (contributors == null) return null;
+		try {
+			List<String> users = new ArrayList<String>(contributors.length);
+			List<?> fetched = teamRepository.itemManager().fetchCompleteItems(Arrays.asList(contributors), IItemManager.DEFAULT, progressMonitor);
+			for (int c=0; c<fetched.size(); c++) {
+				IContributor contributor = (IContributor)fetched.get(c);
+				if (contributor == null) continue;
+				users.add(contributor.getUserId());
+				licensees.put(contributor.getUserId(), contributor);
+			}
+			return users;
+		} catch (TeamRepositoryException e) {
+			log.error("Cannot get users assigned to CLA: "+cla);
+			Status.appStatus.setCode(-1);
+		}
+		return null;
+	}
+	
 	/** Get the client access licenses assigned to to a user.
 	 * 
 	 * License IDs are identifiers like com.ibm.team.rtc.developer. 
@@ -430,15 +497,21 @@ public class RTCUserOperations {
 		
 	}
 	
+	public List<String> getLicenseKeys() {
+		List<String> licenseKeys = new ArrayList<String>(validContributorLicenseTypes.length);
+		for (int l=0; l<validContributorLicenseTypes.length; l++) {
+			licenseKeys.add(validContributorLicenseTypes[l].getProductName()+" - "+validContributorLicenseTypes[l].getName());
+		}
+		return licenseKeys;
+	}
+	
 	/** Get the license ID for a license key
 	 * @param licenseKey (e.g., Rational Team Concert - Developer)
 	 * @return licenseKey (e.g., com.ibm.team.rtc.developer)  
 	 */
 	public String getLicenseId(String licenseKey) {
-		for (int l=0; l<validContributorLicenseTypes.length; l++) {
-			String license = validContributorLicenseTypes[l].getProductName()+" - "+validContributorLicenseTypes[l].getName();
-			if (license.equals(licenseKey)) return validContributorLicenseTypes[l].getId();
-		}
+		String licenseId = licenseIds.get(licenseKey);
+		if (licenseId != null) return licenseId;
 		log.info("Valid client access license keys are:");
 		for (int l=0; l<validContributorLicenseTypes.length; l++) {
 			log.info("\t"+validContributorLicenseTypes[l].getProductName()+" - "+validContributorLicenseTypes[l].getName());
@@ -450,32 +523,53 @@ public class RTCUserOperations {
 	/** Assign a client access license to this user
 	 * @param licenseId the license ID to assign (e.g., com.ibm.team.rtc.developer)
 	 * @param userId the user who will be assigned the license
+	 * @return true if the license was assigned
 	 */
-	public void assignClientAccessLicense(String licenseKey, String userId) {
+	public boolean assignClientAccessLicense(String licenseKey, String userId) {
 		try {
 			String licenseId = getLicenseId(licenseKey);
-			IContributor user = teamRepository.contributorManager().fetchContributorByUserId(userId, progressMonitor);
+			IContributor user = getLicensee(userId);
 			licenseAdminService.assignLicense(user, licenseId);
+			return true;
 		} catch (TeamRepositoryException e) {
 			log.error("Unable to assign client access license: "+licenseKey+" to user: "+userId);
 			Status.appStatus.setCode(-1);
 		}
+		return false;
 	}
 
 	
 	/** Unassign a client access license from a user
 	 * @param licenseId the license ID to unassign (e.g., com.ibm.team.rtc.developer)
 	 * @param userId the user who will loose the license
+	 * @return true if the license was unassigned
 	 */
-	public void unassignClientAccessLicense(String licenseKey, String userId) {
+	public boolean unassignClientAccessLicense(String licenseKey, String userId) {
 		try {
 			String licenseId = getLicenseId(licenseKey);
-			IContributor user = teamRepository.contributorManager().fetchContributorByUserId(userId, progressMonitor);				licenseAdminService.unassignLicense(user, licenseId);
+			IContributor user = getLicensee(userId);
 			licenseAdminService.unassignLicense(user, licenseId);
+			return true;
 		} catch (TeamRepositoryException e) {
 			log.error("Unable to unassign client access license: "+licenseKey+" from user: "+userId);
 			Status.appStatus.setCode(-1);
 		}
+		return false;
+	}
+
+	/** Get a user whose client access licenses are changing, without fetching the users already read
+	 * with the holders of a license again
+	 * @param userId the user's ID
+	 * @return the user
+	 * @throws TeamRepositoryException if the user is not a member of this server
+	 */
+	private IContributor getLicensee(String userId) throws TeamRepositoryException {
+		IContributor contributor = licensees.get(userId);
+		if (contributor == null) {
+			contributor = contributorManager.fetchContributorByUserId(userId, progressMonitor);
+			if (contributor != null) licensees.put(userId, contributor);
+		}
+		return contributor;
 	}
 
 }
\ No newline at end of file
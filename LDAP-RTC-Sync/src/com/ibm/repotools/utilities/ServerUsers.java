@@ -0,0 +1,253 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.naming.NamingException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+import com.ibm.team.repository.common.TeamRepositoryException;
+
+/** Represents the "Users" of an RTC server specified in the LDAP-RTC configuration file.
+ *
+ * The members of the Users LDAP groups are the users of the server. Synchronization creates
+ * the users that don't exist yet, restores the ones that were archived, and, if Archive is true,
+ * archives the server's users that are no longer in any of the groups:
+ *
+ *   "Users": {
+ *       "Groups": ["racfid=RTCUSERS,profiletype=GROUP,CN=RACF255,O=IBM,C=RTC"],
+ *       "Archive": true,
+ *       "Protected": ["JAZZ", "build"],
+ *       "Threads": 8
+ *   }
+ *
+ * The server admin, the Protected users and the RTC unassigned user are never archived.
+ * All the server's users are read with one request, and the users to create, restore and archive
+ * are then saved in parallel using Threads threads (4 by default). A run targeting some users (see SyncScope)
+ * only creates, restores and archives those users, and a run limited to some groups only reads the server's
+ * users if one of the Users groups is one of them.
+ *
+ * @author jamsden
+ *
+ */
+public class ServerUsers {
+
+	private JSONObject usersObject = null;  // the JSON representation of the Users element
+	private RTCServer server = null;
+	private DirectorySource ldapConnection = null;  // for accessing the LDAP server
+	private RTCGateway rtc = null;  // for access the RTC server
+	private Logger log = null;  // errors, warnings and information
+
+	/** Construct a representation of the "Users" of a server from the configuration file.
+	 *
+	 * @param usersObject the raw JSON representation of the Users element
+	 * @param server the RTC server the users are for
+	 * @param ldapConnection used to access the LDAP server
+	 * @param rtc used to access RTC
+	 * @param log for logging errors, warnings and information
+	 */
+	public ServerUsers(JSONObject usersObject, RTCServer server, DirectorySource ldapConnection, RTCGateway rtc, Logger log) {
+		this.usersObject = usersObject;
+		this.server = server;
+		this.ldapConnection = ldapConnection;
+		this.rtc = rtc;
+		this.log = log;
+	}
+
+	/** Create, restore and archive the users of the server so they match the Users LDAP groups.
+	 *
+	 * @throws TeamRepositoryException
+	 */
+	public void syncUsers() throws TeamRepositoryException {
+		log.info("Synchronizing the users of: "+server.getServerURI());
+		JSONArray groups = (JSONArray)usersObject.get("Groups");
+		if (groups == null || groups.size() == 0) {
+			log.warn("No Users Groups were specified for "+server.getServerURI());
+			return;
+		}
+		if (!SyncScope.runScope.affects(groups)) return;  // none of the users changed
+		if (!SyncScope.runScope.covers(server.getServerURI(), "Users", null)) {
+			log.info("The Users of: "+server.getServerURI()+" are unchanged in the configuration file");
+			return;
+		}
+
+		// Collect the users that should be active, with their names and email addresses, from the LDAP groups
+		Map<String, DirectoryUser> desiredUsers = new HashMap<String, DirectoryUser>();
+		boolean allGroupsRead = true;
+		@SuppressWarnings("unchecked")
+		Iterator<String> groupDNs = groups.iterator();
+		while (groupDNs.hasNext()) {
+			String racfGroupDN = groupDNs.next();
+			if (!ConfigValidation.runValidation.isValidGroup(racfGroupDN)) {
+				allGroupsRead = false;  // reported by the validation
+				continue;
+			}
+			try {
+				Iterator<Map.Entry<String, DirectoryUser>> ldapUsers = ldapConnection.getGroupUsers(racfGroupDN).entrySet().iterator();
+				while (ldapUsers.hasNext()) {
+					Map.Entry<String, DirectoryUser> ldapUser = ldapUsers.next();
+					if (ldapUser.getValue() == null) {
+						log.error("LDAP user: {} is not defined in LDAP", ldapUser.getKey());
+						Status.appStatus.setCode(-1);
+						continue;
+					}
+					desiredUsers.put(ldapUser.getValue().getUserId(), ldapUser.getValue());
+				}
+			} catch (NamingException e) {
+				log.error("LDAP group: {} does not exist", racfGroupDN);
+				Status.appStatus.setCode(-1);
+				allGroupsRead = false;
+			}
+		}
+
+		// Read all the current users of the server at once
+		List<RTCUser> serverUsers = rtc.getServerUsers();
+		if (serverUsers == null) return;
+		Map<String, RTCUser> rtcUsers = new HashMap<String, RTCUser>();
+		Iterator<RTCUser> contributors = serverUsers.iterator();
+		while (contributors.hasNext()) {
+			RTCUser contributor = contributors.next();
+			rtcUsers.put(contributor.getUserId(), contributor);
+		}
+
+		// Create the new users and restore the archived ones first, so they are there for licenses and areas
+		SyncScope scope = SyncScope.runScope;
+		List<Callable<Boolean>> provisioning = new ArrayList<Callable<Boolean>>();
+		Iterator<String> userIds = desiredUsers.keySet().iterator();
+		while (userIds.hasNext()) {
+			final String userId = userIds.next();
+			if (!scope.includes(userId)) continue;
+			final RTCUser contributor = rtcUsers.get(userId);
+			if (contributor == null) {
+				final DirectoryUser details = desiredUsers.get(userId);
+				final String userName = (details.getName() != null)? details.getName(): userId;  // the user ID if LDAP has no name
+				log.info("Creating user: {} ({}) in: {}", userId, userName, server.getServerURI());
+				provisioning.add(new Callable<Boolean>() {
+					public Boolean call() {
+						long change = begin("createUser", userId);
+						long start = System.currentTimeMillis();
+						return end(change, "createUser", userId, rtc.createUser(userId, userName, details.getEmail()) != null, start);
+					}
+				});
+			} else if (contributor.isArchived()) {
+				log.info("Restoring archived user: {} in: {}", userId, server.getServerURI());
+				provisioning.add(setArchived(contributor, false));
+			}
+		}
+		int provisioned = run(provisioning);
+
+		// Then archive the users that are not in any of the groups
+		List<Callable<Boolean>> archiving = new ArrayList<Callable<Boolean>>();
+		if (Boolean.TRUE.equals(usersObject.get("Archive"))) {
+			if (!allGroupsRead) {
+				log.warn("Not archiving users of {} because some Users groups could not be read", server.getServerURI());
+			} else {
+				Set<String> protectedUsers = getProtectedUsers();
+				Iterator<RTCUser> users = rtcUsers.values().iterator();
+				while (users.hasNext()) {
+					RTCUser contributor = users.next();
+					if (contributor.isArchived() || desiredUsers.containsKey(contributor.getUserId()) || protectedUsers.contains(contributor.getUserId())) continue;
+					if (!scope.includes(contributor.getUserId())) continue;
+					log.info("Archiving user: {} ({}) in: {}", contributor.getUserId(), contributor.getName(), server.getServerURI());
+					archiving.add(setArchived(contributor, true));
+				}
+			}
+		}
+		int archived = run(archiving);
+		log.info("Users of {}: {} created or restored, {} archived", server.getServerURI(), provisioned, archived);
+	}
+
+	/**
+	 * @return the users that must never be archived
+	 */
+	private Set<String> getProtectedUsers() {
+		Set<String> protectedUsers = new HashSet<String>();
+		protectedUsers.add(server.getAdmin());
+		protectedUsers.add("unassigned");
+		JSONArray configured = (JSONArray)usersObject.get("Protected");
+		if (configured != null) {
+			@SuppressWarnings("unchecked")
+			Iterator<String> userIds = configured.iterator();
+			while (userIds.hasNext()) {
+				protectedUsers.add(userIds.next());
+			}
+		}
+		return protectedUsers;
+	}
+
+	private Callable<Boolean> setArchived(final RTCUser contributor, final boolean archive) {
+		final String operation = archive? "archiveUser": "restoreUser";
+		return new Callable<Boolean>() {
+			public Boolean call() {
+				long change = begin(operation, contributor.getUserId());
+				long start = System.currentTimeMillis();
+				return end(change, operation, contributor.getUserId(), rtc.setArchived(contributor, archive), start);
+			}
+		};
+	}
+
+	private long begin(String operation, String userId) {
+		AuditLog.planned(server.getServerURI(), null, userId, operation, "Users");
+		return SyncJournal.runJournal.changePending(server.getServerURI(), null, operation, "Users", userId);
+	}
+
+	private boolean end(long change, String operation, String userId, boolean succeeded, long start) {
+		AuditLog.applied(server.getServerURI(), null, userId, operation, "Users", succeeded, System.currentTimeMillis()-start);
+		if (succeeded) SyncJournal.runJournal.changeApplied(change);
+		return succeeded;
+	}
+
+	/** Save a batch of users in parallel
+	 *
+	 * @param work the users to create, restore or archive
+	 * @return the number of users that were saved
+	 */
+	private int run(List<Callable<Boolean>> work) {
+		if (work.isEmpty() || SyncJournal.runJournal.isStopped()) return 0;
+		int succeeded = 0;
+		List<Callable<Boolean>> traced = new ArrayList<Callable<Boolean>>(work.size());
+		for (int w=0; w<work.size(); w++) {
+			traced.add(SyncTrace.runTrace.propagate(work.get(w)));
+		}
+		Long threads = (Long)usersObject.get("Threads");
+		ExecutorService executor = Executors.newFixedThreadPool(threads == null? 4: Math.max(1, threads.intValue()));
+		try {
+			Iterator<Future<Boolean>> results = executor.invokeAll(traced).iterator();
+			while (results.hasNext()) {
+				try {
+					if (results.next().get()) succeeded++;
+				} catch (ExecutionException e) {
+					log.error("Unable to save a user of {}: {}", server.getServerURI(), e.getCause().getMessage());
+					Status.appStatus.setCode(-1);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdown();
+		}
+		return succeeded;
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** A set of user IDs, such as the holders of a client access license, that is held on disk once it grows past
+ * a memory budget, so reconciling the users of very large groups with RTC doesn't need them all in memory.
+ *
+ * User IDs are collected in memory until there are budget of them, and then sorted and written to a run file.
+ * The set is read back in sorted order, without duplicates, by merging the runs and what is still in memory,
+ * reading one line of each run at a time. Two sets are reconciled by joining their sorted cursors, which finds
+ * the user IDs that are only in one of them. The run files are deleted when the set is closed.
+ *
+ * @author jamsden
+ *
+ */
+public class SortedSpill implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Receives the user IDs that are in only one of two sets being joined
+	 */
+	public interface Join {
+		/**
+		 * @param userId a user ID of the left set that isn't in the right set
+		 * @throws IOException
+		 */
+		void leftOnly(String userId) throws IOException;
+
+		/**
+		 * @param userId a user ID of the right set that isn't in the left set
+		 * @throws IOException
+		 */
+		void rightOnly(String userId) throws IOException;
+	}
+
+	/** Reads a set in sorted order, without duplicates
+	 */
+	public static class Cursor implements Closeable {
+		private PriorityQueue<Run> runs = new PriorityQueue<Run>();
+		private String last = null;  // the user ID last returned
+
+		private Cursor() {
+		}
+
+		/**
+		 * @return the next user ID, or null at the end of the set
+		 * @throws IOException
+		 */
+		public String next() throws IOException {
+			while (!runs.isEmpty()) {
+				Run run = runs.poll();
+				String userId = run.current;
+				if (run.advance()) {
+					runs.add(run);
+				} else {
+					run.close();
+				}
+				if (!userId.equals(last)) {
+					last = userId;
+					return userId;
+				}
+			}
+			return null;
+		}
+
+		public void close() throws IOException {
+			while (!runs.isEmpty()) {
+				runs.poll().close();
+			}
+		}
+	}
+
+	/** One sorted run: a run file, or the user IDs still in memory
+	 */
+	private static class Run implements Comparable<Run>, Closeable {
+		private BufferedReader reader = null;
+		private Iterator<String> buffered = null;
+		private String current = null;
+
+		/**
+		 * @return true if there is another user ID, now current
+		 */
+		boolean advance() throws IOException {
+			current = (reader != null)? reader.readLine(): buffered.hasNext()? buffered.next(): null;
+			return current != null;
+		}
+
+		public int compareTo(Run other) {
+			return current.compareTo(other.current);
+		}
+
+		public void close() throws IOException {
+			if (reader != null) reader.close();
+		}
+	}
+
+	private String name = null;
+	private int budget = 0;
+	private File directory = null;
+	private List<String> buffer = new ArrayList<String>();  // the user IDs that haven't been written to a run yet
+	private List<File> runs = new ArrayList<File>();  // the run files, each sorted
+	private long added = 0;
+
+	/**
+	 * @param name what the set is, used to name its run files
+	 * @param budget the user IDs held in memory before they are written to a run file
+	 * @param directory where the run files are written, or null for the temporary directory
+	 */
+	public SortedSpill(String name, int budget, File directory) {
+		this.name = name.replaceAll("[^A-Za-z0-9]+", "-");
+		this.budget = Math.max(1, budget);
+		this.directory = directory;
+	}
+
+	/** Add a user ID, writing the user IDs in memory to a run file if they have reached the budget
+	 *
+	 * @param userId the user ID
+	 * @throws IOException if the run file can't be written
+	 */
+	public synchronized void add(String userId) throws IOException {
+		buffer.add(userId);
+		added++;
+		if (buffer.size() >= budget) spill();
+	}
+
+	/**
+	 * @return true if no user IDs have been added
+	 */
+	public synchronized boolean isEmpty() {
+		return added == 0;
+	}
+
+	/**
+	 * @return the number of run files written
+	 */
+	public synchronized int getRuns() {
+		return runs.size();
+	}
+
+	/** Read the set, which can be read more than once
+	 *
+	 * @return a cursor over the user IDs in sorted order
+	 * @throws IOException if a run file can't be read
+	 */
+	public synchronized Cursor open() throws IOException {
+		Collections.sort(buffer);
+		Cursor cursor = new Cursor();
+		try {
+			for (int r=0; r<runs.size(); r++) {
+				Run run = new Run();
+				run.reader = new BufferedReader(new InputStreamReader(new FileInputStream(runs.get(r)), UTF8));
+				if (run.advance()) {
+					cursor.runs.add(run);
+				} else {
+					run.close();
+				}
+			}
+			Run run = new Run();
+			run.buffered = new ArrayList<String>(buffer).iterator();
+			if (run.advance()) cursor.runs.add(run);
+		} catch (IOException e) {
+			cursor.close();
+			throw e;
+		}
+		return cursor;
+	}
+
+	/** Delete the run files
+	 */
+	public synchronized void close() {
+		for (int r=0; r<runs.size(); r++) {
+			runs.get(r).delete();
+		}
+		runs.clear();
+		buffer.clear();
+	}
+
+	/** Find the user IDs that are in only one of two sets, by reading both in sorted order
+	 *
+	 * @param left a set
+	 * @param right another set
+	 * @param join receives the user IDs of each set that aren't in the other
+	 * @throws IOException if a run file can't be read, or join fails
+	 */
+	public static void join(SortedSpill left, SortedSpill right, Join join) throws IOException {
+		Cursor leftCursor = left.open();
+		try {
+			Cursor rightCursor = right.open();
+			try {
+				String l = leftCursor.next();
+				String r = rightCursor.next();
+				while (l != null || r != null) {
+					int order = (l == null)? 1: (r == null)? -1: l.compareTo(r);
+					if (order < 0) {
+						join.leftOnly(l);
+						l = leftCursor.next();
+					} else if (order > 0) {
+						join.rightOnly(r);
+						r = rightCursor.next();
+					} else {
+						l = leftCursor.next();
+						r = rightCursor.next();
+					}
+				}
+			} finally {
+				rightCursor.close();
+			}
+		} finally {
+			leftCursor.close();
+		}
+	}
+
+	/** Write the user IDs in memory to a new run file, sorted and without duplicates
+	 */
+	private void spill() throws IOException {
+		Collections.sort(buffer);
+		File run = File.createTempFile("spill-"+name+"-", ".run", directory);
+		run.deleteOnExit();
+		runs.add(run);
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(run), UTF8));
+		try {
+			String last = null;
+			for (int b=0; b<buffer.size(); b++) {
+				if (buffer.get(b).equals(last)) continue;
+				last = buffer.get(b);
+				writer.write(last);
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.slf4j.Logger;
+
+/** An append-only, write-ahead journal of the changes a synchronization run applies to RTC.
+ *
+ * Each record is a JSON object on its own line:
+ *   * run - the start of a run, and the run it resumes, if any
+ *   * pending - a change that is about to be applied to a project or team area or a license
+ *   * applied - a pending change that has been applied
+ *   * completed - a project or team area (or the licenses of a server) that is completely synchronized:
+ *     every LDAP group was read and every change was saved
+ *   * end - the run finished
+ * Every record is forced to disk before the synchronization continues, so the journal
+ * survives a login expiry, a dropped LDAP connection or a killed JVM.
+ *
+ * A run that fails or is interrupted is not ended, and can be resumed. When a run is resumed, the areas
+ * completed by the interrupted run (and any runs it resumed) are skipped, and the areas that were not
+ * completed are synchronized again. The pending changes are only logged, not applied from the journal:
+ * since synchronization applies the difference between LDAP and RTC, the changes that are still needed
+ * are made again, and the ones applied before the run was interrupted are not.
+ *
+ * @author jamsden
+ *
+ */
+public class SyncJournal {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Logger log = null;
+	private FileChannel channel = null;  // the open journal file, null if journaling is disabled
+	private volatile boolean stopped = false;  // the run was stopped, and must make no more changes
+	private String runId = null;
+	private long sequence = 0;  // the last change sequence number used in this run
+	private Set<String> completedAreas = new HashSet<String>();  // areas completed by the interrupted run
+	private Map<String, JSONObject> pendingChanges = new LinkedHashMap<String, JSONObject>();  // changes the interrupted run did not apply
+
+	/** Open the journal file for a new run.
+	 *
+	 * @param journalFile the journal file name, created if it does not exist
+	 * @param resume true if the areas completed by an interrupted run should be skipped
+	 * @param log for logging errors, warnings and information
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void open(String journalFile, boolean resume, Logger log) throws IOException {
+		this.log = log;
+		stopped = false;
+		File file = new File(journalFile);
+		String resumedRunId = null;
+		if (resume && file.exists()) {
+			resumedRunId = readInterruptedRun(file);
+			if (resumedRunId == null) {
+				log.info("The last run recorded in "+journalFile+" completed, there is nothing to resume");
+			} else {
+				log.info("Resuming run "+resumedRunId+": "+completedAreas.size()+" areas are complete, "+pendingChanges.size()+" changes were pending");
+			}
+		}
+		channel = new FileOutputStream(file, true).getChannel();
+		runId = Long.toString(System.currentTimeMillis());
+		JSONObject record = record("run");
+		if (resumedRunId != null) record.put("resumes", resumedRunId);
+		write(record);
+	}
+
+	/**
+	 * @return true if changes are being recorded in a journal file
+	 */
+	public boolean isOpen() {
+		return channel != null;
+	}
+
+	/** Has a project or team area already been synchronized by the interrupted run?
+	 *
+	 * @param serverURI the RTC server
+	 * @param area the project or team area name, or null for the server's client access licenses
+	 * @return true if the area was completed and can be skipped
+	 */
+	public synchronized boolean isCompleted(String serverURI, String area) {
+		return completedAreas.contains(key(serverURI, area));
+	}
+
+	/** Get the changes the interrupted run was about to apply to an area, but did not record as applied.
+	 *
+	 * @param serverURI the RTC server
+	 * @param area the project or team area name, or null for the server's client access licenses
+	 * @return the pending change records, in the order they were journaled
+	 */
+	public synchronized List<JSONObject> getPendingChanges(String serverURI, String area) {
+		List<JSONObject> changes = new ArrayList<JSONObject>();
+		String areaKey = key(serverURI, area);
+		Iterator<JSONObject> pending = pendingChanges.values().iterator();
+		while (pending.hasNext()) {
+			JSONObject change = pending.next();
+			if (areaKey.equals(key((String)change.get("server"), (String)change.get("area")))) changes.add(change);
+		}
+		return changes;
+	}
+
+	/** Record a change before it is applied.
+	 *
+	 * @param serverURI the RTC server
+	 * @param area the project or team area name, or null for a client access license change
+	 * @param operation the change, e.g., addMember, removeRole, assignLicense
+	 * @param target the member role, process role or client access license changed
+	 * @param userId the user the change applies to
+	 * @return the sequence number used to record the change as applied, 0 if journaling is disabled
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized long changePending(String serverURI, String area, String operation, String target, String userId) {
+		if (channel == null) return 0;
+		JSONObject record = record("pending");
+		record.put("seq", ++sequence);
+		record.put("server", serverURI);
+		if (area != null) record.put("area", area);
+		record.put("op", operation);
+		record.put("target", target);
+		record.put("user", userId);
+		write(record);
+		return sequence;
+	}
+
+	/** Record that a pending change has been applied.
+	 *
+	 * @param change the sequence number returned by changePending
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void changeApplied(long change) {
+		if (channel == null || change == 0) return;
+		JSONObject record = record("applied");
+		record.put("seq", change);
+		write(record);
+	}
+
+	/** Record that a project or team area, or the client access licenses of a server, are completely synchronized.
+	 *
+	 * @param serverURI the RTC server
+	 * @param area the project or team area name, or null for the server's client access licenses
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void areaCompleted(String serverURI, String area) {
+		if (channel == null) return;
+		JSONObject record = record("completed");
+		record.put("server", serverURI);
+		if (area != null) record.put("area", area);
+		write(record);
+	}
+
+	/** Stop the run: close the journal without ending it, and record nothing more, such as when another
+	 * worker has taken over the run's unit of a distributed run. The synchronization checks isStopped()
+	 * between areas, before saving an area, and before each user and license change, and makes no more changes.
+	 *
+	 * @param reason why the run was stopped, for the log
+	 */
+	public synchronized void stop(String reason) {
+		if (stopped) return;
+		if (log != null) log.warn("Stopping the run: "+reason);
+		stopped = true;
+		close(false);
+	}
+
+	/**
+	 * @return true if the run was stopped, and must not change RTC any further
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/** Close the journal.
+	 *
+	 * @param finished true if the run finished and does not need to be resumed
+	 */
+	public synchronized void close(boolean finished) {
+		if (channel == null) return;
+		if (finished) write(record("end"));
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.warn("Unable to close the journal: "+e.getMessage());
+		}
+		channel = null;
+	}
+
+
+	/** Read a journal file to find the areas completed and changes left pending by the last run,
+	 * if that run did not end. Runs that resumed an interrupted run accumulate its completed areas.
+	 *
+	 * @param file the journal file
+	 * @return the id of the interrupted run, or null if the last run ended
+	 * @throws IOException
+	 */
+	private String readInterruptedRun(File file) throws IOException {
+		String lastRun = null;
+		boolean ended = true;
+		JSONParser parser = new JSONParser();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				JSONObject record = null;
+				try {
+					record = (JSONObject)parser.parse(line);
+				} catch (org.json.simple.parser.ParseException e) {
+					continue;  // a torn write at the end of an interrupted run
+				}
+				String type = (String)record.get("type");
+				if ("run".equals(type)) {
+					// a run that does not resume the previous one starts from the beginning
+					if (lastRun == null || !lastRun.equals(record.get("resumes"))) {
+						completedAreas.clear();
+						pendingChanges.clear();
+					}
+					lastRun = (String)record.get("run");
+					ended = false;
+				} else if ("pending".equals(type)) {
+					pendingChanges.put(record.get("run")+"/"+record.get("seq"), record);
+				} else if ("applied".equals(type)) {
+					pendingChanges.remove(record.get("run")+"/"+record.get("seq"));
+				} else if ("completed".equals(type)) {
+					completedAreas.add(key((String)record.get("server"), (String)record.get("area")));
+				} else if ("end".equals(type)) {
+					ended = true;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (ended) {
+			completedAreas.clear();
+			pendingChanges.clear();
+			return null;
+		}
+		return lastRun;
+	}
+
+	@SuppressWarnings("unchecked")
+	private JSONObject record(String type) {
+		JSONObject record = new JSONObject();
+		record.put("type", type);
+		record.put("run", runId);
+		record.put("time", System.currentTimeMillis());
+		return record;
+	}
+
+	/** Append a record to the journal and force it to disk before returning.
+	 *
+	 * @param record the journal record
+	 */
+	private void write(JSONObject record) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap((record.toJSONString()+"\n").getBytes(UTF8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			log.error("Unable to write to the journal: "+e.getMessage());
+			Status.appStatus.setCode(-1);
+		}
+	}
+
+	private static String key(String serverURI, String area) {
+		return serverURI+"\t"+(area == null? "": area);
+	}
+
+	/**
+	 * The journal for the current run, available to any operation in the application. Journaling is disabled until it is opened.
+	 */
+	public static SyncJournal runJournal = new SyncJournal();
+}
@@ -0,0 +1,164 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.NamingException;
+
+import org.json.simple.JSONArray;
+import org.slf4j.Logger;
+
+/** The users a synchronization run changes: everyone, or only the users given with --users, such as someone
+ * who joined or left.
+ *
+ * A targeted run still reads the groups and areas of the configuration file, but only adds and removes the
+ * targeted users: their server user, client access licenses, area memberships and process roles are made to
+ * match the groups they are in now, on every server. The other users are left as they are, so only the areas
+ * and licenses whose users change for the targeted users are saved.
+ *
+ * A run can also be limited to the parts of the configuration file that use some groups, such as the groups
+ * whose users a DirectoryListener saw change: the Users, licenses and areas that don't use any of them are
+ * skipped without being read. An incremental run is likewise limited to the parts of the configuration file
+ * that changed since the last successful run (see ConfigFingerprint).
+ *
+ * @author jamsden
+ *
+ */
+public class SyncScope {
+	private MemberSet users = null;  // the targeted users, or null for everyone
+	private Set<String> groups = null;  // the group DNs in lower case whose users are synchronized, or null for all of them
+	private Set<String> parts = null;  // the parts of the configuration file synchronized (see ConfigFingerprint), or null for all of them
+
+	/** Restrict the run to some users
+	 *
+	 * @param userIds the user IDs or DNs of the users, separated by commas
+	 * @param ldapConnection the directory the DNs are looked up in
+	 * @param log for logging errors, warnings and information
+	 * @return the user IDs of the targeted users
+	 */
+	public List<String> target(String userIds, DirectorySource ldapConnection, Logger log) {
+		List<String> targeted = new ArrayList<String>();
+		String[] names = userIds.split(",");
+		for (int n=0; n<names.length; n++) {
+			String userId = names[n].trim();
+			if (userId.isEmpty()) continue;
+			if (userId.indexOf('=') >= 0) {
+				// a DN, whose user ID is an attribute of the user or part of the DN
+				try {
+					DirectoryUser user = ldapConnection.getUser(userId);
+					if (user == null || user.getUserId() == null) {
+						log.error("LDAP user: {} is not defined in LDAP", userId);
+						Status.appStatus.setCode(-1);
+						continue;
+					}
+					userId = user.getUserId();
+				} catch (NamingException e) {
+					log.error("LDAP user: {} could not be read: {}", userId, e.getMessage());
+					Status.appStatus.setCode(-1);
+					continue;
+				}
+			}
+			targeted.add(userId);
+		}
+		target(targeted);
+		return targeted;
+	}
+
+	/** Restrict the run to some users
+	 *
+	 * @param userIds the user IDs of the users
+	 */
+	public void target(Collection<String> userIds) {
+		users = IdentityDictionary.identities.toSet(userIds);
+	}
+
+	/** Restrict the run to the Users, licenses and areas that use some groups
+	 *
+	 * @param groupDNs the groups
+	 */
+	public void affect(Collection<String> groupDNs) {
+		groups = new HashSet<String>();
+		Iterator<String> dns = groupDNs.iterator();
+		while (dns.hasNext()) {
+			groups.add(dns.next().toLowerCase());
+		}
+	}
+
+	/**
+	 * @param groupDNs a group DN, or a JSONArray of group DNs, as given in the configuration file
+	 * @return true if the run synchronizes the users of any of the groups
+	 */
+	public boolean affects(Object groupDNs) {
+		if (groups == null) return true;
+		if (groupDNs instanceof JSONArray) {
+			@SuppressWarnings("unchecked")
+			Iterator<String> dns = ((JSONArray)groupDNs).iterator();
+			while (dns.hasNext()) {
+				if (groups.contains(dns.next().toLowerCase())) return true;
+			}
+			return false;
+		}
+		return groupDNs != null && groups.contains(((String)groupDNs).toLowerCase());
+	}
+
+	/** Restrict the run to some parts of the configuration file
+	 *
+	 * @param parts the Users, licenses and areas, named by ConfigFingerprint.part
+	 */
+	public void limit(Collection<String> parts) {
+		this.parts = new HashSet<String>(parts);
+	}
+
+	/**
+	 * @param serverURI the server
+	 * @param kind Users, license or area
+	 * @param name the client access license or area, or null for Users
+	 * @return true if the run synchronizes the part of the configuration file
+	 */
+	public boolean covers(String serverURI, String kind, String name) {
+		return parts == null || parts.contains(ConfigFingerprint.part(serverURI, kind, name));
+	}
+
+	/**
+	 * @return true if the run changes every user
+	 */
+	public boolean isAll() {
+		return users == null;
+	}
+
+	/**
+	 * @param userId a user's ID
+	 * @return true if the run changes the user
+	 */
+	public boolean includes(String userId) {
+		if (users == null) return true;
+		int id = IdentityDictionary.identities.lookup(userId);
+		return id >= 0 && users.contains(id);
+	}
+
+	/** Restrict a set of users to the ones the run changes
+	 *
+	 * @param set the users
+	 * @return the users of the set the run changes
+	 */
+	public MemberSet restrict(MemberSet set) {
+		return (users == null)? set: set.intersect(users);
+	}
+
+	/** The scope of the whole synchronization run
+	 */
+	public static SyncScope runScope = new SyncScope();
+}
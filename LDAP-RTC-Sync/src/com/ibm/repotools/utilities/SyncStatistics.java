@@ -0,0 +1,46 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Counts what the synchronization of an RTC server's project and team areas did, for reporting at the end of the run.
+ *
+ * @author jamsden
+ *
+ */
+public class SyncStatistics {
+	private AtomicInteger savedAreas = new AtomicInteger();
+	private AtomicInteger unchangedAreas = new AtomicInteger();
+
+	/** Count an area that had changes and was saved
+	 */
+	public void areaSaved() {
+		savedAreas.incrementAndGet();
+	}
+
+	/** Count an area that was already in sync, and was not saved
+	 */
+	public void areaUnchanged() {
+		unchangedAreas.incrementAndGet();
+	}
+
+	public int getSavedAreas() {
+		return savedAreas.get();
+	}
+
+	public int getUnchangedAreas() {
+		return unchangedAreas.get();
+	}
+
+	public String toString() {
+		return getSavedAreas()+" areas saved, "+getUnchangedAreas()+" areas unchanged and skipped";
+	}
+}
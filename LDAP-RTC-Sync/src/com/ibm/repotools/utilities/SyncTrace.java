@@ -0,0 +1,235 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+
+/** Traces where the time of a synchronization run goes, as nested spans:
+ * run, server, area, stage, and the individual LDAP and RTC calls.
+ *
+ * The trace file is in the Trace Event Format, a JSON array of complete ("X") events, which opens
+ * in chrome://tracing, Perfetto and other trace viewers. Each span is written when it ends. The
+ * viewers nest the spans of each thread by time, and show each span's attributes (server, area,
+ * group, user counts and so on) when it is selected.
+ *
+ * Areas are sampled: each area is traced with the configured probability, and all the spans inside
+ * an area that isn't sampled are skipped, so tracing can be left on for large production runs. The run,
+ * server and server-level stages are always traced. Spans started while the trace isn't open cost
+ * nothing but the Span object.
+ *
+ * Start a span, and end it in a finally block:
+ *   SyncTrace.Span span = SyncTrace.runTrace.start("save", "stage").set("changes", changes.size());
+ *   try { ... } finally { span.end(); }
+ *
+ * @author jamsden
+ *
+ */
+public class SyncTrace {
+
+	/** The category of the spans that are sampled
+	 */
+	public static final String SAMPLED_CATEGORY = "area";
+
+	/** A timed operation, nested in the span that was current on its thread when it started
+	 */
+	public static class Span {
+		private SyncTrace trace = null;
+		private Span parent = null;
+		private boolean recorded = false;
+		private String name = null;
+		private String category = null;
+		private long start = 0;  // microseconds since the trace was opened
+		private JSONObject attributes = null;
+
+		private Span(SyncTrace trace, Span parent, boolean recorded, String name, String category) {
+			this.trace = trace;
+			this.parent = parent;
+			this.recorded = recorded;
+			this.name = name;
+			this.category = category;
+			if (recorded) start = trace.now();
+		}
+
+		/** Add an attribute shown with the span
+		 * @param key the attribute name
+		 * @param value a String, Number or Boolean
+		 * @return this span
+		 */
+		@SuppressWarnings("unchecked")
+		public Span set(String key, Object value) {
+			if (!recorded) return this;
+			if (attributes == null) attributes = new JSONObject();
+			attributes.put(key, value);
+			return this;
+		}
+
+		/**
+		 * @return true if the span is being written to the trace
+		 */
+		public boolean isRecorded() {
+			return recorded;
+		}
+
+		/** End the span, writing it to the trace if it's recorded, and make its parent current again
+		 */
+		public void end() {
+			if (trace.current.get() == this) {
+				if (parent != null) {
+					trace.current.set(parent);
+				} else {
+					trace.current.remove();
+				}
+			}
+			if (recorded) trace.write(this, trace.now());
+		}
+	}
+
+	private Writer out = null;  // the open trace file, null if tracing is disabled
+	private double sampleRate = 1.0;
+	private Random random = new Random();
+	private long origin = System.nanoTime();
+	private boolean first = true;  // no event has been written yet
+	private Set<Long> namedThreads = new HashSet<Long>();
+	private ThreadLocal<Span> current = new ThreadLocal<Span>();
+
+	/** Open the trace file for a run
+	 *
+	 * @param traceFile the trace file, replaced if it exists
+	 * @param sampleRate the fraction of the areas to trace, from 0 to 1
+	 * @param log for logging errors, warnings and information
+	 * @throws IOException
+	 */
+	public synchronized void open(String traceFile, double sampleRate, Logger log) throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(traceFile), "UTF-8"));
+		out.write("[\n");
+		this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+		origin = System.nanoTime();
+		first = true;
+		namedThreads.clear();
+		log.info("Tracing {}% of the areas to: {}", Math.round(this.sampleRate*100), traceFile);
+	}
+
+	public synchronized boolean isOpen() {
+		return out != null;
+	}
+
+	/** Start a span on this thread, nested in the thread's current span
+	 *
+	 * @param name what the span times, e.g., the area name or the call
+	 * @param category run, server, area, stage, ldap or rtc
+	 * @return the new span, which is now the thread's current span
+	 */
+	public Span start(String name, String category) {
+		Span parent = current.get();
+		boolean recorded = isOpen() && (parent == null || parent.recorded);
+		if (recorded && SAMPLED_CATEGORY.equals(category) && sampleRate < 1) {
+			synchronized (random) {
+				recorded = random.nextDouble() < sampleRate;
+			}
+		}
+		Span span = new Span(this, parent, recorded, name, category);
+		current.set(span);
+		return span;
+	}
+
+	/** Wrap a task run on another thread so its spans are nested in the span that is current now
+	 *
+	 * @param task the task
+	 * @return the task, run with this thread's current span as its parent
+	 */
+	public <T> Callable<T> propagate(final Callable<T> task) {
+		final Span parent = current.get();
+		if (parent == null) return task;
+		return new Callable<T>() {
+			public T call() throws Exception {
+				Span previous = current.get();
+				current.set(parent);
+				try {
+					return task.call();
+				} finally {
+					if (previous != null) {
+						current.set(previous);
+					} else {
+						current.remove();
+					}
+				}
+			}
+		};
+	}
+
+	/** Finish the trace file
+	 */
+	public synchronized void close() {
+		if (out == null) return;
+		try {
+			out.write("\n]\n");
+			out.close();
+		} catch (IOException e) {
+			// the events written so far can still be read
+		}
+		out = null;
+	}
+
+	private long now() {
+		return (System.nanoTime()-origin)/1000;
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void write(Span span, long end) {
+		if (out == null) return;
+		long tid = Thread.currentThread().getId();
+		try {
+			if (namedThreads.add(tid)) {
+				JSONObject threadName = new JSONObject();
+				threadName.put("name", Thread.currentThread().getName());
+				JSONObject metadata = new JSONObject();
+				metadata.put("name", "thread_name");
+				metadata.put("ph", "M");
+				metadata.put("pid", 1);
+				metadata.put("tid", tid);
+				metadata.put("args", threadName);
+				append(metadata);
+			}
+			JSONObject event = new JSONObject();
+			event.put("name", span.name);
+			event.put("cat", span.category);
+			event.put("ph", "X");
+			event.put("ts", span.start);
+			event.put("dur", end-span.start);
+			event.put("pid", 1);
+			event.put("tid", tid);
+			if (span.attributes != null) event.put("args", span.attributes);
+			append(event);
+		} catch (IOException e) {
+			out = null;  // stop tracing rather than fail the run
+		}
+	}
+
+	private void append(JSONObject event) throws IOException {
+		if (!first) out.write(",\n");
+		first = false;
+		out.write(event.toJSONString());
+	}
+
+	/** The trace of the whole synchronization run
+	 */
+	public static SyncTrace runTrace = new SyncTrace();
+}
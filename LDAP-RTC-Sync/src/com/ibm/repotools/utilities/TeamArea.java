@@ -31,7 +31,7 @@ public class TeamArea extends ProjectArea {
 	 * @param rtc used to access RTC
 	 * @param log for logging errors, warnings and information
 	 */
-	public TeamArea (ProjectArea parent, JSONObject pa, LdapConnection ldapConnection, RTCUserOperations rtc, Logger log) {
+	public TeamArea (ProjectArea parent, JSONObject pa, DirectorySource ldapConnection, RTCGateway rtc, Logger log) {
 		super(pa, ldapConnection, rtc, log);
 		this.parent = parent;
 	}
@@ -0,0 +1,169 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.util.List;
+
+/** An RTCGateway that records each RTC call as a span of the run's SyncTrace.
+ *
+ * RTCGateway.open() wraps the server's gateway in one when the run is traced.
+ *
+ * @author jamsden
+ *
+ */
+public class TracedGateway extends RTCGateway {
+	private RTCGateway gateway = null;
+
+	/**
+	 * @param gateway the gateway that makes the calls
+	 */
+	public TracedGateway(RTCGateway gateway) {
+		this.gateway = gateway;
+		this.log = gateway.log;
+		this.serverURI = gateway.getServerURI();
+	}
+
+	private SyncTrace.Span start(String call) {
+		return SyncTrace.runTrace.start(call, "rtc").set("server", serverURI);
+	}
+
+	public void disconnect() {
+		gateway.disconnect();
+	}
+
+	public void refresh() {
+		gateway.refresh();
+	}
+
+	public List<RTCUser> getServerUsers() {
+		SyncTrace.Span span = start("getServerUsers");
+		try {
+			List<RTCUser> users = gateway.getServerUsers();
+			if (users != null) span.set("users", users.size());
+			return users;
+		} finally {
+			span.end();
+		}
+	}
+
+	public RTCUser getUser(String userId) {
+		SyncTrace.Span span = start("getUser").set("user", userId);
+		try {
+			return gateway.getUser(userId);
+		} finally {
+			span.end();
+		}
+	}
+
+	public RTCUser createUser(String userId, String userName, String emailAddress) {
+		SyncTrace.Span span = start("createUser").set("user", userId);
+		try {
+			return gateway.createUser(userId, userName, emailAddress);
+		} finally {
+			span.end();
+		}
+	}
+
+	public boolean setArchived(RTCUser user, boolean archived) {
+		SyncTrace.Span span = start(archived? "archiveUser": "restoreUser").set("user", user.getUserId());
+		try {
+			return gateway.setArchived(user, archived);
+		} finally {
+			span.end();
+		}
+	}
+
+	public List<String> getLicenseKeys() {
+		SyncTrace.Span span = start("getLicenseKeys");
+		try {
+			return gateway.getLicenseKeys();
+		} finally {
+			span.end();
+		}
+	}
+
+	public List<String> getLicensedUsers(String licenseKey) {
+		SyncTrace.Span span = start("getLicensedUsers").set("license", licenseKey);
+		try {
+			List<String> users = gateway.getLicensedUsers(licenseKey);
+			if (users != null) span.set("users", users.size());
+			return users;
+		} finally {
+			span.end();
+		}
+	}
+
+	public boolean assignClientAccessLicense(String licenseKey, String userId) {
+		SyncTrace.Span span = start("assignLicense").set("license", licenseKey).set("user", userId);
+		try {
+			return gateway.assignClientAccessLicense(licenseKey, userId);
+		} finally {
+			span.end();
+		}
+	}
+
+	public boolean unassignClientAccessLicense(String licenseKey, String userId) {
+		SyncTrace.Span span = start("unassignLicense").set("license", licenseKey).set("user", userId);
+		try {
+			return gateway.unassignClientAccessLicense(licenseKey, userId);
+		} finally {
+			span.end();
+		}
+	}
+
+	public AreaSnapshot getAreaSnapshot(String areaName) {
+		SyncTrace.Span span = start("getAreaSnapshot").set("area", areaName);
+		try {
+			AreaSnapshot snapshot = gateway.getAreaSnapshot(areaName);
+			if (snapshot != null) {
+				span.set("administrators", snapshot.getMembers("Administrators").size());
+				span.set("members", snapshot.getMembers("Members").size());
+			}
+			return snapshot;
+		} finally {
+			span.end();
+		}
+	}
+
+	public List<String> getAreaNames() {
+		SyncTrace.Span span = start("getAreaNames");
+		try {
+			List<String> names = gateway.getAreaNames();
+			if (names != null) span.set("areas", names.size());
+			return names;
+		} finally {
+			span.end();
+		}
+	}
+
+	public List<String> getRoles(String areaName) {
+		SyncTrace.Span span = start("getRoles").set("area", areaName);
+		try {
+			return gateway.getRoles(areaName);
+		} finally {
+			span.end();
+		}
+	}
+
+	public boolean save(AreaSnapshot snapshot, AreaChanges changes) {
+		SyncTrace.Span span = start("save").set("area", snapshot.getName()).set("changes", changes.size());
+		try {
+			boolean saved = gateway.save(snapshot, changes);
+			span.set("saved", saved);
+			return saved;
+		} finally {
+			span.end();
+		}
+	}
+
+	protected boolean saveChanges(AreaSnapshot snapshot, AreaChanges changes) throws SaveConflictException {
+		return gateway.saveChanges(snapshot, changes);  // not used, the traced gateway retries its own saves
+	}
+}
@@ -0,0 +1,475 @@
+/*
+ *+------------------------------------------------------------------------+
+ *| Licensed Materials - Property of IBM                                   |
+ *| (C) Copyright IBM Corp. 2017.  All Rights Reserved.                    |
+ *|                                                                        |
+ *| US Government Users Restricted Rights - Use, duplication or disclosure |
+ *| restricted by GSA ADP Schedule Contract with IBM Corp.                 |
+ *+------------------------------------------------------------------------+
+ */
+package com.ibm.repotools.utilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+/** The work units of a distributed synchronization run, shared by its coordinator and workers in a
+ * directory that all of them can access, such as a shared file system:
+ *
+ *   plan.json              the IDs of all the units, written once all the units are
+ *   units/<unit>.json      each unit: its configuration file, and the units it must run after
+ *   leases/<unit>.lease    the worker holding the unit, while it is being synchronized
+ *   results/<unit>.json    the outcome of each unit that is done
+ *
+ * A worker claims a unit by creating its lease file, which fails if another worker holds the lease.
+ * Leases are renewed in the background by touching the lease file, and a lease that has not been
+ * renewed for the lease time belongs to a worker that died or hung. Another worker then takes
+ * the lease over by renaming the expired lease file out of the way, which only one worker can do,
+ * and synchronizes the unit again. Synchronization is idempotent, and the unit's journal lets the
+ * new worker skip the areas that were completed.
+ *
+ * Files are written under a temporary name and then renamed, so readers never see a partial file.
+ *
+ * @author jamsden
+ *
+ */
+public class WorkQueue {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** A unit claimed by this worker
+	 */
+	public class Lease {
+		private String unit = null;
+		private File file = null;
+		private boolean reclaimed = false;  // taken over from a worker whose lease expired
+		private volatile boolean lost = false;  // taken over by another worker
+		private Runnable stop = null;  // stops the unit's synchronization when the lease is lost
+
+		private Lease(String unit) {
+			this.unit = unit;
+			this.file = leaseFile(unit);
+			this.reclaimed = expiredFile(unit).exists();
+		}
+
+		public String getUnit() {
+			return unit;
+		}
+
+		/**
+		 * @return the unit's configuration file
+		 */
+		public JSONObject getConfig() throws IOException {
+			return (JSONObject)read(unitFile(unit)).get("config");
+		}
+
+		/**
+		 * @return true if the unit was taken over from a worker that stopped renewing its lease
+		 */
+		public boolean isReclaimed() {
+			return reclaimed;
+		}
+
+		/**
+		 * @return true if another worker took the unit over because this lease wasn't renewed in time
+		 */
+		public boolean isLost() {
+			return lost;
+		}
+
+		/** Stop the unit's synchronization if the lease is lost, so the worker that took it over is the only
+		 * one changing RTC and writing the unit's journal
+		 *
+		 * @param stop run once, on the lease renewal thread, when the lease is lost, or now if it already is
+		 */
+		public void whenLost(Runnable stop) {
+			synchronized (this) {
+				if (!lost) {
+					this.stop = stop;
+					return;
+				}
+			}
+			stop.run();
+		}
+
+		/** Record the outcome of the unit and release the lease. A unit whose lease was lost is left for the
+		 * worker that took it over to record.
+		 *
+		 * @param result what the unit did, which is added to the run report
+		 * @throws IOException
+		 */
+		@SuppressWarnings("unchecked")
+		public void complete(JSONObject result) throws IOException {
+			held.remove(this);
+			if (!workerId.equals(owner(file))) lost = true;  // taken over since the last renewal
+			if (lost) {
+				log.warn("The lease on unit: {} was taken over by another worker while it was synchronized", unit);
+				return;
+			}
+			result.put("unit", unit);
+			result.put("worker", workerId);
+			result.put("reclaimed", reclaimed);
+			write(resultFile(unit), result);
+			expiredFile(unit).delete();
+			file.delete();
+		}
+
+		private void renew() {
+			if (lost) return;
+			String owner = owner(file);
+			if (!workerId.equals(owner) || !file.setLastModified(System.currentTimeMillis())) {
+				Runnable stopping = null;
+				synchronized (this) {
+					lost = true;
+					stopping = stop;
+				}
+				held.remove(this);
+				if (stopping != null) stopping.run();
+			}
+		}
+	}
+
+	private File directory = null;
+	private String workerId = null;
+	private long leaseTime = 0;  // milliseconds a lease lasts without being renewed
+	private Logger log = null;
+	private List<Lease> held = new CopyOnWriteArrayList<Lease>();
+	private ScheduledExecutorService renewer = null;
+
+	/** Open the shared directory of a distributed run
+	 *
+	 * @param directory the shared directory, created if it doesn't exist
+	 * @param leaseTime the milliseconds a lease lasts without being renewed
+	 * @param log for logging errors, warnings and information
+	 * @throws IOException
+	 */
+	public WorkQueue(File directory, long leaseTime, Logger log) throws IOException {
+		this.directory = directory;
+		this.leaseTime = leaseTime;
+		this.log = log;
+		this.workerId = ManagementFactory.getRuntimeMXBean().getName();  // pid@host
+		String[] subdirectories = {"units", "leases", "results", "journals"};
+		for (int d=0; d<subdirectories.length; d++) {
+			File subdirectory = new File(directory, subdirectories[d]);
+			if (!subdirectory.isDirectory() && !subdirectory.mkdirs()) throw new IOException("Unable to create: "+subdirectory);
+		}
+	}
+
+	/**
+	 * @return this worker's ID, its process ID and host
+	 */
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	/**
+	 * @return the shared directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** Add a unit of work. Units are claimed in the order they are published in.
+	 *
+	 * @param unit the unit's ID
+	 * @param description what the unit synchronizes, for the report
+	 * @param config the configuration file for just this unit
+	 * @param after the units that must be done before this one can be claimed
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void addUnit(String unit, String description, JSONObject config, List<String> after) throws IOException {
+		JSONObject unitObject = new JSONObject();
+		unitObject.put("unit", unit);
+		unitObject.put("description", description);
+		JSONArray dependencies = new JSONArray();
+		dependencies.addAll(after);
+		unitObject.put("after", dependencies);
+		unitObject.put("config", config);
+		write(unitFile(unit), unitObject);
+	}
+
+	/** Make the units available to the workers, once they have all been added
+	 *
+	 * @param units the IDs of all the units
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public void publish(List<String> units) throws IOException {
+		JSONObject plan = new JSONObject();
+		JSONArray ids = new JSONArray();
+		ids.addAll(units);
+		plan.put("units", ids);
+		plan.put("coordinator", workerId);
+		plan.put("created", System.currentTimeMillis());
+		write(new File(directory, "plan.json"), plan);
+	}
+
+	/**
+	 * @return the IDs of all the units, or null if the coordinator hasn't published them yet
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getUnits() throws IOException {
+		File plan = new File(directory, "plan.json");
+		if (!plan.exists()) return null;
+		return new ArrayList<String>((JSONArray)read(plan).get("units"));
+	}
+
+	/**
+	 * @return true if every unit has a result
+	 */
+	public boolean isFinished() throws IOException {
+		List<String> units = getUnits();
+		if (units == null) return false;
+		for (int u=0; u<units.size(); u++) {
+			if (!resultFile(units.get(u)).exists()) return false;
+		}
+		return true;
+	}
+
+	/** Claim the first unit that isn't done, isn't leased, and whose prerequisites are done.
+	 * Units whose leases have expired are taken over.
+	 *
+	 * @return the lease on the claimed unit, or null if there is no unit to claim now
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public Lease claim() throws IOException {
+		List<String> units = getUnits();
+		if (units == null) return null;
+		for (int u=0; u<units.size(); u++) {
+			String unit = units.get(u);
+			if (resultFile(unit).exists()) continue;
+			List<String> after = (JSONArray)read(unitFile(unit)).get("after");
+			boolean ready = true;
+			for (int a=0; a<after.size() && ready; a++) {
+				ready = resultFile(after.get(a)).exists();
+			}
+			if (!ready) continue;
+			File lease = leaseFile(unit);
+			if (lease.exists() && !expire(unit)) continue;
+			if (create(lease)) {
+				if (resultFile(unit).exists()) {  // completed just before the lease was created
+					lease.delete();
+					continue;
+				}
+				Lease claimed = new Lease(unit);
+				held.add(claimed);
+				startRenewing();
+				if (claimed.isReclaimed()) log.warn("Reassigned unit: {}, whose worker stopped renewing its lease, to: {}", unit, workerId);
+				return claimed;
+			}
+		}
+		return null;
+	}
+
+	/** Take over an expired lease by renaming it out of the way. If several workers try at once, only one rename
+	 * succeeds. The renamed lease stays until the unit is done, so whichever worker claims the unit next knows it
+	 * was taken over.
+	 *
+	 * @param unit the unit
+	 * @return true if the lease had expired and was removed by this worker
+	 */
+	private boolean expire(String unit) {
+		File lease = leaseFile(unit);
+		long modified = lease.lastModified();
+		if (modified == 0 || System.currentTimeMillis()-modified < leaseTime) return false;
+		File expired = expiredFile(unit);
+		if (!lease.renameTo(expired)) return false;
+		if (System.currentTimeMillis()-expired.lastModified() < leaseTime) {
+			expired.renameTo(lease);  // renewed just before it was renamed
+			return false;
+		}
+		log.info("The lease on unit: {} held by: {} has expired", unit, owner(expired));
+		return true;
+	}
+
+	/** Create a lease file for this worker, failing if it already exists
+	 *
+	 * @param lease the lease file
+	 * @return true if this worker created it
+	 * @throws IOException
+	 */
+	private boolean create(File lease) throws IOException {
+		File temporary = new File(lease.getPath()+"."+System.nanoTime()+".tmp");
+		writeText(temporary, workerId);
+		try {
+			Files.createLink(lease.toPath(), temporary.toPath());  // atomic: fails if the lease exists
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			if (!lease.createNewFile()) return false;  // file systems without hard links
+			writeText(lease, workerId);
+			return true;
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	private synchronized void startRenewing() {
+		if (renewer != null) return;
+		renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "WorkQueue lease renewal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1, leaseTime/3);
+		renewer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				Iterator<Lease> leases = held.iterator();
+				while (leases.hasNext()) {
+					Lease lease = leases.next();
+					lease.renew();
+					if (lease.isLost()) log.warn("Lost the lease on unit: {}", lease.getUnit());
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stop renewing leases. Leases still held expire, and their units are reassigned.
+	 */
+	public synchronized void close() {
+		if (renewer != null) renewer.shutdownNow();
+		renewer = null;
+	}
+
+	/** Merge the results of all the units into one report
+	 *
+	 * @return the run report: the outcome of each unit, the units each worker did, and the worst status
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONObject report() throws IOException {
+		List<String> units = getUnits();
+		if (units == null) units = new ArrayList<String>();
+		JSONArray results = new JSONArray();
+		Map<String, Long> workers = new TreeMap<String, Long>();
+		long status = 0;
+		int done = 0;
+		int failed = 0;
+		int reclaimed = 0;
+		for (int u=0; u<units.size(); u++) {
+			String unit = units.get(u);
+			JSONObject unitObject = read(unitFile(unit));
+			JSONObject result = resultFile(unit).exists()? read(resultFile(unit)): new JSONObject();
+			result.put("unit", unit);
+			result.put("description", unitObject.get("description"));
+			results.add(result);
+			if (!result.containsKey("status")) continue;
+			done++;
+			long unitStatus = ((Number)result.get("status")).longValue();
+			if (unitStatus != 0) failed++;
+			if (unitStatus < status) status = unitStatus;
+			if (Boolean.TRUE.equals(result.get("reclaimed"))) reclaimed++;
+			String worker = (String)result.get("worker");
+			workers.put(worker, workers.containsKey(worker)? workers.get(worker)+1: 1L);
+		}
+		if (done < units.size()) status = -1;
+		JSONObject report = new JSONObject();
+		report.put("units", units.size());
+		report.put("done", done);
+		report.put("failed", failed);
+		report.put("reclaimed", reclaimed);
+		report.put("status", status);
+		report.put("workers", new JSONObject(workers));
+		report.put("results", results);
+		write(new File(directory, "report.json"), report);
+		return report;
+	}
+
+	/**
+	 * @return the journal file of a unit, kept with the unit so a worker that takes the unit over can resume it
+	 */
+	public File journalFile(String unit) {
+		return new File(new File(directory, "journals"), unit+".journal");
+	}
+
+	private File unitFile(String unit) {
+		return new File(new File(directory, "units"), unit+".json");
+	}
+
+	private File leaseFile(String unit) {
+		return new File(new File(directory, "leases"), unit+".lease");
+	}
+
+	private File expiredFile(String unit) {
+		return new File(new File(directory, "leases"), unit+".expired");
+	}
+
+	private File resultFile(String unit) {
+		return new File(new File(directory, "results"), unit+".json");
+	}
+
+	/**
+	 * @return the worker that holds a lease, or null if it can't be read
+	 */
+	private static String owner(File lease) {
+		try {
+			byte[] content = Files.readAllBytes(lease.toPath());
+			return new String(content, UTF8).trim();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static JSONObject read(File file) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file), UTF8);
+		try {
+			return (JSONObject)new JSONParser().parse(reader);
+		} catch (ParseException e) {
+			throw new IOException("Unable to parse: "+file+": "+e.getMessage());
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Write a file under a temporary name and rename it, so it is never seen partly written
+	 */
+	private static void write(File file, JSONObject content) throws IOException {
+		File temporary = new File(file.getPath()+"."+System.nanoTime()+".tmp");
+		writeText(temporary, content.toJSONString());
+		if (!temporary.renameTo(file)) {
+			file.delete();  // renameTo doesn't replace existing files on some platforms
+			if (!temporary.renameTo(file)) throw new IOException("Unable to write: "+file);
+		}
+	}
+
+	private static void writeText(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			Writer writer = new OutputStreamWriter(out, UTF8);
+			writer.write(content);
+			writer.flush();
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+}
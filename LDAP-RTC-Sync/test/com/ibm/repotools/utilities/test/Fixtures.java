@@ -0,0 +1,68 @@
+package com.ibm.repotools.utilities.test;
+
+import java.util.List;
+
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+
+import com.ibm.repotools.utilities.AreaChanges;
+import com.ibm.repotools.utilities.AreaSnapshot;
+import com.ibm.repotools.utilities.DirectorySchema;
+import com.ibm.repotools.utilities.LdifDirectory;
+import com.ibm.repotools.utilities.RTCGateway;
+import com.ibm.repotools.utilities.RTCUser;
+
+/** The directory and RTC server the tests synchronize, shared by the test classes
+ */
+public class Fixtures {
+
+	/** The LDIF snapshot of the test directory, and the DNs of its RTC server and JKE Banking project area
+	 */
+	public static final String LDIF = "docs/RTC.ldif";
+	public static final String SERVER = "ou=https://ce4iot.rtp.raleigh.ibm.com:9443/ccm,ou=RTC,O=IBM";
+	public static final String JKE = "ou=JKE Banking (Change Management),"+SERVER;
+
+	/**
+	 * @return the schema of the test directory: groupOfNames groups whose members are uid=... DNs without entries of their own
+	 */
+	public static DirectorySchema schema() throws ParseException {
+		return DirectorySchema.fromConfig(new JSONParser().parse("{\"Preset\": \"groupOfNames\", \"User ID From DN\": true}"));
+	}
+
+	/**
+	 * @return the test directory
+	 */
+	public static LdifDirectory directory(Logger log) throws Exception {
+		return new LdifDirectory(LDIF, schema(), log);
+	}
+
+	/**
+	 * @return an RTC user whose name is its user ID
+	 */
+	public static RTCUser user(String userId) {
+		return new RTCUser(userId, userId, null, false, null);
+	}
+
+	/** An RTC server with nothing on it, whose methods tests override for what they read
+	 */
+	public static class Gateway extends RTCGateway {
+		public Gateway(String serverURI) {
+			this.serverURI = serverURI;
+		}
+
+		public void disconnect() {}
+		public List<RTCUser> getServerUsers() {return null;}
+		public RTCUser getUser(String userId) {return null;}
+		public RTCUser createUser(String userId, String userName, String emailAddress) {return null;}
+		public boolean setArchived(RTCUser user, boolean archived) {return false;}
+		public List<String> getLicenseKeys() {return null;}
+		public List<String> getLicensedUsers(String licenseKey) {return null;}
+		public boolean assignClientAccessLicense(String licenseKey, String userId) {return false;}
+		public boolean unassignClientAccessLicense(String licenseKey, String userId) {return false;}
+		public List<String> getAreaNames() {return null;}
+		public AreaSnapshot getAreaSnapshot(String areaName) {return null;}
+		public List<String> getRoles(String areaName) {return null;}
+		protected boolean saveChanges(AreaSnapshot snapshot, AreaChanges changes) {return false;}
+	}
+}
@@ -0,0 +1,98 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.JKE;
+import static com.ibm.repotools.utilities.test.Fixtures.SERVER;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.BatchSync;
+import com.ibm.repotools.utilities.CachedDirectory;
+import com.ibm.repotools.utilities.DirectoryUser;
+import com.ibm.repotools.utilities.LdifDirectory;
+
+public class TestBatchSync {
+
+	private static Logger log = LoggerFactory.getLogger(TestBatchSync.class);
+
+	/** An LDIF directory that counts the entries read from it
+	 */
+	private static class CountingDirectory extends LdifDirectory {
+		int reads = 0;
+
+		CountingDirectory() throws Exception {
+			super(Fixtures.LDIF, Fixtures.schema(), log);
+		}
+
+		protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+			reads++;
+			return super.getEntry(dn, attributes);
+		}
+	}
+
+	/**
+	 * The users, licenses and areas of a server synchronized by more than one configuration file conflict,
+	 * and the configuration file that claims them after the first is skipped
+	 */
+	@Test
+	public void testConflicts() throws Exception {
+		Map<File, JSONObject> configs = new LinkedHashMap<File, JSONObject>();
+		configs.put(new File("payments.json"), (JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \"https://rtc1/ccm\","
+				+ "\"Users\": {\"Groups\": \"cn=JazzUsers\"}, \"Licenses\": [{\"Developer\": \"cn=Dev\"}],"
+				+ "\"Project Areas\": [{\"name\": \"Payments\", \"Team Areas\": [{\"name\": \"Mobile\"}]}]}]}"));
+		configs.put(new File("cards.json"), (JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \"https://RTC1/ccm/\","
+				+ "\"Licenses\": [{\"Developer\": \"cn=CardDev\"}, {\"Stakeholder\": \"cn=CardStake\"}],"
+				+ "\"Project Areas\": [{\"name\": \"Cards\"}, {\"name\": \"Payments\", \"Team Areas\": [{\"name\": \"Web\"}]}]}]}"));
+		configs.put(new File("loans.json"), (JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \"https://rtc2/ccm\","
+				+ "\"Users\": {\"Groups\": \"cn=JazzUsers\"}, \"Licenses\": [{\"Developer\": \"cn=Dev\"}],"
+				+ "\"Project Areas\": [{\"name\": \"Payments\"}]}]}"));
+		BatchSync batch = new BatchSync(new ArrayList<File>(configs.keySet()), null, false, true, log);
+		List<String> conflicts = batch.findConflicts(configs);
+		assertEquals(2, conflicts.size());
+		assertEquals("client access license Developer of https://RTC1/ccm/", conflicts.get(0));
+		assertEquals("project or team area Payments of https://RTC1/ccm/", conflicts.get(1));
+		assertFalse(batch.isConflicting(new File("payments.json")));
+		assertTrue(batch.isConflicting(new File("cards.json")));
+		assertFalse(batch.isConflicting(new File("loans.json")));
+	}
+
+	/**
+	 * A group used by several configuration files is read from the directory once
+	 */
+	@Test
+	public void testCachedDirectory() throws Exception {
+		CountingDirectory directory = new CountingDirectory();
+		CachedDirectory cached = new CachedDirectory(directory);
+		String members = "cn=Members,"+JKE;
+		Map<String, DirectoryUser> users = cached.getGroupUsers(members);
+		int reads = directory.reads;
+		assertTrue(reads > 0);
+		assertFalse(users.isEmpty());
+		users.clear();  // a copy, the cache is not changed
+		assertEquals(cached.getGroupUsers("CN=MEMBERS,"+JKE).keySet(), directory.getGroupUsers(members).keySet());
+		assertEquals(reads*2, directory.reads);
+
+		reads = directory.reads;
+		assertTrue(cached.exists("cn=JazzUsers,"+SERVER));
+		assertFalse(cached.exists("cn=Contractors,"+SERVER));
+		assertTrue(cached.exists("cn=jazzusers,"+SERVER));
+		assertFalse(cached.exists("cn=Contractors,"+SERVER));
+		assertEquals(reads+2, directory.reads);
+		assertEquals(1, cached.size());
+	}
+}
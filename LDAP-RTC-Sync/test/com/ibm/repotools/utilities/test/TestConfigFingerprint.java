@@ -0,0 +1,118 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.ConfigFingerprint;
+import com.ibm.repotools.utilities.SyncScope;
+
+public class TestConfigFingerprint {
+
+	private static final String SERVER = "https://rtc1:9443/ccm";
+
+	private static Logger log = LoggerFactory.getLogger(TestConfigFingerprint.class);
+
+	private static JSONObject config(String licenses, String teamMembers) throws Exception {
+		return (JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \""+SERVER+"\","
+				+ "\"Users\": {\"Groups\": [\"cn=JazzUsers,o=IBM\"], \"Archive\": true},"
+				+ "\"Licenses\": ["+licenses+"],"
+				+ "\"Project Areas\": [{\"name\": \"JKE Banking\", \"Administrators\": \"cn=Administrators,o=IBM\", \"Members\": \"cn=Members,o=IBM\","
+				+ "    \"Team Areas\": [{\"name\": \"Release Engineering\", \"Members\": "+teamMembers+"}]}]}]}");
+	}
+
+	private static List<String> parts(String... kindsAndNames) {
+		List<String> parts = new ArrayList<String>();
+		for (int p=0; p<kindsAndNames.length; p+=2) {
+			parts.add(ConfigFingerprint.part(SERVER, kindsAndNames[p], kindsAndNames[p+1]));
+		}
+		return parts;
+	}
+
+	/**
+	 * The parts added, changed and removed since the fingerprint was saved are found, and reformatting changes nothing
+	 */
+	@Test
+	public void testChanges() throws Exception {
+		File file = File.createTempFile("config", ".fingerprint");
+		file.delete();
+		try {
+			String licenses = "{\"Developer\": \"cn=Developers,o=IBM\"}, {\"Stakeholder\": \"cn=Stakeholders,o=IBM\"}";
+			ConfigFingerprint first = new ConfigFingerprint(config(licenses, "[\"cn=Release,o=IBM\"]"), file.getPath(), log);
+			assertFalse(first.hasPrevious());
+			assertEquals(5, first.getAdded().size());
+			first.save();
+
+			// the same configuration, with its keys in another order
+			JSONObject reordered = (JSONObject)new JSONParser().parse("{\"RTCServers\": [{"
+					+ "\"Project Areas\": [{\"Members\": \"cn=Members,o=IBM\", \"Administrators\": \"cn=Administrators,o=IBM\", \"name\": \"JKE Banking\","
+					+ "    \"Team Areas\": [{\"Members\": [\"cn=Release,o=IBM\"], \"name\": \"Release Engineering\"}]}],"
+					+ "\"Licenses\": ["+licenses+"],"
+					+ "\"Users\": {\"Archive\": true, \"Groups\": [\"cn=JazzUsers,o=IBM\"]}, \"serverURI\": \""+SERVER+"\"}]}");
+			ConfigFingerprint same = new ConfigFingerprint(reordered, file.getPath(), log);
+			assertTrue(same.hasPrevious());
+			assertTrue(same.getAdded().isEmpty());
+			assertTrue(same.getChanged().isEmpty());
+			assertTrue(same.getRemoved().isEmpty());
+
+			// a license is added and one removed, and the team area's members change, without changing its project area
+			ConfigFingerprint next = new ConfigFingerprint(config("{\"Developer\": \"cn=Developers,o=IBM\"}, {\"Contributor\": \"cn=Contributors,o=IBM\"}",
+					"[\"cn=Release,o=IBM\", \"cn=Build,o=IBM\"]"), file.getPath(), log);
+			assertEquals(parts("license", "Contributor"), next.getAdded());
+			assertEquals(parts("area", "JKE Banking/Release Engineering"), next.getChanged());
+			assertEquals(parts("license", "Stakeholder"), next.getRemoved());
+
+			SyncScope scope = new SyncScope();
+			assertTrue(scope.covers(SERVER, "Users", null));
+			scope.limit(next.getChanged());
+			assertTrue(scope.covers(SERVER, "area", "JKE Banking/Release Engineering"));
+			assertFalse(scope.covers(SERVER, "area", "JKE Banking"));
+			assertFalse(scope.covers(SERVER, "Users", null));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A license in more than one entry changes when any of its entries does
+	 */
+	@Test
+	public void testRepeatedLicense() throws Exception {
+		File file = File.createTempFile("config", ".fingerprint");
+		file.delete();
+		try {
+			new ConfigFingerprint(config("{\"Developer\": \"cn=Developers,o=IBM\"}, {\"Developer\": \"cn=Contractors,o=IBM\"}", "[]"), file.getPath(), log).save();
+			ConfigFingerprint next = new ConfigFingerprint(config("{\"Developer\": \"cn=Testers,o=IBM\"}, {\"Developer\": \"cn=Contractors,o=IBM\"}", "[]"), file.getPath(), log);
+			assertEquals(parts("license", "Developer"), next.getChanged());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A fingerprint that can't be read means everything is synchronized
+	 */
+	@Test
+	public void testUnreadable() throws Exception {
+		File file = File.createTempFile("config", ".fingerprint");
+		try {
+			ConfigFingerprint fingerprint = new ConfigFingerprint(config("", "[]"), file.getPath(), log);  // an empty file
+			assertFalse(fingerprint.hasPrevious());
+			assertEquals(parts("Users", null, "area", "JKE Banking", "area", "JKE Banking/Release Engineering"), fingerprint.getAdded());
+			assertEquals(Arrays.asList(), fingerprint.getRemoved());
+		} finally {
+			file.delete();
+		}
+	}
+}
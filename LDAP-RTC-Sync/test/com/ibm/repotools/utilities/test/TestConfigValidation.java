@@ -0,0 +1,169 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.JKE;
+import static com.ibm.repotools.utilities.test.Fixtures.SERVER;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.AreaChanges;
+import com.ibm.repotools.utilities.AreaSnapshot;
+import com.ibm.repotools.utilities.ConfigValidation;
+import com.ibm.repotools.utilities.LdifDirectory;
+import com.ibm.repotools.utilities.ProjectArea;
+import com.ibm.repotools.utilities.Status;
+
+public class TestConfigValidation {
+
+	private static Logger log = LoggerFactory.getLogger(TestConfigValidation.class);
+	private static LdifDirectory directory = null;
+
+	/** An RTC server with one license, and the JKE Banking project area and its Release Engineering team area
+	 */
+	private static class Gateway extends Fixtures.Gateway {
+		int roleReads = 0;
+		int licenseReads = 0;
+
+		Gateway(String serverURI) {
+			super(serverURI);
+		}
+
+		public List<String> getLicenseKeys() {
+			licenseReads++;
+			return Arrays.asList("Rational Team Concert - Developer");
+		}
+
+		public List<String> getRoles(String areaName) {
+			roleReads++;
+			if (areaName.equals("JKE Banking (Change Management)") || areaName.equals("JKE Banking (Change Management)/Release Engineering")) {
+				return Arrays.asList("team-member", "stakeholder");
+			}
+			return null;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		directory = Fixtures.directory(log);
+	}
+
+	private static JSONObject server(String serverURI) throws Exception {
+		return (JSONObject)new JSONParser().parse("{\"serverURI\": \""+serverURI+"\","
+				+ "\"Users\": {\"Groups\": [\"cn=JazzUsers,"+SERVER+"\", \"cn=Contractors,"+SERVER+"\"]},"
+				+ "\"Licenses\": [{\"Rational Team Concert - Developer\": \"cn=JazzUsers,"+SERVER+"\"},"
+				+ "               {\"Rational Team Concert - Contributor\": \"cn=JazzUsers,"+SERVER+"\"}],"
+				+ "\"Project Areas\": [{\"name\": \"JKE Banking (Change Management)\","
+				+ "    \"Administrators\": \"cn=Administrators,"+JKE+"\", \"Members\": \"cn=Members,"+JKE+"\","
+				+ "    \"Process Roles\": [{\"Team Member\": \"cn=Team Member,ou=Process Roles,"+JKE+"\"}, {\"team-member\": \"cn=Members,"+JKE+"\"}, {\"Tester\": \"cn=Members,"+JKE+"\"}],"
+				+ "    \"Team Areas\": [{\"name\": \"Release Engineering\","
+				+ "        \"Administrators\": \"cn=Administrators,ou=Release Engineering,"+JKE+"\", \"Members\": \"cn=Members,ou=Release Engineering,"+JKE+"\"},"
+				+ "      {\"name\": \"Mobile\", \"Administrators\": \"cn=Administrators,ou=Mobile,"+JKE+"\", \"Members\": \"cn=Members,"+JKE+"\"}]},"
+				+ "  {\"name\": \"Pet Store\", \"Administrators\": \"cn=JazzAdmins,"+SERVER+"\", \"Members\": [\"cn=JazzUsers,"+SERVER+"\"]}]}");
+	}
+
+	/**
+	 * Every kind of problem is found in one pass, and what was not found is skipped afterwards
+	 */
+	@Test
+	public void testProblems() throws Exception {
+		ConfigValidation validation = new ConfigValidation();
+		Gateway rtc = new Gateway("https://rtc1:9443/ccm");
+		assertEquals(7, validation.validate(rtc.getServerURI(), server(rtc.getServerURI()), directory, rtc, log));
+		assertEquals(1, rtc.licenseReads);
+		assertEquals(4, rtc.roleReads);
+
+		assertFalse(validation.isValidGroup("cn=contractors,"+SERVER));
+		assertFalse(validation.isValidGroup(new JSONParser().parse("[\"cn=JazzUsers,"+SERVER+"\", \"cn=Contractors,"+SERVER+"\"]")));
+		assertTrue(validation.isValidGroup("cn=JazzUsers,"+SERVER));
+		assertFalse(validation.isValidGroup("cn=Administrators,ou=Mobile,"+JKE));
+		assertTrue(validation.isValidLicense(rtc.getServerURI(), "Rational Team Concert - Developer"));
+		assertFalse(validation.isValidLicense(rtc.getServerURI(), "Rational Team Concert - Contributor"));
+		assertFalse(validation.isValidArea(rtc.getServerURI(), "Pet Store"));
+		assertFalse(validation.isValidArea(rtc.getServerURI(), "JKE Banking (Change Management)/Mobile"));
+		assertTrue(validation.isValidArea(rtc.getServerURI(), "JKE Banking (Change Management)/Release Engineering"));
+		assertTrue(validation.isValidRole(rtc.getServerURI(), "JKE Banking (Change Management)", "Team-Member"));
+		assertFalse(validation.isValidRole(rtc.getServerURI(), "JKE Banking (Change Management)", "Tester"));
+		assertFalse(validation.isValidRole(rtc.getServerURI(), "JKE Banking (Change Management)", "Team Member"));
+		assertEquals(7, validation.report(log));
+	}
+
+	/**
+	 * Groups are checked once for all the servers, while areas, licenses and roles are checked for each server
+	 */
+	@Test
+	public void testServers() throws Exception {
+		ConfigValidation validation = new ConfigValidation();
+		Gateway rtc1 = new Gateway("https://rtc1:9443/ccm");
+		Gateway rtc2 = new Gateway("https://rtc2:9443/ccm");
+		assertEquals(7, validation.validate(rtc1.getServerURI(), server(rtc1.getServerURI()), directory, rtc1, log));
+		assertEquals(5, validation.validate(rtc2.getServerURI(), server(rtc2.getServerURI()), directory, rtc2, log));
+		assertFalse(validation.isValidArea(rtc2.getServerURI(), "Pet Store"));
+		assertTrue(validation.isValidArea("https://rtc3:9443/ccm", "Pet Store"));  // not validated
+
+		assertFalse(validation.isUnknownUser(rtc1.getServerURI(), "bgreen"));
+		validation.userUnknown(rtc1.getServerURI(), "bgreen");
+		assertTrue(validation.isUnknownUser(rtc1.getServerURI(), "bgreen"));
+		assertFalse(validation.isUnknownUser(rtc2.getServerURI(), "bgreen"));
+	}
+
+	/**
+	 * A group that can't be read is reported but not missing, and the holders of a role whose group is
+	 * missing or can't be read keep it
+	 */
+	@Test
+	public void testUnreadableGroups() throws Exception {
+		LdifDirectory unreachable = new LdifDirectory(Fixtures.LDIF, Fixtures.schema(), log) {
+			protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+				if (dn.startsWith("cn=Stakeholder,")) throw new NamingException("timed out");
+				return super.getEntry(dn, attributes);
+			}
+		};
+		JSONObject server = (JSONObject)new JSONParser().parse("{\"serverURI\": \"https://rtc1:9443/ccm\","
+				+ "\"Project Areas\": [{\"name\": \"JKE Banking (Change Management)\","
+				+ "    \"Process Roles\": [{\"team-member\": \"cn=Team Member,ou=Process Roles,"+JKE+"\"},"
+				+ "                      {\"stakeholder\": \"cn=Stakeholder,ou=Process Roles,"+JKE+"\"},"
+				+ "                      {\"stakeholder\": \"cn=Testers,ou=Process Roles,"+JKE+"\"}]}]}");
+		ConfigValidation.runValidation = new ConfigValidation();
+		try {
+			Gateway rtc = new Gateway("https://rtc1:9443/ccm");
+			assertEquals(2, ConfigValidation.runValidation.validate(rtc.getServerURI(), server, unreachable, rtc, log));
+			assertTrue(ConfigValidation.runValidation.isValidGroup("cn=Stakeholder,ou=Process Roles,"+JKE));
+			assertFalse(ConfigValidation.runValidation.isValidGroup("cn=Testers,ou=Process Roles,"+JKE));
+
+			AreaSnapshot snapshot = new AreaSnapshot("JKE Banking (Change Management)", null);
+			snapshot.addRole("team-member", null);
+			snapshot.addRole("stakeholder", null);
+			snapshot.addMember("Members", Fixtures.user("Joe"));
+			snapshot.getRoleAssignments("Joe").addAll(Arrays.asList("team-member", "stakeholder"));
+			snapshot.addMember("Members", Fixtures.user("Bob"));
+			snapshot.getRoleAssignments("Bob").add("stakeholder");
+			ProjectArea pa = new ProjectArea((JSONObject)((JSONArray)server.get("Project Areas")).get(0), unreachable, rtc, log);
+			AreaChanges changes = new AreaChanges();
+			assertFalse(pa.syncProcessRoles(snapshot, changes));  // the area is not completed in the journal
+			assertEquals(2, changes.size());
+			assertEquals("removeRole", changes.getChanges().get(0).getOperation());
+			assertEquals("Joe", changes.getChanges().get(0).getUserId());
+			assertEquals("team-member", changes.getChanges().get(0).getTarget());
+			assertEquals("addRole", changes.getChanges().get(1).getOperation());
+			assertEquals("Bob", changes.getChanges().get(1).getUserId());
+			assertEquals(-1, Status.appStatus.getCode());
+		} finally {
+			ConfigValidation.runValidation = new ConfigValidation();
+			Status.appStatus.setCode(0);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.JKE;
+import static com.ibm.repotools.utilities.test.Fixtures.SERVER;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.naming.NamingException;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.DirectoryListener;
+import com.ibm.repotools.utilities.DirectoryUser;
+import com.ibm.repotools.utilities.LDAP2RTCSync;
+import com.ibm.repotools.utilities.LdapRtcConfig;
+import com.ibm.repotools.utilities.LdifDirectory;
+import com.ibm.repotools.utilities.Status;
+import com.ibm.repotools.utilities.SyncScope;
+
+public class TestDirectoryListener {
+
+	private static Logger log = LoggerFactory.getLogger(TestDirectoryListener.class);
+
+	/** A directory whose users leave their groups, and which can be unavailable
+	 */
+	private static class ChangingDirectory extends LdifDirectory {
+		String departed = null;
+		boolean down = false;
+
+		ChangingDirectory() throws Exception {
+			super(Fixtures.LDIF, Fixtures.schema(), log);
+		}
+
+		public Map<String, DirectoryUser> getGroupUsers(String groupDN) throws NamingException {
+			if (down) throw new NamingException("the directory is down");
+			Map<String, DirectoryUser> users = super.getGroupUsers(groupDN);
+			if (departed != null) users.remove("uid="+departed+",ou=users,ou=system");
+			return users;
+		}
+	}
+
+	/** Synchronizes nothing, or fails to
+	 */
+	private static class Synchronizer extends LDAP2RTCSync {
+		boolean fail = false;
+		int syncs = 0;
+
+		public void sync(LdapRtcConfig config) {
+			syncs++;
+			if (fail) throw new IllegalStateException("RTC is down");
+		}
+	}
+
+	private static LdapRtcConfig config() throws Exception {
+		return new LdapRtcConfig((JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \"https://rtc1:9443/ccm\","
+				+ "\"Users\": {\"Groups\": [\"cn=JazzUsers,"+SERVER+"\"]},"
+				+ "\"Project Areas\": [{\"name\": \"JKE Banking (Change Management)\","
+				+ "    \"Administrators\": \"cn=Administrators,"+JKE+"\", \"Members\": \"cn=Members,"+JKE+"\","
+				+ "    \"Team Areas\": [{\"name\": \"Release Engineering\", \"Members\": [\"cn=members,"+JKE+"\"]}]}]}]}"), log);
+	}
+
+	/**
+	 * The users who leave a group are collected with the groups they left, and a directory outage is not a change
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPoll() throws Exception {
+		ChangingDirectory directory = new ChangingDirectory();
+		DirectoryListener listener = new DirectoryListener(config(), directory, 15, 10, log);
+		assertFalse(listener.poll());  // the groups as they are
+		assertFalse(listener.poll());
+
+		directory.down = true;
+		assertFalse(listener.poll());
+		directory.down = false;
+		directory.departed = "Dave";
+		assertTrue(listener.poll());
+		assertEquals("[Dave]", listener.getChangedUsers().toString());
+		assertEquals("[cn=JazzUsers,"+SERVER+", cn=Members,"+JKE+"]", listener.getChangedGroups().toString());
+		assertFalse(listener.poll());  // still waiting to be synchronized
+
+		SyncScope scope = new SyncScope();
+		scope.affect(listener.getChangedGroups());
+		assertTrue(scope.affects("cn=members,"+JKE));
+		JSONArray groups = new JSONArray();
+		groups.addAll(Arrays.asList("cn=Administrators,"+JKE, "cn=Members,"+JKE));
+		assertTrue(scope.affects(groups));
+		assertFalse(scope.affects("cn=Administrators,"+JKE));
+	}
+
+	/**
+	 * Changes wait until the groups are quiet for the debounce time, or the first change has waited too long
+	 */
+	@Test
+	public void testDebounce() throws Exception {
+		ChangingDirectory directory = new ChangingDirectory();
+		DirectoryListener listener = new DirectoryListener(config(), directory, 15, 10, log);
+		listener.poll();
+		long now = System.currentTimeMillis();
+		assertFalse(listener.isDue(now+60000));  // nothing changed
+
+		directory.departed = "Marco";
+		long first = System.currentTimeMillis();
+		listener.poll();
+		assertFalse(listener.isDue(first));
+		assertTrue(listener.isDue(first+20000));
+		directory.departed = "Dave";  // Marco is back, and Dave left
+		listener.poll();
+		assertEquals("[Dave, Marco]", listener.getChangedUsers().toString());
+		assertTrue(listener.isDue(first+DirectoryListener.MAX_DELAY+1000));
+	}
+
+	/**
+	 * Changes that fail to synchronize are kept until they are synchronized
+	 */
+	@Test
+	public void testFailedApply() throws Exception {
+		ChangingDirectory directory = new ChangingDirectory();
+		DirectoryListener listener = new DirectoryListener(config(), directory, 15, 10, log);
+		listener.poll();
+		directory.departed = "Dave";
+		listener.poll();
+		Synchronizer synchronizer = new Synchronizer();
+		try {
+			synchronizer.fail = true;
+			assertFalse(listener.apply(synchronizer));
+			assertEquals("[Dave]", listener.getChangedUsers().toString());
+			assertEquals(2, listener.getChangedGroups().size());
+			assertTrue(listener.isDue(System.currentTimeMillis()+DirectoryListener.MAX_DELAY));
+			assertEquals(-1, Status.appStatus.getCode());
+
+			directory.departed = null;  // Dave is back, so the retry includes the groups he rejoined
+			assertTrue(listener.poll());
+			synchronizer.fail = false;
+			assertTrue(listener.apply(synchronizer));
+			assertEquals(2, synchronizer.syncs);
+			assertTrue(listener.getChangedUsers().isEmpty());
+			assertTrue(listener.getChangedGroups().isEmpty());
+			assertFalse(listener.isDue(System.currentTimeMillis()+DirectoryListener.MAX_DELAY));
+			assertEquals(-1, Status.appStatus.getCode());  // the run still had a failure
+		} finally {
+			Status.appStatus.setCode(0);
+		}
+	}
+}
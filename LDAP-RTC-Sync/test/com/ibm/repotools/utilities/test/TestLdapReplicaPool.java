@@ -0,0 +1,161 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.directory.DirContext;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibm.repotools.utilities.LdapReplicaPool;
+import com.ibm.repotools.utilities.Status;
+
+public class TestLdapReplicaPool {
+
+	private static Set<String> unavailable = Collections.synchronizedSet(new HashSet<String>());  // the replicas that can't be connected to
+
+	/** Replicas whose contexts answer every request, and know which replica they are
+	 */
+	private static class Pool extends LdapReplicaPool {
+		Pool(int poolSize, long failoverDelay, String... uris) {
+			super(Arrays.asList(uris), "admin", "secret", ROUND_ROBIN, poolSize, failoverDelay);
+		}
+
+		protected DirContext connect(final String uri) throws NamingException {
+			if (unavailable.contains(uri)) throw new CommunicationException(uri+" is down");
+			return (DirContext)Proxy.newProxyInstance(DirContext.class.getClassLoader(), new Class<?>[] {DirContext.class}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					return method.getName().equals("toString")? uri: null;
+				}
+			});
+		}
+	}
+
+	private static LdapReplicaPool.Operation<String> replica() {
+		return new LdapReplicaPool.Operation<String>() {
+			public String run(DirContext ctx) {
+				return ctx.toString();
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		unavailable.clear();
+		Status.appStatus.setCode(0);
+	}
+
+	/**
+	 * A thread waiting for a context of a saturated replica connects again when the replica's contexts are discarded
+	 */
+	@Test
+	public void testFailoverWhileSaturated() throws Exception {
+		final LdapReplicaPool pool = new Pool(1, 60000, "ldap://a");
+		final CountDownLatch holding = new CountDownLatch(1);
+		final CountDownLatch reset = new CountDownLatch(1);
+		ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> failing = threads.submit(new Callable<String>() {
+				public String call() throws Exception {
+					return pool.execute(new LdapReplicaPool.Operation<String>() {
+						public String run(DirContext ctx) throws NamingException {
+							holding.countDown();
+							try {
+								reset.await();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							throw new CommunicationException("connection reset");
+						}
+					});
+				}
+			});
+			assertTrue(holding.await(5, TimeUnit.SECONDS));
+			Future<String> waiting = threads.submit(new Callable<String>() {
+				public String call() throws Exception {
+					return pool.execute(replica());  // waits for the only context
+				}
+			});
+			Thread.sleep(100);
+			reset.countDown();
+			try {
+				failing.get(5, TimeUnit.SECONDS);
+				fail("the read should fail");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof CommunicationException);
+			}
+			assertEquals("ldap://a", waiting.get(5, TimeUnit.SECONDS));
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * A read that throws a runtime exception still returns its context to the pool
+	 */
+	@Test
+	public void testRuntimeException() throws Exception {
+		final LdapReplicaPool pool = new Pool(1, 60000, "ldap://a");
+		try {
+			pool.execute(new LdapReplicaPool.Operation<String>() {
+				public String run(DirContext ctx) {
+					throw new IllegalStateException("unexpected entry");
+				}
+			});
+			fail("the read should fail");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		ExecutorService threads = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> next = threads.submit(new Callable<String>() {
+				public String call() throws Exception {
+					return pool.execute(replica());
+				}
+			});
+			assertEquals("ldap://a", next.get(5, TimeUnit.SECONDS));  // doesn't wait forever for the context
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * A replica that was down is checked again after the failover delay, and used once it responds
+	 */
+	@Test
+	public void testReprobe() throws Exception {
+		unavailable.add("ldap://a");
+		LdapReplicaPool pool = new Pool(1, 100, "ldap://a", "ldap://b");
+		assertEquals(1, pool.checkHealth());
+		for (int r=0; r<4; r++) {
+			assertEquals("ldap://b", pool.execute(replica()));
+		}
+		unavailable.remove("ldap://a");
+		Thread.sleep(200);
+		Set<String> used = new HashSet<String>();
+		for (int r=0; r<4; r++) {
+			used.add(pool.execute(replica()));
+		}
+		assertEquals(new HashSet<String>(Arrays.asList("ldap://a", "ldap://b")), used);
+		pool.close();
+	}
+}
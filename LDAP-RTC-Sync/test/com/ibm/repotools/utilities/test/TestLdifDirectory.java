@@ -0,0 +1,147 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.SERVER;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.DirectoryUser;
+import com.ibm.repotools.utilities.LdifDirectory;
+
+public class TestLdifDirectory {
+
+	private static LdifDirectory directory = null;
+
+	/**
+	 * Read docs/RTC.ldif, which has groupOfNames and groupOfUniqueNames groups whose
+	 * members are uid=... DNs without entries of their own.
+	 *
+	 * @throws Exception
+	 */
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		directory = Fixtures.directory(LoggerFactory.getLogger(TestLdifDirectory.class));
+	}
+
+	/**
+	 * Every record of the file is an entry
+	 */
+	@Test
+	public void testEntries() {
+		assertEquals(30, directory.size());
+	}
+
+	/**
+	 * Group DNs are folded across lines in the file, and are found regardless of case and spacing
+	 */
+	@Test
+	public void testFoldedGroup() throws Exception {
+		Map<String, DirectoryUser> users = directory.getGroupUsers("cn=JazzUsers,"+SERVER);
+		assertEquals(6, users.size());
+		assertNull(users.get("racfid=BGREEN,profiletype=USER,CN=RACF255,O=IBM,C=RTC"));  // not a uid user
+		assertEquals("jamsden", users.get("uid=jamsden,ou=users,ou=system").getUserId());
+		assertNull(users.get("uid=jamsden,ou=users,ou=system").getName());  // no entry of its own, so no name
+		assertEquals(2, directory.getGroupUsers("CN=JazzAdmins, OU=https://ce4iot.rtp.raleigh.ibm.com:9443/ccm, ou=rtc, o=ibm").size());
+	}
+
+	/**
+	 * uniqueMember groups, and members that are neither users nor groups
+	 */
+	@Test
+	public void testUniqueMembers() throws Exception {
+		Map<String, DirectoryUser> users = directory.getGroupUsers("cn=Members,ou=JKE Banking (Change Management),"+SERVER);
+		assertEquals(3, users.size());
+		assertTrue(users.containsKey("uid=Dave,ou=users,ou=system"));
+		users = directory.getGroupUsers("cn=Administrators,ou=Release Engineering,ou=JKE Banking (Change Management),"+SERVER);
+		assertNull(users.get("cn=blank"));
+	}
+
+	/**
+	 * A DN with an escaped trailing space, and base64 encoded values, spread over several lines
+	 */
+	@Test
+	public void testEscapedGroup() throws Exception {
+		Map<String, DirectoryUser> users = directory.getGroupUsers("cn=Rational Rhapsody Design Manager - Design Manager-Floating\\ ,ou=Licenses,"+SERVER);
+		assertEquals(1, users.size());
+	}
+
+	@Test(expected = NameNotFoundException.class)
+	public void testMissingGroup() throws Exception {
+		directory.getGroupUsers("cn=NoSuchGroup,"+SERVER);
+	}
+
+	/** An LDIF directory that counts the reads of each entry
+	 */
+	private static class CountingDirectory extends LdifDirectory {
+		ConcurrentHashMap<String, AtomicInteger> reads = new ConcurrentHashMap<String, AtomicInteger>();
+
+		CountingDirectory(String ldifFile) throws Exception {
+			super(ldifFile, Fixtures.schema(), LoggerFactory.getLogger(TestLdifDirectory.class));
+		}
+
+		protected Attributes getEntry(String dn, String[] attributes) throws NamingException {
+			AtomicInteger count = new AtomicInteger();
+			AtomicInteger previous = reads.putIfAbsent(dn.toLowerCase(), count);
+			(previous != null? previous: count).incrementAndGet();
+			return super.getEntry(dn, attributes);
+		}
+	}
+
+	/**
+	 * Sibling subgroups are expanded in parallel, and a subgroup or user shared by several branches, or nested in
+	 * a cycle, is read and returned once
+	 */
+	@Test
+	public void testNestedGroups() throws Exception {
+		File ldif = File.createTempFile("nested", ".ldif");
+		ldif.deleteOnExit();
+		FileWriter writer = new FileWriter(ldif);
+		try {
+			writer.write(group("org", "cn=east", "cn=west", "uid=ceo"));
+			writer.write(group("east", "cn=shared", "cn=sales", "uid=ann", "uid=bob"));
+			writer.write(group("west", "cn=shared", "uid=bob", "uid=carl"));
+			writer.write(group("sales", "uid=dan", "cn=org"));
+			writer.write(group("shared", "uid=eve", "uid=ann"));
+		} finally {
+			writer.close();
+		}
+		CountingDirectory sequential = new CountingDirectory(ldif.getPath());
+		CountingDirectory parallel = new CountingDirectory(ldif.getPath());
+		parallel.setExpansionThreads(4);
+
+		Map<String, DirectoryUser> users = parallel.getGroupUsers("cn=org");
+		assertEquals(sequential.getGroupUsers("cn=org").keySet(), users.keySet());
+		assertEquals(6, users.size());
+		assertEquals("eve", users.get("uid=eve").getUserId());
+		assertEquals(1, parallel.reads.get("cn=shared").get());
+		assertEquals(1, parallel.reads.get("uid=ann").get());
+		assertEquals(sequential.reads.keySet(), parallel.reads.keySet());
+
+		Set<String> members = parallel.getMembers("cn=east");
+		assertEquals(6, members.size());
+		assertTrue(members.contains("uid=ceo"));  // through the cycle back to org
+	}
+
+	private static String group(String name, String... members) {
+		StringBuilder entry = new StringBuilder("dn: cn="+name+"\nobjectclass: groupOfNames\ncn: "+name+"\n");
+		for (int m=0; m<members.length; m++) {
+			entry.append("member: ").append(members[m]).append("\n");
+		}
+		return entry.append("\n").toString();
+	}
+}
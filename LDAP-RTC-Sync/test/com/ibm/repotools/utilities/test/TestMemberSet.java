@@ -0,0 +1,87 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.repotools.utilities.IdentityDictionary;
+import com.ibm.repotools.utilities.MemberSet;
+
+public class TestMemberSet {
+
+	/**
+	 * Check MemberSet against java.util.BitSet for random sparse and dense sets
+	 */
+	@Test
+	public void testSetOperations() {
+		Random random = new Random(42);
+		for (int trial=0; trial<50; trial++) {
+			int range = (trial%2 == 0)? 200: 200000;
+			BitSet a = new BitSet(), b = new BitSet();
+			MemberSet x = new MemberSet(), y = new MemberSet();
+			for (int i=0; i<500; i++) {
+				int id = random.nextInt(range);
+				a.set(id);
+				x.add(id);
+				id = random.nextInt(range);
+				b.set(id);
+				y.add(id);
+			}
+			assertMembers(a, x);
+			BitSet union = (BitSet)a.clone();
+			union.or(b);
+			assertMembers(union, x.union(y));
+			BitSet minus = (BitSet)a.clone();
+			minus.andNot(b);
+			assertMembers(minus, x.minus(y));
+			BitSet intersection = (BitSet)a.clone();
+			intersection.and(b);
+			assertMembers(intersection, x.intersect(y));
+			x.addAll(y);
+			assertMembers(union, x);
+		}
+	}
+
+	@Test
+	public void testAddRemove() {
+		MemberSet set = new MemberSet();
+		assertTrue(set.isEmpty());
+		assertTrue(set.add(1000));
+		assertFalse(set.add(1000));
+		assertTrue(set.add(3));
+		assertTrue(set.contains(3));
+		assertFalse(set.contains(4));
+		assertFalse(set.contains(-1));
+		assertTrue(set.remove(1000));
+		assertFalse(set.remove(1000));
+		assertEquals(3, set.nextMember(0));
+		assertEquals(-1, set.nextMember(4));
+		assertTrue(set.remove(3));
+		assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testDictionary() {
+		IdentityDictionary dictionary = new IdentityDictionary();
+		int id = dictionary.intern("BGREEN");
+		assertEquals(id, dictionary.intern(new String("BGREEN")));
+		assertEquals(-1, dictionary.lookup("TAMI"));
+		assertEquals("BGREEN", dictionary.get(id));
+		assertTrue(dictionary.canonical(new String("BGREEN")) == dictionary.get(id));
+	}
+
+	private static void assertMembers(BitSet expected, MemberSet actual) {
+		assertEquals(expected.cardinality(), actual.cardinality());
+		int id = actual.nextMember(0);
+		for (int e = expected.nextSetBit(0); e >= 0; e = expected.nextSetBit(e+1)) {
+			assertEquals(e, id);
+			id = actual.nextMember(id+1);
+		}
+		assertEquals(-1, id);
+	}
+}
@@ -0,0 +1,102 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.AreaSnapshot;
+import com.ibm.repotools.utilities.MembershipExport;
+
+public class TestMembershipExport {
+
+	private static final String JKE = "JKE Banking (Change Management)";
+
+	private static Logger log = LoggerFactory.getLogger(TestMembershipExport.class);
+
+	/** An RTC server with a project area, a team area without members, and two licenses
+	 */
+	private static class Gateway extends Fixtures.Gateway {
+		Gateway() {
+			super("https://rtc1:9443/ccm");
+		}
+
+		public List<String> getAreaNames() {return Arrays.asList(JKE, JKE+"/Release Engineering");}
+
+		public AreaSnapshot getAreaSnapshot(String areaName) {
+			AreaSnapshot snapshot = new AreaSnapshot(areaName, null);
+			if (!areaName.equals(JKE)) return snapshot;
+			snapshot.addMember("Administrators", Fixtures.user("jamsden"));
+			snapshot.addMember("Members", Fixtures.user("bob"));
+			snapshot.getRoleAssignments("bob").addAll(Arrays.asList("team-member", "scrum-master"));
+			snapshot.addMember("Members", Fixtures.user("marco"));
+			return snapshot;
+		}
+
+		public List<String> getLicenseKeys() {return Arrays.asList("Rational Team Concert - Developer", "Rational Team Concert - Stakeholder");}
+
+		public List<String> getLicensedUsers(String licenseKey) {
+			if (licenseKey.endsWith("Developer")) return Arrays.asList("bob", "marco");
+			return Arrays.asList("deb");
+		}
+	}
+
+	private static List<String> lines(StringWriter out) {
+		List<String> lines = new ArrayList<String>(Arrays.asList(out.toString().split("\n")));
+		Collections.sort(lines);  // the areas and licenses are written in the order they are read
+		return lines;
+	}
+
+	/**
+	 * Every administrator, member with their roles, and license holder is a JSON line
+	 */
+	@Test
+	public void testJsonLines() throws Exception {
+		StringWriter out = new StringWriter();
+		MembershipExport export = new MembershipExport(out, MembershipExport.format("rtc.jsonl", null), log);
+		export.export(new Gateway(), 3);
+		assertEquals(6, export.getLines());
+		List<String> lines = lines(out);
+		assertEquals(6, lines.size());
+		JSONObject bob = null;
+		for (int l=0; l<lines.size(); l++) {
+			JSONObject line = (JSONObject)new JSONParser().parse(lines.get(l));
+			assertEquals("https://rtc1:9443/ccm", line.get("server"));
+			if (line.get("type").equals("member") && line.get("user").equals("bob")) bob = line;
+		}
+		assertEquals(JKE, bob.get("target"));
+		assertEquals(Arrays.asList("team-member", "scrum-master"), bob.get("roles"));
+		assertTrue(lines.get(0).startsWith("{\"server\":\"https:\\/\\/rtc1:9443\\/ccm\",\"type\":\"administrator\""));
+	}
+
+	/**
+	 * CSV rows have a header, and the roles of a member are separated by semicolons
+	 */
+	@Test
+	public void testCsv() throws Exception {
+		assertEquals(MembershipExport.CSV, MembershipExport.format("rtc.CSV", null));
+		assertEquals(MembershipExport.JSON_LINES, MembershipExport.format("rtc.csv", "JSONL"));
+		StringWriter out = new StringWriter();
+		MembershipExport export = new MembershipExport(out, MembershipExport.CSV, log);
+		export.export(new Gateway(), 1);
+		assertTrue(out.toString().startsWith("server,type,target,user,roles\n"));
+		assertEquals(Arrays.asList(
+				"https://rtc1:9443/ccm,administrator,JKE Banking (Change Management),jamsden,",
+				"https://rtc1:9443/ccm,license,Rational Team Concert - Developer,bob,",
+				"https://rtc1:9443/ccm,license,Rational Team Concert - Developer,marco,",
+				"https://rtc1:9443/ccm,license,Rational Team Concert - Stakeholder,deb,",
+				"https://rtc1:9443/ccm,member,JKE Banking (Change Management),bob,team-member;scrum-master",
+				"https://rtc1:9443/ccm,member,JKE Banking (Change Management),marco,",
+				"server,type,target,user,roles"), lines(out));
+	}
+}
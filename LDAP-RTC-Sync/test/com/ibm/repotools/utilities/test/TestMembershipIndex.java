@@ -0,0 +1,69 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.JKE;
+import static com.ibm.repotools.utilities.test.Fixtures.SERVER;
+
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.LdifDirectory;
+import com.ibm.repotools.utilities.MembershipIndex;
+
+public class TestMembershipIndex {
+
+	private static Logger log = LoggerFactory.getLogger(TestMembershipIndex.class);
+	private static MembershipIndex index = null;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		LdifDirectory directory = Fixtures.directory(log);
+		JSONObject config = (JSONObject)new JSONParser().parse("{\"RTCServers\": [{\"serverURI\": \"https://rtc1:9443/ccm\","
+				+ "\"Users\": {\"Groups\": [\"cn=JazzUsers,"+SERVER+"\"]},"
+				+ "\"Licenses\": [{\"Rational Team Concert - Developer\": \"cn=JazzAdmins,"+SERVER+"\"}],"
+				+ "\"Project Areas\": [{\"name\": \"JKE Banking (Change Management)\","
+				+ "    \"Administrators\": \"cn=Administrators,"+JKE+"\", \"Members\": \"cn=Members,"+JKE+"\","
+				+ "    \"Process Roles\": [{\"Team Member\": \"cn=Team Member,ou=Process Roles,"+JKE+"\"}],"
+				+ "    \"Team Areas\": [{\"name\": \"Release Engineering\", \"Members\": [\"cn=Members,"+JKE+"\"]}]}]}]}");
+		index = new MembershipIndex(config, directory, log);
+		assertEquals(5, index.build());
+	}
+
+	/**
+	 * A user's grants come from every group the user is in, in the order of the configuration file
+	 */
+	@Test
+	public void testGrants() {
+		List<MembershipIndex.Grant> grants = index.getGrants("Marco");
+		assertEquals(5, grants.size());
+		assertEquals("server user", grants.get(0).toString());
+		assertEquals("Administrators of JKE Banking (Change Management)", grants.get(1).toString());
+		assertEquals("Members of JKE Banking (Change Management)", grants.get(2).toString());
+		assertEquals("role Team Member in JKE Banking (Change Management)", grants.get(3).toString());
+		assertEquals("Members of JKE Banking (Change Management)/Release Engineering", grants.get(4).toString());
+		assertEquals("cn=Members,"+JKE, grants.get(4).getGroup());
+
+		grants = index.getGrants("Ben");
+		assertEquals(2, grants.size());
+		assertEquals("role", grants.get(1).getKind());
+		assertEquals("Team Member", grants.get(1).getTarget());
+		assertEquals(0, index.getGrants("Nobody").size());
+	}
+
+	@Test
+	public void testDescribe() {
+		List<String> lines = index.describe("marco", false);
+		assertEquals(7, lines.size());
+		assertTrue(lines.get(0).startsWith("Marco"));
+		assertEquals("  https://rtc1:9443/ccm", lines.get(1));
+		assertEquals("    server user from cn=JazzUsers,"+SERVER, lines.get(2));
+		assertEquals(1, index.describe("Nobody", false).size());
+	}
+}
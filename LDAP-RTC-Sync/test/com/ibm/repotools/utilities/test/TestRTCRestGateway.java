@@ -0,0 +1,321 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.AreaChanges;
+import com.ibm.repotools.utilities.AreaSnapshot;
+import com.ibm.repotools.utilities.RTCRestGateway;
+import com.ibm.repotools.utilities.RTCUser;
+import com.ibm.repotools.utilities.Status;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the REST gateway against a stub of the RTC and JTS HTTP services on a local port
+ */
+public class TestRTCRestGateway {
+
+	private static final String NS = "xmlns:jp=\"" + RTCRestGateway.PROCESS_NAMESPACE + "\"";
+	private static Logger log = LoggerFactory.getLogger(TestRTCRestGateway.class);
+
+	private HttpServer server = null;
+	private String base = null;
+	private Map<String, String> resources = new HashMap<String, String>();  // <path, body> answered to GETs
+	private List<String> requests = Collections.synchronizedList(new ArrayList<String>());  // METHOD path body
+	private Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+	private boolean compressed = false;
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange);
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		String pa = base + "/ccm/process/project-areas/_pa1";
+		String ta = base + "/ccm/process/team-areas/_ta1";
+		String jts = base + "/jts/users/";
+		resources.put("/ccm/process/project-areas", "<jp:project-areas " + NS + "><jp:project-area jp:name=\"Sample\">"
+				+ "<jp:url>" + pa + "</jp:url><jp:members-url>" + pa + "/members</jp:members-url><jp:admins-url>" + pa + "/admins</jp:admins-url>"
+				+ "<jp:roles-url>" + pa + "/roles</jp:roles-url><jp:team-areas-url>" + pa + "/team-areas</jp:team-areas-url>"
+				+ "</jp:project-area></jp:project-areas>");
+		resources.put("/ccm/process/project-areas/_pa1/team-areas", "<jp:team-areas " + NS + "><jp:team-area jp:name=\"Team\">"
+				+ "<jp:url>" + ta + "</jp:url><jp:parent-url>" + pa + "</jp:parent-url><jp:members-url>" + ta + "/members</jp:members-url>"
+				+ "<jp:admins-url>" + ta + "/admins</jp:admins-url><jp:roles-url>" + ta + "/roles</jp:roles-url>"
+				+ "</jp:team-area></jp:team-areas>");
+		resources.put("/ccm/process/team-areas/_ta1/roles", "<jp:roles " + NS + ">"
+				+ "<jp:role><jp:url>" + ta + "/roles/Developer</jp:url><jp:id>Developer</jp:id></jp:role>"
+				+ "<jp:role><jp:url>" + ta + "/roles/Scrum%20Master</jp:url><jp:id>Scrum Master</jp:id></jp:role></jp:roles>");
+		resources.put("/ccm/process/team-areas/_ta1/admins", "<jp:admins " + NS + "><jp:admin><jp:user-url>" + jts + "ALICE</jp:user-url></jp:admin></jp:admins>");
+		resources.put("/ccm/process/team-areas/_ta1/members", "<jp:members " + NS + ">"
+				+ "<jp:member><jp:user-url>" + jts + "BOB</jp:user-url><jp:role-assignments><jp:role-assignment><jp:role-url>" + ta + "/roles/developer</jp:role-url></jp:role-assignment></jp:role-assignments></jp:member>"
+				+ "<jp:member><jp:user-url>" + jts + "DAVE</jp:user-url><jp:role-assignments-url>" + ta + "/members/DAVE/role-assignments</jp:role-assignments-url></jp:member>"
+				+ "</jp:members>");
+		resources.put("/ccm/process/team-areas/_ta1/members/DAVE/role-assignments", "<jp:role-assignments " + NS + "><jp:role-assignment><jp:role-url>" + ta + "/roles/Developer</jp:role-url></jp:role-assignment></jp:role-assignments>");
+		resources.put("/jts" + RTCRestGateway.USERS_SERVICE, "{\"soapenv:Body\":{\"response\":{\"returnValue\":{\"values\":["
+				+ "{\"userId\":\"ALICE\",\"name\":\"Alice Brown\",\"emailAddress\":\"alice@example.com\",\"archived\":false},"
+				+ "{\"userId\":\"BOB\",\"name\":\"Bob Green\",\"emailAddress\":\"bob@example.com\",\"archived\":false},"
+				+ "{\"userId\":\"CAROL\",\"name\":\"Carol White\",\"emailAddress\":\"carol@example.com\",\"archived\":true},"
+				+ "{\"userId\":\"DAVE\",\"name\":\"Dave Black\",\"emailAddress\":\"dave@example.com\",\"archived\":false}]}}}}");
+		resources.put("/jts" + RTCRestGateway.LICENSES_SERVICE, "[{\"id\":\"com.ibm.team.rtc.developer\",\"productName\":\"Rational Team Concert\",\"name\":\"Developer\"}]");
+		resources.put("/jts" + RTCRestGateway.LICENSES_SERVICE + "/com.ibm.team.rtc.developer/contributors", "[\"ALICE\",{\"userId\":\"BOB\"}]");
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testAreaSnapshot() throws Exception {
+		RTCRestGateway rtc = open();
+		AreaSnapshot snapshot = rtc.getAreaSnapshot("Sample/Team");
+		assertNotNull(snapshot);
+		assertEquals("Developer", snapshot.getRole("developer"));
+		assertEquals(Collections.singleton("ALICE"), snapshot.getMembers("Administrators").keySet());
+		assertEquals(2, snapshot.getMembers("Members").size());
+		assertEquals("Bob Green", snapshot.getMembers("Members").get("BOB").getName());
+		assertEquals(Collections.singletonList("Developer"), snapshot.getRoleAssignments("BOB"));
+		assertEquals(Collections.singletonList("Developer"), snapshot.getRoleAssignments("DAVE"));
+		assertNull(rtc.getAreaSnapshot("Sample/Missing"));
+		rtc.disconnect();
+
+		assertTrue("responses should be compressed", compressed);
+		assertEquals("requests should share one kept-alive connection", 1, clientPorts.size());
+	}
+
+	@Test
+	public void testSave() throws Exception {
+		RTCRestGateway rtc = open();
+		AreaSnapshot snapshot = rtc.getAreaSnapshot("Sample/Team");
+		RTCUser carol = rtc.getUser("CAROL");
+		RTCUser bob = snapshot.getMembers("Members").get("BOB");
+		RTCUser dave = snapshot.getMembers("Members").get("DAVE");
+		AreaChanges changes = new AreaChanges();
+		changes.addMember("Members", carol);
+		changes.addRole("Scrum Master", carol);
+		changes.removeMember("Members", bob);
+		changes.addRole("Scrum Master", dave);
+		changes.addMember("Administrators", carol);
+		changes.removeMember("Administrators", snapshot.getMembers("Administrators").get("ALICE"));
+		requests.clear();
+		assertTrue(rtc.save(snapshot, changes));
+		rtc.disconnect();
+
+		String ta = base + "/ccm/process/team-areas/_ta1";
+		assertEquals(5, requests.size());
+		assertEquals("POST /ccm/process/team-areas/_ta1/admins <jp:admins " + NS + "><jp:admin><jp:user-url>" + base + "/jts/users/CAROL</jp:user-url></jp:admin></jp:admins>", requests.get(0));
+		assertEquals("DELETE /ccm/process/team-areas/_ta1/admins/ALICE ", requests.get(1));
+		assertEquals("POST /ccm/process/team-areas/_ta1/members <jp:members " + NS + "><jp:member><jp:user-url>" + base + "/jts/users/CAROL</jp:user-url>"
+				+ "<jp:role-assignments><jp:role-assignment><jp:role-url>" + ta + "/roles/Scrum%20Master</jp:role-url></jp:role-assignment></jp:role-assignments>"
+				+ "</jp:member></jp:members>", requests.get(2));
+		assertEquals("DELETE /ccm/process/team-areas/_ta1/members/BOB ", requests.get(3));
+		assertEquals("PUT /ccm/process/team-areas/_ta1/members/DAVE/role-assignments <jp:role-assignments " + NS + ">"
+				+ "<jp:role-assignment><jp:role-url>" + ta + "/roles/Developer</jp:role-url></jp:role-assignment>"
+				+ "<jp:role-assignment><jp:role-url>" + ta + "/roles/Scrum%20Master</jp:role-url></jp:role-assignment></jp:role-assignments>", requests.get(4));
+	}
+
+	/**
+	 * A role change that conflicts with someone else's change to the member is sent again with only this save's change,
+	 * or not at all if someone else already made it
+	 */
+	@Test
+	public void testSaveConflict() throws Exception {
+		RTCRestGateway rtc = open();
+		String ta = base + "/ccm/process/team-areas/_ta1";
+		String daveRoles = "/ccm/process/team-areas/_ta1/members/DAVE/role-assignments";
+		AreaSnapshot snapshot = rtc.getAreaSnapshot("Sample/Team");
+		AreaChanges changes = new AreaChanges();
+		changes.addRole("Scrum Master", snapshot.getMembers("Members").get("DAVE"));
+		// meanwhile, someone removes Dave's Developer role
+		resources.put("conflict", daveRoles);
+		resources.put("concurrent", "<jp:role-assignments " + NS + "></jp:role-assignments>");
+		requests.clear();
+		assertTrue(rtc.save(snapshot, changes));
+		assertEquals(2, count("PUT "));
+		assertEquals("PUT " + daveRoles + " <jp:role-assignments " + NS + ">"
+				+ "<jp:role-assignment><jp:role-url>" + ta + "/roles/Developer</jp:role-url></jp:role-assignment>"
+				+ "<jp:role-assignment><jp:role-url>" + ta + "/roles/Scrum%20Master</jp:role-url></jp:role-assignment></jp:role-assignments>", requests.get(0));
+		assertEquals("PUT " + daveRoles + " <jp:role-assignments " + NS + ">"
+				+ "<jp:role-assignment><jp:role-url>" + ta + "/roles/Scrum%20Master</jp:role-url></jp:role-assignment></jp:role-assignments>",
+				requests.get(requests.size() - 1));
+
+		// meanwhile, someone else assigns the role
+		snapshot = rtc.getAreaSnapshot("Sample/Team");
+		changes = new AreaChanges();
+		changes.addRole("Developer", snapshot.getMembers("Members").get("DAVE"));
+		resources.put("conflict", daveRoles);
+		resources.put("concurrent", "<jp:role-assignments " + NS + "><jp:role-assignment><jp:role-url>" + ta + "/roles/Developer</jp:role-url></jp:role-assignment></jp:role-assignments>");
+		requests.clear();
+		assertTrue(rtc.save(snapshot, changes));
+		assertEquals(1, count("PUT "));
+		rtc.disconnect();
+	}
+
+	/**
+	 * Users and licenses added to the server are seen once the gateway is refreshed, as it is when a shared session is opened again
+	 */
+	@Test
+	public void testRefresh() throws Exception {
+		RTCRestGateway rtc = open();
+		assertNull(rtc.getUser("ERIN"));
+		assertEquals(1, rtc.getLicenseKeys().size());
+		resources.put("/jts" + RTCRestGateway.USERS_SERVICE, "[{\"userId\":\"ERIN\",\"name\":\"Erin Gray\",\"emailAddress\":\"erin@example.com\",\"archived\":false}]");
+		resources.put("/jts" + RTCRestGateway.LICENSES_SERVICE, "[{\"id\":\"com.ibm.team.rtc.developer\",\"productName\":\"Rational Team Concert\",\"name\":\"Developer\"},"
+				+ "{\"id\":\"com.ibm.team.rtc.stakeholder\",\"productName\":\"Rational Team Concert\",\"name\":\"Stakeholder\"}]");
+		assertNull(rtc.getUser("ERIN"));  // still the users as first read
+		rtc.refresh();
+		assertEquals("Erin Gray", rtc.getUser("ERIN").getName());
+		assertEquals(Arrays.asList("Rational Team Concert - Developer", "Rational Team Concert - Stakeholder"), rtc.getLicenseKeys());
+		rtc.disconnect();
+		Status.appStatus.setCode(0);
+	}
+
+	@Test
+	public void testUsersAndLicenses() throws Exception {
+		RTCRestGateway rtc = open();
+		List<RTCUser> users = rtc.getServerUsers();
+		assertEquals(4, users.size());
+		assertTrue(rtc.getUser("CAROL").isArchived());
+		assertNull(rtc.getUser("ERIN"));
+		assertEquals(Arrays.asList("ALICE", "BOB"), rtc.getLicensedUsers("Rational Team Concert - Developer"));
+		assertNull(rtc.getLicensedUsers("Rational Team Concert - Stakeholder"));
+		assertEquals(Arrays.asList("Rational Team Concert - Developer"), rtc.getLicenseKeys());
+		assertEquals(Arrays.asList("Developer", "Scrum Master"), rtc.getRoles("Sample/Team"));
+		assertNull(rtc.getRoles("Sample/Other"));
+
+		requests.clear();
+		assertNotNull(rtc.createUser("ERIN", "Erin Gray", "erin@example.com"));
+		assertEquals("Erin Gray", rtc.getUser("ERIN").getName());
+		assertTrue(rtc.setArchived(rtc.getUser("CAROL"), false));
+		assertFalse(rtc.getUser("CAROL").isArchived());
+		assertTrue(rtc.assignClientAccessLicense("Rational Team Concert - Developer", "DAVE"));
+		assertTrue(rtc.unassignClientAccessLicense("Rational Team Concert - Developer", "BOB"));
+		assertFalse(rtc.assignClientAccessLicense("Rational Team Concert - Stakeholder", "DAVE"));
+		rtc.disconnect();
+
+		assertEquals(4, requests.size());
+		assertTrue(requests.get(0).startsWith("POST /jts" + RTCRestGateway.USERS_SERVICE + " {"));
+		assertTrue(requests.get(0).contains("\"userId\":\"ERIN\""));
+		assertTrue(requests.get(1).startsWith("PUT /jts" + RTCRestGateway.USERS_SERVICE + "/CAROL {"));
+		assertTrue(requests.get(1).contains("\"archived\":false"));
+		assertEquals("POST /jts" + RTCRestGateway.LICENSES_SERVICE + "/com.ibm.team.rtc.developer/contributors {\"userId\":\"DAVE\"}", requests.get(2));
+		assertEquals("DELETE /jts" + RTCRestGateway.LICENSES_SERVICE + "/com.ibm.team.rtc.developer/contributors/BOB ", requests.get(3));
+	}
+
+	@Test
+	public void testSessionExpiry() throws Exception {
+		RTCRestGateway rtc = open();
+		int logins = count("POST /ccm/j_security_check");
+		resources.put("expire", "");  // the next request finds the session has expired
+		assertNotNull(rtc.getAreaSnapshot("Sample/Team"));
+		assertEquals(logins + 1, count("POST /ccm/j_security_check"));
+		rtc.disconnect();
+	}
+
+	private RTCRestGateway open() throws Exception {
+		RTCRestGateway rtc = new RTCRestGateway(base + "/ccm/", base + "/jts", "ADMIN", "secret", 4, log);
+		assertEquals(1, count("POST /ccm/j_security_check"));
+		assertEquals(1, count("POST /jts/j_security_check"));
+		return rtc;
+	}
+
+	private int count(String prefix) {
+		int count = 0;
+		synchronized (requests) {
+			for (int r = 0; r < requests.size(); r++) {
+				if (requests.get(r).startsWith(prefix)) count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Answer a request to the stub: form login, GETs from the resources, and any other request is recorded and accepted
+	 */
+	private void respond(HttpExchange exchange) throws IOException {
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getRawPath();
+		String body = read(exchange.getRequestBody());
+		String cookie = exchange.getRequestHeaders().getFirst("Cookie");
+		String application = path.substring(0, path.indexOf('/', 1));
+		requests.add(method + " " + path + " " + body);
+
+		byte[] response = new byte[0];
+		int status = 200;
+		if (path.endsWith("/j_security_check")) {
+			if (body.contains("j_username=ADMIN") && body.contains("j_password=secret")) {
+				exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=" + application.substring(1) + "; Path=" + application);
+			} else {
+				exchange.getResponseHeaders().add("X-com-ibm-team-repository-web-auth-msg", "authfailed");
+			}
+		} else if (cookie == null || !cookie.contains("JSESSIONID") || resources.remove("expire") != null) {
+			exchange.getResponseHeaders().add("X-com-ibm-team-repository-web-auth-msg", "authrequired");
+		} else if (!method.equals("GET") && path.equals(resources.get("conflict"))) {
+			// another client changed the resource first
+			resources.remove("conflict");
+			resources.put(path, resources.remove("concurrent"));
+			status = 412;
+		} else if (method.equals("GET")) {
+			String resource = resources.get(path);
+			if (resource == null) {
+				status = 404;
+			} else {
+				response = resource.getBytes("UTF-8");
+			}
+		}
+		String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (response.length > 0 && encoding != null && encoding.contains("gzip")) {
+			ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(zipped);
+			gzip.write(response);
+			gzip.close();
+			response = zipped.toByteArray();
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+			compressed = true;
+		}
+		exchange.sendResponseHeaders(status, response.length > 0 ? response.length : -1);
+		OutputStream out = exchange.getResponseBody();
+		if (response.length > 0) out.write(response);
+		out.close();
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+			bytes.write(buffer, 0, n);
+		}
+		return bytes.toString("UTF-8");
+	}
+}
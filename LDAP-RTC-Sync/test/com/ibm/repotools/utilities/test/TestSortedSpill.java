@@ -0,0 +1,83 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.ibm.repotools.utilities.SortedSpill;
+
+public class TestSortedSpill {
+
+	private static SortedSpill spill(String name, String... userIds) throws Exception {
+		SortedSpill spill = new SortedSpill(name, 3, null);
+		for (int u=0; u<userIds.length; u++) {
+			spill.add(userIds[u]);
+		}
+		return spill;
+	}
+
+	private static List<String> read(SortedSpill spill) throws Exception {
+		List<String> userIds = new ArrayList<String>();
+		SortedSpill.Cursor cursor = spill.open();
+		try {
+			for (String userId = cursor.next(); userId != null; userId = cursor.next()) {
+				userIds.add(userId);
+			}
+		} finally {
+			cursor.close();
+		}
+		return userIds;
+	}
+
+	/**
+	 * User IDs past the budget are written to sorted runs, and read back merged, in order and without duplicates
+	 */
+	@Test
+	public void testRuns() throws Exception {
+		SortedSpill spill = spill("Developer", "kim", "ann", "joe", "bob", "ann", "zed", "joe", "cat");
+		try {
+			assertEquals(2, spill.getRuns());
+			assertEquals(Arrays.asList("ann", "bob", "cat", "joe", "kim", "zed"), read(spill));
+			assertEquals(Arrays.asList("ann", "bob", "cat", "joe", "kim", "zed"), read(spill));  // read again
+		} finally {
+			spill.close();
+		}
+		assertEquals(0, spill.getRuns());
+		File[] left = new File(System.getProperty("java.io.tmpdir")).listFiles();
+		for (int f=0; left != null && f<left.length; f++) {
+			assertTrue(!left[f].getName().startsWith("spill-Developer-"));
+		}
+	}
+
+	/**
+	 * Joining the users who should hold a license with the users who do finds the users to assign and unassign
+	 */
+	@Test
+	public void testJoin() throws Exception {
+		SortedSpill desired = spill("desired", "dave", "ann", "marco", "bob", "ann", "eve", "zoe");
+		SortedSpill actual = spill("actual", "carl", "marco", "ann", "joe", "zoe");
+		final List<String> assign = new ArrayList<String>();
+		final List<String> unassign = new ArrayList<String>();
+		try {
+			SortedSpill.join(desired, actual, new SortedSpill.Join() {
+				public void leftOnly(String userId) {
+					assign.add(userId);
+				}
+				public void rightOnly(String userId) {
+					unassign.add(userId);
+				}
+			});
+		} finally {
+			desired.close();
+			actual.close();
+		}
+		assertEquals(Arrays.asList("bob", "dave", "eve"), assign);
+		assertEquals(Arrays.asList("carl", "joe"), unassign);
+	}
+}
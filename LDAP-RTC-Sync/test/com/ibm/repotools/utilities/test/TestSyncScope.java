@@ -0,0 +1,91 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.ibm.repotools.utilities.test.Fixtures.JKE;
+
+import java.util.List;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.AreaChanges;
+import com.ibm.repotools.utilities.AreaSnapshot;
+import com.ibm.repotools.utilities.IdentityDictionary;
+import com.ibm.repotools.utilities.LdifDirectory;
+import com.ibm.repotools.utilities.MemberSet;
+import com.ibm.repotools.utilities.ProjectArea;
+import com.ibm.repotools.utilities.RTCUser;
+import com.ibm.repotools.utilities.SyncScope;
+
+public class TestSyncScope {
+
+	private static Logger log = LoggerFactory.getLogger(TestSyncScope.class);
+
+	/** An RTC server where every user exists
+	 */
+	private static class Gateway extends Fixtures.Gateway {
+		Gateway() {
+			super("https://rtc1:9443/ccm");
+		}
+
+		public RTCUser getUser(String userId) {return Fixtures.user(userId);}
+	}
+
+	@After
+	public void tearDown() {
+		SyncScope.runScope = new SyncScope();
+	}
+
+	/**
+	 * Users are targeted by user ID or by DN, and everyone else is left out
+	 */
+	@Test
+	public void testTarget() throws Exception {
+		SyncScope scope = new SyncScope();
+		assertTrue(scope.isAll());
+		assertTrue(scope.includes("Marco"));
+		List<String> userIds = scope.target("Dave, uid=Ann,ou=users,ou=system", Fixtures.directory(log), log);
+		assertEquals(2, userIds.size());
+		assertEquals("Ann", userIds.get(1));
+		assertFalse(scope.isAll());
+		assertTrue(scope.includes("Dave"));
+		assertTrue(scope.includes("Ann"));
+		assertFalse(scope.includes("Marco"));
+
+		IdentityDictionary identities = IdentityDictionary.identities;
+		MemberSet set = new MemberSet();
+		set.add(identities.intern("Marco"));
+		set.add(identities.intern("Dave"));
+		MemberSet restricted = scope.restrict(set);
+		assertEquals(1, restricted.cardinality());
+		assertTrue(restricted.contains(identities.lookup("Dave")));
+	}
+
+	/**
+	 * Only the targeted users are added to and removed from an area
+	 */
+	@Test
+	public void testAreaChanges() throws Exception {
+		LdifDirectory directory = Fixtures.directory(log);
+		SyncScope.runScope.target("Dave,Ann", directory, log);
+		JSONObject area = (JSONObject)new JSONParser().parse("{\"name\": \"JKE Banking (Change Management)\", \"Members\": \"cn=Members,"+JKE+"\"}");
+		ProjectArea pa = new ProjectArea(area, directory, new Gateway(), log);
+		AreaSnapshot snapshot = new AreaSnapshot(pa.getName(), null);
+		snapshot.addMember("Members", Fixtures.user("Bob"));
+		snapshot.addMember("Members", Fixtures.user("Ann"));
+		snapshot.addMember("Members", Fixtures.user("Joe"));
+		AreaChanges changes = new AreaChanges();
+		pa.syncUsers("Members", snapshot, changes);
+		assertEquals(2, changes.size());
+		assertEquals("addMember", changes.getChanges().get(0).getOperation());
+		assertEquals("Dave", changes.getChanges().get(0).getUserId());
+		assertEquals("removeMember", changes.getChanges().get(1).getOperation());
+		assertEquals("Ann", changes.getChanges().get(1).getUserId());
+	}
+}
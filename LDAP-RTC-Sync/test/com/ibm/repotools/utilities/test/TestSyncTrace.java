@@ -0,0 +1,122 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.SyncTrace;
+
+public class TestSyncTrace {
+
+	private static Logger log = LoggerFactory.getLogger(TestSyncTrace.class);
+
+	/**
+	 * Spans are written as complete events nested by time, with their attributes, and tasks on other threads are nested in their caller's span
+	 */
+	@Test
+	public void testNestedSpans() throws Exception {
+		File file = File.createTempFile("sync", ".trace.json");
+		final SyncTrace trace = new SyncTrace();
+		trace.open(file.getPath(), 1.0, log);
+		SyncTrace.Span run = trace.start("run", "run");
+		SyncTrace.Span area = trace.start("Pet Store", "area").set("area", "Pet Store");
+		SyncTrace.Span stage = trace.start("Members", "stage").set("users", 3);
+		stage.end();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final boolean[] nested = new boolean[1];
+		executor.submit(trace.propagate(new Callable<Boolean>() {
+			public Boolean call() {
+				SyncTrace.Span read = trace.start("read", "ldap");
+				nested[0] = read.isRecorded();
+				read.end();
+				return true;
+			}
+		})).get();
+		executor.shutdown();
+		area.end();
+		run.end();
+		trace.close();
+
+		JSONArray events = read(file);
+		JSONObject members = find(events, "Members");
+		JSONObject petStore = find(events, "Pet Store");
+		JSONObject all = find(events, "run");
+		assertTrue(nested[0]);
+		assertEquals("X", members.get("ph"));
+		assertEquals(3L, ((JSONObject)members.get("args")).get("users"));
+		assertEquals("Pet Store", ((JSONObject)petStore.get("args")).get("area"));
+		assertTrue(start(petStore) <= start(members) && end(members) <= end(petStore));
+		assertTrue(start(all) <= start(petStore) && end(petStore) <= end(all));
+		assertTrue(find(events, "read") != null);
+		assertTrue(find(events, "thread_name") != null);
+		file.delete();
+	}
+
+	/**
+	 * Areas that are not sampled are skipped with everything inside them
+	 */
+	@Test
+	public void testSampling() throws Exception {
+		File file = File.createTempFile("sync", ".trace.json");
+		SyncTrace trace = new SyncTrace();
+		trace.open(file.getPath(), 0.0, log);
+		SyncTrace.Span run = trace.start("run", "run");
+		SyncTrace.Span area = trace.start("Pet Store", "area");
+		SyncTrace.Span stage = trace.start("Members", "stage");
+		assertFalse(area.isRecorded());
+		assertFalse(stage.isRecorded());
+		stage.end();
+		area.end();
+		SyncTrace.Span licenses = trace.start("licenses", "stage");
+		assertTrue(licenses.isRecorded());
+		licenses.end();
+		run.end();
+		trace.close();
+
+		JSONArray events = read(file);
+		assertTrue(find(events, "run") != null);
+		assertTrue(find(events, "licenses") != null);
+		assertTrue(find(events, "Pet Store") == null);
+		assertTrue(find(events, "Members") == null);
+		file.delete();
+	}
+
+	private static JSONArray read(File file) throws IOException, org.json.simple.parser.ParseException {
+		FileReader reader = new FileReader(file);
+		try {
+			return (JSONArray)new JSONParser().parse(reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static JSONObject find(JSONArray events, String name) {
+		for (int e = 0; e < events.size(); e++) {
+			JSONObject event = (JSONObject)events.get(e);
+			if (name.equals(event.get("name"))) return event;
+		}
+		return null;
+	}
+
+	private static long start(JSONObject event) {
+		return (Long)event.get("ts");
+	}
+
+	private static long end(JSONObject event) {
+		return (Long)event.get("ts") + (Long)event.get("dur");
+	}
+}
@@ -0,0 +1,230 @@
+package com.ibm.repotools.utilities.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibm.repotools.utilities.DistributedSync;
+import com.ibm.repotools.utilities.LDAP2RTCSync;
+import com.ibm.repotools.utilities.LdapRtcConfig;
+import com.ibm.repotools.utilities.SyncJournal;
+import com.ibm.repotools.utilities.WorkQueue;
+
+public class TestWorkQueue {
+
+	private static Logger log = LoggerFactory.getLogger(TestWorkQueue.class);
+	private File directory = null;
+
+	/** A worker process that claims units and completes them without synchronizing anything
+	 */
+	public static class Worker {
+		@SuppressWarnings("unchecked")
+		public static void main(String[] args) throws Exception {
+			WorkQueue queue = new WorkQueue(new File(args[0]), 1000, log);
+			while (!queue.isFinished()) {
+				WorkQueue.Lease lease = queue.claim();
+				if (lease == null) {
+					Thread.sleep(50);
+					continue;
+				}
+				Thread.sleep(200);
+				JSONObject result = new JSONObject();
+				result.put("status", 0);
+				lease.complete(result);
+			}
+			queue.close();
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		directory = File.createTempFile("sync", ".units");
+		directory.delete();
+	}
+
+	@After
+	public void tearDown() {
+		delete(directory);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (int c=0; c<children.length; c++) {
+				delete(children[c]);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * The area partition has a unit for each server's users and licenses, and one for each project area
+	 * that can be claimed once its server's unit is done
+	 */
+	@Test
+	public void testAreaPartition() throws Exception {
+		JSONObject config = (JSONObject)new JSONParser().parse("{\"LDAPConnection\": {\"URI\": \"ldap://ldap\"}, \"RTCServers\": ["
+				+ "{\"serverURI\": \"https://rtc1/ccm\", \"Licenses\": [], \"Users\": {}, \"Project Areas\": [{\"name\": \"A\"}, {\"name\": \"B\"}]},"
+				+ "{\"serverURI\": \"https://rtc2/ccm\", \"Licenses\": []}]}");
+		DistributedSync coordinator = new DistributedSync(directory, 60, log);
+		List<String> units = coordinator.partition(config, "area");
+		assertEquals(4, units.size());
+
+		WorkQueue queue = new WorkQueue(directory, 60000, log);
+		WorkQueue.Lease users = queue.claim();
+		assertEquals("0000", users.getUnit());
+		JSONObject server = (JSONObject)((JSONArray)users.getConfig().get("RTCServers")).get(0);
+		assertNull(server.get("Project Areas"));
+		assertNotNull(server.get("Users"));
+		assertNotNull(users.getConfig().get("LDAPConnection"));
+
+		WorkQueue.Lease rtc2 = queue.claim();  // the areas of rtc1 have to wait
+		assertEquals("0003", rtc2.getUnit());
+		assertNull(queue.claim());
+		users.complete(new JSONObject());
+		WorkQueue.Lease area = queue.claim();
+		assertEquals("0001", area.getUnit());
+		server = (JSONObject)((JSONArray)area.getConfig().get("RTCServers")).get(0);
+		assertNull(server.get("Users"));
+		assertEquals(1, ((JSONArray)server.get("Project Areas")).size());
+		queue.close();
+	}
+
+	/**
+	 * Several worker processes share the units, and a unit leased by a worker that died is reassigned
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testWorkerProcesses() throws Exception {
+		WorkQueue queue = new WorkQueue(directory, 1000, log);
+		List<String> units = new ArrayList<String>();
+		for (int u=0; u<6; u++) {
+			String unit = "unit"+u;
+			JSONObject config = new JSONObject();
+			config.put("RTCServers", new JSONArray());
+			queue.addUnit(unit, "Unit "+u, config, new ArrayList<String>());
+			units.add(unit);
+		}
+		// unit0 is held by a worker that stopped renewing its lease
+		File lease = new File(directory, "leases/unit0.lease");
+		FileWriter writer = new FileWriter(lease);
+		writer.write("1@deadhost");
+		writer.close();
+		lease.setLastModified(System.currentTimeMillis()-10000);
+		queue.publish(units);
+		assertFalse(queue.isFinished());
+
+		List<Process> workers = new ArrayList<Process>();
+		for (int w=0; w<3; w++) {
+			ProcessBuilder builder = new ProcessBuilder(System.getProperty("java.home")+File.separator+"bin"+File.separator+"java",
+					"-cp", System.getProperty("java.class.path"), Worker.class.getName(), directory.getPath());
+			workers.add(builder.redirectErrorStream(true).redirectOutput(new File(directory, "worker-"+w+".log")).start());
+		}
+		long deadline = System.currentTimeMillis()+TimeUnit.SECONDS.toMillis(60);
+		for (int w=0; w<workers.size(); w++) {
+			while (true) {
+				try {
+					assertEquals(0, workers.get(w).exitValue());
+					break;
+				} catch (IllegalThreadStateException e) {
+					assertTrue("the workers did not finish", System.currentTimeMillis() < deadline);
+					Thread.sleep(100);
+				}
+			}
+		}
+
+		assertTrue(queue.isFinished());
+		JSONObject report = queue.report();
+		assertEquals(6L, ((Number)report.get("done")).longValue());
+		assertEquals(0L, ((Number)report.get("failed")).longValue());
+		assertEquals(1L, ((Number)report.get("reclaimed")).longValue());
+		assertEquals(0L, ((Number)report.get("status")).longValue());
+		assertFalse(((JSONObject)report.get("workers")).containsKey("1@deadhost"));
+		assertTrue(new File(directory, "report.json").exists());
+		assertEquals(0, new File(directory, "leases").list().length);
+	}
+
+	/** Takes too long over its first unit, and finds another worker took the unit over
+	 */
+	private class SlowSynchronizer extends LDAP2RTCSync {
+		int syncs = 0;
+		boolean stopped = false;
+
+		public void sync(LdapRtcConfig config) {
+			if (++syncs > 1) return;
+			try {
+				FileWriter writer = new FileWriter(new File(directory, "leases/unit0.lease"));
+				writer.write("1@otherhost");
+				writer.close();
+				for (int wait=0; wait<50 && !SyncJournal.runJournal.isStopped(); wait++) {
+					Thread.sleep(100);
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+			stopped = SyncJournal.runJournal.isStopped();
+			SyncJournal.runJournal.changePending("https://rtc1/ccm", "A", "addMember", "Members", "Dave");
+		}
+	}
+
+	/**
+	 * A unit taken over since its lease was last renewed leaves the result and the new lease to the worker that took it over
+	 */
+	@Test
+	public void testTakenOverBeforeRenewal() throws Exception {
+		WorkQueue queue = new WorkQueue(directory, 60000, log);
+		queue.addUnit("unit0", "Unit 0", new JSONObject(), new ArrayList<String>());
+		queue.publish(Arrays.asList("unit0"));
+		WorkQueue.Lease lease = queue.claim();
+		File leaseFile = new File(new File(directory, "leases"), "unit0.lease");
+		FileWriter writer = new FileWriter(leaseFile);
+		writer.write("1234@other");  // the lease another worker created after taking the unit over
+		writer.close();
+		lease.complete(new JSONObject());
+		assertTrue(lease.isLost());
+		assertFalse(new File(new File(directory, "results"), "unit0.json").exists());
+		assertTrue(leaseFile.exists());
+		queue.close();
+	}
+
+	/**
+	 * A worker that loses its lease stops synchronizing the unit, and neither journals nor records it
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testLostLease() throws Exception {
+		DistributedSync worker = new DistributedSync(directory, 1, log);
+		JSONObject config = new JSONObject();
+		config.put("RTCServers", new JSONArray());
+		worker.getQueue().addUnit("unit0", "Unit 0", config, new ArrayList<String>());
+		worker.getQueue().publish(Arrays.asList("unit0"));
+		SlowSynchronizer synchronizer = new SlowSynchronizer();
+		assertEquals(0, worker.work(synchronizer));
+		assertTrue(synchronizer.stopped);
+		assertEquals(2, synchronizer.syncs);  // taken back once the other worker's lease expired
+		assertFalse(new String(Files.readAllBytes(worker.getQueue().journalFile("unit0").toPath()), "UTF-8").contains("Dave"));
+		JSONObject report = worker.getQueue().report();
+		assertEquals(1L, ((Number)report.get("done")).longValue());
+		assertEquals(1L, ((Number)report.get("reclaimed")).longValue());
+	}
+}